@@ -0,0 +1,68 @@
+package android.media;
+
+import android.net.Uri;
+
+/**
+ * Stand-in for the framework class so the benchmarks run on a plain JVM. Holds the same fields
+ * the real one does.
+ */
+public class MediaDescription {
+    private final String mMediaId;
+    private final CharSequence mTitle;
+    private final CharSequence mSubtitle;
+    private final Uri mIconUri;
+
+    private MediaDescription(String mediaId, CharSequence title, CharSequence subtitle, Uri iconUri) {
+        mMediaId = mediaId;
+        mTitle = title;
+        mSubtitle = subtitle;
+        mIconUri = iconUri;
+    }
+
+    public String getMediaId() {
+        return mMediaId;
+    }
+
+    public CharSequence getTitle() {
+        return mTitle;
+    }
+
+    public CharSequence getSubtitle() {
+        return mSubtitle;
+    }
+
+    public Uri getIconUri() {
+        return mIconUri;
+    }
+
+    public static class Builder {
+        private String mMediaId;
+        private CharSequence mTitle;
+        private CharSequence mSubtitle;
+        private Uri mIconUri;
+
+        public Builder setMediaId(String mediaId) {
+            mMediaId = mediaId;
+            return this;
+        }
+
+        public Builder setTitle(CharSequence title) {
+            mTitle = title;
+            return this;
+        }
+
+        public Builder setSubtitle(CharSequence subtitle) {
+            mSubtitle = subtitle;
+            return this;
+        }
+
+        public Builder setIconUri(Uri iconUri) {
+            mIconUri = iconUri;
+            return this;
+        }
+
+        public MediaDescription build() {
+            return new MediaDescription(mMediaId, mTitle, mSubtitle, mIconUri);
+        }
+    }
+}
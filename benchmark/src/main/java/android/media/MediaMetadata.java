@@ -0,0 +1,46 @@
+package android.media;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the framework class so the benchmarks run on a plain JVM. Like the real one it
+ * keeps its values in a map, standing in for the Bundle.
+ */
+public final class MediaMetadata {
+    public static final String METADATA_KEY_TITLE = "android.media.metadata.TITLE";
+    public static final String METADATA_KEY_ARTIST = "android.media.metadata.ARTIST";
+    public static final String METADATA_KEY_DURATION = "android.media.metadata.DURATION";
+    public static final String METADATA_KEY_ALBUM = "android.media.metadata.ALBUM";
+    public static final String METADATA_KEY_GENRE = "android.media.metadata.GENRE";
+    public static final String METADATA_KEY_TRACK_NUMBER = "android.media.metadata.TRACK_NUMBER";
+    public static final String METADATA_KEY_ALBUM_ART_URI = "android.media.metadata.ALBUM_ART_URI";
+
+    private final Map<String, Object> mValues;
+
+    private MediaMetadata(Map<String, Object> values) {
+        mValues = values;
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    public static final class Builder {
+        private final Map<String, Object> mValues = new HashMap<>();
+
+        public Builder putText(String key, CharSequence value) {
+            mValues.put(key, value);
+            return this;
+        }
+
+        public Builder putLong(String key, long value) {
+            mValues.put(key, value);
+            return this;
+        }
+
+        public MediaMetadata build() {
+            return new MediaMetadata(new HashMap<>(mValues));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package android.media.browse;
+
+import android.media.MediaDescription;
+
+/**
+ * Stand-in for the framework class so the benchmarks run on a plain JVM.
+ */
+public final class MediaBrowser {
+
+    private MediaBrowser() {
+    }
+
+    public static class MediaItem {
+        public static final int FLAG_BROWSABLE = 1;
+        public static final int FLAG_PLAYABLE = 2;
+
+        private final MediaDescription mDescription;
+        private final int mFlags;
+
+        public MediaItem(MediaDescription description, int flags) {
+            mDescription = description;
+            mFlags = flags;
+        }
+
+        public MediaDescription getDescription() {
+            return mDescription;
+        }
+
+        public int getFlags() {
+            return mFlags;
+        }
+    }
+}
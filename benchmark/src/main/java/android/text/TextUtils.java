@@ -0,0 +1,14 @@
+package android.text;
+
+/**
+ * Stand-in for the framework class so the benchmarks run on a plain JVM.
+ */
+public class TextUtils {
+
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.lgcns.gdrivemusic;
+
+import android.media.browse.MediaBrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeated browse calls on a 50k-song library, as a head unit makes them when the user goes
+ * back and forth between the album list and a few albums: built every time, as the service
+ * used to, and through the {@link BrowseCache} it keeps now.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BrowseBenchmark {
+    private static final int LIBRARY_SIZE = 50000;
+    private static final int PAGE_SIZE = 50;
+    /** Parents the user moves between: the first album pages and some albums. */
+    private static final int PAGES = 4;
+    private static final int ALBUMS = 12;
+
+    private SyntheticLibrary mLibrary;
+    private BrowseCache<MediaBrowser.MediaItem> mCache;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mLibrary = new SyntheticLibrary();
+        mLibrary.size = LIBRARY_SIZE;
+        mLibrary.setUp();
+        mCache = new BrowseCache<MediaBrowser.MediaItem>(4L * 1024 * 1024) {
+            @Override
+            protected List<MediaBrowser.MediaItem> build(BrowseTree tree, String parentId, int page, int pageSize) {
+                return MediaItems.getMediaItemsById(tree, parentId, page, pageSize);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mLibrary.tearDown();
+    }
+
+    @Benchmark
+    public List<MediaBrowser.MediaItem> browseUncached() {
+        int call = mNext++;
+        if (call % 2 == 0) {
+            return MediaItems.getMediaItemsById(mLibrary.browseTree, BrowseTree.ALBUMS, call / 2 % PAGES, PAGE_SIZE);
+        }
+        return MediaItems.getMediaItemsById(mLibrary.browseTree, mLibrary.albumIds[call / 2 % ALBUMS], -1, -1);
+    }
+
+    @Benchmark
+    public List<MediaBrowser.MediaItem> browseCached() {
+        int call = mNext++;
+        long version = mLibrary.catalog.getVersion();
+        if (call % 2 == 0) {
+            return mCache.get(mLibrary.browseTree, version, BrowseTree.ALBUMS, call / 2 % PAGES, PAGE_SIZE);
+        }
+        return mCache.get(mLibrary.browseTree, version, mLibrary.albumIds[call / 2 % ALBUMS], -1, -1);
+    }
+}
@@ -0,0 +1,48 @@
+package com.lgcns.gdrivemusic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the catalog after a Drive query, from metadata rows to the browse tree.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    /**
+     * The sync callback after a first full sync: every row becomes a tagged song, the sync
+     * state takes them all and the catalog and browse tree are built from scratch.
+     */
+    @Benchmark
+    public BrowseTree fullSync(SyntheticLibrary library) {
+        List<LibrarySync.Entry> entries = new ArrayList<>(library.rows.size());
+        for (SyntheticLibrary.Row row : library.rows) {
+            entries.add(new LibrarySync.Entry(library.toSong(row), false));
+        }
+        LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+        sync.applyFull(entries, System.currentTimeMillis());
+        return new BrowseTree(new Catalog(1, sync.getSongs()));
+    }
+
+    /**
+     * Publishing a new snapshot of an already synced library, as after every batch of tags.
+     */
+    @Benchmark
+    public Catalog publishSnapshot(SyntheticLibrary library) {
+        return new Catalog(2, library.songs);
+    }
+}
@@ -0,0 +1,82 @@
+package com.lgcns.gdrivemusic;
+
+import android.media.browse.MediaBrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to the first browse page after a cold start, with and without the {@link CatalogStore}:
+ * loading the saved snapshot, against building the catalog from the metadata rows of a full
+ * Drive sync. The sync side leaves out connecting and the query round trips, which come on top
+ * of it on a device.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+    private static final int PAGE_SIZE = 50;
+
+    private File mCatalogFile;
+    private CatalogStore mStore;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticLibrary library) throws IOException {
+        mCatalogFile = File.createTempFile("catalog", ".bin");
+        mStore = new CatalogStore(mCatalogFile);
+        mStore.save(new CatalogStore.Snapshot(library.songs, 1, 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mCatalogFile.delete();
+    }
+
+    /**
+     * What the service does on start with a saved catalog.
+     */
+    @Benchmark
+    public List<MediaBrowser.MediaItem> firstPageFromStore() {
+        CatalogStore.Snapshot snapshot = mStore.load();
+        LibrarySync sync = new LibrarySync(snapshot.songs, snapshot.syncedAt, snapshot.fullSyncedAt);
+        return firstPage(new Catalog(1, sync.getSongs()));
+    }
+
+    /**
+     * What it has to do without one, once the full sync has answered.
+     */
+    @Benchmark
+    public List<MediaBrowser.MediaItem> firstPageFromSync(SyntheticLibrary library) {
+        List<LibrarySync.Entry> entries = new ArrayList<>(library.rows.size());
+        for (SyntheticLibrary.Row row : library.rows) {
+            entries.add(new LibrarySync.Entry(library.toSong(row), false));
+        }
+        LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+        sync.applyFull(entries, System.currentTimeMillis());
+        return firstPage(new Catalog(1, sync.getSongs()));
+    }
+
+    private static List<MediaBrowser.MediaItem> firstPage(Catalog catalog) {
+        return MediaItems.getMediaItemsById(new BrowseTree(catalog), BrowseTree.ALBUMS, 0, PAGE_SIZE);
+    }
+}
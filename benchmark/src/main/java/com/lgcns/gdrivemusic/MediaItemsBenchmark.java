@@ -0,0 +1,71 @@
+package com.lgcns.gdrivemusic;
+
+import android.media.MediaMetadata;
+import android.media.browse.MediaBrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-request paths of the service: a track change and the browse calls.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MediaItemsBenchmark {
+    private static final int PAGE_SIZE = 50;
+
+    private int mNext;
+
+    /**
+     * initMediaMetaData without the album art: look the song up and build its metadata.
+     */
+    @Benchmark
+    public MediaMetadata initMediaMetaData(SyntheticLibrary library) {
+        String id = library.ids[mNext++ % library.ids.length];
+        return MediaItems.buildMetadata(library.catalog.getSong(id)).build();
+    }
+
+    @Benchmark
+    public MediaBrowser.MediaItem generatePlayableMediaItem(SyntheticLibrary library) {
+        return MediaItems.generatePlayableMediaItem(library.songs.get(mNext++ % library.songs.size()));
+    }
+
+    /**
+     * One page of the album list, the first call of a browsing client.
+     */
+    @Benchmark
+    public List<MediaBrowser.MediaItem> getMediaItemsByIdAlbumsPage(SyntheticLibrary library) {
+        int pages = Math.max(1, library.albumIds.length / PAGE_SIZE);
+        return MediaItems.getMediaItemsById(library.browseTree, BrowseTree.ALBUMS, mNext++ % pages, PAGE_SIZE);
+    }
+
+    /**
+     * The tracks of one album, unpaged.
+     */
+    @Benchmark
+    public List<MediaBrowser.MediaItem> getMediaItemsByIdAlbum(SyntheticLibrary library) {
+        return MediaItems.getMediaItemsById(library.browseTree, library.albumIds[mNext++ % library.albumIds.length], -1, -1);
+    }
+
+    /**
+     * Every album unpaged, what an old client that ignores paging receives.
+     */
+    @Benchmark
+    public List<MediaBrowser.MediaItem> getMediaItemsByIdAllAlbums(SyntheticLibrary library) {
+        return MediaItems.getMediaItemsById(library.browseTree, BrowseTree.ALBUMS, -1, -1);
+    }
+}
@@ -0,0 +1,72 @@
+package com.lgcns.gdrivemusic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * onSearch and onPlayFromSearch: one query against the index of the whole library, as typed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    private static final int LIMIT = 50;
+
+    private SearchIndex mIndex;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticLibrary library) {
+        mIndex = new SearchIndex();
+        mIndex.update(library.songs);
+    }
+
+    /**
+     * The first letter typed, a prefix of every song's title: the title matches fill the
+     * results at once.
+     */
+    @Benchmark
+    public List<Song> titlePrefix() {
+        return mIndex.search("s", LIMIT);
+    }
+
+    /**
+     * The worst case: a word in every song's album, which ranks below any title match, so every
+     * song is scored.
+     */
+    @Benchmark
+    public List<Song> albumWord() {
+        return mIndex.search("by", LIMIT);
+    }
+
+    /**
+     * A whole title, as a voice search would ask for it.
+     */
+    @Benchmark
+    public List<Song> title(SyntheticLibrary library) {
+        return mIndex.search(library.songs.get(mNext++ % library.songs.size()).getTitle(), LIMIT);
+    }
+
+    /**
+     * An artist as it is being typed, two tokens.
+     */
+    @Benchmark
+    public List<Song> twoTokens(SyntheticLibrary library) {
+        return mIndex.search("artist " + (mNext++ % (library.size / 50 + 1)), LIMIT);
+    }
+}
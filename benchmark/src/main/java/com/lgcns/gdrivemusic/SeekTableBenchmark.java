@@ -0,0 +1,197 @@
+package com.lgcns.gdrivemusic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the byte offset of a position in a five minute VBR file, as a resume or a scrub
+ * does: by walking the frames from the start, from the Xing header, and from the stored
+ * {@link SeekTable}. The file is local, so the scan's cost here is reading and parsing only;
+ * over Drive it would also have to download everything before the position.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SeekTableBenchmark {
+    private static final int FRAMES = 5 * 60 * 44100 / 1152;
+    // 64 to 320 kbps
+    private static final int[] BITRATE_INDEXES = {5, 9, 11, 14, 10, 13};
+    private static final int[] KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    private File mDir;
+    private File mAudio;
+    private File mTable;
+    private long mDurationMs;
+    private final Random mRandom = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("seek", "bench");
+        mDir.delete();
+        mDir.mkdirs();
+        mAudio = new File(mDir, "song.mp3");
+        writeVbrFile(mAudio);
+
+        SeekTable table = index(mAudio);
+        mDurationMs = table.getDurationMs();
+        mTable = new File(mDir, "song.seek");
+        OutputStream out = new FileOutputStream(mTable);
+        try {
+            table.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mAudio.delete();
+        mTable.delete();
+        mDir.delete();
+    }
+
+    private long nextPosition() {
+        return (long) (mRandom.nextDouble() * mDurationMs);
+    }
+
+    /**
+     * Without a table: parse every frame header up to the position.
+     */
+    @Benchmark
+    public long seekWithoutTable() throws IOException {
+        long position = nextPosition();
+        Id3Reader.FileSource source = new Id3Reader.FileSource(mAudio);
+        try {
+            long audioStart = new Id3Reader(source).getAudioStart();
+            return new SeekTableBuilder(source).scan(audioStart, position, SeekTable.DEFAULT_INTERVAL_MS)
+                    .offsetFor(position);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * With the Xing header only: interpolate its table of contents, then find the next frame.
+     */
+    @Benchmark
+    public long seekWithXingHeader() throws IOException {
+        long position = nextPosition();
+        Id3Reader.FileSource source = new Id3Reader.FileSource(mAudio);
+        try {
+            long audioStart = new Id3Reader(source).getAudioStart();
+            SeekTableBuilder builder = new SeekTableBuilder(source);
+            SeekTable table = builder.readHeader(audioStart, source.length(), SeekTable.DEFAULT_INTERVAL_MS);
+            return builder.align(table.offsetFor(position));
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * With the stored table: load it as the store does and look the position up.
+     */
+    @Benchmark
+    public long seekWithTable() throws IOException {
+        long position = nextPosition();
+        RandomAccessFile in = new RandomAccessFile(mTable, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return SeekTable.fromByteArray(data).offsetFor(position);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static SeekTable index(File file) throws IOException {
+        Id3Reader.FileSource source = new Id3Reader.FileSource(file);
+        try {
+            long audioStart = new Id3Reader(source).getAudioStart();
+            return new SeekTableBuilder(source).scan(audioStart, SeekTable.DEFAULT_INTERVAL_MS);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * MPEG-1 Layer III frames of silence at 44.1 kHz with a varying bitrate, behind a Xing
+     * header frame whose table of contents points at them.
+     */
+    private static void writeVbrFile(File file) throws IOException {
+        int[] lengths = new int[FRAMES];
+        long[] offsets = new long[FRAMES];
+        int xingLength = frameLength(9);
+        long position = xingLength;
+        for (int i = 0; i < FRAMES; i++) {
+            lengths[i] = frameLength(BITRATE_INDEXES[i % BITRATE_INDEXES.length]);
+            offsets[i] = position;
+            position += lengths[i];
+        }
+        long bytes = position;
+
+        byte[] xing = frame(9, xingLength);
+        int at = 36;
+        xing[at++] = 'X';
+        xing[at++] = 'i';
+        xing[at++] = 'n';
+        xing[at++] = 'g';
+        at = int32(xing, at, 0x7);
+        at = int32(xing, at, FRAMES);
+        at = int32(xing, at, (int) bytes);
+        for (int i = 0; i < 100; i++) {
+            xing[at++] = (byte) (offsets[FRAMES * i / 100] * 256 / bytes);
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(xing);
+            for (int i = 0; i < FRAMES; i++) {
+                out.write(frame(BITRATE_INDEXES[i % BITRATE_INDEXES.length], lengths[i]));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int frameLength(int bitrateIndex) {
+        return 144000 * KBPS[bitrateIndex] / 44100;
+    }
+
+    private static byte[] frame(int bitrateIndex, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xff;
+        frame[1] = (byte) 0xfb;
+        frame[2] = (byte) (bitrateIndex << 4);
+        return frame;
+    }
+
+    private static int int32(byte[] b, int at, int value) {
+        b[at] = (byte) (value >> 24);
+        b[at + 1] = (byte) (value >> 16);
+        b[at + 2] = (byte) (value >> 8);
+        b[at + 3] = (byte) value;
+        return at + 4;
+    }
+}
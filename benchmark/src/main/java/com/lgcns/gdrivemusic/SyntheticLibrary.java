@@ -0,0 +1,130 @@
+package com.lgcns.gdrivemusic;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A library shaped like a real one: ten-track albums, five albums per artist, twenty genres,
+ * every song tagged and pointing at its album art. Built once per library size.
+ */
+@State(Scope.Benchmark)
+public class SyntheticLibrary {
+    private static final int TRACKS_PER_ALBUM = 10;
+    private static final int ALBUMS_PER_ARTIST = 5;
+    private static final int GENRES = 20;
+
+    /**
+     * A row of a Drive query result: just what the sync callback reads from the metadata.
+     */
+    static class Row {
+        final String driveId;
+        final String fileName;
+        final long modified;
+        final long size;
+
+        Row(String driveId, String fileName, long modified, long size) {
+            this.driveId = driveId;
+            this.fileName = fileName;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    List<Row> rows;
+    TagCache tagCache;
+    List<Song> songs;
+    Catalog catalog;
+    BrowseTree browseTree;
+    /** Song ids in random order, so lookups do not walk memory in insertion order. */
+    String[] ids;
+    /** Browse ids of every album, in random order. */
+    String[] albumIds;
+
+    private File mTagFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(size);
+        mTagFile = File.createTempFile("tags", ".bin");
+        tagCache = new TagCache(mTagFile);
+        rows = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            int album = i / TRACKS_PER_ALBUM;
+            int artist = album / ALBUMS_PER_ARTIST;
+            // shaped like an encoded DriveId
+            String driveId = "DriveId:CAESABj" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            long modified = 1400000000000L + random.nextInt(1000000000);
+            rows.add(new Row(driveId, String.format("%02d - Track %d.mp3", i % TRACKS_PER_ALBUM + 1, i), modified,
+                    3000000 + random.nextInt(7000000)));
+
+            SongTags tags = new SongTags();
+            tags.title = "Song " + i + " " + Long.toString(random.nextLong() & 0xffffffL, 36);
+            tags.artist = "Artist " + artist;
+            tags.album = "Album " + album + " by " + artist;
+            tags.genre = "Genre " + (artist % GENRES);
+            tags.trackNumber = i % TRACKS_PER_ALBUM + 1;
+            tags.durationMs = 120000 + random.nextInt(300000);
+            tagCache.put(driveId, modified, tags);
+        }
+
+        songs = new ArrayList<>(size);
+        for (Row row : rows) {
+            songs.add(toSong(row));
+        }
+        catalog = new Catalog(1, songs);
+        browseTree = new BrowseTree(catalog);
+
+        List<String> shuffled = new ArrayList<>(size);
+        for (Song song : songs) {
+            shuffled.add(song.getuId());
+        }
+        Collections.shuffle(shuffled, random);
+        ids = shuffled.toArray(new String[size]);
+
+        List<String> albums = new ArrayList<>();
+        for (String album : catalog.getNames(Catalog.Index.ALBUM)) {
+            albums.add(BrowseTree.ALBUMS + "/" + album);
+        }
+        Collections.shuffle(albums, random);
+        albumIds = albums.toArray(new String[albums.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mTagFile.delete();
+    }
+
+    /**
+     * What the sync callback does for each metadata row: a bare song, overlaid with its cached
+     * tags and pointed at its album art.
+     */
+    Song toSong(Row row) {
+        Song song = new Song(row.driveId, row.fileName, null, null, null, null, null, row.modified);
+        song.setSize(row.size);
+        SongTags tags = tagCache.get(song.getuId(), song.getModified());
+        if (tags != null) {
+            song = tags.applyTo(song);
+        }
+        // ArtworkCache.uriFor, without the framework's Uri.Builder
+        String key = AudioCache.key(song.getAlbum().toLowerCase(Locale.ROOT), 0);
+        song.setAlbumUrl("content://com.lgcns.gdrivemusic.artwork/512/" + key);
+        song.setThumbnailUrl("content://com.lgcns.gdrivemusic.artwork/128/" + key);
+        return song;
+    }
+}
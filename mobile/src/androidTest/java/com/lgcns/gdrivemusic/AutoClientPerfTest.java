@@ -0,0 +1,462 @@
+package com.lgcns.gdrivemusic;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.media.browse.MediaBrowser;
+import android.media.session.MediaController;
+import android.media.session.PlaybackState;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives the service the way a car head unit does, against a {@link FakeDrive}: connect,
+ * browse the root, categories and albums, then play songs that are not cached yet. Each test is
+ * one network scenario and reports p50/p95/p99 of browse latency and time to first audio, as
+ * instrumentation status and in the log.
+ *
+ * <p>Each scenario first runs against a control: the same library on a Drive that answers at
+ * once, which measures what this device needs without a network. The scenario may then take what
+ * the control took plus the network's own share, worked out from its latency and bandwidth, and
+ * the tolerance and slack in {@code assets/perf-baseline.properties}. Browsing, served from the
+ * catalog, gets no share at all. So a regression fails {@code connectedCheck} on any device,
+ * without recorded numbers.</p>
+ *
+ * <p>The same file may also hold absolute baselines from a run on the reference device; a test
+ * fails when a value exceeds its baseline by more than the tolerance. Empty baselines are not
+ * checked. The log lists every measured value in the same format.</p>
+ */
+public class AutoClientPerfTest extends InstrumentationTestCase {
+    private static final String TAG = AutoClientPerfTest.class.getName();
+    private static final String BASELINE = "perf-baseline.properties";
+    private static final double[] PERCENTILES = {50, 95, 99};
+    /** Checked against the control run; the rest rest on too few samples to be stable. */
+    private static final String[] CONTROLLED = {"library.p50", "browse.p50", "browse.p95", "firstAudio.p50"};
+    private static final int BROWSE_ROUNDS = 60;
+    private static final int PLAYS = 8;
+    private static final int PAGE_SIZE = 50;
+    private static final long TIMEOUT_S = 60;
+    /** Lets the previous scenario's service save its state before the next one replaces it. */
+    private static final long SETTLE_MS = 2000;
+
+    private Context mContext;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Properties mBaseline;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mThread = new HandlerThread("auto-client");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mBaseline = new Properties();
+        InputStream in = getInstrumentation().getContext().getAssets().open(BASELINE);
+        try {
+            mBaseline.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        GDriveMusicService.setDriveAccess(null);
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testLan() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songs = 500;
+        config.latencyMs = 20;
+        config.jitterMs = 10;
+        config.bytesPerSecond = 8 * 1024 * 1024;
+        runScenario("lan", config);
+    }
+
+    public void testMobile() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songs = 2000;
+        config.latencyMs = 80;
+        config.jitterMs = 40;
+        config.bytesPerSecond = 1024 * 1024;
+        config.errorRate = 0.02;
+        runScenario("mobile", config);
+    }
+
+    public void testWeakSignal() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songs = 2000;
+        config.latencyMs = 300;
+        config.jitterMs = 200;
+        config.bytesPerSecond = 256 * 1024;
+        config.errorRate = 0.1;
+        runScenario("weak", config);
+    }
+
+    public void testLargeLibrary() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songs = 20000;
+        config.latencyMs = 50;
+        config.jitterMs = 20;
+        config.bytesPerSecond = 2 * 1024 * 1024;
+        runScenario("large", config);
+    }
+
+    private void runScenario(String name, FakeDrive.Config config) throws Exception {
+        Run control = measure(name + "-control", instant(config));
+        Run run = measure(name, config);
+        report(name, config, run, control);
+    }
+
+    /**
+     * The same library as {@code config} on a Drive without latency, bandwidth limit or errors.
+     */
+    private static FakeDrive.Config instant(FakeDrive.Config config) {
+        FakeDrive.Config instant = new FakeDrive.Config();
+        instant.songs = config.songs;
+        instant.songsPerAlbum = config.songsPerAlbum;
+        instant.albumsPerArtist = config.albumsPerArtist;
+        instant.durationMs = config.durationMs;
+        instant.requestsPerSecond = config.requestsPerSecond;
+        instant.seed = config.seed;
+        instant.latencyMs = 0;
+        instant.jitterMs = 0;
+        instant.bytesPerSecond = 0;
+        return instant;
+    }
+
+    /**
+     * One scenario's measurements, and the fake Drive they were taken against.
+     */
+    private static class Run {
+        final Map<String, LatencyHistogram> results = new LinkedHashMap<>();
+        FakeDrive drive;
+        /** Calls that failed before the library appeared, each costing a retry. */
+        int libraryFailures;
+
+        long get(String key) {
+            int dot = key.lastIndexOf(".p");
+            return results.get(key.substring(0, dot)).getPercentile(Double.parseDouble(key.substring(dot + 2)));
+        }
+    }
+
+    private Run measure(String name, FakeDrive.Config config) throws Exception {
+        // a fresh prefix per run, so nothing is in the audio cache yet
+        config.idPrefix = "fake-" + name + "-" + System.currentTimeMillis() + ":";
+        final Handler main = new Handler(Looper.getMainLooper());
+        FakeDrive drive = new FakeDrive(config, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                main.post(command);
+            }
+        });
+        resetService(drive);
+        GDriveMusicService.setDriveAccess(drive);
+
+        Run run = new Run();
+        run.drive = drive;
+        LatencyHistogram browse = new LatencyHistogram();
+        LatencyHistogram firstAudio = new LatencyHistogram();
+        LatencyHistogram connect = new LatencyHistogram();
+        LatencyHistogram library = new LatencyHistogram();
+        run.results.put("connect", connect);
+        run.results.put("library", library);
+        run.results.put("browse", browse);
+        run.results.put("firstAudio", firstAudio);
+
+        Client client = new Client();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            client.connect();
+            connect.record(SystemClock.elapsedRealtime() - start);
+            client.awaitLibrary();
+            library.record(SystemClock.elapsedRealtime() - start);
+            run.libraryFailures = drive.getFailureCount();
+
+            int albums = (config.songs + config.songsPerAlbum - 1) / config.songsPerAlbum;
+            int artists = (albums + config.albumsPerArtist - 1) / config.albumsPerArtist;
+            Random random = new Random(config.seed);
+            for (int i = 0; i < BROWSE_ROUNDS; i++) {
+                String parentId;
+                int page = -1;
+                switch (i % 5) {
+                    case 0:
+                        parentId = BrowseTree.ROOT;
+                        break;
+                    case 1:
+                        parentId = BrowseTree.ALBUMS;
+                        page = random.nextInt((albums + PAGE_SIZE - 1) / PAGE_SIZE);
+                        break;
+                    case 2:
+                        parentId = BrowseTree.ARTISTS;
+                        page = random.nextInt((artists + PAGE_SIZE - 1) / PAGE_SIZE);
+                        break;
+                    case 3:
+                        parentId = BrowseTree.ALBUMS + "/Album " + random.nextInt(albums);
+                        break;
+                    default:
+                        parentId = BrowseTree.ARTISTS + "/Artist " + random.nextInt(artists);
+                        break;
+                }
+                long loadStart = SystemClock.elapsedRealtime();
+                List<MediaBrowser.MediaItem> children = client.load(parentId, page);
+                browse.record(SystemClock.elapsedRealtime() - loadStart);
+                assertNotNull("no children for " + parentId, children);
+            }
+
+            for (int i = 0; i < PLAYS; i++) {
+                String mediaId = config.idPrefix + random.nextInt(config.songs);
+                firstAudio.record(client.play(mediaId));
+            }
+            client.stop();
+        } finally {
+            client.disconnect();
+            drive.shutdown();
+            SystemClock.sleep(SETTLE_MS);
+        }
+        return run;
+    }
+
+    /**
+     * Removes the catalog of an earlier run and seeds the tag cache with the fake library's
+     * tags, so the catalog is complete from the first listing, as for a returning user.
+     */
+    private void resetService(FakeDrive drive) throws Exception {
+        new File(mContext.getFilesDir(), GDriveMusicService.CATALOG_FILE).delete();
+        TagCache tags = new TagCache(new File(mContext.getFilesDir(), GDriveMusicService.TAGS_FILE));
+        List<DriveLibrary.Item> items = drive.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            tags.put(items.get(i).id, items.get(i).modified, drive.getTags(i));
+        }
+        tags.save();
+    }
+
+    /**
+     * Reports the percentiles and fails if one took longer than the control run allows, or
+     * regressed past its baseline.
+     */
+    private void report(String scenario, FakeDrive.Config config, Run run, Run control) {
+        double tolerance = Double.parseDouble(mBaseline.getProperty("tolerance", "0.25"));
+        long slack = Long.parseLong(mBaseline.getProperty("slack", "50"));
+        Bundle status = new Bundle();
+        List<String> regressions = new ArrayList<>();
+        Log.i(TAG, scenario + ": " + config + ", " + run.drive + ", control " + control.drive);
+        for (Map.Entry<String, LatencyHistogram> result : run.results.entrySet()) {
+            for (double percentile : PERCENTILES) {
+                String key = scenario + "." + result.getKey() + ".p" + (int) percentile;
+                long measured = result.getValue().getPercentile(percentile);
+                status.putLong(key, measured);
+                Log.i(TAG, key + "=" + measured);
+
+                // an empty baseline is not measured yet
+                String baseline = mBaseline.getProperty(key, "").trim();
+                if (!baseline.isEmpty() && measured > Long.parseLong(baseline) * (1 + tolerance)) {
+                    regressions.add(String.format(Locale.US, "%s: %d ms, baseline %s ms", key, measured, baseline));
+                }
+            }
+        }
+
+        for (String measure : CONTROLLED) {
+            String key = scenario + "." + measure;
+            long measured = run.get(measure);
+            long device = control.get(measure);
+            long network = networkMs(measure, config, run);
+            Log.i(TAG, key + " control=" + device + " network=" + network);
+            if (measured > (device + network) * (1 + tolerance) + slack) {
+                regressions.add(String.format(Locale.US, "%s: %d ms, control %d ms + network %d ms",
+                        key, measured, device, network));
+            }
+        }
+        getInstrumentation().sendStatus(0, status);
+        assertTrue("regressed: " + regressions, regressions.isEmpty());
+    }
+
+    /**
+     * The time {@code measure} spends waiting on the scenario's network, at most: round trips at
+     * the worst jitter and transfers at its bandwidth. Browsing must not wait on it at all.
+     */
+    private static long networkMs(String measure, FakeDrive.Config config, Run run) {
+        long roundTrip = config.latencyMs + config.jitterMs;
+        if (measure.startsWith("library.")) {
+            // connecting, then a round trip per page of the listing
+            int pages = (config.songs + FakeDrive.LISTING_PAGE - 1) / FakeDrive.LISTING_PAGE;
+            return roundTrip * (1 + pages) + run.libraryFailures * (roundTrip + FakeDrive.MAX_RETRY_BACKOFF_MS);
+        }
+        if (measure.startsWith("firstAudio.")) {
+            // the fake delivers a file once all of it is transferred
+            long size = 0;
+            for (DriveLibrary.Item item : run.drive.getItems()) {
+                size = Math.max(size, item.size);
+            }
+            return roundTrip + (config.bytesPerSecond > 0 ? size * 1000 / config.bytesPerSecond : 0);
+        }
+        return 0;
+    }
+
+    /**
+     * A {@link MediaBrowser} and {@link MediaController} living on the client thread, with
+     * blocking calls for the test thread.
+     */
+    private class Client {
+        private final BlockingQueue<Integer> mStates = new LinkedBlockingQueue<>();
+        private MediaBrowser mBrowser;
+        private MediaController mController;
+
+        private final MediaController.Callback mControllerCallback = new MediaController.Callback() {
+            @Override
+            public void onPlaybackStateChanged(PlaybackState state) {
+                mStates.add(state.getState());
+            }
+        };
+
+        void connect() throws Exception {
+            final CountDownLatch connected = new CountDownLatch(1);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mBrowser = new MediaBrowser(mContext, new ComponentName(mContext, GDriveMusicService.class),
+                            new MediaBrowser.ConnectionCallback() {
+                                @Override
+                                public void onConnected() {
+                                    mController = new MediaController(mContext, mBrowser.getSessionToken());
+                                    mController.registerCallback(mControllerCallback, mHandler);
+                                    connected.countDown();
+                                }
+                            }, null);
+                    mBrowser.connect();
+                }
+            });
+            assertTrue("service did not connect", connected.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+
+        /**
+         * Waits until the first listing is in the catalog and albums can be browsed.
+         */
+        void awaitLibrary() throws Exception {
+            long deadline = SystemClock.elapsedRealtime() + TimeUnit.SECONDS.toMillis(TIMEOUT_S);
+            while (SystemClock.elapsedRealtime() < deadline) {
+                List<MediaBrowser.MediaItem> albums = load(BrowseTree.ALBUMS, 0);
+                if (albums != null && !albums.isEmpty()) {
+                    return;
+                }
+                SystemClock.sleep(100);
+            }
+            fail("library never appeared");
+        }
+
+        /**
+         * Subscribes to one page of {@code parentId}, or all of it for a negative page, and
+         * returns the children as soon as they arrive.
+         */
+        List<MediaBrowser.MediaItem> load(final String parentId, int page) throws Exception {
+            final Bundle options = new Bundle();
+            if (page >= 0) {
+                options.putInt(MediaBrowser.EXTRA_PAGE, page);
+                options.putInt(MediaBrowser.EXTRA_PAGE_SIZE, PAGE_SIZE);
+            }
+            final CountDownLatch loaded = new CountDownLatch(1);
+            final AtomicReference<List<MediaBrowser.MediaItem>> result = new AtomicReference<>();
+            final MediaBrowser.SubscriptionCallback callback = new MediaBrowser.SubscriptionCallback() {
+                @Override
+                public void onChildrenLoaded(String parentId, List<MediaBrowser.MediaItem> children, Bundle options) {
+                    result.set(children);
+                    loaded.countDown();
+                }
+
+                @Override
+                public void onError(String parentId, Bundle options) {
+                    loaded.countDown();
+                }
+            };
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mBrowser.subscribe(parentId, options, callback);
+                }
+            });
+            try {
+                assertTrue("no answer for " + parentId, loaded.await(TIMEOUT_S, TimeUnit.SECONDS));
+            } finally {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBrowser.unsubscribe(parentId, callback);
+                    }
+                });
+            }
+            return result.get();
+        }
+
+        /**
+         * Plays {@code mediaId} and returns the milliseconds until the session reports playing.
+         */
+        long play(String mediaId) throws Exception {
+            stop();
+            mStates.clear();
+            long start = SystemClock.elapsedRealtime();
+            mController.getTransportControls().playFromMediaId(mediaId, null);
+            awaitState(PlaybackState.STATE_PLAYING);
+            return SystemClock.elapsedRealtime() - start;
+        }
+
+        void stop() throws Exception {
+            PlaybackState state = mController.getPlaybackState();
+            if (state == null || state.getState() != PlaybackState.STATE_PLAYING) {
+                return;
+            }
+            mStates.clear();
+            mController.getTransportControls().stop();
+            awaitState(PlaybackState.STATE_STOPPED);
+        }
+
+        private void awaitState(int wanted) throws Exception {
+            long deadline = SystemClock.elapsedRealtime() + TimeUnit.SECONDS.toMillis(TIMEOUT_S);
+            while (true) {
+                Integer state = mStates.poll(deadline - SystemClock.elapsedRealtime(), TimeUnit.MILLISECONDS);
+                assertNotNull("timed out waiting for state " + wanted, state);
+                assertTrue("playback failed", state != PlaybackState.STATE_ERROR);
+                if (state == wanted) {
+                    return;
+                }
+            }
+        }
+
+        void disconnect() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mController != null) {
+                        mController.unregisterCallback(mControllerCallback);
+                    }
+                    if (mBrowser != null) {
+                        mBrowser.disconnect();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lgcns.gdrivemusic;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the gap between two tracks chained with setNextMediaPlayer, the way the service
+ * hands over from the current song to the prefetched one.
+ */
+public class GaplessTransitionTest extends AndroidTestCase {
+    private static final String TAG = GaplessTransitionTest.class.getName();
+    private static final int SAMPLE_RATE = 44100;
+    private static final long MAX_GAP_MS = 100;
+
+    private volatile long mCompletedAt;
+    private volatile long mStartedAsNextAt;
+
+    public void testChainedTransitionGap() throws Exception {
+        File first = writeTone("first.wav", 440, 1000);
+        File second = writeTone("second.wav", 660, 1000);
+
+        HandlerThread thread = new HandlerThread("gapless-test");
+        thread.start();
+        final CountDownLatch transitioned = new CountDownLatch(2);
+        final MediaPlayer[] players = new MediaPlayer[2];
+        final File[] files = {first, second};
+
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < players.length; i++) {
+                        players[i] = new MediaPlayer();
+                        players[i].setDataSource(files[i].getPath());
+                        players[i].prepare();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                players[0].setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+                    @Override
+                    public void onCompletion(MediaPlayer mp) {
+                        mCompletedAt = SystemClock.elapsedRealtime();
+                        transitioned.countDown();
+                    }
+                });
+                players[1].setOnInfoListener(new MediaPlayer.OnInfoListener() {
+                    @Override
+                    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                        if (what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+                            mStartedAsNextAt = SystemClock.elapsedRealtime();
+                            transitioned.countDown();
+                        }
+                        return true;
+                    }
+                });
+                players[0].setNextMediaPlayer(players[1]);
+                players[0].start();
+            }
+        });
+
+        try {
+            assertTrue("transition never happened", transitioned.await(10, TimeUnit.SECONDS));
+            long gap = Math.abs(mStartedAsNextAt - mCompletedAt);
+            Log.i(TAG, "track transition gap: " + gap + " ms");
+            assertTrue("gap was " + gap + " ms", gap < MAX_GAP_MS);
+        } finally {
+            for (MediaPlayer player : players) {
+                if (player != null) {
+                    player.release();
+                }
+            }
+            thread.quit();
+        }
+    }
+
+    private File writeTone(String name, int frequency, int durationMs) throws IOException {
+        int samples = SAMPLE_RATE * durationMs / 1000;
+        File file = new File(getContext().getCacheDir(), name);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + samples * 2));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(samples * 2));
+            for (int i = 0; i < samples; i++) {
+                short sample = (short) (Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * 8000);
+                out.writeShort(Short.reverseBytes(sample));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,115 @@
+package com.lgcns.gdrivemusic;
+
+import android.os.SystemClock;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures frame times while scrolling a 10k row results list, and what a background diff of
+ * a refreshed list costs.
+ */
+public class ResultsListFrameTest extends InstrumentationTestCase {
+    private static final String TAG = ResultsListFrameTest.class.getName();
+    private static final int ROWS = 10000;
+    private static final int FRAMES = 600;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    /** One frame at 60 fps, in microseconds. */
+    private static final long FRAME_BUDGET_US = 16667;
+
+    private static List<Song> rows(int count, int modifiedEvery) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long modified = modifiedEvery > 0 && i % modifiedEvery == 0 ? 2 : 1;
+            songs.add(new Song("id" + i, "Song " + i, null, null, null, null, null, modified));
+        }
+        return songs;
+    }
+
+    public void testScrollFrameTimes() throws Throwable {
+        final LatencyHistogram frames = new LatencyHistogram();
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView view = new RecyclerView(getInstrumentation().getTargetContext());
+                view.setLayoutManager(new LinearLayoutManager(view.getContext()));
+                view.setHasFixedSize(true);
+                ResultsAdapter adapter = new ResultsAdapter();
+                adapter.update(rows(ROWS, 0), null, false);
+                view.setAdapter(adapter);
+                layout(view);
+
+                for (int i = 0; i < FRAMES; i++) {
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    // a fling-like step: scrolling binds new rows, layout places them
+                    view.scrollBy(0, 120);
+                    layout(view);
+                    frames.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
+                }
+            }
+        });
+
+        Log.i(TAG, "scroll frame times (us): " + frames);
+        assertEquals(FRAMES, frames.getCount());
+        assertTrue("p90 frame " + frames.getPercentile(90) + "us", frames.getPercentile(90) < FRAME_BUDGET_US);
+    }
+
+    /**
+     * A fixed-size list does not lay itself out again when rows arrive, so the activity's layout
+     * must bound its height: a wrap_content list would stay as high as the empty list it began as.
+     */
+    public void testRowsArrivingResizeNothingInTheActivityLayout() throws Throwable {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                View root = LayoutInflater.from(getInstrumentation().getTargetContext())
+                        .inflate(R.layout.activity_main, null);
+                RecyclerView view = (RecyclerView) root.findViewById(R.id.recyclerViewResults);
+                view.setLayoutManager(new LinearLayoutManager(view.getContext()));
+                view.setHasFixedSize(true);
+                ResultsAdapter adapter = new ResultsAdapter();
+                view.setAdapter(adapter);
+                layout(root);
+                assertTrue("list height " + view.getHeight(), view.getHeight() > HEIGHT / 2);
+
+                // the first page is diffed against the empty list, the next one appended
+                List<Song> first = rows(50, 0);
+                adapter.update(first, DiffUtil.calculateDiff(
+                        new ResultsAdapter.DiffCallback(new ArrayList<Song>(), first)), true);
+                layout(root);
+                assertTrue("no rows shown", view.getChildCount() > 0);
+                adapter.append(rows(100, 0), false);
+                view.scrollToPosition(99);
+                layout(root);
+                assertTrue("appended rows not shown", view.getChildCount() > 0);
+                assertNotNull(view.findViewHolderForAdapterPosition(99));
+            }
+        });
+    }
+
+    public void testDiffTime() {
+        List<Song> before = rows(ROWS, 0);
+        List<Song> after = rows(ROWS, 100);
+
+        long start = SystemClock.elapsedRealtime();
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new ResultsAdapter.DiffCallback(before, after));
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "diff of " + ROWS + " rows: " + elapsed + "ms");
+        assertNotNull(diff);
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,77 @@
+package com.lgcns.gdrivemusic;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Measures what a thumbnail costs to decode from full-size embedded artwork, against decoding
+ * the full image and scaling it down.
+ */
+public class ThumbnailDecoderTest extends AndroidTestCase {
+    private static final String TAG = ThumbnailDecoderTest.class.getName();
+    private static final int RUNS = 10;
+
+    public void testSampleSize() {
+        assertEquals(1, ThumbnailDecoder.sampleSizeFor(100, 100, 128));
+        assertEquals(4, ThumbnailDecoder.sampleSizeFor(600, 600, 128));
+        assertEquals(8, ThumbnailDecoder.sampleSizeFor(1500, 1500, 128));
+        assertEquals(2, ThumbnailDecoder.sampleSizeFor(1500, 300, 128));
+    }
+
+    public void testDecodeCostPerThumbnail() {
+        byte[] jpeg = artwork(1500);
+
+        long sampledNanos = 0;
+        Bitmap thumbnail = null;
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            thumbnail = ThumbnailDecoder.decode(jpeg, ArtworkCache.SIZE_SMALL);
+            sampledNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long fullNanos = 0;
+        int fullBytes = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Bitmap full = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+            fullBytes = full.getByteCount();
+            Bitmap.createScaledBitmap(full, ArtworkCache.SIZE_SMALL, ArtworkCache.SIZE_SMALL, true).recycle();
+            full.recycle();
+            fullNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        Log.i(TAG, "thumbnail decode: " + sampledNanos / RUNS / 1000 + " us, " + thumbnail.getByteCount()
+                + " bytes; full decode and scale: " + fullNanos / RUNS / 1000 + " us, " + fullBytes + " bytes");
+        assertEquals(ArtworkCache.SIZE_SMALL, Math.max(thumbnail.getWidth(), thumbnail.getHeight()));
+        assertTrue(sampledNanos < fullNanos);
+    }
+
+    public void testLargeThumbnailFitsMemoryBudget() {
+        Bitmap large = ThumbnailDecoder.decode(artwork(1500), ArtworkCache.SIZE_LARGE);
+
+        assertEquals(ArtworkCache.SIZE_LARGE, large.getWidth());
+        assertEquals(ArtworkCache.SIZE_LARGE * ArtworkCache.SIZE_LARGE * 4, large.getByteCount());
+    }
+
+    private static byte[] artwork(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < 16; i++) {
+            paint.setColor(Color.HSVToColor(new float[]{i * 22.5f, 0.8f, 0.9f}));
+            canvas.drawCircle(size / 2f, size / 2f, size / 2f - i * size / 32f, paint);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,419 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Drive held in memory, for measuring the service without a network or an account.
+ *
+ * <p>The library is generated: numbered songs with ID3 tags, grouped into albums and artists,
+ * followed by silent MPEG audio. Every call takes the configured latency plus jitter; opening a
+ * file also takes as long as its bytes need at the configured bandwidth, as Drive hands over
+ * contents only once they are downloaded. Calls fail at the configured rate with a retryable
+ * error, so the {@link DriveScheduler}'s backoff is part of what is measured.</p>
+ */
+public class FakeDrive implements DriveAccess, DriveLibrary.Backend {
+    public static final String ID_PREFIX = "fake:";
+    /** MPEG-1 Layer III, 128 kbit/s, 44.1 kHz, mono: 417 byte frames of 1152 samples. */
+    private static final byte[] FRAME_HEADER = {(byte) 0xff, (byte) 0xfb, (byte) 0x90, (byte) 0xc0};
+    private static final int FRAME_BYTES = 417;
+    private static final double FRAME_MS = 1152 * 1000.0 / 44100;
+    /** Items per round trip of a listing. */
+    public static final int LISTING_PAGE = 1000;
+    /** The longest a failed call waits before it is retried. */
+    public static final long MAX_RETRY_BACKOFF_MS = 5000;
+    private static final int GENRES = 10;
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final long MODIFIED_BASE = 1451606400000L;
+
+    /**
+     * How the fake Drive behaves. Change the fields before creating it.
+     */
+    public static class Config {
+        /** Ids are this followed by the song's number; a fresh prefix keeps caches cold. */
+        public String idPrefix = ID_PREFIX;
+        public int songs = 1000;
+        public int songsPerAlbum = 12;
+        public int albumsPerArtist = 4;
+        public long durationMs = 30000;
+        public long latencyMs = 50;
+        /** Up to this much is added to each call's latency at random. */
+        public long jitterMs = 20;
+        /** 0 for no limit. */
+        public long bytesPerSecond = 2 * 1024 * 1024;
+        /** The share of calls that fail, from 0 to 1. */
+        public double errorRate;
+        public double requestsPerSecond = 50;
+        public long seed = 1;
+
+        @Override
+        public String toString() {
+            return songs + " songs, " + latencyMs + "+" + jitterMs + " ms, " + bytesPerSecond / 1024
+                    + " KiB/s, " + (int) (errorRate * 100) + "% errors";
+        }
+    }
+
+    private final Config mConfig;
+    private final Executor mCallbacks;
+    private final ScheduledExecutorService mTimer;
+    private final ScheduledExecutorService mSchedulerThread;
+    private final DriveScheduler mScheduler;
+    private final DriveLibrary mLibrary;
+    private final List<DriveLibrary.Item> mItems;
+    private final byte[] mAudio;
+    private final Random mRandom;
+
+    private final AtomicInteger mOpens = new AtomicInteger();
+    private final AtomicInteger mListings = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    /**
+     * @param callbacks where connection and listing callbacks are made, the main thread for
+     *                  the service
+     */
+    public FakeDrive(Config config, Executor callbacks) {
+        mConfig = config;
+        mCallbacks = callbacks;
+        mRandom = new Random(config.seed);
+        mTimer = Executors.newSingleThreadScheduledExecutor(named("FakeDrive"));
+        mSchedulerThread = Executors.newSingleThreadScheduledExecutor(named("FakeDriveScheduler"));
+        mScheduler = new DriveScheduler(mSchedulerThread, new PrefetchPolicy.Clock() {
+            @Override
+            public long now() {
+                return System.nanoTime() / 1000000;
+            }
+        }, new Random(config.seed), config.requestsPerSecond, 4, 100, MAX_RETRY_BACKOFF_MS);
+        mLibrary = new DriveLibrary(this);
+
+        int frames = (int) Math.max(1, config.durationMs / FRAME_MS);
+        mAudio = new byte[frames * FRAME_BYTES];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(FRAME_HEADER, 0, mAudio, i * FRAME_BYTES, FRAME_HEADER.length);
+        }
+
+        List<DriveLibrary.Item> items = new ArrayList<>(config.songs);
+        for (int i = 0; i < config.songs; i++) {
+            items.add(new DriveLibrary.Item(config.idPrefix + i, "Song " + i + ".mp3", MODIFIED_BASE + i,
+                    tag(i).length + mAudio.length, false));
+        }
+        mItems = Collections.unmodifiableList(items);
+    }
+
+    private static ThreadFactory named(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public List<DriveLibrary.Item> getItems() {
+        return mItems;
+    }
+
+    /**
+     * The tags in the file of song {@code index}, e.g. to seed a {@link TagCache} with.
+     */
+    public SongTags getTags(int index) {
+        int album = index / mConfig.songsPerAlbum;
+        SongTags tags = new SongTags();
+        tags.title = "Song " + index;
+        tags.artist = "Artist " + album / mConfig.albumsPerArtist;
+        tags.album = "Album " + album;
+        tags.genre = "Genre " + album % GENRES;
+        tags.trackNumber = index % mConfig.songsPerAlbum + 1;
+        return tags;
+    }
+
+    public int getOpenCount() {
+        return mOpens.get();
+    }
+
+    public int getFailureCount() {
+        return mFailures.get();
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    /**
+     * Stops the fake's threads; calls still in flight never answer.
+     */
+    public void shutdown() {
+        mTimer.shutdownNow();
+        mSchedulerThread.shutdownNow();
+    }
+
+    @Override
+    public DriveLibrary getLibrary() {
+        return mLibrary;
+    }
+
+    @Override
+    public DriveScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    @Override
+    public DriveScheduler.Call<Contents> open(final String driveId) {
+        return new DriveScheduler.Call<Contents>() {
+            @Override
+            public void start(final DriveScheduler.Attempt<Contents> attempt) {
+                mOpens.incrementAndGet();
+                final int song = indexOf(driveId);
+                if (song < 0) {
+                    attempt.fail("no such file: " + driveId, false);
+                    return;
+                }
+                final byte[] data = content(song);
+                if (shouldFail()) {
+                    later(latency(), new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt.fail("injected failure", true);
+                        }
+                    });
+                    return;
+                }
+                long transferMs = mConfig.bytesPerSecond > 0 ? data.length * 1000L / mConfig.bytesPerSecond : 0;
+                later(latency() + transferMs, new Runnable() {
+                    @Override
+                    public void run() {
+                        mBytesServed.addAndGet(data.length);
+                        attempt.succeed(new ArrayContents(data));
+                    }
+                });
+            }
+
+            @Override
+            public void discard(Contents contents) {
+                contents.discard();
+            }
+        };
+    }
+
+    @Override
+    public void connect() {
+        later(latency(), new Runnable() {
+            @Override
+            public void run() {
+                mCallbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLibrary.onConnected();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    /**
+     * Lists in the browse lane, one round trip per page of results, and answers on the
+     * callback executor.
+     */
+    @Override
+    public void list(final long modifiedSince, final DriveLibrary.Receiver receiver) {
+        mScheduler.submit(DriveScheduler.Lane.BROWSE, null, new DriveScheduler.Call<List<DriveLibrary.Item>>() {
+            @Override
+            public void start(final DriveScheduler.Attempt<List<DriveLibrary.Item>> attempt) {
+                mListings.incrementAndGet();
+                final List<DriveLibrary.Item> items = new ArrayList<>();
+                for (DriveLibrary.Item item : mItems) {
+                    if (item.modified >= modifiedSince) {
+                        items.add(item);
+                    }
+                }
+                if (shouldFail()) {
+                    later(latency(), new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt.fail("injected failure", true);
+                        }
+                    });
+                    return;
+                }
+                int pages = Math.max(1, (items.size() + LISTING_PAGE - 1) / LISTING_PAGE);
+                long delay = 0;
+                for (int i = 0; i < pages; i++) {
+                    delay += latency();
+                }
+                later(delay, new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt.succeed(items);
+                    }
+                });
+            }
+
+            @Override
+            public void discard(List<DriveLibrary.Item> items) {
+            }
+        }, new DriveScheduler.Callback<List<DriveLibrary.Item>>() {
+            @Override
+            public void onResult(final List<DriveLibrary.Item> items) {
+                mCallbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.onListed(items);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final String message) {
+                mCallbacks.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.onFailed(message);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "FakeDrive{" + mConfig + ", opens=" + mOpens + ", listings=" + mListings + ", failures="
+                + mFailures + ", bytesServed=" + mBytesServed + "}";
+    }
+
+    private int indexOf(String driveId) {
+        if (!driveId.startsWith(mConfig.idPrefix)) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(driveId.substring(mConfig.idPrefix.length()));
+            return index < mConfig.songs ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private synchronized long latency() {
+        return mConfig.latencyMs + (mConfig.jitterMs > 0 ? (long) (mRandom.nextDouble() * mConfig.jitterMs) : 0);
+    }
+
+    private synchronized boolean shouldFail() {
+        if (mConfig.errorRate > 0 && mRandom.nextDouble() < mConfig.errorRate) {
+            mFailures.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void later(long delayMs, Runnable runnable) {
+        mTimer.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The file of song {@code index}: its tag followed by the shared silent audio.
+     */
+    byte[] content(int index) {
+        byte[] tag = tag(index);
+        byte[] data = new byte[tag.length + mAudio.length];
+        System.arraycopy(tag, 0, data, 0, tag.length);
+        System.arraycopy(mAudio, 0, data, tag.length, mAudio.length);
+        return data;
+    }
+
+    /**
+     * The ID3v2.3 tag of song {@code index}.
+     */
+    private byte[] tag(int index) {
+        SongTags tags = getTags(index);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        textFrame(frames, "TIT2", tags.title);
+        textFrame(frames, "TPE1", tags.artist);
+        textFrame(frames, "TALB", tags.album);
+        textFrame(frames, "TCON", tags.genre);
+        textFrame(frames, "TRCK", Integer.toString(tags.trackNumber));
+
+        int size = frames.size();
+        byte[] data = new byte[10 + size];
+        data[0] = 'I';
+        data[1] = 'D';
+        data[2] = '3';
+        data[3] = 3;
+        // sync-safe tag size
+        data[6] = (byte) ((size >> 21) & 0x7f);
+        data[7] = (byte) ((size >> 14) & 0x7f);
+        data[8] = (byte) ((size >> 7) & 0x7f);
+        data[9] = (byte) (size & 0x7f);
+        System.arraycopy(frames.toByteArray(), 0, data, 10, size);
+        return data;
+    }
+
+    private static void textFrame(ByteArrayOutputStream out, String id, String value) {
+        byte[] text = value.getBytes(LATIN_1);
+        int size = text.length + 1;
+        out.write(id.getBytes(LATIN_1), 0, 4);
+        out.write(size >>> 24);
+        out.write(size >>> 16);
+        out.write(size >>> 8);
+        out.write(size);
+        out.write(0);
+        out.write(0);
+        // ISO-8859-1
+        out.write(0);
+        out.write(text, 0, text.length);
+    }
+
+    private static class ArrayContents implements Contents, Id3Reader.Source {
+        private final byte[] mData;
+
+        ArrayContents(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(mData);
+        }
+
+        @Override
+        public Id3Reader.Source getSource() {
+            return this;
+        }
+
+        @Override
+        public void discard() {
+        }
+
+        @Override
+        public long length() {
+            return mData.length;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) {
+            if (position >= mData.length) {
+                return -1;
+            }
+            int count = (int) Math.min(size, mData.length - position);
+            System.arraycopy(mData, (int) position, buffer, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.lgcns.gdrivemusic;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Album art thumbnails, one set per album.
+ *
+ * <p>The embedded picture of the first tagged file of an album is decoded into {@link #SIZE_SMALL}
+ * and {@link #SIZE_LARGE} thumbnails, stored as JPEG files in a size-bounded disk cache and
+ * served to browser clients through {@link ArtworkProvider}. Decoded bitmaps are kept in a memory
+ * cache bounded by bytes for the session metadata. Shared by the service and the provider, which
+ * run in the same process.</p>
+ */
+public class ArtworkCache implements TagExtractor.PictureSink {
+    public static final String TAG = ArtworkCache.class.getName();
+
+    public static final String AUTHORITY = "com.lgcns.gdrivemusic.artwork";
+    public static final int SIZE_SMALL = 128;
+    public static final int SIZE_LARGE = 512;
+
+    private static final String DISK_CACHE_DIR = "artwork";
+    private static final long DISK_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final long MEMORY_CACHE_BYTES = 8L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+
+    private static ArtworkCache sInstance;
+
+    private final DiskLruCache mDisk;
+    private final MemoryLruCache<String, Bitmap> mMemory = new MemoryLruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    private final Set<String> mAttempted = new HashSet<>();
+
+    public static synchronized ArtworkCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtworkCache(new File(context.getCacheDir(), DISK_CACHE_DIR));
+        }
+        return sInstance;
+    }
+
+    ArtworkCache(File dir) {
+        mDisk = new DiskLruCache(dir, DISK_CACHE_BYTES, ".jpg");
+    }
+
+    /**
+     * The key of an album's artwork; albums are matched ignoring case like the catalog does.
+     */
+    public static String albumKey(String album) {
+        return AudioCache.key(album.toLowerCase(Locale.ROOT), 0);
+    }
+
+    /**
+     * The content URI of an album's thumbnail, or null for a song without an album. The URI is
+     * valid before the art has been extracted; until then opening it fails.
+     */
+    public static Uri uriFor(String album, int size) {
+        if (album == null || album.isEmpty()) {
+            return null;
+        }
+        return new Uri.Builder().scheme("content").authority(AUTHORITY)
+                .appendPath(Integer.toString(size)).appendPath(albumKey(album)).build();
+    }
+
+    /**
+     * The thumbnail file for {@code albumKey}, or null if there is none.
+     */
+    public File getFile(String albumKey, int size) {
+        return mDisk.get(entryKey(albumKey, size));
+    }
+
+    /**
+     * The decoded thumbnail of {@code album}, from memory or else from disk, or null. Decoding
+     * from disk blocks, so call this off the main thread unless {@link #peekBitmap} found it.
+     */
+    public Bitmap getBitmap(String album, int size) {
+        Bitmap bitmap = peekBitmap(album, size);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        String key = entryKey(albumKey(album), size);
+        File file = mDisk.get(key);
+        bitmap = file == null ? null : BitmapFactory.decodeFile(file.getPath());
+        if (bitmap != null) {
+            mMemory.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    public Bitmap peekBitmap(String album, int size) {
+        return album == null ? null : mMemory.get(entryKey(albumKey(album), size));
+    }
+
+    public boolean hasArtwork(String album) {
+        return album != null && mDisk.contains(entryKey(albumKey(album), SIZE_SMALL));
+    }
+
+    /**
+     * Asks for the picture of the first file seen of each album without art.
+     */
+    @Override
+    public boolean wants(SongTags tags) {
+        if (tags.album == null || hasArtwork(tags.album)) {
+            return false;
+        }
+        synchronized (mAttempted) {
+            return mAttempted.add(albumKey(tags.album));
+        }
+    }
+
+    @Override
+    public void onPicture(SongTags tags, Id3Reader.Picture picture) {
+        if (picture == null) {
+            return;
+        }
+        String albumKey = albumKey(tags.album);
+        for (int size : new int[]{SIZE_SMALL, SIZE_LARGE}) {
+            Bitmap bitmap = ThumbnailDecoder.decode(picture.data, size);
+            if (bitmap == null) {
+                Log.i(TAG, "undecodable artwork for " + tags.album);
+                return;
+            }
+            try {
+                store(entryKey(albumKey, size), bitmap);
+            } catch (IOException e) {
+                Log.e(TAG, "artwork save failed", e);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ArtworkCache{disk=" + mDisk + ", memory=" + mMemory + "}";
+    }
+
+    private void store(String key, Bitmap bitmap) throws IOException {
+        File tmp = mDisk.newTempFile(key);
+        OutputStream out = new FileOutputStream(tmp);
+        boolean written = false;
+        try {
+            written = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } finally {
+            out.close();
+            if (!written) {
+                tmp.delete();
+            }
+        }
+        if (!written) {
+            throw new IOException("Unable to encode " + key);
+        }
+        mDisk.commit(key, tmp);
+        mMemory.put(key, bitmap);
+    }
+
+    private static String entryKey(String albumKey, int size) {
+        return albumKey + "-" + size;
+    }
+}
@@ -0,0 +1,73 @@
+package com.lgcns.gdrivemusic;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+
+/**
+ * Serves album art thumbnails as {@code content://com.lgcns.gdrivemusic.artwork/<size>/<album key>}.
+ *
+ * <p>Browser clients load the file themselves, so media items only carry a URI across binder
+ * rather than a bitmap. Read-only; an album without art yet is reported as not found.</p>
+ */
+public class ArtworkProvider extends ContentProvider {
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("read only: " + uri);
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) {
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        int size;
+        try {
+            size = Integer.parseInt(segments.get(0));
+        } catch (NumberFormatException e) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        File file = ArtworkCache.get(getContext()).getFile(segments.get(1), size);
+        if (file == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/jpeg";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,280 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A size-bounded, least-recently-used cache of downloaded audio files, kept in a
+ * {@link DiskLruCache}.
+ *
+ * <p>Entries are keyed by DriveId and revision, so a changed file is fetched again. Pinned
+ * entries, the playing and queued songs and those kept for offline use, are never evicted.</p>
+ *
+ * <p>A {@link #deduplicating} cache stores each download under its content, its MD5 and size,
+ * so Drive files holding the same audio share one file, which is deleted once no file refers to
+ * it any more. Which file holds which content is remembered past eviction, so a
+ * {@link SeekTableStore} keyed by {@link #storageKey} indexes each content once.</p>
+ */
+public class AudioCache {
+    private static final String ENTRY_SUFFIX = ".mp3";
+    private static final String CONTENT_INDEX = "contents.idx";
+    public static final String PIN_PLAYBACK = "playback";
+
+    private final DiskLruCache mFiles;
+    private final Map<String, Set<String>> mPinned = new HashMap<>();
+    /** Null unless entries are stored by content. */
+    private final ContentIndex mContents;
+
+    private int mDuplicates;
+
+    public AudioCache(File dir, long maxBytes) {
+        this(dir, maxBytes, false);
+    }
+
+    private AudioCache(File dir, long maxBytes, boolean deduplicate) {
+        mContents = deduplicate ? new ContentIndex(new File(dir, CONTENT_INDEX)) : null;
+        if (mContents != null) {
+            mContents.load();
+        }
+        mFiles = new DiskLruCache(dir, maxBytes, ENTRY_SUFFIX);
+    }
+
+    /**
+     * An audio cache that stores files with the same content once.
+     */
+    public static AudioCache deduplicating(File dir, long maxBytes) {
+        return new AudioCache(dir, maxBytes, true);
+    }
+
+    /**
+     * The cache key for one revision of a Drive file.
+     */
+    public static String key(String driveId, long revision) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((driveId + "@" + revision).getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached file for {@code key} and marks it recently used, or null on a miss.
+     */
+    public synchronized File get(String key) {
+        return mFiles.get(storageKey(key));
+    }
+
+    /**
+     * Returns the cached file for {@code key} without counting it as a use, or null.
+     */
+    public synchronized File peek(String key) {
+        return mFiles.peek(storageKey(key));
+    }
+
+    public synchronized boolean contains(String key) {
+        return mFiles.contains(storageKey(key));
+    }
+
+    /**
+     * The key {@code key}'s data is stored under: its content key once its content is known,
+     * otherwise {@code key} itself.
+     */
+    public synchronized String storageKey(String key) {
+        String contentKey = contentKey(key);
+        return contentKey != null ? contentKey : key;
+    }
+
+    /**
+     * The content {@code key} holds, or null if it is not known or the cache does not
+     * deduplicate.
+     */
+    public synchronized String contentKey(String key) {
+        return mContents == null ? null : mContents.resolve(key);
+    }
+
+    /**
+     * A fresh temporary file to download {@code key} into before {@link #commit}.
+     */
+    public File newTempFile(String key) {
+        return mFiles.newTempFile(key);
+    }
+
+    /**
+     * Moves a completely written temporary file into the cache and evicts as needed. A
+     * deduplicating cache hashes the file first and drops it if its content is stored already.
+     */
+    public File commit(String key, File tempFile) throws IOException {
+        if (mContents == null) {
+            return mFiles.commit(key, tempFile);
+        }
+        String contentKey;
+        try {
+            contentKey = ContentIndex.contentKey(SegmentedDownload.md5(tempFile), tempFile.length());
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        return commit(key, tempFile, contentKey);
+    }
+
+    /**
+     * Makes {@code key} refer to content that is stored already, as when Drive reports the
+     * file's MD5 ahead of the download. Returns false if that content is not in the cache.
+     */
+    public synchronized boolean link(String key, String md5, long size) throws IOException {
+        String contentKey = ContentIndex.contentKey(md5, size);
+        if (mContents == null || !mFiles.contains(contentKey)) {
+            return false;
+        }
+        linkContent(key, contentKey, size);
+        return true;
+    }
+
+    /**
+     * Drops {@code key}, e.g. once its file is deleted from Drive. Data that other keys still
+     * refer to is kept. Returns whether a file was deleted.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        boolean removed = mFiles.remove(key);
+        if (mContents != null) {
+            String unreferenced = mContents.unlink(key);
+            if (unreferenced != null) {
+                removed |= mFiles.remove(unreferenced);
+            }
+            mContents.save();
+        }
+        return removed;
+    }
+
+    private synchronized File commit(String key, File tempFile, String contentKey) throws IOException {
+        linkContent(key, contentKey, tempFile.length());
+        // stored under its own key before its content was known
+        if (!key.equals(contentKey)) {
+            mFiles.remove(key);
+        }
+        if (mFiles.touch(contentKey)) {
+            tempFile.delete();
+            mDuplicates++;
+            return mFiles.peek(contentKey);
+        }
+        return mFiles.commit(contentKey, tempFile);
+    }
+
+    private void linkContent(String key, String contentKey, long size) throws IOException {
+        String unreferenced = mContents.link(key, contentKey, size);
+        if (unreferenced != null) {
+            mFiles.remove(unreferenced);
+        }
+        mContents.save();
+        updatePinned();
+    }
+
+    /**
+     * Copies {@code in} into the cache under {@code key}; the stream is closed either way.
+     */
+    public File put(String key, InputStream in) throws IOException {
+        return commit(key, mFiles.writeTempFile(key, in));
+    }
+
+    /**
+     * Replaces the set of keys the player needs that must not be evicted.
+     */
+    public void setPinned(Collection<String> keys) {
+        setPinned(PIN_PLAYBACK, keys);
+    }
+
+    /**
+     * Replaces the keys pinned by {@code owner}; a key stays pinned while any owner pins it.
+     */
+    public synchronized void setPinned(String owner, Collection<String> keys) {
+        mPinned.put(owner, new HashSet<>(keys));
+        updatePinned();
+    }
+
+    public long getSize() {
+        return mFiles.getSize();
+    }
+
+    public long getMaxSize() {
+        return mFiles.getMaxSize();
+    }
+
+    public int getHitCount() {
+        return mFiles.getHitCount();
+    }
+
+    public int getMissCount() {
+        return mFiles.getMissCount();
+    }
+
+    public int getEvictionCount() {
+        return mFiles.getEvictionCount();
+    }
+
+    /**
+     * Downloads that were dropped because their content was stored already.
+     */
+    public synchronized int getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    /**
+     * Bytes the cached files would take if each key had its own copy, less what they take.
+     */
+    public synchronized long getBytesSaved() {
+        if (mContents == null) {
+            return 0;
+        }
+        long saved = 0;
+        for (Map.Entry<String, Long> entry : mFiles.getEntries().entrySet()) {
+            int refs = mContents.refCount(entry.getKey());
+            if (refs > 1) {
+                saved += (refs - 1) * entry.getValue();
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * The bytes the cached keys refer to over the bytes stored, 1 without any duplicates.
+     */
+    public synchronized double getDedupRatio() {
+        long size = mFiles.getSize();
+        return size == 0 ? 1 : (double) (size + getBytesSaved()) / size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String dedup = mContents == null ? "" : String.format(Locale.US, ", duplicates=%d, saved=%d (ratio %.2f)",
+                mDuplicates, getBytesSaved(), getDedupRatio());
+        return "AudioCache{" + mFiles.stats() + dedup + "}";
+    }
+
+    /**
+     * Pins the stored data of every pinned key, which moves as keys are linked to contents.
+     */
+    private void updatePinned() {
+        Set<String> pinned = new HashSet<>();
+        for (Set<String> keys : mPinned.values()) {
+            for (String key : keys) {
+                pinned.add(storageKey(key));
+            }
+        }
+        mFiles.setPinned(pinned);
+    }
+}
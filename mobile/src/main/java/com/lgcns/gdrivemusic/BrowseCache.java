@@ -0,0 +1,107 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The built children of browse nodes, kept per parent id and page and tagged with the catalog
+ * version they were built from.
+ *
+ * <p>A new catalog version only invalidates the parents it changed (see
+ * {@link BrowseTree#changedParents}); every other list built from an older version is still
+ * served as is. Lists are returned unmodifiable and shared between callers. Thread-safe.</p>
+ */
+public abstract class BrowseCache<T> {
+    /** A rough size of one media item with its description and strings. */
+    static final int ITEM_BYTES = 256;
+    /** Past this many changed parents, the cache forgets them and starts over. */
+    private static final int MAX_CHANGED_PARENTS = 10000;
+
+    private static class Entry<T> {
+        final long mVersion;
+        final List<T> mItems;
+
+        Entry(long version, List<T> items) {
+            mVersion = version;
+            mItems = items;
+        }
+    }
+
+    private final MemoryLruCache<String, Entry<T>> mEntries;
+    // normalized parent id -> the catalog version it last changed in
+    private final Map<String, Long> mChangedIn = new HashMap<>();
+    private long mClearedIn;
+    private int mBuilds;
+
+    public BrowseCache(long maxBytes) {
+        mEntries = new MemoryLruCache<String, Entry<T>>(maxBytes) {
+            @Override
+            protected int sizeOf(Entry<T> entry) {
+                return (entry.mItems.size() + 1) * ITEM_BYTES;
+            }
+        };
+    }
+
+    /**
+     * Builds one page of the children of {@code parentId}, or returns null if there is no such
+     * node. Called without the cache's lock held.
+     */
+    protected abstract List<T> build(BrowseTree tree, String parentId, int page, int pageSize);
+
+    /**
+     * The children of {@code parentId} in the catalog {@code tree} was built from, at
+     * {@code version}: from the cache if nothing under the parent has changed since they were
+     * built, otherwise built now.
+     */
+    public List<T> get(BrowseTree tree, long version, String parentId, int page, int pageSize) {
+        String parent = BrowseTree.normalize(parentId);
+        String key = parent + '\n' + page + '\n' + pageSize;
+        Entry<T> entry = mEntries.get(key);
+        if (entry != null && isCurrent(parent, entry.mVersion)) {
+            return entry.mItems;
+        }
+
+        List<T> items = build(tree, parentId, page, pageSize);
+        synchronized (this) {
+            mBuilds++;
+        }
+        if (items == null) {
+            return null;
+        }
+        items = Collections.unmodifiableList(items);
+        mEntries.put(key, new Entry<>(version, items));
+        return items;
+    }
+
+    /**
+     * Records that {@code parents} changed in catalog {@code version}; null means everything
+     * may have.
+     */
+    public synchronized void invalidate(long version, Collection<String> parents) {
+        if (parents == null || mChangedIn.size() + parents.size() > MAX_CHANGED_PARENTS) {
+            mChangedIn.clear();
+            mClearedIn = version;
+            return;
+        }
+        for (String parent : parents) {
+            mChangedIn.put(BrowseTree.normalize(parent), version);
+        }
+    }
+
+    public synchronized int getBuildCount() {
+        return mBuilds;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BrowseCache{" + mEntries + ", builds=" + mBuilds + ", changedParents=" + mChangedIn.size() + "}";
+    }
+
+    private synchronized boolean isCurrent(String parent, long builtIn) {
+        Long changedIn = mChangedIn.get(parent);
+        return builtIn >= mClearedIn && (changedIn == null || builtIn >= changedIn);
+    }
+}
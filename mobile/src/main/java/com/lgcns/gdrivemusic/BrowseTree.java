@@ -0,0 +1,187 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The media browser hierarchy: root, then artists, albums and genres, then their songs. The
+ * root also lists every song by title, which needs no tags: until they are read every song is
+ * filed under {@link Catalog#UNKNOWN} in the other categories.
+ *
+ * <p>Category ids are {@code <category>/<name>}; everything after the first separator is the
+ * name, so names may contain any character. Playable children use the song's DriveId as media
+ * id. Pages are cut straight from the {@link Catalog} indexes, so only the requested slice is
+ * ever turned into nodes.</p>
+ */
+public class BrowseTree {
+    public static final String ROOT = "root";
+    public static final String ARTISTS = "__ARTISTS__";
+    public static final String ALBUMS = "__ALBUMS__";
+    public static final String GENRES = "__GENRES__";
+    public static final String SONGS = "__SONGS__";
+
+    private static final char SEPARATOR = '/';
+
+    /**
+     * A child in the tree: either a browsable category or a playable song.
+     */
+    public static class Node {
+        public final String mediaId;
+        public final String title;
+        public final Song song;
+
+        Node(String mediaId, String title, Song song) {
+            this.mediaId = mediaId;
+            this.title = title;
+            this.song = song;
+        }
+
+        public boolean isBrowsable() {
+            return song == null;
+        }
+    }
+
+    private final Catalog mCatalog;
+
+    public BrowseTree(Catalog catalog) {
+        mCatalog = catalog;
+    }
+
+    /**
+     * Returns one page of the children of {@code parentId}, or null if there is no such node.
+     * A negative page returns every child.
+     */
+    public List<Node> getChildren(String parentId, int page, int pageSize) {
+        List<Node> children = new ArrayList<>();
+
+        if (ROOT.equals(parentId)) {
+            children.add(new Node(ARTISTS, "Artists", null));
+            children.add(new Node(ALBUMS, "Albums", null));
+            children.add(new Node(GENRES, "Genres", null));
+            children.add(new Node(SONGS, "All songs", null));
+            return slice(children, page, pageSize);
+        }
+
+        if (SONGS.equals(parentId)) {
+            return songNodes(mCatalog.getSongsByTitle(), page, pageSize);
+        }
+
+        int split = parentId.indexOf(SEPARATOR);
+        String category = split < 0 ? parentId : parentId.substring(0, split);
+        Catalog.Index index = indexOf(category);
+        if (index == null) {
+            return null;
+        }
+
+        if (split < 0) {
+            for (String name : slice(mCatalog.getNames(index), page, pageSize)) {
+                children.add(new Node(category + SEPARATOR + name, name, null));
+            }
+            return children;
+        }
+
+        String name = parentId.substring(split + 1);
+        if (!mCatalog.contains(index, name)) {
+            return null;
+        }
+        return songNodes(mCatalog.getSongs(index, name), page, pageSize);
+    }
+
+    /**
+     * The parents whose children differ from {@code previous} to {@code next}, where
+     * {@code changes} took one to the other: the categories of each changed song before and
+     * after the change, a category list whose names were added or removed, and the list of all
+     * songs for any change. The root never changes.
+     */
+    public static Set<String> changedParents(Catalog previous, Catalog next, ChangeSet changes) {
+        Set<String> parents = new LinkedHashSet<>();
+        if (!changes.isEmpty()) {
+            parents.add(SONGS);
+        }
+        for (Catalog.Index index : Catalog.Index.values()) {
+            if (!previous.getNames(index).equals(next.getNames(index))) {
+                parents.add(categoryOf(index));
+            }
+        }
+        List<Song> songs = new ArrayList<>(changes.getAdded());
+        songs.addAll(changes.getUpdated());
+        songs.addAll(changes.getRemoved());
+        for (Song song : songs) {
+            Song before = previous.getSong(song.getuId());
+            for (Catalog.Index index : Catalog.Index.values()) {
+                parents.add(parentOf(index, song, previous, next));
+                if (before != null) {
+                    parents.add(parentOf(index, before, previous, next));
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * A key for {@code parentId} that is the same for every id naming the same node, as
+     * names are matched ignoring case.
+     */
+    static String normalize(String parentId) {
+        int split = parentId.indexOf(SEPARATOR);
+        return split < 0 ? parentId
+                : parentId.substring(0, split + 1) + parentId.substring(split + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static List<Node> songNodes(List<Song> songs, int page, int pageSize) {
+        List<Node> children = new ArrayList<>();
+        for (Song song : slice(songs, page, pageSize)) {
+            children.add(new Node(song.getuId(), song.getTitle(), song));
+        }
+        return children;
+    }
+
+    /**
+     * The id of the category holding {@code song}, spelled as listed in whichever catalog has it.
+     */
+    private static String parentOf(Catalog.Index index, Song song, Catalog previous, Catalog next) {
+        String name = Catalog.nameOf(index, song);
+        String listed = next.getName(index, name);
+        if (listed == null) {
+            listed = previous.getName(index, name);
+        }
+        return categoryOf(index) + SEPARATOR + (listed == null ? name : listed);
+    }
+
+    private static String categoryOf(Catalog.Index index) {
+        switch (index) {
+            case ARTIST:
+                return ARTISTS;
+            case ALBUM:
+                return ALBUMS;
+            default:
+                return GENRES;
+        }
+    }
+
+    private static Catalog.Index indexOf(String category) {
+        if (ARTISTS.equals(category)) {
+            return Catalog.Index.ARTIST;
+        } else if (ALBUMS.equals(category)) {
+            return Catalog.Index.ALBUM;
+        } else if (GENRES.equals(category)) {
+            return Catalog.Index.GENRE;
+        }
+        return null;
+    }
+
+    static <T> List<T> slice(List<T> list, int page, int pageSize) {
+        if (page < 0 || pageSize <= 0) {
+            return list;
+        }
+        long from = (long) page * pageSize;
+        if (from >= list.size()) {
+            return Collections.emptyList();
+        }
+        return list.subList((int) from, (int) Math.min(list.size(), from + pageSize));
+    }
+}
@@ -0,0 +1,229 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable, versioned snapshot of the song catalog.
+ *
+ * <p>Every index is built up front by the sync writer, and a new snapshot replaces the old one
+ * with a single reference swap. Readers never lock and never see a half-applied sync.</p>
+ *
+ * <p>Songs are kept in a {@link SongTable} and indexes hold row numbers, so a snapshot costs a
+ * few arrays rather than an object graph per song. Every song read from a catalog is a fresh
+ * copy; compare songs by id, not by identity.</p>
+ */
+public final class Catalog {
+
+    /**
+     * The secondary indexes kept by every snapshot.
+     */
+    public enum Index {
+        ARTIST, ALBUM, GENRE
+    }
+
+    public static final String UNKNOWN = "Unknown";
+
+    private final long mVersion;
+    private final SongTable mTable;
+    private final Map<Index, Map<String, List<Song>>> mIndexes = new EnumMap<>(Index.class);
+    private final Map<Index, List<String>> mNames = new EnumMap<>(Index.class);
+    private final Map<Index, Map<String, String>> mNamesByKey = new EnumMap<>(Index.class);
+    private final List<Song> mByTitle;
+
+    public Catalog(long version, List<Song> songs) {
+        this(version, SongTable.of(songs));
+    }
+
+    public Catalog(long version, SongTable table) {
+        mVersion = version;
+        mTable = table;
+        buildIndex(Index.ARTIST, SongTable.ARTIST);
+        buildIndex(Index.ALBUM, SongTable.ALBUM);
+        buildIndex(Index.GENRE, SongTable.GENRE);
+        mByTitle = sortByTitle();
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int size() {
+        return mTable.size();
+    }
+
+    /**
+     * All songs in catalog order. Songs are built as they are read.
+     */
+    public List<Song> getSongs() {
+        return mTable.asList();
+    }
+
+    /**
+     * All songs sorted by title, ignoring case; songs without a title come last. Needs no tags,
+     * so the library can be browsed before any have been read.
+     */
+    public List<Song> getSongsByTitle() {
+        return mByTitle;
+    }
+
+    /**
+     * Returns the song with the given media id (its encoded DriveId), or null.
+     */
+    public Song getSong(String id) {
+        int row = id == null ? -1 : mTable.indexOf(id);
+        return row < 0 ? null : mTable.getSong(row);
+    }
+
+    /**
+     * The distinct names in an index, sorted case-insensitively.
+     */
+    public List<String> getNames(Index index) {
+        return mNames.get(index);
+    }
+
+    /**
+     * The songs filed under {@code name}, ignoring case; empty if there are none.
+     */
+    public List<Song> getSongs(Index index, String name) {
+        List<Song> songs = mIndexes.get(index).get(fold(name));
+        return songs == null ? Collections.<Song>emptyList() : songs;
+    }
+
+    /**
+     * The name under which {@code name} is listed, which may differ in case, or null.
+     */
+    public String getName(Index index, String name) {
+        return mNamesByKey.get(index).get(fold(name));
+    }
+
+    public boolean contains(Index index, String name) {
+        return mIndexes.get(index).containsKey(fold(name));
+    }
+
+    public static String nameOf(Index index, Song song) {
+        String name;
+        switch (index) {
+            case ARTIST:
+                name = song.getArtist();
+                break;
+            case ALBUM:
+                name = song.getAlbum();
+                break;
+            default:
+                name = song.getGenre();
+                break;
+        }
+        return nameOf(name);
+    }
+
+    private static String nameOf(String name) {
+        return name == null || name.isEmpty() ? UNKNOWN : name;
+    }
+
+    /**
+     * Groups the rows by the folded name in {@code column}. Names are resolved once per
+     * dictionary code rather than once per song, and each group is a plain array of rows.
+     */
+    private void buildIndex(Index index, int column) {
+        int[] groupOfCode = new int[mTable.dictionarySize() + 1];
+        Arrays.fill(groupOfCode, -1);
+        Map<String, Integer> groupsByKey = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int[] counts = new int[16];
+        int[] groupOfRow = new int[mTable.size()];
+        for (int row = 0; row < mTable.size(); row++) {
+            // null is code -1, kept in the last slot
+            int code = mTable.code(row, column);
+            int slot = code < 0 ? groupOfCode.length - 1 : code;
+            int group = groupOfCode[slot];
+            if (group < 0) {
+                String name = nameOf(mTable.string(code));
+                Integer existing = groupsByKey.get(fold(name));
+                if (existing == null) {
+                    existing = names.size();
+                    groupsByKey.put(fold(name), existing);
+                    names.add(name);
+                    if (existing == counts.length) {
+                        counts = Arrays.copyOf(counts, counts.length * 2);
+                    }
+                }
+                group = existing;
+                groupOfCode[slot] = group;
+            }
+            groupOfRow[row] = group;
+            counts[group]++;
+        }
+
+        int[][] rows = new int[names.size()][];
+        for (int group = 0; group < rows.length; group++) {
+            rows[group] = new int[counts[group]];
+            counts[group] = 0;
+        }
+        for (int row = 0; row < groupOfRow.length; row++) {
+            int group = groupOfRow[row];
+            rows[group][counts[group]++] = row;
+        }
+
+        Map<String, List<Song>> songsByName = new HashMap<>(groupsByKey.size() * 2);
+        Map<String, String> namesByKey = new HashMap<>(groupsByKey.size() * 2);
+        for (Map.Entry<String, Integer> entry : groupsByKey.entrySet()) {
+            int[] group = rows[entry.getValue()];
+            if (index == Index.ALBUM) {
+                sortByTrack(group);
+            }
+            songsByName.put(entry.getKey(), mTable.asList(group));
+            namesByKey.put(entry.getKey(), names.get(entry.getValue()));
+        }
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+
+        mIndexes.put(index, songsByName);
+        mNamesByKey.put(index, namesByKey);
+        mNames.put(index, Collections.unmodifiableList(names));
+    }
+
+    /**
+     * Orders an album by track number; songs without one keep their place after the numbered.
+     * Rows are packed behind their track number, so the sort is stable without boxing.
+     */
+    private void sortByTrack(int[] rows) {
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int track = mTable.getTrackNumber(rows[i]);
+            keys[i] = ((long) (track > 0 ? track : Integer.MAX_VALUE) << 32) | rows[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (int) keys[i];
+        }
+    }
+
+    private List<Song> sortByTitle() {
+        Integer[] boxed = new Integer[mTable.size()];
+        for (int row = 0; row < boxed.length; row++) {
+            boxed[row] = row;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return mTable.compareTitles(a, b);
+            }
+        });
+        int[] rows = new int[boxed.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = boxed[i];
+        }
+        return mTable.asList(rows);
+    }
+
+    private static String fold(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+}
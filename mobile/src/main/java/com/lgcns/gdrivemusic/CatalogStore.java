@@ -0,0 +1,136 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps a compact binary snapshot of the song catalog on disk so the browse tree can be
+ * served on a cold start, before the Drive client has connected.
+ */
+public class CatalogStore {
+    private static final int MAGIC = 0x47444d43; // "GDMC"
+    private static final int FORMAT_VERSION = 5;
+
+    /**
+     * The saved songs together with the sync watermarks they were saved at. Loaded songs are a
+     * {@link SongTable} view, which {@link Catalog} and {@link LibrarySync} take over as is.
+     */
+    public static class Snapshot {
+        public final List<Song> songs;
+        public final long syncedAt;
+        public final long fullSyncedAt;
+
+        public Snapshot(List<Song> songs, long syncedAt, long fullSyncedAt) {
+            this.songs = songs;
+            this.syncedAt = syncedAt;
+            this.fullSyncedAt = fullSyncedAt;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(Collections.<Song>emptyList(), 0, 0);
+
+    private final File mFile;
+
+    public CatalogStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads the last saved catalog. A missing or unreadable snapshot yields an empty one and
+     * the service then simply waits for a full Drive sync as it did before.
+     */
+    public Snapshot load() {
+        if (!mFile.isFile()) {
+            return EMPTY;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return EMPTY;
+            }
+
+            long syncedAt = in.readLong();
+            long fullSyncedAt = in.readLong();
+            int count = in.readInt();
+            // rows go straight into the table; no song objects are built on the way
+            SongTable.Builder songs = new SongTable.Builder(count);
+            for (int i = 0; i < count; i++) {
+                songs.add(readString(in), readString(in), readString(in), readString(in),
+                        readString(in), readString(in), readString(in), in.readLong(),
+                        in.readInt(), in.readLong(), in.readLong());
+            }
+            return new Snapshot(songs.build().asList(), syncedAt, fullSyncedAt);
+        } catch (IOException e) {
+            return EMPTY;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the catalog to a temporary file and renames it over the previous snapshot, so a
+     * crash mid-write never leaves a truncated catalog behind.
+     */
+    public void save(Snapshot snapshot) throws IOException {
+        List<Song> songs = snapshot.songs;
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshot.syncedAt);
+            out.writeLong(snapshot.fullSyncedAt);
+            out.writeInt(songs.size());
+            for (Song song : songs) {
+                writeString(out, song.getuId());
+                writeString(out, song.getTitle());
+                writeString(out, song.getArtist());
+                writeString(out, song.getAlbum());
+                writeString(out, song.getGenre());
+                writeString(out, song.getAlbumUrl());
+                writeString(out, song.getThumbnailUrl());
+                out.writeLong(song.getModified());
+                out.writeInt(song.getTrackNumber());
+                out.writeLong(song.getDuration());
+                out.writeLong(song.getSize());
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
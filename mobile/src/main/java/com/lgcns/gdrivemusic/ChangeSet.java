@@ -0,0 +1,52 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The songs added, updated and removed by one {@link LibrarySync} pass.
+ */
+public class ChangeSet {
+    private final List<Song> mAdded = new ArrayList<>();
+    private final List<Song> mUpdated = new ArrayList<>();
+    private final List<Song> mRemoved = new ArrayList<>();
+
+    void added(Song song) {
+        mAdded.add(song);
+    }
+
+    void updated(Song song) {
+        mUpdated.add(song);
+    }
+
+    void removed(Song song) {
+        mRemoved.add(song);
+    }
+
+    public List<Song> getAdded() {
+        return Collections.unmodifiableList(mAdded);
+    }
+
+    public List<Song> getUpdated() {
+        return Collections.unmodifiableList(mUpdated);
+    }
+
+    public List<Song> getRemoved() {
+        return Collections.unmodifiableList(mRemoved);
+    }
+
+    public int size() {
+        return mAdded.size() + mUpdated.size() + mRemoved.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSet{added=" + mAdded.size() + ", updated=" + mUpdated.size()
+                + ", removed=" + mRemoved.size() + "}";
+    }
+}
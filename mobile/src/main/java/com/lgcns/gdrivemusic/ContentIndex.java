@@ -0,0 +1,211 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the cache keys of Drive files to the content they hold, identified by MD5 and size, and
+ * counts the files referring to each content. The same MP3 kept in several folders or under
+ * several names is then one content with several references, stored and indexed once.
+ *
+ * <p>A content stays known while any file refers to it, even if its data has been evicted, so
+ * whatever was derived from it can be found again under the same content key.</p>
+ */
+public class ContentIndex {
+    private static final int MAGIC = 0x47444d43; // "GDMC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static class Content {
+        final long mSize;
+        int mRefs;
+
+        Content(long size) {
+            mSize = size;
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, String> mContentKeys = new HashMap<>();
+    private final Map<String, Content> mContents = new HashMap<>();
+    private boolean mDirty;
+
+    public ContentIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * The key of the content with {@code md5}, as hex, and {@code size}; usable as a file name.
+     */
+    public static String contentKey(String md5, long size) {
+        return md5.toLowerCase(Locale.US) + "-" + size;
+    }
+
+    /**
+     * The content key {@code fileKey} refers to, or null if its content is not known.
+     */
+    public synchronized String resolve(String fileKey) {
+        return mContentKeys.get(fileKey);
+    }
+
+    /**
+     * Records that {@code fileKey} holds {@code contentKey}. Returns the content the file
+     * referred to before if that is now unreferenced and its data can go, otherwise null.
+     */
+    public synchronized String link(String fileKey, String contentKey, long size) {
+        String previous = mContentKeys.put(fileKey, contentKey);
+        if (contentKey.equals(previous)) {
+            return null;
+        }
+        Content content = mContents.get(contentKey);
+        if (content == null) {
+            content = new Content(size);
+            mContents.put(contentKey, content);
+        }
+        content.mRefs++;
+        mDirty = true;
+        return previous == null ? null : release(previous);
+    }
+
+    /**
+     * Forgets {@code fileKey}, e.g. once the file is deleted from Drive. Returns its content if
+     * no other file refers to it any more, otherwise null.
+     */
+    public synchronized String unlink(String fileKey) {
+        String contentKey = mContentKeys.remove(fileKey);
+        if (contentKey == null) {
+            return null;
+        }
+        mDirty = true;
+        return release(contentKey);
+    }
+
+    /**
+     * How many files refer to {@code contentKey}.
+     */
+    public synchronized int refCount(String contentKey) {
+        Content content = mContents.get(contentKey);
+        return content == null ? 0 : content.mRefs;
+    }
+
+    /**
+     * The number of files whose content is known.
+     */
+    public synchronized int size() {
+        return mContentKeys.size();
+    }
+
+    public synchronized int getContentCount() {
+        return mContents.size();
+    }
+
+    /**
+     * The bytes of all linked files, counting each copy.
+     */
+    public synchronized long getReferencedBytes() {
+        long bytes = 0;
+        for (Content content : mContents.values()) {
+            bytes += content.mSize * content.mRefs;
+        }
+        return bytes;
+    }
+
+    /**
+     * The bytes of all linked files, counting each content once.
+     */
+    public synchronized long getUniqueBytes() {
+        long bytes = 0;
+        for (Content content : mContents.values()) {
+            bytes += content.mSize;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the saved links; a missing or unreadable file leaves the index empty.
+     */
+    public synchronized void load() {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+            ContentIndex loaded = new ContentIndex(mFile);
+            for (int i = 0; i < count; i++) {
+                String fileKey = in.readUTF();
+                String contentKey = in.readUTF();
+                loaded.link(fileKey, contentKey, in.readLong());
+            }
+            mContentKeys.putAll(loaded.mContentKeys);
+            mContents.putAll(loaded.mContents);
+        } catch (IOException e) {
+            // files are hashed again as they are downloaded
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the links if anything changed since the last save, through a temporary file.
+     */
+    public synchronized void save() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mContentKeys.size());
+            for (Map.Entry<String, String> entry : mContentKeys.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+                out.writeLong(mContents.get(entry.getValue()).mSize);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mDirty = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ContentIndex{files=" + mContentKeys.size() + ", contents=" + mContents.size() + "}";
+    }
+
+    private String release(String contentKey) {
+        Content content = mContents.get(contentKey);
+        if (--content.mRefs > 0) {
+            return null;
+        }
+        mContents.remove(contentKey);
+        return contentKey;
+    }
+}
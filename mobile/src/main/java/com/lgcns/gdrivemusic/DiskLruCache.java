@@ -0,0 +1,258 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A size-bounded, least-recently-used store of files in one directory, one file per key.
+ *
+ * <p>Writes go to a {@code .tmp} file that is renamed into place only once complete; leftovers
+ * from a crash are deleted on startup. Pinned keys are never evicted. Recency survives restarts
+ * through the files' modification times. Only files ending in the store's suffix are entries, so
+ * other files may share the directory.</p>
+ */
+public class DiskLruCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final String mSuffix;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private Set<String> mPinned = Collections.emptySet();
+    private long mSize;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    public DiskLruCache(File dir, long maxBytes, String suffix) {
+        mDir = dir;
+        mSuffix = suffix;
+        mMaxBytes = maxBytes;
+        mDir.mkdirs();
+        recover();
+    }
+
+    /**
+     * Returns the file for {@code key} and marks it recently used, or null on a miss.
+     */
+    public synchronized File get(String key) {
+        if (!touch(key)) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entryFile(key);
+    }
+
+    /**
+     * Returns the file for {@code key} without counting it as a use, or null.
+     */
+    public synchronized File peek(String key) {
+        return mEntries.containsKey(key) ? entryFile(key) : null;
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Marks {@code key} recently used without counting a hit. Returns whether it is stored.
+     */
+    public synchronized boolean touch(String key) {
+        if (mEntries.get(key) == null) {
+            return false;
+        }
+        entryFile(key).setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * A fresh temporary file to write {@code key} into before {@link #commit}.
+     */
+    public File newTempFile(String key) {
+        return new File(mDir, key + "." + System.nanoTime() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Moves a completely written temporary file into place under {@code key}, replacing what was
+     * stored there, and evicts as needed.
+     */
+    public synchronized File commit(String key, File tempFile) throws IOException {
+        File file = entryFile(key);
+        Long previous = mEntries.remove(key);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to commit " + key);
+        }
+
+        mEntries.put(key, file.length());
+        mSize += file.length();
+        trim();
+        return file;
+    }
+
+    /**
+     * Copies {@code in} into the cache under {@code key}; the stream is closed either way.
+     */
+    public File put(String key, InputStream in) throws IOException {
+        return commit(key, writeTempFile(key, in));
+    }
+
+    /**
+     * Copies {@code in} into a fresh temporary file for {@code key}, deleted again if the copy
+     * fails; the stream is closed either way.
+     */
+    File writeTempFile(String key, InputStream in) throws IOException {
+        File tmp = newTempFile(key);
+        OutputStream out = new FileOutputStream(tmp);
+        boolean complete = false;
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            complete = true;
+        } finally {
+            out.close();
+            in.close();
+            if (!complete) {
+                tmp.delete();
+            }
+        }
+        return tmp;
+    }
+
+    /**
+     * Deletes {@code key}'s file. Returns whether there was one.
+     */
+    public synchronized boolean remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size == null) {
+            return false;
+        }
+        entryFile(key).delete();
+        mSize -= size;
+        return true;
+    }
+
+    /**
+     * Replaces the keys that must not be evicted, and evicts what they no longer hold.
+     */
+    public synchronized void setPinned(Collection<String> keys) {
+        mPinned = new HashSet<>(keys);
+        trim();
+    }
+
+    /**
+     * The stored keys and their sizes, least recently used first.
+     */
+    public synchronized Map<String, Long> getEntries() {
+        return new LinkedHashMap<>(mEntries);
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiskLruCache{" + stats() + "}";
+    }
+
+    /**
+     * The counters, for the {@code toString} of caches built on this one.
+     */
+    synchronized String stats() {
+        return "size=" + mSize + "/" + mMaxBytes + ", entries=" + mEntries.size()
+                + ", hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> eldest = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (mPinned.contains(entry.getKey())) {
+                continue;
+            }
+            entryFile(entry.getKey()).delete();
+            mSize -= entry.getValue();
+            mEvictions++;
+            eldest.remove();
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(mDir, key + mSuffix);
+    }
+
+    private void recover() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // a write that never completed
+                file.delete();
+            } else if (file.getName().endsWith(mSuffix)) {
+                entries.add(file);
+            }
+        }
+
+        File[] sorted = entries.toArray(new File[entries.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : sorted) {
+            String name = file.getName();
+            mEntries.put(name.substring(0, name.length() - mSuffix.length()), file.length());
+            mSize += file.length();
+        }
+        trim();
+    }
+}
@@ -0,0 +1,34 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.InputStream;
+
+/**
+ * Everything the service needs from Drive: the shared {@link DriveLibrary}, the
+ * {@link DriveScheduler} every call goes through, and opening files. Implemented by
+ * {@link GoogleDriveBackend}, and by a local fake for measuring the service on its own.
+ */
+public interface DriveAccess {
+
+    /**
+     * The bytes of an opened file, downloaded in full before they are handed over.
+     */
+    interface Contents {
+        /** The file from its start. */
+        InputStream getInputStream();
+
+        /** Random access to the file, for parsing it in place. */
+        Id3Reader.Source getSource();
+
+        /** Frees the contents; neither stream nor source can be used afterwards. */
+        void discard();
+    }
+
+    DriveLibrary getLibrary();
+
+    DriveScheduler getScheduler();
+
+    /**
+     * Opening a file for reading, as a call for the scheduler.
+     */
+    DriveScheduler.Call<Contents> open(String driveId);
+}
@@ -0,0 +1,300 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The audio files on Drive, shared by everything in the process that lists them.
+ *
+ * <p>One connection serves every user: it is opened by the first {@link #acquire()} and closed
+ * by the last {@link #release()}. A listing asked for while the same one is in flight joins it
+ * instead of issuing a second query. Every complete listing is published to the
+ * {@link Observer}s, and kept for observers that register later.</p>
+ */
+public class DriveLibrary {
+
+    /**
+     * One audio file as listed. Immutable, so a listing can be handed to every observer.
+     */
+    public static class Item {
+        public final String id;
+        public final String title;
+        public final long modified;
+        public final long size;
+        public final boolean trashed;
+
+        public Item(String id, String title, long modified, long size, boolean trashed) {
+            this.id = id;
+            this.title = title;
+            this.modified = modified;
+            this.size = size;
+            this.trashed = trashed;
+        }
+    }
+
+    /**
+     * Talks to Drive. Calls back into {@link DriveLibrary#onConnected()} and
+     * {@link DriveLibrary#onConnectionFailed()}.
+     */
+    public interface Backend {
+        void connect();
+
+        void disconnect();
+
+        /**
+         * Lists the audio files modified at or after {@code modifiedSince}, or all of them for 0, and
+         * answers {@code receiver} exactly once.
+         */
+        void list(long modifiedSince, Receiver receiver);
+    }
+
+    public interface Receiver {
+        void onListed(List<Item> items);
+
+        void onFailed(String reason);
+    }
+
+    public interface Observer {
+        void onConnected();
+
+        /** A complete listing of the library. */
+        void onListing(List<Item> items);
+    }
+
+    /** The receivers waiting for one listing. */
+    private static class Request {
+        final List<Receiver> mReceivers = new ArrayList<>();
+        boolean mIssued;
+    }
+
+    private final Backend mBackend;
+
+    // guarded by this
+    private final Map<Long, Request> mInFlight = new HashMap<>();
+    private final List<Observer> mObservers = new ArrayList<>();
+    private List<Item> mLatest;
+    private int mRefs;
+    private boolean mConnected;
+    private int mQueries;
+    private int mJoined;
+
+    public DriveLibrary(Backend backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * Takes a reference to the connection, connecting if this is the first one.
+     */
+    public void acquire() {
+        synchronized (this) {
+            if (mRefs++ > 0) {
+                return;
+            }
+        }
+        mBackend.connect();
+    }
+
+    /**
+     * Drops a reference taken by {@link #acquire()}, disconnecting if it was the last one.
+     * Listings still in flight then fail.
+     */
+    public void release() {
+        List<Request> abandoned = new ArrayList<>();
+        synchronized (this) {
+            if (mRefs == 0) {
+                throw new IllegalStateException("release() without acquire()");
+            }
+            if (--mRefs > 0) {
+                return;
+            }
+            mConnected = false;
+            abandoned.addAll(mInFlight.values());
+            mInFlight.clear();
+        }
+        mBackend.disconnect();
+        for (Request request : abandoned) {
+            for (Receiver receiver : request.mReceivers) {
+                receiver.onFailed("disconnected");
+            }
+        }
+    }
+
+    /**
+     * Tries to connect again, after the user resolved a failed connection.
+     */
+    public void reconnect() {
+        synchronized (this) {
+            if (mRefs == 0 || mConnected) {
+                return;
+            }
+        }
+        mBackend.connect();
+    }
+
+    /**
+     * Registers {@code observer} and, if there is one already, hands it the connection and the
+     * latest complete listing straight away.
+     */
+    public void addObserver(Observer observer) {
+        boolean connected;
+        List<Item> latest;
+        synchronized (this) {
+            mObservers.add(observer);
+            connected = mConnected;
+            latest = mLatest;
+        }
+        if (connected) {
+            observer.onConnected();
+        }
+        if (latest != null) {
+            observer.onListing(latest);
+        }
+    }
+
+    public synchronized void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Lists the files modified at or after {@code modifiedSince}, or the whole library for 0, once
+     * connected. A complete listing also goes to every observer; {@code receiver} may be null
+     * if that is all the caller needs.
+     */
+    public void list(long modifiedSince, Receiver receiver) {
+        Request request;
+        boolean issue;
+        synchronized (this) {
+            request = mInFlight.get(modifiedSince);
+            if (request != null) {
+                mJoined++;
+            } else {
+                request = new Request();
+                mInFlight.put(modifiedSince, request);
+            }
+            if (receiver != null) {
+                request.mReceivers.add(receiver);
+            }
+            issue = mConnected && !request.mIssued;
+            if (issue) {
+                request.mIssued = true;
+                mQueries++;
+            }
+        }
+        if (issue) {
+            mBackend.list(modifiedSince, new Delivery(modifiedSince, request));
+        }
+    }
+
+    /**
+     * The latest complete listing, or null before the first one arrived.
+     */
+    public synchronized List<Item> getLatest() {
+        return mLatest;
+    }
+
+    public synchronized boolean isConnected() {
+        return mConnected;
+    }
+
+    /** How many listings were sent to the backend. */
+    public synchronized int getQueryCount() {
+        return mQueries;
+    }
+
+    /** How many listings joined one already in flight. */
+    public synchronized int getJoinedCount() {
+        return mJoined;
+    }
+
+    public void onConnected() {
+        Map<Long, Request> pending = new HashMap<>();
+        List<Observer> observers;
+        synchronized (this) {
+            if (mRefs == 0) {
+                // released while connecting
+                return;
+            }
+            mConnected = true;
+            for (Map.Entry<Long, Request> entry : mInFlight.entrySet()) {
+                if (!entry.getValue().mIssued) {
+                    entry.getValue().mIssued = true;
+                    mQueries++;
+                    pending.put(entry.getKey(), entry.getValue());
+                }
+            }
+            observers = new ArrayList<>(mObservers);
+        }
+        for (Observer observer : observers) {
+            observer.onConnected();
+        }
+        for (Map.Entry<Long, Request> entry : pending.entrySet()) {
+            mBackend.list(entry.getKey(), new Delivery(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Listings asked for so far stay queued until a later connection succeeds.
+     */
+    public synchronized void onConnectionFailed() {
+        mConnected = false;
+    }
+
+    /** Answers everyone waiting for one listing. */
+    private class Delivery implements Receiver {
+        private final long mModifiedSince;
+        private final Request mRequest;
+
+        Delivery(long modifiedSince, Request request) {
+            mModifiedSince = modifiedSince;
+            mRequest = request;
+        }
+
+        @Override
+        public void onListed(List<Item> items) {
+            items = Collections.unmodifiableList(new ArrayList<>(items));
+            List<Observer> observers = Collections.emptyList();
+            synchronized (DriveLibrary.this) {
+                if (!take()) {
+                    return;
+                }
+                if (mModifiedSince == 0) {
+                    mLatest = items;
+                    observers = new ArrayList<>(mObservers);
+                }
+            }
+            for (Receiver receiver : mRequest.mReceivers) {
+                receiver.onListed(items);
+            }
+            for (Observer observer : observers) {
+                observer.onListing(items);
+            }
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            synchronized (DriveLibrary.this) {
+                if (!take()) {
+                    return;
+                }
+            }
+            for (Receiver receiver : mRequest.mReceivers) {
+                receiver.onFailed(reason);
+            }
+        }
+
+        /**
+         * Ends the request, unless it was abandoned already and a newer one may have its place.
+         * Called with the lock held; receivers are not added once it is out of the map.
+         */
+        private boolean take() {
+            if (mInFlight.get(mModifiedSince) != mRequest) {
+                return false;
+            }
+            mInFlight.remove(mModifiedSince);
+            return true;
+        }
+    }
+}
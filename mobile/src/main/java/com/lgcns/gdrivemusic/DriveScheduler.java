@@ -0,0 +1,366 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders every Drive operation of the process, so opening the track the user just picked never
+ * waits behind a library refresh or a batch of tag scans.
+ *
+ * <p>Requests wait in one of three {@link Lane}s. Each lane has a limit on how many of its
+ * requests run at once, and all of them share one {@link TokenBucket}: whenever a token is
+ * free, the highest lane with room gets it. A failed attempt that may succeed later is retried
+ * after an exponential backoff with jitter. A request submitted under the key of an earlier
+ * one supersedes it, whether that one is still waiting or already running.</p>
+ *
+ * <p>All state lives on the given executor's single thread, which is also where calls are
+ * started and callbacks are made.</p>
+ */
+public class DriveScheduler {
+
+    public enum Lane {
+        /** Opening what the user asked to play. */
+        PLAYBACK(2, 3),
+        /** Listings and metadata the user is waiting for. */
+        BROWSE(2, 4),
+        /** Prefetch and tag scans. */
+        BACKGROUND(1, 5);
+
+        final int mMaxRunning;
+        final int mMaxAttempts;
+
+        Lane(int maxRunning, int maxAttempts) {
+            mMaxRunning = maxRunning;
+            mMaxAttempts = maxAttempts;
+        }
+    }
+
+    /**
+     * One Drive operation. {@link #start} may be called again for a retry.
+     */
+    public interface Call<T> {
+        /** Starts an attempt, which reports back through {@code attempt} on any thread. */
+        void start(Attempt<T> attempt);
+
+        /** Frees a result that arrived after the request was cancelled. */
+        void discard(T result);
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(String message);
+    }
+
+    private enum State {
+        QUEUED, RUNNING, BACKING_OFF, DONE
+    }
+
+    /**
+     * A submitted call, until it succeeds, gives up or is cancelled.
+     */
+    public final class Request<T> {
+        private final Lane mLane;
+        private final String mKey;
+        private final Call<T> mCall;
+        private final Callback<T> mCallback;
+        private State mState = State.QUEUED;
+        private int mAttempts;
+
+        Request(Lane lane, String key, Call<T> call, Callback<T> callback) {
+            mLane = lane;
+            mKey = key;
+            mCall = call;
+            mCallback = callback;
+        }
+
+        /**
+         * Drops the request; its callback gets an error unless it has finished already.
+         */
+        public void cancel() {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    DriveScheduler.this.cancel(Request.this, "cancelled");
+                    dispatch();
+                }
+            });
+        }
+    }
+
+    /**
+     * One try of a call. Only the first report counts.
+     */
+    public final class Attempt<T> {
+        private final Request<T> mRequest;
+        private final int mNumber;
+
+        Attempt(Request<T> request, int number) {
+            mRequest = request;
+            mNumber = number;
+        }
+
+        /** 1 for the first try. */
+        public int getNumber() {
+            return mNumber;
+        }
+
+        public void succeed(final T result) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Attempt.this, result, null, false);
+                }
+            });
+        }
+
+        /**
+         * @param retryable whether the same call may succeed later, such as after a timeout or
+         *                  when a rate limit was hit
+         */
+        public void fail(final String message, final boolean retryable) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Attempt.this, null, message != null ? message : "failed", retryable);
+                }
+            });
+        }
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final PrefetchPolicy.Clock mClock;
+    private final Random mRandom;
+    private final TokenBucket mBucket;
+    private final long mBackoffMs;
+    private final long mMaxBackoffMs;
+
+    // confined to the executor thread
+    private final Map<Lane, Deque<Request<?>>> mQueues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> mRunning = new EnumMap<>(Lane.class);
+    private final Map<String, Request<?>> mByKey = new HashMap<>();
+    private boolean mDispatchScheduled;
+
+    // written on the executor thread only
+    private volatile int mStarted;
+    private volatile int mRetried;
+    private volatile int mFailed;
+    private volatile int mCancelled;
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            mDispatchScheduled = false;
+            dispatch();
+        }
+    };
+
+    /**
+     * @param perSecond  average attempts started per second, over all lanes
+     * @param burst      attempts that may start at once after a quiet period
+     * @param backoffMs  delay before the first retry, doubled for every further one
+     */
+    public DriveScheduler(ScheduledExecutorService executor, PrefetchPolicy.Clock clock, Random random,
+                          double perSecond, int burst, long backoffMs, long maxBackoffMs) {
+        mExecutor = executor;
+        mClock = clock;
+        mRandom = random;
+        mBucket = new TokenBucket(perSecond, burst, clock.now());
+        mBackoffMs = backoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        for (Lane lane : Lane.values()) {
+            mQueues.put(lane, new ArrayDeque<Request<?>>());
+            mRunning.put(lane, 0);
+        }
+    }
+
+    /**
+     * Queues {@code call} in {@code lane}. If {@code key} is not null, any earlier request
+     * under the same key is cancelled.
+     */
+    public <T> Request<T> submit(Lane lane, String key, Call<T> call, Callback<T> callback) {
+        final Request<T> request = new Request<>(lane, key, call, callback);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(request);
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Runs {@code call} in {@code lane} and blocks until it succeeds or gives up, for callers
+     * that are on a worker thread already.
+     */
+    public <T> T await(Lane lane, Call<T> call) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        final String[] error = new String[1];
+        Request<T> request = submit(lane, null, call, new Callback<T>() {
+            @Override
+            public void onResult(T value) {
+                result[0] = value;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error[0] = message;
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            request.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for Drive");
+        }
+        if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+
+    /**
+     * How long to wait before retrying after {@code failures} failed attempts: the backoff
+     * doubled for every failure but the first, capped, then jittered into its upper half so
+     * clients that failed together do not retry together.
+     */
+    static long backoffDelay(int failures, long backoffMs, long maxBackoffMs, Random random) {
+        long delay = backoffMs << Math.min(failures - 1, 30);
+        if (delay <= 0 || delay > maxBackoffMs) {
+            delay = maxBackoffMs;
+        }
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    @Override
+    public String toString() {
+        return "DriveScheduler{started=" + mStarted + ", retried=" + mRetried + ", failed=" + mFailed
+                + ", cancelled=" + mCancelled + "}";
+    }
+
+    private void enqueue(Request<?> request) {
+        if (request.mKey != null) {
+            Request<?> superseded = mByKey.put(request.mKey, request);
+            if (superseded != null) {
+                cancel(superseded, "superseded");
+            }
+        }
+        mQueues.get(request.mLane).addLast(request);
+        dispatch();
+    }
+
+    private void dispatch() {
+        for (Lane lane : Lane.values()) {
+            Deque<Request<?>> queue = mQueues.get(lane);
+            while (!queue.isEmpty() && mRunning.get(lane) < lane.mMaxRunning) {
+                long now = mClock.now();
+                if (!mBucket.tryTake(now)) {
+                    // lower lanes wait for tokens too, so they cannot starve this one
+                    scheduleDispatch(mBucket.delayUntilAvailable(now));
+                    return;
+                }
+                start(queue.pollFirst());
+            }
+        }
+    }
+
+    private void scheduleDispatch(long delayMs) {
+        if (!mDispatchScheduled) {
+            mDispatchScheduled = true;
+            mExecutor.schedule(mDispatch, Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private <T> void start(Request<T> request) {
+        request.mState = State.RUNNING;
+        request.mAttempts++;
+        mRunning.put(request.mLane, mRunning.get(request.mLane) + 1);
+        mStarted++;
+
+        Attempt<T> attempt = new Attempt<>(request, request.mAttempts);
+        try {
+            request.mCall.start(attempt);
+        } catch (RuntimeException e) {
+            finish(attempt, null, String.valueOf(e), false);
+        }
+    }
+
+    private <T> void finish(Attempt<T> attempt, T result, String error, boolean retryable) {
+        final Request<T> request = attempt.mRequest;
+        if (request.mState != State.RUNNING || attempt.mNumber != request.mAttempts) {
+            // cancelled, or reported twice
+            if (result != null) {
+                request.mCall.discard(result);
+            }
+            return;
+        }
+        mRunning.put(request.mLane, mRunning.get(request.mLane) - 1);
+
+        if (error == null) {
+            done(request);
+            request.mCallback.onResult(result);
+        } else if (retryable && request.mAttempts < request.mLane.mMaxAttempts) {
+            request.mState = State.BACKING_OFF;
+            mRetried++;
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (request.mState == State.BACKING_OFF) {
+                        request.mState = State.QUEUED;
+                        // it has waited its turn already
+                        mQueues.get(request.mLane).addFirst(request);
+                        dispatch();
+                    }
+                }
+            }, backoffDelay(request.mAttempts, mBackoffMs, mMaxBackoffMs, mRandom), TimeUnit.MILLISECONDS);
+        } else {
+            done(request);
+            mFailed++;
+            request.mCallback.onError(error);
+        }
+        dispatch();
+    }
+
+    private void cancel(Request<?> request, String reason) {
+        switch (request.mState) {
+            case DONE:
+                return;
+            case QUEUED:
+                mQueues.get(request.mLane).remove(request);
+                break;
+            case RUNNING:
+                // the slot is free now; whatever the attempt still delivers is discarded
+                mRunning.put(request.mLane, mRunning.get(request.mLane) - 1);
+                break;
+            default:
+                break;
+        }
+        done(request);
+        mCancelled++;
+        request.mCallback.onError(reason);
+    }
+
+    private void done(Request<?> request) {
+        request.mState = State.DONE;
+        if (request.mKey != null && mByKey.get(request.mKey) == request) {
+            mByKey.remove(request.mKey);
+        }
+    }
+}
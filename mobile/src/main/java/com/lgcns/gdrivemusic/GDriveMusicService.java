@@ -1,65 +1,145 @@
 package com.lgcns.gdrivemusic;
 
 
-import android.media.AudioManager;
-import android.media.MediaDescription;
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.media.MediaMetadata;
-import android.media.MediaPlayer;
 import android.media.browse.MediaBrowser;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.PowerManager;
-import android.preference.PreferenceManager;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.service.media.MediaBrowserService;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-
-import com.google.android.gms.drive.Drive;
-import com.google.android.gms.drive.DriveApi;
-import com.google.android.gms.drive.DriveContents;
-import com.google.android.gms.drive.DriveFile;
-import com.google.android.gms.drive.DriveId;
-import com.google.android.gms.drive.Metadata;
-import com.google.android.gms.drive.MetadataBuffer;
-import com.google.android.gms.drive.query.Filters;
-import com.google.android.gms.drive.query.Query;
-import com.google.android.gms.drive.query.SearchableField;
-
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GDriveMusicService extends MediaBrowserService implements
-        GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener {
+        DriveLibrary.Observer {
 
     public static  final  String TAG = GDriveMusicService.class.getName() ;
-    private GoogleApiClient mGoogleApiClient;
-
-    private static final String BROWSEABLE_ROOT = "root";
-    private static final String CURRENT_MEDIA_POSITION = "current_media_position";
+    private DriveLibrary mLibrary;
+    private DriveScheduler mScheduler;
+    private DriveAccess mDrive;
+
+    private static final String BROWSEABLE_ROOT = BrowseTree.ROOT;
+    private static final String JOURNAL_FILE = "playback.bin";
+    private static final long JOURNAL_CHECKPOINT_MS = 10000;
+    static final String CATALOG_FILE = "catalog.bin";
+    private static final String AUDIO_CACHE_DIR = "audio";
+    private static final long AUDIO_CACHE_BYTES = 512L * 1024 * 1024;
+    private static final String SEEK_TABLE_DIR = "seek";
+    private static final long SEEK_TABLE_BYTES = 8L * 1024 * 1024;
+    static final String TAGS_FILE = "tags.bin";
+    private static final String ACTION_TOGGLE_OFFLINE = "com.lgcns.gdrivemusic.TOGGLE_OFFLINE";
+    private static final String ACTION_SHUFFLE_ALL = "com.lgcns.gdrivemusic.SHUFFLE_ALL";
+    /** Queue items the session is given at a time, starting a few before the current one. */
+    private static final int QUEUE_WINDOW = 50;
+    private static final int QUEUE_WINDOW_BEHIND = 10;
+    /** Asks the service to answer with an {@link #EVENT_METRICS} session event. */
+    public static final String ACTION_REPORT_METRICS = "com.lgcns.gdrivemusic.REPORT_METRICS";
+    /** Carries the playback metrics as long extras, see {@link PlaybackMetrics#toMap()}. */
+    public static final String EVENT_METRICS = "com.lgcns.gdrivemusic.METRICS";
+
+    private static AudioCache sAudioCache;
+    private static DriveAccess sDriveAccess;
+    private static final int TAG_THREADS = 2;
+    private static final int TAG_MAX_PENDING = 8;
+    private static final long TAG_PUBLISH_DELAY_MS = 2000;
+    private static final int SEARCH_LIMIT = 50;
+    private static final long BROWSE_CACHE_BYTES = 4L * 1024 * 1024;
+    /** Scheduler keys; a newer open under the same key supersedes the older one. */
+    private static final String OPEN_CURRENT = "open-current";
+    private static final String OPEN_UP_NEXT = "open-up-next";
 
     private MediaSession mMediaSession;
     private MediaSession.Token mMediaSessionToken;
 
-    private List<Song> mSongs;
-
-    private MediaPlayer mMediaPlayer;
+    private volatile Catalog mCatalog;
+    private long mCatalogVersion;
+    private BrowseTree mBrowseTree;
+    private final List<PendingLoad> mPendingLoads = new ArrayList<>();
+    /** The last catalog built on the catalog thread, to tell the next one what changed. */
+    private Catalog mBuiltCatalog;
+    private final ExecutorService mBrowseExecutor = Executors.newSingleThreadExecutor();
+    private final BrowseCache<MediaBrowser.MediaItem> mBrowseCache =
+            new BrowseCache<MediaBrowser.MediaItem>(BROWSE_CACHE_BYTES) {
+                @Override
+                protected List<MediaBrowser.MediaItem> build(BrowseTree tree, String parentId, int page, int pageSize) {
+                    return MediaItems.getMediaItemsById(tree, parentId, page, pageSize);
+                }
+            };
 
+    private CatalogStore mCatalogStore;
+    private LibrarySync mLibrarySync;
+    private boolean mSyncPending;
+    private final ExecutorService mCatalogExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void dispatchMessage(Message msg) {
+            // workers and the engine may still post results after onDestroy; nothing wants them
+            if( !mDestroyed )
+                super.dispatchMessage( msg );
+        }
+    };
+    private boolean mDestroyed;
+    private long mCreatedAt;
+    private boolean mFirstBrowseLogged;
+
+    private AudioCache mAudioCache;
+    private PlaybackEngine mPlaybackEngine;
+    private long mActiveQueueItemId = MediaSession.QueueItem.UNKNOWN_ID;
+
+    private TagCache mTagCache;
+    private TagExtractor mTagExtractor;
+    private PrefetchPolicy mTagDownloadPolicy;
+    private final ExecutorService mTagFeeder = Executors.newSingleThreadExecutor();
+    private final List<Song> mTaggedSongs = new ArrayList<>();
+    private ArtworkCache mArtworkCache;
+    private String mCurrentMediaId;
+    private PlaybackEngine.State mPlaybackState = PlaybackEngine.State.IDLE;
+    private long mPlaybackPosition;
+    private long mPlaybackStateAt;
+
+    private PlaybackJournal mJournal;
+    /** The queue the session shows; the engine works on a copy. */
+    private PlayQueue mQueue;
+    private final Random mRandom = new Random();
+    /** What the journal had at start, until playback is resumed from it or replaced. */
+    private PlaybackJournal.State mResumeState;
+
+    private final SearchIndex mSearchIndex = new SearchIndex();
+    private final ExecutorService mSearchExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Every callback only hands a command to the {@link PlaybackEngine}; none of them block.
+     */
     private MediaSession.Callback mMediaSessionCallback = new MediaSession.Callback() {
         @Override
         public void onPlay() {
             super.onPlay();
 
-            toggleMediaPlaybackState( true );
-            playMedia( PreferenceManager.getDefaultSharedPreferences( getApplicationContext() ).getInt( CURRENT_MEDIA_POSITION, 0 ), null );
+            if( mResumeState != null )
+                resumeFromJournal();
+            else
+                mPlaybackEngine.resume();
         }
 
         //This is called when the pause button is pressed, or when onPlayFromMediaId is called in
@@ -68,8 +148,7 @@ public class GDriveMusicService extends MediaBrowserService implements
         public void onPause() {
             super.onPause();
 
-            toggleMediaPlaybackState( false );
-            pauseMedia();
+            mPlaybackEngine.pause();
         }
 
         @Override
@@ -77,83 +156,577 @@ public class GDriveMusicService extends MediaBrowserService implements
             super.onPlayFromMediaId(mediaId, extras);
             Log.d ( TAG, "media ID:"+mediaId) ;
 
-            initMediaMetaData( mediaId );
-            toggleMediaPlaybackState( true );
-            playMedia( 0, mediaId );
+            play( buildQueue( mediaId ), 0 );
+        }
+
+        @Override
+        public void onPlayFromSearch(String query, Bundle extras) {
+            super.onPlayFromSearch(query, extras);
+            Log.d ( TAG, "search query:"+query) ;
+
+            playFromSearch( query, extras );
+        }
+
+        @Override
+        public void onSkipToNext() {
+            super.onSkipToNext();
+
+            mPlaybackEngine.skipToNext();
+        }
+
+        @Override
+        public void onSkipToPrevious() {
+            super.onSkipToPrevious();
+
+            mPlaybackEngine.skipToPrevious();
+        }
+
+        @Override
+        public void onSkipToQueueItem(long id) {
+            super.onSkipToQueueItem(id);
+
+            mPlaybackEngine.skipToQueueItem( (int) id );
+        }
+
+        @Override
+        public void onSeekTo(long pos) {
+            super.onSeekTo(pos);
+
+            if( mResumeState != null ) {
+                // scrubbing the journaled track only moves where the next play resumes
+                mResumeState = new PlaybackJournal.State( mResumeState.queue, mResumeState.index, mResumeState.shuffle, pos,
+                        mResumeState.savedAt );
+                updatePlaybackState( PlaybackEngine.State.PAUSED, pos );
+            }
+            else
+                mPlaybackEngine.seekTo( (int) pos );
+        }
+
+        @Override
+        public void onStop() {
+            super.onStop();
+
+            mPlaybackEngine.stop();
         }
 
         @Override
         public void onCustomAction(String action, Bundle extras) {
             super.onCustomAction(action, extras);
+
+            if( ACTION_TOGGLE_OFFLINE.equals( action ) )
+                toggleOffline();
+            else if( ACTION_SHUFFLE_ALL.equals( action ) )
+                shuffleAll();
+            else if( ACTION_REPORT_METRICS.equals( action ) )
+                reportMetrics();
         }
     };
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
+    /**
+     * Opens Drive files for the playback engine in the playback lane, ahead of browsing and
+     * background work. Opening another track supersedes an open still in flight for the previous
+     * one. The engine moves the result onto its own thread.
+     */
+    private final PlaybackEngine.Source mDriveSource = new PlaybackEngine.Source() {
+        @Override
+        public void open(final String mediaId, boolean upNext, final PlaybackEngine.OpenCallback callback) {
+            Log.i(TAG, "ret id:" + mediaId);
+            mScheduler.submit(DriveScheduler.Lane.PLAYBACK, upNext ? OPEN_UP_NEXT : OPEN_CURRENT,
+                    mDrive.open(mediaId), new DriveScheduler.Callback<DriveAccess.Contents>() {
+                        @Override
+                        public void onResult(DriveAccess.Contents contents) {
+                            callback.onOpened(new ContentsInputStream(contents));
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                            callback.onError(message);
+                        }
+                    });
+        }
+    };
+
+    /**
+     * Opens a song for tag extraction on a worker thread: the cached download if there is one.
+     * Drive fetches a file in full before handing it over, so an uncached song is only downloaded
+     * on an unmetered network while charging, like a prefetch, and goes into the audio cache;
+     * otherwise it is skipped until a later sync.
+     */
+    private final TagExtractor.SourceOpener mTagSourceOpener = new TagExtractor.SourceOpener() {
+        @Override
+        public Id3Reader.Source open(Song song) throws IOException {
+            String key = AudioCache.key( song.getuId(), song.getModified() );
+            File cached = mAudioCache.peek( key );
+            if( cached != null )
+                return new Id3Reader.FileSource( cached );
+            if( !mTagDownloadPolicy.isAllowed() )
+                return null;
+
+            DriveAccess.Contents contents = mScheduler.await( DriveScheduler.Lane.BACKGROUND,
+                    mDrive.open( song.getuId() ) );
+            return new Id3Reader.FileSource( mAudioCache.put( key, new ContentsInputStream( contents ) ) );
+        }
+    };
+
+    /**
+     * Copies of a file whose download is cached share the tags parsed from the first of them.
+     */
+    private final TagExtractor.ContentKeys mTagContentKeys = new TagExtractor.ContentKeys() {
+        @Override
+        public String contentKey(Song song) {
+            return mAudioCache.contentKey( AudioCache.key( song.getuId(), song.getModified() ) );
+        }
+    };
+
+    /**
+     * Collects tagged songs on the main thread and publishes them in batches, so a library being
+     * tagged does not rebuild the catalog once per file.
+     */
+    private final TagExtractor.Listener mTagListener = new TagExtractor.Listener() {
+        @Override
+        public void onExtracted(final Song song, final SongTags tags) {
+            if (tags.isEmpty()) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mTaggedSongs.isEmpty()) {
+                        mHandler.postDelayed(mPublishTaggedSongs, TAG_PUBLISH_DELAY_MS);
+                    }
+                    Song tagged = tags.applyTo(song);
+                    setArtworkUris(tagged);
+                    mTaggedSongs.add(tagged);
+                }
+            });
+        }
+    };
 
-        if(mSongs == null) {
-            mSongs = new ArrayList<>();
+    private final Runnable mPublishTaggedSongs = new Runnable() {
+        @Override
+        public void run() {
+            ChangeSet changes = mLibrarySync.replace(mTaggedSongs);
+            mTaggedSongs.clear();
+            Log.i(TAG, "tagged " + changes.size() + " songs, " + mTagExtractor);
+
+            if (!changes.isEmpty()) {
+                publishSongs(mLibrarySync.getSongs(), changes);
+                saveCatalog(new CatalogStore.Snapshot(mLibrarySync.getSongs(),
+                        mLibrarySync.getSyncedAt(), mLibrarySync.getFullSyncedAt()));
+            }
+            saveTags();
         }
+    };
 
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addApi(Drive.API)
-                    .addScope(Drive.SCOPE_FILE)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
+    /**
+     * Mirrors engine state into the session. Called on the engine thread.
+     */
+    private final PlaybackEngine.Listener mPlaybackListener = new PlaybackEngine.Listener() {
+        @Override
+        public void onStateChanged(final PlaybackEngine.State state, Song song, final long position) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    journalStateChange( state, position );
+                    updatePlaybackState( state, position );
+                }
+            });
         }
 
-        mGoogleApiClient.connect();
+        @Override
+        public void onTrackChanged(final int queueIndex, final Song song) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mActiveQueueItemId = queueIndex;
+                    if( mQueue != null && isWindowed( mQueue ) )
+                        publishQueueWindow();
+                    initMediaMetaData( song.getuId() );
+                    checkpointJournal();
+                }
+            });
+        }
+
+        @Override
+        public void onQueueChanged(final PlayQueue queue) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // unless another queue has been played since
+                    if( mQueue != null && mQueue.isShuffled() && mQueue.getSeed() == queue.getSeed() ) {
+                        publishQueue( queue );
+                        checkpointJournal();
+                    }
+                }
+            });
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mCreatedAt = SystemClock.elapsedRealtime();
+
+        mCatalogStore = new CatalogStore(new File(getFilesDir(), CATALOG_FILE));
+        mTagCache = new TagCache(new File(getFilesDir(), TAGS_FILE));
+        mJournal = new PlaybackJournal(new File(getFilesDir(), JOURNAL_FILE), JOURNAL_CHECKPOINT_MS);
+        loadJournal();
+        loadCatalog();
+        mAudioCache = audioCache(this);
+        // in files rather than the cache dir: tables are small and outlive evicted audio
+        SeekTableStore seekTables = new SeekTableStore(new File(getFilesDir(), SEEK_TABLE_DIR), SEEK_TABLE_BYTES);
+        mPlaybackEngine = new PlaybackEngine(this, mDriveSource, mAudioCache, seekTables, mPlaybackListener);
+        mTagDownloadPolicy = PrefetchScheduler.newPolicy(this);
+        mTagExtractor = new TagExtractor(TAG_THREADS, TAG_MAX_PENDING, mTagCache, mTagSourceOpener, mTagListener);
+        mArtworkCache = ArtworkCache.get(this);
+        mTagExtractor.setPictureSink(mArtworkCache);
+        mTagExtractor.setContentKeys(mTagContentKeys);
+
+        // shared with the activity, so a listing either of them asks for serves both
+        mDrive = driveAccess(this);
+        mScheduler = mDrive.getScheduler();
+        mLibrary = mDrive.getLibrary();
+        mLibrary.addObserver(this);
+        mLibrary.acquire();
 
         initMediaSession();
     }
 
     @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
-        Log.i(TAG, "GoogleApiClient connection failed: " + connectionResult.toString());
+    public void onConnected() {
+        // the delta query needs the watermark saved with the catalog
+        if (mLibrarySync == null) {
+            mSyncPending = true;
+            return;
+        }
+        requestSync();
     }
 
-    @Override
-    public void onConnected(Bundle connectionHint) {
-        Log.i(TAG, "API client connected.");
+    private void requestSync() {
+        mSyncPending = false;
 
-        Query query = new Query.Builder()
-                .addFilter(Filters.eq(SearchableField.MIME_TYPE, "audio/mpeg"))
-                .build();
-        Drive.DriveApi.query(mGoogleApiClient, query)
-                .setResultCallback(metadataCallback);
+        if (mLibrarySync.isFullSyncDue(System.currentTimeMillis())) {
+            // arrives in onListing, like any full listing the activity asks for
+            mLibrary.list(0, null);
+            return;
+        }
+        mLibrary.list(mLibrarySync.getSyncedAt(), new DriveLibrary.Receiver() {
+            @Override
+            public void onListed(List<DriveLibrary.Item> items) {
+                applySync(items, false);
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Log.i(TAG, "Problem while retrieving results: " + reason);
+            }
+        });
     }
 
     @Override
-    public void onConnectionSuspended(int cause) {
-        Log.i(TAG, "GoogleApiClient connection suspended");
+    public void onListing(List<DriveLibrary.Item> items) {
+        // a listing from before the catalog loaded is dropped; the service then syncs itself
+        if (mLibrarySync != null) {
+            applySync(items, true);
+        }
     }
 
-    final private ResultCallback<DriveApi.MetadataBufferResult> metadataCallback = new
-            ResultCallback<DriveApi.MetadataBufferResult>() {
-                @Override
-                public void onResult(DriveApi.MetadataBufferResult result) {
-                    if (!result.getStatus().isSuccess()) {
-                        Log.i(TAG, "Problem while retrieving results");
-                        return;
-                    }
+    /**
+     * Applies a full or delta listing to the catalog and publishes only if it changed.
+     */
+    private void applySync(List<DriveLibrary.Item> items, boolean full) {
+        List<LibrarySync.Entry> entries = new ArrayList<>(items.size());
+        for (DriveLibrary.Item item : items) {
+            Song song = new Song(item.id, item.title, null, null, null, null, null, item.modified);
+            song.setSize(item.size);
+            SongTags tags = mTagCache.get(song.getuId(), song.getModified());
+            if (tags != null) {
+                song = tags.applyTo(song);
+            }
+            setArtworkUris(song);
+            entries.add(new LibrarySync.Entry(song, item.trashed));
+        }
 
-                    if(mSongs != null) {
-                        mSongs.clear();
+        ChangeSet changes = full
+                ? mLibrarySync.applyFull(entries, System.currentTimeMillis())
+                : mLibrarySync.applyDelta(entries);
+        Log.i(TAG, (full ? "full" : "delta") + " sync of " + entries.size() + " entries: " + changes);
+
+        if (!changes.isEmpty()) {
+            publishSongs(mLibrarySync.getSongs(), changes);
+            removeCachedAudio(changes.getRemoved());
+        }
+        if (!changes.isEmpty() || full) {
+            saveCatalog(new CatalogStore.Snapshot(mLibrarySync.getSongs(),
+                    mLibrarySync.getSyncedAt(), mLibrarySync.getFullSyncedAt()));
+        }
+        extractTags(mLibrarySync.getSongs());
+    }
 
-                        MetadataBuffer buffer = result.getMetadataBuffer();
-                        for (Metadata metadata : buffer) {
-                            mSongs.add(new Song(metadata.getDriveId().encodeToString(), metadata.getTitle(), metadata.getTitle(), "GD", "Jazz", "http://", "http://"));
+    /**
+     * Drops the downloads of songs deleted from Drive on the catalog thread. Audio that copies
+     * elsewhere in the Drive still refer to stays cached.
+     */
+    private void removeCachedAudio(List<Song> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        final List<Song> songs = new ArrayList<>(removed);
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int deleted = 0;
+                try {
+                    for (Song song : songs) {
+                        if (mAudioCache.remove(AudioCache.key(song.getuId(), song.getModified()))) {
+                            deleted++;
                         }
                     }
+                } catch (IOException e) {
+                    Log.e(TAG, "content index save failed", e);
+                }
+                Log.i(TAG, songs.size() + " songs removed, " + deleted + " cached files deleted, " + mAudioCache);
+            }
+        });
+    }
 
+    /**
+     * Feeds songs whose tags are not cached yet to the extractor. Runs on its own thread because
+     * the extractor blocks it while its queue is full.
+     */
+    private void extractTags(final List<Song> songs) {
+        mTagFeeder.execute(new Runnable() {
+            @Override
+            public void run() {
+                int submitted = 0;
+                try {
+                    for (Song song : songs) {
+                        if (mTagExtractor.submit(song)) {
+                            submitted++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Log.i(TAG, "queued " + submitted + " songs for tag extraction");
+            }
+        });
+    }
 
+    private void saveTags() {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTagCache.save();
+                } catch (IOException e) {
+                    Log.e(TAG, "tag cache save failed", e);
                 }
-            };
+            }
+        });
+    }
 
+    /**
+     * Loads the last saved catalog off the main thread. Browse requests that arrive before it
+     * is ready are held back and answered as soon as it is.
+     */
+    private void loadCatalog() {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTagCache.load();
+                final CatalogStore.Snapshot snapshot = mCatalogStore.load();
+                Log.i(TAG, "catalog store loaded " + snapshot.songs.size() + " songs");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLibrarySync = new LibrarySync(snapshot.songs, snapshot.syncedAt, snapshot.fullSyncedAt);
+                        publishSongs(snapshot.songs, null);
+                        if (mSyncPending) {
+                            requestSync();
+                        }
+                    }
+                });
+            }
+        });
+    }
 
+    private void saveCatalog(final CatalogStore.Snapshot snapshot) {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCatalogStore.save(snapshot);
+                } catch (IOException e) {
+                    Log.e(TAG, "catalog save failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the next catalog snapshot and its indexes on the catalog thread, then swaps it in on
+     * the main thread. Readers keep using the previous snapshot until then. {@code changes} took
+     * the previous snapshot to {@code songs}; null if unknown.
+     */
+    private void publishSongs(final List<Song> songs, final ChangeSet changes) {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Catalog catalog = new Catalog(++mCatalogVersion, songs);
+                final Set<String> changedParents = mBuiltCatalog == null || changes == null
+                        ? null : BrowseTree.changedParents(mBuiltCatalog, catalog, changes);
+                mBuiltCatalog = catalog;
+                updateSearchIndex(songs);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publishCatalog(catalog, changedParents);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Re-indexes the songs that changed. The index is only touched on the search thread.
+     */
+    private void updateSearchIndex(final List<Song> songs) {
+        mSearchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                int changed = mSearchIndex.update(songs);
+                Log.i(TAG, "search index: " + changed + " of " + mSearchIndex.size() + " songs re-indexed in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        });
+    }
+
+    /**
+     * Swaps in a new catalog and tells subscribed browsers about the parents that changed, or
+     * about the root if those are unknown.
+     */
+    private void publishCatalog(Catalog catalog, Set<String> changedParents) {
+        boolean wasLoaded = mCatalog != null;
+        mBrowseCache.invalidate(catalog.getVersion(), changedParents);
+        mCatalog = catalog;
+        mBrowseTree = new BrowseTree(catalog);
+        if (mQueue != null && mQueue.isShuffled() && mResumeState == null) {
+            mPlaybackEngine.updateCatalog(catalog);
+        }
+        Log.i(TAG, "catalog version " + catalog.getVersion() + ": " + catalog.size() + " songs");
+
+        for (PendingLoad pending : mPendingLoads) {
+            loadChildren(pending.mParentId, pending.mResult, pending.mOptions);
+        }
+        mPendingLoads.clear();
+
+        if (wasLoaded && changedParents == null) {
+            notifyChildrenChanged(BROWSEABLE_ROOT);
+        } else if (wasLoaded) {
+            Log.i(TAG, changedParents.size() + " browse parents changed, " + mBrowseCache);
+            for (String parentId : changedParents) {
+                notifyChildrenChanged(parentId);
+            }
+        } else if (mResumeState != null) {
+            showResumeState();
+        }
+        updateOfflineSongs(catalog);
+    }
+
+    /**
+     * Drive for the service: Google Play services, unless a harness swapped in a fake.
+     */
+    static synchronized DriveAccess driveAccess(Context context) {
+        return sDriveAccess != null ? sDriveAccess : GoogleDriveBackend.get(context);
+    }
+
+    /**
+     * Makes services created from now on talk to {@code drive}; null restores Drive itself.
+     */
+    static synchronized void setDriveAccess(DriveAccess drive) {
+        sDriveAccess = drive;
+    }
+
+    /**
+     * The audio cache shared by playback and the offline prefetcher, which run in one process.
+     */
+    static synchronized AudioCache audioCache(Context context) {
+        if (sAudioCache == null) {
+            sAudioCache = AudioCache.deduplicating(new File(context.getCacheDir(), AUDIO_CACHE_DIR), AUDIO_CACHE_BYTES);
+        }
+        return sAudioCache;
+    }
+
+    private void updateOfflineSongs(final Catalog catalog) {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PrefetchScheduler.update(GDriveMusicService.this, catalog, mAudioCache);
+            }
+        });
+    }
+
+    /**
+     * Marks or unmarks the album of the current song for offline use.
+     */
+    private void toggleOffline() {
+        Catalog catalog = mCatalog;
+        Song song = catalog == null ? null : catalog.getSong(mCurrentMediaId);
+        if (song == null || song.getAlbum() == null) {
+            return;
+        }
+
+        boolean offline = !PrefetchScheduler.isAlbumOffline(this, song.getAlbum());
+        PrefetchScheduler.setAlbumOffline(this, song.getAlbum(), offline);
+        Log.i(TAG, (offline ? "keeping " : "no longer keeping ") + song.getAlbum() + " offline");
+        updateOfflineSongs(catalog);
+        long position = mPlaybackPosition;
+        if (mPlaybackState == PlaybackEngine.State.PLAYING) {
+            position += SystemClock.elapsedRealtime() - mPlaybackStateAt;
+        }
+        updatePlaybackState(mPlaybackState, position);
+    }
+
+
+
+    private static class PendingLoad {
+        final String mParentId;
+        final Result<List<MediaBrowser.MediaItem>> mResult;
+        final Bundle mOptions;
+
+        PendingLoad(String parentId, Result<List<MediaBrowser.MediaItem>> result, Bundle options) {
+            mParentId = parentId;
+            mResult = result;
+            mOptions = options;
+        }
+    }
+
+    /**
+     * The stream of Drive contents, which discards them when it is closed.
+     */
+    private static class ContentsInputStream extends FilterInputStream {
+        private final DriveAccess.Contents mContents;
+        private boolean mDiscarded;
+
+        ContentsInputStream(DriveAccess.Contents contents) {
+            super(contents.getInputStream());
+            mContents = contents;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!mDiscarded) {
+                    mDiscarded = true;
+                    mContents.discard();
+                }
+            }
+        }
+    }
 
     private void initMediaSession() {
         mMediaSession = new MediaSession( this, "Android Auto Audio Demo" );
@@ -165,179 +738,483 @@ public class GDriveMusicService extends MediaBrowserService implements
     }
 
     private void initMediaMetaData( String id ) {
+        mCurrentMediaId = id;
 
-        for( Song song : mSongs ) {
-            if( !TextUtils.isEmpty( song.getuId() ) && song.getuId().equalsIgnoreCase( id ) ) {
-                MediaMetadata.Builder builder = new MediaMetadata.Builder();
+        Catalog catalog = mCatalog;
+        Song song = catalog == null ? null : catalog.getSong( id );
+        if( song == null )
+            return;
 
-                if( !TextUtils.isEmpty( song.getTitle() ) )
-                    builder.putText( MediaMetadata.METADATA_KEY_TITLE, song.getTitle() );
+        MediaMetadata.Builder builder = MediaItems.buildMetadata( song );
 
-                if( !TextUtils.isEmpty( song.getArtist() ) )
-                    builder.putText( MediaMetadata.METADATA_KEY_ARTIST, song.getArtist() );
+        Bitmap art = mArtworkCache.peekBitmap( song.getAlbum(), ArtworkCache.SIZE_LARGE );
+        if( art != null )
+            builder.putBitmap( MediaMetadata.METADATA_KEY_ALBUM_ART, art );
+        else if( mArtworkCache.hasArtwork( song.getAlbum() ) )
+            loadArtwork( song );
 
-                if( !TextUtils.isEmpty( song.getGenre() ) )
-                    builder.putText( MediaMetadata.METADATA_KEY_GENRE, song.getGenre() );
+        mMediaSession.setMetadata( builder.build() );
+    }
 
-                if( !TextUtils.isEmpty( song.getAlbum() ) )
-                    builder.putText( MediaMetadata.METADATA_KEY_ALBUM, song.getAlbum() );
+    /**
+     * Decodes the art of {@code song} off the main thread and refreshes the metadata if the song
+     * is still the current one.
+     */
+    private void loadArtwork( final Song song ) {
+        mCatalogExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                if( mArtworkCache.getBitmap( song.getAlbum(), ArtworkCache.SIZE_LARGE ) == null )
+                    return;
+                mHandler.post( new Runnable() {
+                    @Override
+                    public void run() {
+                        if( song.getuId().equals( mCurrentMediaId ) )
+                            initMediaMetaData( song.getuId() );
+                    }
+                } );
+            }
+        } );
+    }
 
-                if( !TextUtils.isEmpty( song.getAlbumUrl() ) )
-                    builder.putText( MediaMetadata.METADATA_KEY_ALBUM_ART_URI, song.getAlbumUrl() );
+    /**
+     * Points a song that has not been published yet at its album's thumbnails.
+     */
+    private static void setArtworkUris( Song song ) {
+        Uri large = ArtworkCache.uriFor( song.getAlbum(), ArtworkCache.SIZE_LARGE );
+        Uri small = ArtworkCache.uriFor( song.getAlbum(), ArtworkCache.SIZE_SMALL );
+        song.setAlbumUrl( large == null ? null : large.toString() );
+        song.setThumbnailUrl( small == null ? null : small.toString() );
+    }
 
-                mMediaSession.setMetadata( builder.build() );
-            }
-        }
+    /**
+     * Queues the album of the requested song, starting at that song. A song the catalog does not
+     * know yet is queued on its own.
+     */
+    private PlayQueue buildQueue( String mediaId ) {
+        Catalog catalog = mCatalog;
+        Song song = catalog == null ? null : catalog.getSong( mediaId );
+        if( song == null )
+            return new PlayQueue( Collections.singletonList( new Song( mediaId, null, null, null, null, null, null ) ), 0 );
+
+        String album = Catalog.nameOf( Catalog.Index.ALBUM, song );
+        return PlayQueue.startingAt( catalog.getSongs( Catalog.Index.ALBUM, album ), mediaId );
     }
 
-    private void toggleMediaPlaybackState( boolean playing ) {
-        PlaybackState playbackState;
-        if( playing ) {
-            playbackState = new PlaybackState.Builder()
-                    .setActions( PlaybackState.ACTION_PLAY_PAUSE | PlaybackState.ACTION_SKIP_TO_NEXT | PlaybackState.ACTION_SKIP_TO_PREVIOUS )
-                    .setState( PlaybackState.STATE_PLAYING, 0, 1 )
-                    .build();
-        } else {
-            playbackState = new PlaybackState.Builder()
-                    .setActions( PlaybackState.ACTION_PLAY_PAUSE )
-                    .setState(PlaybackState.STATE_PAUSED, 0, 1)
-                    .build();
+    /**
+     * Queues the matches of a voice or assistant query. An album or artist named in the extras is
+     * played whole; an empty query shuffles the library.
+     */
+    private void playFromSearch( final String query, final Bundle extras ) {
+        final Catalog catalog = mCatalog;
+        if( catalog == null )
+            return;
+
+        if( TextUtils.isEmpty( query ) ) {
+            shuffleAll();
+            return;
         }
 
-        mMediaSession.setPlaybackState( playbackState );
-    }
+        String focus = extras == null ? null : extras.getString( MediaStore.EXTRA_MEDIA_FOCUS );
+        if( MediaStore.Audio.Albums.ENTRY_CONTENT_TYPE.equals( focus ) ) {
+            String album = extras.getString( MediaStore.EXTRA_MEDIA_ALBUM );
+            if( catalog.contains( Catalog.Index.ALBUM, album ) ) {
+                play( new PlayQueue( catalog.getSongs( Catalog.Index.ALBUM, album ), 0 ), 0 );
+                return;
+            }
+        } else if( MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE.equals( focus ) ) {
+            String artist = extras.getString( MediaStore.EXTRA_MEDIA_ARTIST );
+            if( catalog.contains( Catalog.Index.ARTIST, artist ) ) {
+                play( new PlayQueue( catalog.getSongs( Catalog.Index.ARTIST, artist ), 0 ), 0 );
+                return;
+            }
+        }
 
-    @Override
-    public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
-        return new BrowserRoot(BROWSEABLE_ROOT, null);
+        mSearchExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                final List<Song> matches = mSearchIndex.search( query, SEARCH_LIMIT );
+                mHandler.post( new Runnable() {
+                    @Override
+                    public void run() {
+                        if( matches.isEmpty() ) {
+                            Log.i( TAG, "nothing found for " + query );
+                            return;
+                        }
+                        play( new PlayQueue( matches, 0 ), 0 );
+                    }
+                } );
+            }
+        } );
     }
 
-    @Override
-    public void onLoadChildren(String parentId, Result<List<MediaBrowser.MediaItem>> result) {
+    /**
+     * Plays the whole catalog in a new random order, over and over. Nothing is copied, however
+     * large the library; see {@link PlayQueue#shuffled}.
+     */
+    private void shuffleAll() {
+        Catalog catalog = mCatalog;
+        if( catalog == null || catalog.size() == 0 )
+            return;
+        play( PlayQueue.shuffled( catalog, mRandom.nextLong(), true ), 0 );
+    }
 
-        List<MediaBrowser.MediaItem> items = getMediaItemsById( parentId );
-        if( items != null ) {
-            result.sendResult( items );
-        }
+    private void play( PlayQueue queue, int positionMs ) {
+        mResumeState = null;
+        publishQueue( queue );
 
+        Song current = queue.getCurrent();
+        if( current != null )
+            initMediaMetaData( current.getuId() );
+        mPlaybackEngine.play( queue, positionMs );
     }
 
-    private List<MediaBrowser.MediaItem> getMediaItemsById( String id ) {
-        List<MediaBrowser.MediaItem> mediaItems = new ArrayList();
+    private void publishQueue( PlayQueue queue ) {
+        mQueue = queue;
+        mActiveQueueItemId = queue.getIndex();
+        publishQueueWindow();
 
-        for( Song song : mSongs ) {
-            mediaItems.add( generatePlayableMediaItem( song ) );
-        }
-        return mediaItems;
+        Song current = queue.getCurrent();
+        if( queue.isShuffled() )
+            mMediaSession.setQueueTitle( getString( R.string.action_shuffle_all ) );
+        else
+            mMediaSession.setQueueTitle( current == null ? null : current.getAlbum() );
     }
 
-    private List<MediaBrowser.MediaItem> getPlayableMediaItemsByGenre( String genre ) {
+    /**
+     * Gives the session the queue items around the current one, or all of them for a short
+     * queue. Item ids stay the positions in the whole queue.
+     */
+    private void publishQueueWindow() {
+        int from = 0;
+        if( isWindowed( mQueue ) )
+            from = (int) Math.max( 0, mActiveQueueItemId - QUEUE_WINDOW_BEHIND );
+        List<MediaSession.QueueItem> items = new ArrayList<>( Math.min( QUEUE_WINDOW, mQueue.size() ) );
+        // positions of songs removed from a shuffle in progress have no item
+        for( int i = mQueue.nextPosition( from - 1 ); i >= 0 && items.size() < QUEUE_WINDOW; i = mQueue.nextPosition( i ) ) {
+            Song song = mQueue.get( i );
+            items.add( new MediaSession.QueueItem( MediaItems.generatePlayableMediaItem( song ).getDescription(), i ) );
+        }
+        mMediaSession.setQueue( items );
+    }
 
-        if( TextUtils.isEmpty( genre ) )
-            return null;
+    private static boolean isWindowed( PlayQueue queue ) {
+        return queue.size() > QUEUE_WINDOW || queue.isRepeating();
+    }
 
-        List<MediaBrowser.MediaItem> mediaItems = new ArrayList();
+    private void updatePlaybackState( PlaybackEngine.State state, long position ) {
+        mPlaybackState = state;
+        mPlaybackPosition = position;
+        mPlaybackStateAt = SystemClock.elapsedRealtime();
+
+        int sessionState;
+        float speed = 0;
+        switch( state ) {
+            case PLAYING:
+                sessionState = PlaybackState.STATE_PLAYING;
+                speed = 1;
+                break;
+            case PAUSED:
+                sessionState = PlaybackState.STATE_PAUSED;
+                break;
+            case OPENING:
+                sessionState = PlaybackState.STATE_CONNECTING;
+                break;
+            case BUFFERING:
+            case PREPARED:
+                sessionState = PlaybackState.STATE_BUFFERING;
+                break;
+            case ERROR:
+                sessionState = PlaybackState.STATE_ERROR;
+                break;
+            default:
+                sessionState = PlaybackState.STATE_STOPPED;
+                break;
+        }
 
-        for( Song song : mSongs ) {
-            if( !TextUtils.isEmpty( song.getGenre() ) && genre.equalsIgnoreCase( song.getGenre() ) ) {
-                mediaItems.add( generatePlayableMediaItem( song ) );
-            }
+        long actions = PlaybackState.ACTION_PLAY_PAUSE | PlaybackState.ACTION_STOP | PlaybackState.ACTION_PLAY_FROM_SEARCH;
+        if( sessionState != PlaybackState.STATE_STOPPED ) {
+            actions |= PlaybackState.ACTION_SKIP_TO_NEXT | PlaybackState.ACTION_SKIP_TO_PREVIOUS | PlaybackState.ACTION_SKIP_TO_QUEUE_ITEM
+                    | PlaybackState.ACTION_SEEK_TO;
         }
-        return mediaItems;
-    }
 
-    private MediaBrowser.MediaItem generatePlayableMediaItem( Song song ) {
-        if( song == null )
-            return null;
+        PlaybackState.Builder playbackState = new PlaybackState.Builder()
+                .setActions( actions )
+                .setState( sessionState, position, speed )
+                .setActiveQueueItemId( mActiveQueueItemId );
+        mMediaSession.setPlaybackState( withOfflineAction( playbackState )
+                .addCustomAction( new PlaybackState.CustomAction.Builder( ACTION_SHUFFLE_ALL,
+                        getString( R.string.action_shuffle_all ), android.R.drawable.ic_menu_rotate ).build() )
+                .build() );
+    }
 
-        MediaDescription.Builder mediaDescriptionBuilder = new MediaDescription.Builder();
-        mediaDescriptionBuilder.setMediaId( song.getuId() );
+    private PlaybackState.Builder withOfflineAction( PlaybackState.Builder builder ) {
+        Catalog catalog = mCatalog;
+        Song song = catalog == null ? null : catalog.getSong( mCurrentMediaId );
+        if( song == null || song.getAlbum() == null )
+            return builder;
 
-        if( !TextUtils.isEmpty( song.getTitle() ) )
-            mediaDescriptionBuilder.setTitle( song.getTitle() );
+        boolean offline = PrefetchScheduler.isAlbumOffline( this, song.getAlbum() );
+        return builder.addCustomAction( new PlaybackState.CustomAction.Builder( ACTION_TOGGLE_OFFLINE,
+                getString( offline ? R.string.action_remove_offline : R.string.action_keep_offline ),
+                offline ? android.R.drawable.ic_menu_close_clear_cancel : android.R.drawable.stat_sys_download ).build() );
+    }
 
-        if( !TextUtils.isEmpty( song.getArtist() ) )
-            mediaDescriptionBuilder.setSubtitle( song.getArtist() );
+    @Override
+    public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
+        return new BrowserRoot(BROWSEABLE_ROOT, null);
+    }
 
-        if( !TextUtils.isEmpty( song.getThumbnailUrl() ) )
-            mediaDescriptionBuilder.setIconUri( Uri.parse( song.getThumbnailUrl() ) );
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowser.MediaItem>> result) {
+        onLoadChildren( parentId, result, null );
+    }
 
-        return new MediaBrowser.MediaItem( mediaDescriptionBuilder.build(), MediaBrowser.MediaItem.FLAG_PLAYABLE );
+    /**
+     * Honours {@link MediaBrowser#EXTRA_PAGE} and {@link MediaBrowser#EXTRA_PAGE_SIZE} so a client
+     * only ever receives the slice it asked for. Children are built on the browse thread and
+     * kept in {@link #mBrowseCache} until the catalog changes under their parent; the result is
+     * always sent, null for an unknown parent.
+     */
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowser.MediaItem>> result, Bundle options) {
+        result.detach();
+        loadChildren( parentId, result, options );
     }
 
-    private void playMedia( int position, String id ) {
+    private void loadChildren(final String parentId, final Result<List<MediaBrowser.MediaItem>> result, Bundle options) {
+        if( mCatalog == null ) {
+            mPendingLoads.add( new PendingLoad( parentId, result, options ) );
+            return;
+        }
 
-        if( mMediaPlayer != null ) {
-            mMediaPlayer.reset();
-        } else {
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+        int page = -1;
+        int pageSize = -1;
+        if( options != null ) {
+            page = options.getInt( MediaBrowser.EXTRA_PAGE, -1 );
+            pageSize = options.getInt( MediaBrowser.EXTRA_PAGE_SIZE, -1 );
+        }
 
-            mMediaPlayer.setOnCompletionListener(
-                    new MediaPlayer.OnCompletionListener() {
-                        @Override
-                        public void onCompletion(MediaPlayer mp) {
-                            Log.d(TAG, "onCompletion() mediaPlayer=" + mp);
-                            mp.stop();
+        final BrowseTree tree = mBrowseTree;
+        final long version = mCatalog.getVersion();
+        final int requestedPage = page;
+        final int requestedPageSize = pageSize;
+        mBrowseExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                List<MediaBrowser.MediaItem> children = null;
+                try {
+                    children = mBrowseCache.get( tree, version, parentId, requestedPage, requestedPageSize );
+                } catch( RuntimeException e ) {
+                    Log.e( TAG, "browse of " + parentId + " failed", e );
+                }
+                final List<MediaBrowser.MediaItem> items = children;
+                mHandler.post( new Runnable() {
+                    @Override
+                    public void run() {
+                        sendBrowseResult( result, items );
+                    }
+                } );
+            }
+        } );
+    }
+
+    /**
+     * Answers {@code MediaBrowser.search}. There is no {@code @Override} because the method only
+     * exists from API 26 on; on those devices this declaration overrides it all the same.
+     */
+    public void onSearch( final String query, Bundle extras, final Result<List<MediaBrowser.MediaItem>> result ) {
+        result.detach();
+        mSearchExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                final List<Song> matches = mSearchIndex.search( query, SEARCH_LIMIT );
+                mHandler.post( new Runnable() {
+                    @Override
+                    public void run() {
+                        List<MediaBrowser.MediaItem> items = new ArrayList<>( matches.size() );
+                        for( Song song : matches ) {
+                            items.add( MediaItems.generatePlayableMediaItem( song ) );
                         }
+                        result.sendResult( items );
                     }
+                } );
+            }
+        } );
+    }
+
+    private void sendBrowseResult( Result<List<MediaBrowser.MediaItem>> result, List<MediaBrowser.MediaItem> items ) {
+        result.sendResult( items );
 
-            );
+        if( items != null && !mFirstBrowseLogged ) {
+            mFirstBrowseLogged = true;
+            Log.i( TAG, "time to first browse result: " + ( SystemClock.elapsedRealtime() - mCreatedAt )
+                    + " ms, " + items.size() + " items" );
         }
+    }
 
-        if(id != null) {
-            DriveId fileId = DriveId.decodeFromString(id);
-            DriveFile file = fileId.asDriveFile();
-            Log.i(TAG, "ret id:" + file.getDriveId().encodeToString());
+    /**
+     * Sends the playback metrics to the controllers, for field reports without a profiler.
+     */
+    private void reportMetrics() {
+        Bundle metrics = new Bundle();
+        for( Map.Entry<String, Long> entry : mPlaybackEngine.getMetrics().toMap().entrySet() ) {
+            metrics.putLong( entry.getKey(), entry.getValue() );
+        }
+        mMediaSession.sendSessionEvent( EVENT_METRICS, metrics );
+    }
 
+    /**
+     * {@code adb shell dumpsys activity service com.lgcns.gdrivemusic/.GDriveMusicService}
+     */
+    @Override
+    public void dump( FileDescriptor fd, PrintWriter writer, String[] args ) {
+        Catalog catalog = mCatalog;
+        writer.println( "Catalog: " + ( catalog == null ? "not loaded" : catalog.size() + " songs, version " + catalog.getVersion() ) );
+        writer.println( "Playback: " + mPlaybackState + " " + mCurrentMediaId );
+        writer.println( "Audio cache: " + mAudioCache );
+        writer.println( "Tags: " + mTagExtractor );
+        mPlaybackEngine.getMetrics().dump( writer );
+    }
 
-            file.open(mGoogleApiClient, DriveFile.MODE_READ_WRITE, null).setResultCallback(new ResultCallback<DriveApi.DriveContentsResult>() {
-                @Override
-                public void onResult(DriveApi.DriveContentsResult result) {
-                    if (!result.getStatus().isSuccess()) {
-                        Log.i(TAG, "file open error");
-                        return;
+    /**
+     * Reads the journal off the main thread, ahead of the catalog, and offers its track for
+     * resuming as soon as it is read.
+     */
+    private void loadJournal() {
+        mCatalogExecutor.execute( new Runnable() {
+            @Override
+            public void run() {
+                final PlaybackJournal.State state = mJournal.load();
+                if( state == null || state.getCurrent() == null )
+                    return;
+                mHandler.post( new Runnable() {
+                    @Override
+                    public void run() {
+                        // a play request that arrived first wins
+                        if( mQueue != null )
+                            return;
+                        mResumeState = state;
+                        showResumeState();
+                        Log.i( TAG, "resume state restored " + ( SystemClock.elapsedRealtime() - mCreatedAt )
+                                + " ms after start: " + state.queue.size() + " songs, at " + state.positionMs + " ms" );
                     }
-                    DriveContents driveContents = result.getDriveContents();
-                    FileDescriptor fd = driveContents.getParcelFileDescriptor().getFileDescriptor();
+                } );
+            }
+        } );
+    }
 
-                    try {
-                        Log.i(TAG, "try to play");
+    /**
+     * Shows the journaled track as paused, so controllers offer to resume it. Songs the catalog
+     * knows are shown with their tags, the others by id until the catalog is loaded.
+     */
+    private void showResumeState() {
+        PlayQueue queue = resolve( mResumeState );
+        publishQueue( queue );
+        initMediaMetaData( queue.getCurrent().getuId() );
+        updatePlaybackState( PlaybackEngine.State.PAUSED, mResumeState.positionMs );
+    }
 
-                        mMediaPlayer.setDataSource(fd);
-                        mMediaPlayer.prepare();
-                        mMediaPlayer.start();
+    private void resumeFromJournal() {
+        PlaybackJournal.State state = mResumeState;
+        play( resolve( state ), (int) state.positionMs );
+    }
 
-                    } catch (IOException e) {
-                        Log.e(TAG, "play() exception e=" + e);
-                    }
+    private PlayQueue resolve( PlaybackJournal.State state ) {
+        Catalog catalog = mCatalog;
+        PlaybackJournal.Shuffle shuffle = state.shuffle;
+        if( shuffle != null && catalog != null && catalog.size() > 0 ) {
+            PlayQueue queue = PlayQueue.shuffled( catalog, shuffle.seed, shuffle.repeat );
+            queue.restore( shuffle.position, state.getCurrent().getuId() );
+            return queue;
+        }
+        List<Song> songs = new ArrayList<>( state.queue.size() );
+        for( Song song : state.queue ) {
+            Song known = catalog == null ? null : catalog.getSong( song.getuId() );
+            songs.add( known != null ? known : song );
+        }
+        return new PlayQueue( songs, state.index );
+    }
 
-                }
-            });
+    /**
+     * Pauses and stops are written right away; everything else goes through the coalesced
+     * checkpoints, one every {@link #JOURNAL_CHECKPOINT_MS} while playing.
+     */
+    private void journalStateChange( PlaybackEngine.State state, long position ) {
+        mHandler.removeCallbacks( mJournalCheckpoint );
+        switch( state ) {
+            case PLAYING:
+                mHandler.postDelayed( mJournalCheckpoint, JOURNAL_CHECKPOINT_MS );
+                break;
+            case PAUSED:
+                commitJournal( position );
+                break;
+            case IDLE:
+            case ERROR:
+                // the engine no longer knows the position; keep the last one it reported
+                commitJournal( currentPosition() );
+                break;
+            default:
+                break;
+        }
+    }
+
+    private final Runnable mJournalCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            checkpointJournal();
+            mHandler.postDelayed( this, JOURNAL_CHECKPOINT_MS );
         }
+    };
 
-//        if( position > 0 )
-//            mMediaPlayer.seekTo( position );
+    private void checkpointJournal() {
+        PlaybackJournal.State state = journalState( currentPosition() );
+        if( state != null )
+            mJournal.checkpoint( state );
     }
 
-    private void pauseMedia() {
-        if( mMediaPlayer != null ) {
-            mMediaPlayer.pause();
-            PreferenceManager.getDefaultSharedPreferences( this ).edit().putInt( CURRENT_MEDIA_POSITION,
-                    mMediaPlayer.getCurrentPosition() ).commit();
+    private void commitJournal( long position ) {
+        PlaybackJournal.State state = journalState( position );
+        if( state != null )
+            mJournal.commit( state );
+    }
+
+    private PlaybackJournal.State journalState( long position ) {
+        if( mQueue == null || mResumeState != null )
+            return null;
+        if( mQueue.isShuffled() ) {
+            // the seed and position stand for the whole order
+            Song current = mQueue.get( (int) mActiveQueueItemId );
+            if( current == null )
+                return null;
+            return PlaybackJournal.State.shuffled( current, new PlaybackJournal.Shuffle( mQueue.getSeed(),
+                    (int) mActiveQueueItemId, mQueue.isRepeating() ), position, System.currentTimeMillis() );
         }
+        return new PlaybackJournal.State( mQueue.getSongs(), (int) mActiveQueueItemId, position, System.currentTimeMillis() );
+    }
+
+    private long currentPosition() {
+        if( mPlaybackState == PlaybackEngine.State.PLAYING )
+            return mPlaybackPosition + SystemClock.elapsedRealtime() - mPlaybackStateAt;
+        return mPlaybackPosition;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if( mMediaPlayer != null ) {
-            pauseMedia();
-            mMediaPlayer.release();
-            PreferenceManager.getDefaultSharedPreferences( this ).edit().putInt( CURRENT_MEDIA_POSITION,
-                    0 ).commit();
-        }
-
+        // silence everything that posts back before shutting down what those posts would use
+        mPlaybackEngine.release();
+        mLibrary.removeObserver(this);
+        mDestroyed = true;
+        mHandler.removeCallbacksAndMessages( null );
+        mTagFeeder.shutdownNow();
+        mTagExtractor.shutdown();
+        saveTags();
+        mCatalogExecutor.shutdown();
+        mSearchExecutor.shutdown();
+        mBrowseExecutor.shutdown();
+        commitJournal( currentPosition() );
+        mJournal.close();
+        mLibrary.release();
     }
 }
@@ -0,0 +1,292 @@
+package com.lgcns.gdrivemusic;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.drive.Drive;
+import com.google.android.gms.drive.DriveApi;
+import com.google.android.gms.drive.DriveContents;
+import com.google.android.gms.drive.DriveFile;
+import com.google.android.gms.drive.DriveId;
+import com.google.android.gms.drive.DriveStatusCodes;
+import com.google.android.gms.drive.Metadata;
+import com.google.android.gms.drive.MetadataBuffer;
+import com.google.android.gms.drive.query.Filter;
+import com.google.android.gms.drive.query.Filters;
+import com.google.android.gms.drive.query.Query;
+import com.google.android.gms.drive.query.SearchableField;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The process-wide {@link DriveAccess}: the {@link DriveLibrary} and {@link DriveScheduler}, on
+ * top of one {@link GoogleApiClient}.
+ *
+ * <p>Activities that need to resolve connection failures register their own listener on
+ * {@link #getClient()}; everything else only holds a reference to the library. Every Drive
+ * call goes through the scheduler, see {@link #open}.</p>
+ */
+public class GoogleDriveBackend implements DriveAccess, DriveLibrary.Backend,
+        GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String TAG = GoogleDriveBackend.class.getName();
+    private static final String MIME_TYPE = "audio/mpeg";
+    // Drive allows about 10 requests per second and user
+    private static final double REQUESTS_PER_SECOND = 8;
+    private static final int REQUEST_BURST = 4;
+    private static final long BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    static final PrefetchPolicy.Clock ELAPSED_CLOCK = new PrefetchPolicy.Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    private static GoogleDriveBackend sInstance;
+
+    private final GoogleApiClient mClient;
+    private final DriveLibrary mLibrary;
+    private final DriveScheduler mScheduler;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized GoogleDriveBackend get(Context context) {
+        if (sInstance == null) {
+            sInstance = new GoogleDriveBackend(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GoogleDriveBackend(Context context) {
+        mClient = new GoogleApiClient.Builder(context)
+                .addApi(Drive.API)
+                .addScope(Drive.SCOPE_FILE)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+        mLibrary = new DriveLibrary(this);
+        mScheduler = new DriveScheduler(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "DriveScheduler");
+            }
+        }), ELAPSED_CLOCK, new Random(), REQUESTS_PER_SECOND, REQUEST_BURST, BACKOFF_MS, MAX_BACKOFF_MS);
+    }
+
+    @Override
+    public DriveLibrary getLibrary() {
+        return mLibrary;
+    }
+
+    /**
+     * The shared client, for opening files. Only connected while someone holds the library.
+     */
+    public GoogleApiClient getClient() {
+        return mClient;
+    }
+
+    @Override
+    public DriveScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    @Override
+    public DriveScheduler.Call<DriveAccess.Contents> open(String driveId) {
+        return open(mClient, driveId, null);
+    }
+
+    /**
+     * Opening a file for reading through {@code client}, as a call for the scheduler. Contents
+     * that arrive after the request was cancelled are discarded.
+     */
+    public static DriveScheduler.Call<DriveAccess.Contents> open(final GoogleApiClient client, final String driveId,
+                                                                 final DriveFile.DownloadProgressListener listener) {
+        return new DriveScheduler.Call<DriveAccess.Contents>() {
+            @Override
+            public void start(final DriveScheduler.Attempt<DriveAccess.Contents> attempt) {
+                DriveFile file = DriveId.decodeFromString(driveId).asDriveFile();
+                file.open(client, DriveFile.MODE_READ_ONLY, listener).setResultCallback(new ResultCallback<DriveApi.DriveContentsResult>() {
+                    @Override
+                    public void onResult(DriveApi.DriveContentsResult result) {
+                        Status status = result.getStatus();
+                        if (status.isSuccess()) {
+                            attempt.succeed(new Contents(client, result.getDriveContents()));
+                        } else {
+                            attempt.fail(status.getStatusMessage(), isRetryable(status));
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void discard(DriveAccess.Contents contents) {
+                contents.discard();
+            }
+        };
+    }
+
+    /**
+     * Whether a failed call may succeed if tried again later.
+     */
+    static boolean isRetryable(Status status) {
+        switch (status.getStatusCode()) {
+            case CommonStatusCodes.NETWORK_ERROR:
+            case CommonStatusCodes.INTERNAL_ERROR:
+            case CommonStatusCodes.INTERRUPTED:
+            case CommonStatusCodes.TIMEOUT:
+            case DriveStatusCodes.DRIVE_RATE_LIMIT_EXCEEDED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void connect() {
+        mClient.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        mClient.disconnect();
+    }
+
+    /**
+     * Queries in the browse lane and answers on the main thread.
+     */
+    @Override
+    public void list(final long modifiedSince, final DriveLibrary.Receiver receiver) {
+        mScheduler.submit(DriveScheduler.Lane.BROWSE, null, new DriveScheduler.Call<List<DriveLibrary.Item>>() {
+            @Override
+            public void start(DriveScheduler.Attempt<List<DriveLibrary.Item>> attempt) {
+                query(modifiedSince, attempt);
+            }
+
+            @Override
+            public void discard(List<DriveLibrary.Item> items) {
+            }
+        }, new DriveScheduler.Callback<List<DriveLibrary.Item>>() {
+            @Override
+            public void onResult(final List<DriveLibrary.Item> items) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.onListed(items);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final String message) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.onFailed(message);
+                    }
+                });
+            }
+        });
+    }
+
+    private void query(long modifiedSince, final DriveScheduler.Attempt<List<DriveLibrary.Item>> attempt) {
+        Filter filter = Filters.eq(SearchableField.MIME_TYPE, MIME_TYPE);
+        if (modifiedSince > 0) {
+            // inclusive: a file saved in the same millisecond as the last one seen is not missed,
+            // and the ones seen already apply as unchanged
+            filter = Filters.and(filter, Filters.greaterThanEquals(SearchableField.MODIFIED_DATE,
+                    new Date(modifiedSince)));
+        }
+
+        Query query = new Query.Builder()
+                .addFilter(filter)
+                .build();
+        Drive.DriveApi.query(mClient, query)
+                .setResultCallback(new ResultCallback<DriveApi.MetadataBufferResult>() {
+                    @Override
+                    public void onResult(DriveApi.MetadataBufferResult result) {
+                        Status status = result.getStatus();
+                        if (!status.isSuccess()) {
+                            attempt.fail(status.toString(), isRetryable(status));
+                            return;
+                        }
+
+                        MetadataBuffer buffer = result.getMetadataBuffer();
+                        List<DriveLibrary.Item> items = new ArrayList<>(buffer.getCount());
+                        try {
+                            for (Metadata metadata : buffer) {
+                                items.add(new DriveLibrary.Item(metadata.getDriveId().encodeToString(),
+                                        metadata.getTitle(), metadata.getModifiedDate().getTime(),
+                                        metadata.getFileSize(), metadata.isTrashed()));
+                            }
+                        } finally {
+                            buffer.release();
+                        }
+                        attempt.succeed(items);
+                    }
+                });
+    }
+
+    /**
+     * Drive contents, read through their file descriptor.
+     */
+    private static class Contents implements DriveAccess.Contents {
+        private final GoogleApiClient mClient;
+        private final DriveContents mContents;
+
+        Contents(GoogleApiClient client, DriveContents contents) {
+            mClient = client;
+            mContents = contents;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mContents.getInputStream();
+        }
+
+        @Override
+        public Id3Reader.Source getSource() {
+            return new Id3Reader.ChannelSource(
+                    new FileInputStream(mContents.getParcelFileDescriptor().getFileDescriptor()).getChannel());
+        }
+
+        @Override
+        public void discard() {
+            mContents.discard(mClient);
+        }
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        Log.i(TAG, "API client connected.");
+        mLibrary.onConnected();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // the client reconnects by itself
+        Log.i(TAG, "GoogleApiClient connection suspended");
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Log.i(TAG, "GoogleApiClient connection failed: " + connectionResult.toString());
+        mLibrary.onConnectionFailed();
+    }
+}
@@ -0,0 +1,57 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reads byte ranges of a file over HTTP, such as a Drive file's {@code alt=media} URL. A server
+ * that ignores the Range header would send the whole file, so anything but a partial response
+ * for a partial range is an error.
+ */
+public class HttpRangeSource implements SegmentedDownload.RangeSource {
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private final URL mUrl;
+    private final Map<String, String> mHeaders;
+
+    /**
+     * @param headers extra request headers, e.g. {@code Authorization}
+     */
+    public HttpRangeSource(URL url, Map<String, String> headers) {
+        mUrl = url;
+        mHeaders = headers == null ? Collections.<String, String>emptyMap() : headers;
+    }
+
+    @Override
+    public InputStream open(long start, long end) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+
+        int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_PARTIAL && !(code == HttpURLConnection.HTTP_OK && start == 0)) {
+            connection.disconnect();
+            throw new IOException("HTTP " + code + " for bytes " + start + "-" + (end - 1) + " of " + mUrl);
+        }
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,648 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads ID3v2.2/2.3/2.4 and ID3v1 tags without reading the audio.
+ *
+ * <p>Only the tag header, frame headers, the text frames we use and the 128 byte ID3v1 trailer
+ * are read; everything else, album art included, is skipped by position unless
+ * {@link #readPicture()} asks for it. The MPEG header of the
+ * first audio frame gives a duration estimate when the tag has no TLEN. A reader is used for a
+ * single file.</p>
+ */
+public class Id3Reader {
+    private static final int V1_SIZE = 128;
+    private static final int MAX_TEXT_FRAME = 4 * 1024;
+    private static final int MAX_UNSYNC_TAG = 1024 * 1024;
+    private static final int MAX_PICTURE_FRAME = 4 * 1024 * 1024;
+    private static final int SYNC_SCAN = 4 * 1024;
+    private static final int SYNC_CHUNK = 64;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int[] MPEG1_L3_KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    static final int[] MPEG2_L3_KBPS = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+
+    static final String[] GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz",
+            "Metal", "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno",
+            "Industrial", "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno",
+            "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk", "Fusion", "Trance", "Classical", "Instrumental",
+            "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise", "AlternRock", "Bass", "Soul",
+            "Punk", "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic",
+            "Darkwave", "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream",
+            "Southern Rock", "Comedy", "Cult", "Gangsta", "Top 40", "Christian Rap", "Pop/Funk",
+            "Jungle", "Native American", "Cabaret", "New Wave", "Psychadelic", "Rave", "Showtunes",
+            "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical",
+            "Rock & Roll", "Hard Rock"
+    };
+
+    /**
+     * Random access to the bytes of a file.
+     */
+    public interface Source {
+        long length() throws IOException;
+
+        /**
+         * Reads up to {@code size} bytes at {@code position}; returns -1 at the end.
+         */
+        int readAt(long position, byte[] buffer, int offset, int size) throws IOException;
+    }
+
+    public static class FileSource implements Source, Closeable {
+        private final RandomAccessFile mFile;
+
+        public FileSource(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+        }
+
+        @Override
+        public long length() throws IOException {
+            return mFile.length();
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            mFile.seek(position);
+            return mFile.read(buffer, offset, size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    /**
+     * Reads through a channel, e.g. one opened on a Drive contents file descriptor.
+     */
+    public static class ChannelSource implements Source {
+        private final FileChannel mChannel;
+
+        public ChannelSource(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public long length() throws IOException {
+            return mChannel.size();
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            return mChannel.read(ByteBuffer.wrap(buffer, offset, size), position);
+        }
+    }
+
+    /**
+     * An embedded picture from an APIC (or ID3v2.2 PIC) frame.
+     */
+    public static class Picture {
+        public static final int TYPE_FRONT_COVER = 3;
+
+        public final String mimeType;
+        public final int type;
+        public final byte[] data;
+
+        Picture(String mimeType, int type, byte[] data) {
+            this.mimeType = mimeType;
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Visits the frames of an ID3v2 tag.
+     */
+    private interface FrameHandler {
+        /**
+         * Returns false once nothing more is needed from the tag.
+         */
+        boolean onFrame(Source source, String id, long body, int size, int version, int flags) throws IOException;
+    }
+
+    private final Source mSource;
+    private final SongTags mTags = new SongTags();
+    private long mBytesRead;
+
+    public Id3Reader(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * Bytes read from the source so far.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public SongTags read() throws IOException {
+        long length = mSource.length();
+        long audioStart = readV2(length, new FrameHandler() {
+            @Override
+            public boolean onFrame(Source source, String id, long body, int size, int version, int flags)
+                    throws IOException {
+                String field = fieldOf(id);
+                if (field != null && size <= MAX_TEXT_FRAME) {
+                    readTextFrame(source, field, body, size, version, flags);
+                }
+                return needsV1() || mTags.durationMs == 0;
+            }
+        });
+
+        boolean hasV1 = false;
+        if (needsV1() && length >= audioStart + V1_SIZE) {
+            hasV1 = readV1(length);
+        }
+
+        if (mTags.durationMs == 0) {
+            long audioEnd = hasV1 ? length - V1_SIZE : length;
+            mTags.durationMs = estimateDuration(audioStart, audioEnd);
+        }
+        return mTags;
+    }
+
+    private boolean needsV1() {
+        return mTags.title == null || mTags.artist == null || mTags.album == null
+                || mTags.genre == null || mTags.trackNumber == 0;
+    }
+
+    /**
+     * Where the audio starts: just past the ID3v2 tag, or 0 if there is none. Only the tag
+     * header is read.
+     */
+    public long getAudioStart() throws IOException {
+        return readV2(mSource.length(), new FrameHandler() {
+            @Override
+            public boolean onFrame(Source source, String id, long body, int size, int version, int flags) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Reads the embedded picture, preferring the front cover, or returns null if there is none.
+     * Only the frame headers and the picture frames themselves are read.
+     */
+    public Picture readPicture() throws IOException {
+        final Picture[] found = new Picture[1];
+        readV2(mSource.length(), new FrameHandler() {
+            @Override
+            public boolean onFrame(Source source, String id, long body, int size, int version, int flags)
+                    throws IOException {
+                if (!id.equals("APIC") && !id.equals("PIC") || size > MAX_PICTURE_FRAME) {
+                    return true;
+                }
+                byte[] data = readFrameBody(source, body, size, version, flags);
+                Picture picture = data == null || data.length < 2 ? null : parsePicture(data, version);
+                if (picture != null && (found[0] == null || picture.type == Picture.TYPE_FRONT_COVER)) {
+                    found[0] = picture;
+                }
+                return found[0] == null || found[0].type != Picture.TYPE_FRONT_COVER;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Reads the ID3v2 tag at the start of the file, if any, handing each frame to
+     * {@code handler}; returns where the audio starts.
+     */
+    private long readV2(long length, FrameHandler handler) throws IOException {
+        byte[] header = new byte[10];
+        if (length < header.length || !readFully(0, header, header.length)
+                || header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+            return 0;
+        }
+
+        int version = header[3];
+        int flags = header[5] & 0xff;
+        int size = syncsafe(header, 6);
+        if (version < 2 || version > 4 || size < 0) {
+            return 0;
+        }
+        long tagEnd = Math.min(10L + size + ((flags & 0x10) != 0 ? 10 : 0), length);
+
+        Source source = mSource;
+        long position = 10;
+        long end = Math.min(10L + size, length);
+        if ((flags & 0x80) != 0 && version < 4) {
+            // whole-tag unsynchronisation changes every frame header; undo it in memory
+            if (size > MAX_UNSYNC_TAG) {
+                return tagEnd;
+            }
+            byte[] tag = new byte[(int) (end - 10)];
+            if (!readFully(10, tag, tag.length)) {
+                return tagEnd;
+            }
+            tag = resync(tag, tag.length);
+            source = new ArraySource(tag);
+            position = 0;
+            end = tag.length;
+        }
+
+        if ((flags & 0x40) != 0 && version >= 3) {
+            byte[] ext = new byte[4];
+            if (!readFully(source, position, ext, 4)) {
+                return tagEnd;
+            }
+            position += version == 3 ? 4 + int32(ext, 0) : syncsafe(ext, 0);
+        }
+
+        int headerSize = version == 2 ? 6 : 10;
+        byte[] frameHeader = new byte[headerSize];
+        while (position + headerSize <= end) {
+            if (!readFully(source, position, frameHeader, headerSize) || frameHeader[0] == 0) {
+                break; // padding
+            }
+            String id;
+            int frameSize;
+            int frameFlags = 0;
+            if (version == 2) {
+                id = new String(frameHeader, 0, 3, ISO_8859_1);
+                frameSize = ((frameHeader[3] & 0xff) << 16) | ((frameHeader[4] & 0xff) << 8) | (frameHeader[5] & 0xff);
+            } else {
+                id = new String(frameHeader, 0, 4, ISO_8859_1);
+                frameSize = version == 4 ? syncsafe(frameHeader, 4) : int32(frameHeader, 4);
+                frameFlags = ((frameHeader[8] & 0xff) << 8) | (frameHeader[9] & 0xff);
+            }
+            long body = position + headerSize;
+            if (frameSize <= 0 || body + frameSize > end) {
+                break;
+            }
+            position = body + frameSize;
+
+            if (!handler.onFrame(source, id, body, frameSize, version, frameFlags)) {
+                break;
+            }
+        }
+        return tagEnd;
+    }
+
+    private void readTextFrame(Source source, String field, long body, int size, int version, int flags)
+            throws IOException {
+        byte[] data = readFrameBody(source, body, size, version, flags);
+        if (data == null || data.length < 2) {
+            return;
+        }
+        String value = decodeText(data);
+        if (value == null) {
+            return;
+        }
+
+        switch (field) {
+            case "title":
+                mTags.title = value;
+                break;
+            case "artist":
+                mTags.artist = value;
+                break;
+            case "album":
+                mTags.album = value;
+                break;
+            case "genre":
+                mTags.genre = resolveGenre(value);
+                break;
+            case "track":
+                mTags.trackNumber = parseTrack(value);
+                break;
+            case "length":
+                try {
+                    mTags.durationMs = Long.parseLong(value);
+                } catch (NumberFormatException ignored) {
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads a frame's data, undoing per-frame flags; null if it is compressed or encrypted.
+     */
+    private byte[] readFrameBody(Source source, long body, int size, int version, int flags) throws IOException {
+        int skip = 0;
+        boolean unsync = false;
+        if (version == 3) {
+            if ((flags & 0x00c0) != 0) {
+                return null; // compressed or encrypted
+            }
+            if ((flags & 0x0020) != 0) {
+                skip = 1;
+            }
+        } else if (version == 4) {
+            if ((flags & 0x000c) != 0) {
+                return null;
+            }
+            if ((flags & 0x0040) != 0) {
+                skip++;
+            }
+            if ((flags & 0x0001) != 0) {
+                skip += 4;
+            }
+            unsync = (flags & 0x0002) != 0;
+        }
+        if (size <= skip) {
+            return null;
+        }
+
+        byte[] data = new byte[size - skip];
+        if (!readFully(source, body + skip, data, data.length)) {
+            return null;
+        }
+        return unsync ? resync(data, data.length) : data;
+    }
+
+    private static Picture parsePicture(byte[] data, int version) {
+        int encoding = data[0];
+        int pos = 1;
+        String mimeType;
+        if (version == 2) {
+            if (data.length < 5) {
+                return null;
+            }
+            String format = new String(data, 1, 3, ISO_8859_1);
+            mimeType = format.equalsIgnoreCase("PNG") ? "image/png" : "image/jpeg";
+            pos = 4;
+        } else {
+            int nul = indexOf(data, pos, 1);
+            if (nul < 0) {
+                return null;
+            }
+            mimeType = new String(data, pos, nul - pos, ISO_8859_1);
+            pos = nul + 1;
+        }
+        if (pos >= data.length) {
+            return null;
+        }
+        int type = data[pos++] & 0xff;
+
+        // skip the description, terminated by one NUL byte, or two for UTF-16
+        int width = encoding == 1 || encoding == 2 ? 2 : 1;
+        int nul = indexOf(data, pos, width);
+        if (nul < 0) {
+            return null;
+        }
+        pos = nul + width;
+
+        byte[] image = new byte[data.length - pos];
+        System.arraycopy(data, pos, image, 0, image.length);
+        return image.length == 0 ? null : new Picture(mimeType, type, image);
+    }
+
+    private static int indexOf(byte[] data, int from, int width) {
+        for (int i = from; i + width <= data.length; i += width) {
+            if (data[i] == 0 && (width == 1 || data[i + 1] == 0)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String fieldOf(String id) {
+        switch (id) {
+            case "TIT2":
+            case "TT2":
+                return "title";
+            case "TPE1":
+            case "TP1":
+                return "artist";
+            case "TALB":
+            case "TAL":
+                return "album";
+            case "TCON":
+            case "TCO":
+                return "genre";
+            case "TRCK":
+            case "TRK":
+                return "track";
+            case "TLEN":
+            case "TLE":
+                return "length";
+            default:
+                return null;
+        }
+    }
+
+    private boolean readV1(long length) throws IOException {
+        byte[] tag = new byte[V1_SIZE];
+        if (!readFully(length - V1_SIZE, tag, V1_SIZE) || tag[0] != 'T' || tag[1] != 'A' || tag[2] != 'G') {
+            return false;
+        }
+        if (mTags.title == null) {
+            mTags.title = v1Text(tag, 3, 30);
+        }
+        if (mTags.artist == null) {
+            mTags.artist = v1Text(tag, 33, 30);
+        }
+        if (mTags.album == null) {
+            mTags.album = v1Text(tag, 63, 30);
+        }
+        if (mTags.trackNumber == 0 && tag[125] == 0 && tag[126] != 0) {
+            mTags.trackNumber = tag[126] & 0xff; // ID3v1.1
+        }
+        int genre = tag[127] & 0xff;
+        if (mTags.genre == null && genre < GENRES.length) {
+            mTags.genre = GENRES[genre];
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the duration from the bitrate of the first MPEG audio frame, assuming a
+     * constant bitrate.
+     */
+    private long estimateDuration(long audioStart, long audioEnd) throws IOException {
+        byte[] data = new byte[SYNC_CHUNK];
+        long limit = Math.min(audioStart + SYNC_SCAN, audioEnd);
+        // chunks overlap by three bytes so a header spanning two of them is still seen
+        for (long chunk = audioStart; chunk + 4 <= limit; chunk += SYNC_CHUNK - 3) {
+            int read = read(mSource, chunk, data, (int) Math.min(SYNC_CHUNK, limit - chunk));
+            for (int i = 0; i + 3 < read; i++) {
+                if ((data[i] & 0xff) != 0xff || (data[i + 1] & 0xe0) != 0xe0) {
+                    continue;
+                }
+                int versionBits = (data[i + 1] >> 3) & 0x3;
+                int layerBits = (data[i + 1] >> 1) & 0x3;
+                int bitrateIndex = (data[i + 2] >> 4) & 0xf;
+                if (versionBits == 1 || layerBits != 1 || bitrateIndex == 0 || bitrateIndex == 15) {
+                    continue; // reserved, not layer III, free or bad bitrate
+                }
+                int kbps = versionBits == 3 ? MPEG1_L3_KBPS[bitrateIndex] : MPEG2_L3_KBPS[bitrateIndex];
+                long bytes = audioEnd - (chunk + i);
+                return bytes * 8 / kbps;
+            }
+            if (read < 4) {
+                break;
+            }
+        }
+        return 0;
+    }
+
+    static String resolveGenre(String value) {
+        String name = value;
+        String number = null;
+        if (value.startsWith("(")) {
+            int close = value.indexOf(')');
+            if (close > 1) {
+                number = value.substring(1, close);
+                name = value.substring(close + 1).trim();
+            }
+        } else if (isDigits(value)) {
+            number = value;
+            name = "";
+        }
+        if (!name.isEmpty()) {
+            return name;
+        }
+        if (number != null && isDigits(number)) {
+            int index = Integer.parseInt(number);
+            if (index < GENRES.length) {
+                return GENRES[index];
+            }
+        }
+        return name.isEmpty() ? null : name;
+    }
+
+    static int parseTrack(String value) {
+        int slash = value.indexOf('/');
+        String number = (slash >= 0 ? value.substring(0, slash) : value).trim();
+        if (!isDigits(number) || number.length() > 6) {
+            return 0;
+        }
+        return Integer.parseInt(number);
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeText(byte[] data) {
+        Charset charset;
+        switch (data[0]) {
+            case 0:
+                charset = ISO_8859_1;
+                break;
+            case 1:
+                charset = UTF_16;
+                break;
+            case 2:
+                charset = UTF_16BE;
+                break;
+            case 3:
+                charset = UTF_8;
+                break;
+            default:
+                return null;
+        }
+        String text = new String(data, 1, data.length - 1, charset);
+        int nul = text.indexOf('\u0000');
+        if (nul >= 0) {
+            // ID3v2.4 separates multiple values with NUL; the first one is enough
+            text = text.substring(0, nul);
+        }
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String v1Text(byte[] tag, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && tag[end] != 0) {
+            end++;
+        }
+        String text = new String(tag, offset, end - offset, ISO_8859_1).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Undoes unsynchronisation: every 0xFF 0x00 pair becomes 0xFF.
+     */
+    private static byte[] resync(byte[] data, int length) {
+        byte[] out = new byte[length];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            out[n++] = data[i];
+            if ((data[i] & 0xff) == 0xff && i + 1 < length && data[i + 1] == 0) {
+                i++;
+            }
+        }
+        if (n == length) {
+            return out;
+        }
+        byte[] trimmed = new byte[n];
+        System.arraycopy(out, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    private static int syncsafe(byte[] b, int offset) {
+        return ((b[offset] & 0x7f) << 21) | ((b[offset + 1] & 0x7f) << 14)
+                | ((b[offset + 2] & 0x7f) << 7) | (b[offset + 3] & 0x7f);
+    }
+
+    private static int int32(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    private boolean readFully(long position, byte[] buffer, int length) throws IOException {
+        return readFully(mSource, position, buffer, length);
+    }
+
+    private boolean readFully(Source source, long position, byte[] buffer, int length) throws IOException {
+        return read(source, position, buffer, length) == length;
+    }
+
+    private int read(Source source, long position, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = source.readAt(position + total, buffer, total, length - total);
+            if (read <= 0) {
+                break;
+            }
+            total += read;
+        }
+        if (source == mSource) {
+            mBytesRead += total;
+        }
+        return total;
+    }
+
+    private static class ArraySource implements Source {
+        private final byte[] mData;
+
+        ArraySource(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public long length() {
+            return mData.length;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) {
+            if (position >= mData.length) {
+                return -1;
+            }
+            int count = (int) Math.min(size, mData.length - position);
+            System.arraycopy(mData, (int) position, buffer, offset, count);
+            return count;
+        }
+    }
+}
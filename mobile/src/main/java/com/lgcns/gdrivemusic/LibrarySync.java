@@ -0,0 +1,239 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies Drive query results to the catalog incrementally.
+ *
+ * <p>A delta pass only receives the files modified since {@link #getSyncedAt()}, so its cost
+ * grows with the number of changes rather than with the size of the library. The query includes
+ * that instant, so files saved in the same millisecond as the last one seen are not missed;
+ * rows seen before apply as unchanged. Trashed files
+ * arrive as removals. Files deleted outright never show up in a delta query, so a full pass is
+ * due every {@link #FULL_SYNC_INTERVAL} to drop them.</p>
+ *
+ * <p>The songs are held in a {@link SongTable} with the changes of later passes on top of it.
+ * {@link #getSongs()} folds the changes into a new table, so only the songs that changed are
+ * ever kept as objects.</p>
+ */
+public class LibrarySync {
+    public static final long FULL_SYNC_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * One row of a query result.
+     */
+    public static class Entry {
+        final Song mSong;
+        final boolean mTrashed;
+
+        public Entry(Song song, boolean trashed) {
+            mSong = song;
+            mTrashed = trashed;
+        }
+    }
+
+    private SongTable mTable;
+    // added or replaced since mTable was built, in the order they arrived
+    private final Map<String, Song> mChanged = new LinkedHashMap<>();
+    // ids of mTable rows removed since; a song re-added afterwards moves to the end
+    private final Set<String> mRemoved = new HashSet<>();
+    private long mSyncedAt;
+    private long mFullSyncedAt;
+    private int mRowsRead;
+
+    public LibrarySync(List<Song> songs, long syncedAt, long fullSyncedAt) {
+        mTable = SongTable.of(songs);
+        mSyncedAt = syncedAt;
+        mFullSyncedAt = fullSyncedAt;
+    }
+
+    /**
+     * Latest modified date seen so far; the next delta query asks for files modified at or
+     * after this.
+     */
+    public long getSyncedAt() {
+        return mSyncedAt;
+    }
+
+    public long getFullSyncedAt() {
+        return mFullSyncedAt;
+    }
+
+    /**
+     * The rows of the table read so far, for tests: every lookup of a stored song, and every row
+     * a full pass or {@link #getSongs()} walks.
+     */
+    int getRowsRead() {
+        return mRowsRead;
+    }
+
+    public boolean isFullSyncDue(long now) {
+        return mSyncedAt == 0 || now - mFullSyncedAt >= FULL_SYNC_INTERVAL;
+    }
+
+    /**
+     * Applies the files modified since {@link #getSyncedAt()}.
+     */
+    public ChangeSet applyDelta(List<Entry> entries) {
+        ChangeSet changes = new ChangeSet();
+        for (Entry entry : entries) {
+            apply(entry, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Applies a complete listing of the library; anything not in it has been deleted.
+     */
+    public ChangeSet applyFull(List<Entry> entries, long now) {
+        ChangeSet changes = new ChangeSet();
+        Set<String> seen = new HashSet<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            seen.add(entry.mSong.getuId());
+            apply(entry, changes);
+        }
+
+        List<String> deleted = new ArrayList<>();
+        mRowsRead += mTable.size();
+        for (int row = 0; row < mTable.size(); row++) {
+            String id = mTable.getId(row);
+            if (!seen.contains(id) && !mRemoved.contains(id) && !mChanged.containsKey(id)) {
+                deleted.add(id);
+            }
+        }
+        for (String id : mChanged.keySet()) {
+            if (!seen.contains(id)) {
+                deleted.add(id);
+            }
+        }
+        for (String id : deleted) {
+            changes.removed(remove(id));
+        }
+
+        mFullSyncedAt = now;
+        return changes;
+    }
+
+    /**
+     * Replaces songs with versions carrying locally derived metadata such as file tags. A song
+     * that was removed or has changed on Drive since is left alone.
+     */
+    public ChangeSet replace(List<Song> songs) {
+        ChangeSet changes = new ChangeSet();
+        for (Song song : songs) {
+            Song current = get(song.getuId());
+            if (current != null && current.getModified() == song.getModified()) {
+                mChanged.put(song.getuId(), song);
+                changes.updated(song);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * The catalog after the passes applied so far, in insertion order.
+     */
+    public List<Song> getSongs() {
+        compact();
+        return mTable.asList();
+    }
+
+    /**
+     * Rebuilds the table with the pending changes: replaced rows in place, removed rows dropped
+     * and new songs appended. Unchanged rows are copied without building their songs.
+     */
+    private void compact() {
+        if (mChanged.isEmpty() && mRemoved.isEmpty()) {
+            return;
+        }
+        BitSet skipped = new BitSet(mTable.size());
+        for (String id : mRemoved) {
+            skipped.set(mTable.indexOf(id));
+        }
+        Map<Integer, Song> replaced = new HashMap<>();
+        List<Song> appended = new ArrayList<>();
+        for (Song song : mChanged.values()) {
+            int row = mTable.indexOf(song.getuId());
+            if (row >= 0 && !skipped.get(row)) {
+                replaced.put(row, song);
+            } else {
+                appended.add(song);
+            }
+        }
+
+        SongTable.Builder builder = new SongTable.Builder(mTable.size() + appended.size());
+        mRowsRead += mTable.size();
+        for (int row = 0; row < mTable.size(); row++) {
+            Song song = replaced.isEmpty() ? null : replaced.get(row);
+            if (song != null) {
+                builder.add(song);
+            } else if (!skipped.get(row)) {
+                builder.add(mTable, row);
+            }
+        }
+        for (Song song : appended) {
+            builder.add(song);
+        }
+        mTable = builder.build();
+        mChanged.clear();
+        mRemoved.clear();
+    }
+
+    /**
+     * The current song with the given id, or null.
+     */
+    private Song get(String id) {
+        Song song = mChanged.get(id);
+        if (song != null || mRemoved.contains(id)) {
+            return song;
+        }
+        int row = mTable.indexOf(id);
+        if (row < 0) {
+            return null;
+        }
+        mRowsRead++;
+        return mTable.getSong(row);
+    }
+
+    private Song remove(String id) {
+        Song current = get(id);
+        if (current != null) {
+            mChanged.remove(id);
+            if (mTable.indexOf(id) >= 0) {
+                mRemoved.add(id);
+            }
+        }
+        return current;
+    }
+
+    private void apply(Entry entry, ChangeSet changes) {
+        Song song = entry.mSong;
+        String id = song.getuId();
+        mSyncedAt = Math.max(mSyncedAt, song.getModified());
+
+        if (entry.mTrashed) {
+            Song removed = remove(id);
+            if (removed != null) {
+                changes.removed(removed);
+            }
+            return;
+        }
+
+        Song current = get(id);
+        if (current == null) {
+            mChanged.put(id, song);
+            changes.added(song);
+        } else if (current.getModified() < song.getModified()) {
+            mChanged.put(id, song);
+            changes.updated(song);
+        }
+        // otherwise unchanged since we last saw it, keep the existing record
+    }
+}
@@ -2,34 +2,41 @@ package com.lgcns.gdrivemusic;
 
 import android.content.Intent;
 import android.content.IntentSender;
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.FrameMetrics;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.Window;
 import android.util.Log;
 import android.widget.Button;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.drive.Drive;
-import com.google.android.gms.drive.DriveApi;
 import com.google.android.gms.drive.DriveFile;
 import com.google.android.gms.drive.DriveId;
 import com.google.android.gms.drive.OpenFileActivityBuilder;
-import com.google.android.gms.drive.query.Filters;
-import com.google.android.gms.drive.query.Query;
-import com.google.android.gms.drive.query.SearchableField;
-import com.google.android.gms.drive.DriveApi.MetadataBufferResult;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class MainActivity extends AppCompatActivity implements
-        GoogleApiClient.ConnectionCallbacks,
+        DriveLibrary.Observer,
         GoogleApiClient.OnConnectionFailedListener {
 
     private DriveId mSelectedFileDriveId;
@@ -37,11 +44,23 @@ public class MainActivity extends AppCompatActivity implements
     private static final String TAG = MainActivity.class.getName() ;
     private static final int REQUEST_CODE_RESOLUTION = 1;
     private static final int REQUEST_CODE_OPENER = 2;
+    private static final int PAGE_SIZE = 100;
+    private static final String OPEN_PICKED = "open-picked";
+    private static final long PROGRESS_INTERVAL_MS = 100;
 
+    private DriveLibrary mLibrary;
+    private DriveScheduler mScheduler;
     private GoogleApiClient mGoogleApiClient;
 
-    private ListView mResultsListView;
+    private RecyclerView mResultsView;
     private ResultsAdapter mResultsAdapter;
+    // the pager is only touched on the results thread
+    private final ResultsPager mResultsPager = new ResultsPager(PAGE_SIZE);
+    private final ExecutorService mResultsExecutor = Executors.newSingleThreadExecutor();
+
+    private final LatencyHistogram mFrameTimes = new LatencyHistogram();
+    private HandlerThread mFrameMetricsThread;
+    private Window.OnFrameMetricsAvailableListener mFrameMetricsListener;
     private Button mActionButton;
     private ProgressBar mProgressBar;
 
@@ -51,18 +70,22 @@ public class MainActivity extends AppCompatActivity implements
 
         //setContentView(R.layout.content_main);
         setContentView(R.layout.activity_main);
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addApi(Drive.API)
-                    .addScope(Drive.SCOPE_FILE)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
-        }
-
-        mResultsListView = (ListView) findViewById(R.id.listViewResults);
-        mResultsAdapter = new ResultsAdapter(this);
-        mResultsListView.setAdapter(mResultsAdapter);
+        GoogleDriveBackend drive = GoogleDriveBackend.get(this);
+        mLibrary = drive.getLibrary();
+        mGoogleApiClient = drive.getClient();
+        mScheduler = drive.getScheduler();
+
+        mResultsView = (RecyclerView) findViewById(R.id.recyclerViewResults);
+        mResultsView.setLayoutManager(new LinearLayoutManager(this));
+        mResultsView.setHasFixedSize(true);
+        mResultsAdapter = new ResultsAdapter();
+        mResultsAdapter.setOnLoadMoreListener(new ResultsAdapter.OnLoadMoreListener() {
+            @Override
+            public void onLoadMore() {
+                loadNextPage();
+            }
+        });
+        mResultsView.setAdapter(mResultsAdapter);
 
         mProgressBar = (ProgressBar) findViewById(R.id.progressBar);
         mProgressBar.setMax(100);
@@ -90,9 +113,15 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     @Override
-    protected void onStop() {
-        super.onStop();
-        mResultsAdapter.clear();
+    protected void onDestroy() {
+        super.onDestroy();
+        mResultsExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mResultsPager.clear();
+            }
+        });
+        mResultsExecutor.shutdown();
     }
 
     @Override
@@ -101,27 +130,43 @@ public class MainActivity extends AppCompatActivity implements
         return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_refresh) {
+            refresh();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
 
     @Override
     protected void onResume() {
         super.onResume();
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addApi(Drive.API)
-                    .addScope(Drive.SCOPE_FILE)
-                    .addScope(Drive.SCOPE_APPFOLDER) // required for App Folder sample
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            startFrameMetrics();
         }
-        mGoogleApiClient.connect();
     }
 
 
+    /**
+     * Holds the shared Drive connection while visible. The service may hold it as well, in which
+     * case the last listing shows up right away.
+     */
     @Override
     protected void onStart() {
         super.onStart();
-        mGoogleApiClient.connect();
+        mGoogleApiClient.registerConnectionFailedListener(this);
+        mLibrary.addObserver(this);
+        mLibrary.acquire();
+    }
+
+    @Override
+    protected void onStop() {
+        mLibrary.removeObserver(this);
+        mGoogleApiClient.unregisterConnectionFailedListener(this);
+        mLibrary.release();
+        super.onStop();
     }
 
     @Override
@@ -144,13 +189,18 @@ public class MainActivity extends AppCompatActivity implements
         switch (requestCode) {
             case REQUEST_CODE_RESOLUTION:
                 if(resultCode == RESULT_OK) {
-                    mGoogleApiClient.connect();
+                    mLibrary.reconnect();
                 }
                 break;
             case REQUEST_CODE_OPENER:
                 if(resultCode == RESULT_OK) {
                     mSelectedFileDriveId = (DriveId) data.getParcelableExtra(
-                            OpenFileActivityBuilder.EXTRA_RESPONSE_DRIVE_ID);                }
+                            OpenFileActivityBuilder.EXTRA_RESPONSE_DRIVE_ID);
+                    // otherwise onConnected() opens it
+                    if (mLibrary.isConnected()) {
+                        open();
+                    }
+                }
                 break;
         }
     }
@@ -158,17 +208,41 @@ public class MainActivity extends AppCompatActivity implements
 
     @Override
     protected void onPause() {
-        if (mGoogleApiClient != null) {
-            mGoogleApiClient.disconnect();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            stopFrameMetrics();
         }
         super.onPause();
     }
 
-    @Override
-    public void onConnected(Bundle connectionHint) {
-        Log.i(TAG, "API client connected.");
+    /**
+     * Records how long every frame of this window takes, in microseconds.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private void startFrameMetrics() {
+        mFrameMetricsThread = new HandlerThread("FrameMetrics");
+        mFrameMetricsThread.start();
+        mFrameMetricsListener = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+                mFrameTimes.record(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION) / 1000);
+            }
+        };
+        getWindow().addOnFrameMetricsAvailableListener(mFrameMetricsListener, new Handler(mFrameMetricsThread.getLooper()));
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void stopFrameMetrics() {
+        getWindow().removeOnFrameMetricsAvailableListener(mFrameMetricsListener);
+        mFrameMetricsThread.quitSafely();
+        Log.i(TAG, "frame times (us): " + mFrameTimes + ", " + mResultsAdapter.getItemCount() + " rows");
+    }
 
-        refresh();
+    @Override
+    public void onConnected() {
+        // a listing the service or an earlier start already made came with addObserver()
+        if (mLibrary.getLatest() == null) {
+            refresh();
+        }
 
         if (mSelectedFileDriveId != null) {
             open();
@@ -176,29 +250,46 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Asks for a complete listing; it arrives in {@link #onListing}, joined with the service's
+     * if that one is in flight.
+     */
     private void refresh() {
-        Query query = new Query.Builder()
-                .addFilter(Filters.eq(SearchableField.MIME_TYPE, "audio/mpeg"))
-                .build();
-        Drive.DriveApi.query(mGoogleApiClient, query)
-                .setResultCallback(metadataCallback);
+        mLibrary.list(0, null);
+    }
+
+    @Override
+    public void onListing(List<DriveLibrary.Item> items) {
+        showResults(items);
     }
 
     private void open() {
 
         mProgressBar.setProgress(0);
+        // Drive reports every chunk; the bar and the log only need a few updates a second
+        final ProgressThrottle throttle = new ProgressThrottle(PROGRESS_INTERVAL_MS, new ProgressThrottle.Listener() {
+            @Override
+            public void onProgress(long done, long total) {
+                final int progress = total > 0 ? (int) (done * 100 / total) : 0;
+                Log.d(TAG, String.format("Loading progress: %d percent", progress));
+                mProgressBar.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mProgressBar.setProgress(progress);
+                    }
+                });
+            }
+        });
         DriveFile.DownloadProgressListener listener = new DriveFile.DownloadProgressListener() {
             @Override
             public void onProgress(long bytesDownloaded, long bytesExpected) {
-                // Update progress dialog with the latest progress.
-                int progress = (int)(bytesDownloaded*100/bytesExpected);
-                Log.d(TAG, String.format("Loading progress: %d percent", progress));
-                mProgressBar.setProgress(progress);
+                throttle.update(bytesDownloaded, bytesExpected, SystemClock.elapsedRealtime());
             }
         };
-        DriveFile driveFile =  mSelectedFileDriveId.asDriveFile();
-        driveFile.open(mGoogleApiClient, DriveFile.MODE_READ_ONLY, listener)
-                .setResultCallback(driveContentsCallback);
+        // the user is waiting for it, like for a track to play
+        mScheduler.submit(DriveScheduler.Lane.PLAYBACK, OPEN_PICKED,
+                GoogleDriveBackend.open(mGoogleApiClient, mSelectedFileDriveId.encodeToString(), listener),
+                driveContentsCallback);
         mSelectedFileDriveId = null;
     }
 
@@ -207,36 +298,92 @@ public class MainActivity extends AppCompatActivity implements
     }
 
 
-    @Override
-    public void onConnectionSuspended(int cause) {
-        Log.i(TAG, "GoogleApiClient connection suspended");
+    /**
+     * Reads the first pages of new results and diffs them against the rows on screen, both on
+     * the results thread, then rebinds only the rows that changed.
+     */
+    private void showResults(final List<DriveLibrary.Item> items) {
+        mResultsExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Song> shown = mResultsPager.getRows();
+                final List<Song> rows = mResultsPager.replace(new ItemSource(items));
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new ResultsAdapter.DiffCallback(shown, rows));
+                final boolean hasMore = mResultsPager.hasMore();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResultsAdapter.update(rows, diff, hasMore);
+                    }
+                });
+            }
+        });
     }
 
-    final private ResultCallback<MetadataBufferResult> metadataCallback = new
-            ResultCallback<MetadataBufferResult>() {
-                @Override
-                public void onResult(MetadataBufferResult result) {
-                    if (!result.getStatus().isSuccess()) {
-                        Log.i(TAG, "Problem while retrieving results");
-                        return;
+    private void loadNextPage() {
+        mResultsExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Song> rows = mResultsPager.nextPage();
+                final boolean hasMore = mResultsPager.hasMore();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResultsAdapter.append(rows, hasMore);
                     }
-                    Log.i(TAG, "get item");
-                    mResultsAdapter.clear();
-                    mResultsAdapter.append(result.getMetadataBuffer());
+                });
+            }
+        });
+    }
+
+    /**
+     * Turns a shared listing into rows as they are paged in.
+     */
+    private static class ItemSource implements ResultsPager.Source {
+        private final List<DriveLibrary.Item> mItems;
+
+        ItemSource(List<DriveLibrary.Item> items) {
+            mItems = items;
+        }
+
+        @Override
+        public int size() {
+            return mItems.size();
+        }
+
+        @Override
+        public Song get(int position) {
+            DriveLibrary.Item item = mItems.get(position);
+            return new Song(item.id, item.title, null, null, null, null, null, item.modified);
+        }
+
+        @Override
+        public void release() {
+            // the listing is shared and immutable
+        }
+    }
+
+    private DriveScheduler.Callback<DriveAccess.Contents> driveContentsCallback =
+            new DriveScheduler.Callback<DriveAccess.Contents>() {
+                @Override
+                public void onResult(DriveAccess.Contents contents) {
+                    contents.discard();
+                    showMessageOnUiThread("File contents opened");
                 }
-            };
 
-    private ResultCallback<DriveApi.DriveContentsResult> driveContentsCallback =
-            new ResultCallback<DriveApi.DriveContentsResult>() {
                 @Override
-                public void onResult(DriveApi.DriveContentsResult result) {
-                    if (!result.getStatus().isSuccess()) {
-                        showMessage("Error while opening the file contents");
-                        return;
-                    }
-                    showMessage("File contents opened");
-                    refresh(); //refresh
+                public void onError(String message) {
+                    showMessageOnUiThread("Error while opening the file contents");
                 }
             };
 
+    private void showMessageOnUiThread(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                showMessage(message);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,95 @@
+package com.lgcns.gdrivemusic;
+
+import android.media.MediaDescription;
+import android.media.MediaMetadata;
+import android.media.browse.MediaBrowser;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns catalog songs and browse nodes into the framework's media items and metadata.
+ *
+ * <p>These run for every browse page and every track change. They only touch a handful of
+ * framework value types, so the benchmark module can run them on a plain JVM.</p>
+ */
+final class MediaItems {
+
+    private MediaItems() {
+    }
+
+    static List<MediaBrowser.MediaItem> getMediaItemsById( BrowseTree tree, String id, int page, int pageSize ) {
+        List<BrowseTree.Node> children = tree.getChildren( id, page, pageSize );
+        if( children == null )
+            return null;
+
+        List<MediaBrowser.MediaItem> mediaItems = new ArrayList<>( children.size() );
+        for( BrowseTree.Node node : children ) {
+            if( node.isBrowsable() ) {
+                mediaItems.add( generateBrowsableMediaItem( node ) );
+            } else {
+                mediaItems.add( generatePlayableMediaItem( node.song ) );
+            }
+        }
+        return mediaItems;
+    }
+
+    static MediaBrowser.MediaItem generateBrowsableMediaItem( BrowseTree.Node node ) {
+        MediaDescription description = new MediaDescription.Builder()
+                .setMediaId( node.mediaId )
+                .setTitle( node.title )
+                .build();
+        return new MediaBrowser.MediaItem( description, MediaBrowser.MediaItem.FLAG_BROWSABLE );
+    }
+
+    static MediaBrowser.MediaItem generatePlayableMediaItem( Song song ) {
+        if( song == null )
+            return null;
+
+        MediaDescription.Builder mediaDescriptionBuilder = new MediaDescription.Builder();
+        mediaDescriptionBuilder.setMediaId( song.getuId() );
+
+        if( !TextUtils.isEmpty( song.getTitle() ) )
+            mediaDescriptionBuilder.setTitle( song.getTitle() );
+
+        if( !TextUtils.isEmpty( song.getArtist() ) )
+            mediaDescriptionBuilder.setSubtitle( song.getArtist() );
+
+        if( !TextUtils.isEmpty( song.getThumbnailUrl() ) )
+            mediaDescriptionBuilder.setIconUri( Uri.parse( song.getThumbnailUrl() ) );
+
+        return new MediaBrowser.MediaItem( mediaDescriptionBuilder.build(), MediaBrowser.MediaItem.FLAG_PLAYABLE );
+    }
+
+    /**
+     * The session metadata of {@code song}, everything but the album art bitmap.
+     */
+    static MediaMetadata.Builder buildMetadata( Song song ) {
+        MediaMetadata.Builder builder = new MediaMetadata.Builder();
+
+        if( !TextUtils.isEmpty( song.getTitle() ) )
+            builder.putText( MediaMetadata.METADATA_KEY_TITLE, song.getTitle() );
+
+        if( !TextUtils.isEmpty( song.getArtist() ) )
+            builder.putText( MediaMetadata.METADATA_KEY_ARTIST, song.getArtist() );
+
+        if( !TextUtils.isEmpty( song.getGenre() ) )
+            builder.putText( MediaMetadata.METADATA_KEY_GENRE, song.getGenre() );
+
+        if( !TextUtils.isEmpty( song.getAlbum() ) )
+            builder.putText( MediaMetadata.METADATA_KEY_ALBUM, song.getAlbum() );
+
+        if( !TextUtils.isEmpty( song.getAlbumUrl() ) )
+            builder.putText( MediaMetadata.METADATA_KEY_ALBUM_ART_URI, song.getAlbumUrl() );
+
+        if( song.getTrackNumber() > 0 )
+            builder.putLong( MediaMetadata.METADATA_KEY_TRACK_NUMBER, song.getTrackNumber() );
+
+        if( song.getDuration() > 0 )
+            builder.putLong( MediaMetadata.METADATA_KEY_DURATION, song.getDuration() );
+
+        return builder;
+    }
+}
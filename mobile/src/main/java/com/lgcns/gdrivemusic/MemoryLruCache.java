@@ -0,0 +1,94 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used memory cache bounded by the total size of its values rather than their
+ * number. A value larger than the whole budget is not cached at all.
+ */
+public abstract class MemoryLruCache<K, V> {
+    private final LinkedHashMap<K, V> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mMaxBytes;
+    private long mSize;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    public MemoryLruCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * The size of {@code value} in bytes; must not change while it is cached.
+     */
+    protected abstract int sizeOf(V value);
+
+    public synchronized V get(K key) {
+        V value = mEntries.get(key);
+        if (value == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        int size = sizeOf(value);
+        if (size > mMaxBytes) {
+            remove(key);
+            return;
+        }
+        V previous = mEntries.put(key, value);
+        if (previous != null) {
+            mSize -= sizeOf(previous);
+        }
+        mSize += size;
+        trim();
+    }
+
+    public synchronized void remove(K key) {
+        V previous = mEntries.remove(key);
+        if (previous != null) {
+            mSize -= sizeOf(previous);
+        }
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{size=" + mSize + "/" + mMaxBytes + ", entries=" + mEntries.size()
+                + ", hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions + "}";
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<K, V>> eldest = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && eldest.hasNext()) {
+            mSize -= sizeOf(eldest.next().getValue());
+            mEvictions++;
+            eldest.remove();
+        }
+    }
+}
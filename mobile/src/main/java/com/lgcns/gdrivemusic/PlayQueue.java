@@ -0,0 +1,345 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The songs queued for playback and the position of the one playing. Queue item ids are the
+ * positions in the queue.
+ *
+ * <p>A {@link #shuffled} queue plays a whole catalog in a {@link ShufflePermutation} order
+ * without copying it: position {@code p} is worked out from the seed when it is asked for, so
+ * the queue costs the same for ten songs as for a hundred thousand, and the seed and position
+ * are all it takes to restore it. Each song plays once before any plays again. A repeating
+ * queue goes on with a new order for every pass through the catalog.</p>
+ *
+ * <p>A sync drops removed songs from the catalog and appends new ones, which moves every later
+ * row. So that a pass in progress keeps its order, a {@link #rebase rebased} queue keeps the
+ * table the pass started on: the pass plays the rows of that table in the same order, skipping
+ * those whose song is gone, then the songs added since. Later passes shuffle the catalog as it
+ * is then.</p>
+ */
+public class PlayQueue {
+    private final List<Song> mSongs;
+    // set for shuffled queues only
+    private final SongTable mTable;
+    // the table the rebased pass started on, mTable unless the catalog changed since
+    private final SongTable mBase;
+    // rows of mTable not in mBase, played after the rebased pass, ascending
+    private final int[] mAppended;
+    private final int mPass;
+    private final int mPassStart;
+    private final long mSeed;
+    private final boolean mRepeat;
+    private int mIndex;
+
+    public PlayQueue() {
+        this(Collections.<Song>emptyList(), -1);
+    }
+
+    public PlayQueue(List<Song> songs, int index) {
+        this(Collections.unmodifiableList(new ArrayList<>(songs)), null, null, null, 0, 0, 0, false,
+                songs.isEmpty() ? -1 : Math.max(0, Math.min(index, songs.size() - 1)));
+    }
+
+    private PlayQueue(List<Song> songs, SongTable table, SongTable base, int[] appended, int pass, int passStart,
+                      long seed, boolean repeat, int index) {
+        mSongs = songs;
+        mTable = table;
+        mBase = base;
+        mAppended = appended;
+        mPass = pass;
+        mPassStart = passStart;
+        mSeed = seed;
+        mRepeat = repeat;
+        mIndex = index;
+    }
+
+    /**
+     * Queues {@code songs} starting at the one with media id {@code mediaId}, or at the first
+     * song if it is not among them.
+     */
+    public static PlayQueue startingAt(List<Song> songs, String mediaId) {
+        int index = 0;
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.get(i).getuId().equals(mediaId)) {
+                index = i;
+                break;
+            }
+        }
+        return new PlayQueue(songs, index);
+    }
+
+    /**
+     * Queues every song of {@code catalog} in the order given by {@code seed}.
+     */
+    public static PlayQueue shuffled(Catalog catalog, long seed, boolean repeat) {
+        SongTable table = SongTable.of(catalog.getSongs());
+        return new PlayQueue(null, table, table, new int[0], 0, 0, seed, repeat, table.size() == 0 ? -1 : 0);
+    }
+
+    /**
+     * An independent queue at the same position; the songs are shared, not copied.
+     */
+    public PlayQueue copy() {
+        return new PlayQueue(mSongs, mTable, mBase, mAppended, mPass, mPassStart, mSeed, mRepeat, mIndex);
+    }
+
+    /**
+     * The same shuffle over {@code catalog}, a refresh of the one this queue plays, at the same
+     * song. Returns null if the queue is not shuffled or the current song is gone.
+     *
+     * <p>The rest of the current pass keeps its order: songs removed from the catalog are
+     * skipped and songs added to it play after the pass. Later passes cover the new catalog.</p>
+     */
+    public PlayQueue rebase(Catalog catalog) {
+        Song current = getCurrent();
+        SongTable table = mTable == null ? null : SongTable.of(catalog.getSongs());
+        if (table == null || current == null || table.indexOf(current.getuId()) < 0) {
+            return null;
+        }
+        int pass = passOf(mIndex);
+        SongTable base = pass == mPass ? mBase : mTable;
+        int passStart = pass == mPass ? mPassStart : mIndex - offsetOf(mIndex);
+        PlayQueue queue = new PlayQueue(null, table, base, appended(base, table), pass, passStart,
+                mSeed, mRepeat, mIndex);
+        queue.restore(mIndex, current.getuId());
+        return queue;
+    }
+
+    /**
+     * Moves to {@code position}, saved earlier for the song with media id {@code mediaId}. If the
+     * catalog changed since and that song is elsewhere now, moves to where it is in the same
+     * pass; if it is gone, stays as close to {@code position} as the queue allows.
+     */
+    public Song restore(int position, String mediaId) {
+        if (size() == 0) {
+            return null;
+        }
+        position = Math.max(0, position);
+        if (!isPosition(position)) {
+            position = mTable == null ? mSongs.size() - 1 : mPassStart + passLength() - 1;
+        }
+        int row = mTable == null ? -1 : mTable.indexOf(mediaId);
+        Song song = songAt(position);
+        if (song != null && mediaId.equals(song.getuId())) {
+            mIndex = position;
+        } else if (row >= 0) {
+            mIndex = position - offsetOf(position) + offsetInPass(passOf(position), row, mediaId);
+        } else {
+            mIndex = position;
+            if (songAt(mIndex) == null) {
+                int next = nextPosition(mIndex);
+                mIndex = next >= 0 ? next : previousPosition(mIndex);
+            }
+        }
+        return getCurrent();
+    }
+
+    /**
+     * The songs in list order; for a shuffled queue, the whole catalog in catalog order.
+     */
+    public List<Song> getSongs() {
+        return mTable == null ? mSongs : mTable.asList();
+    }
+
+    /**
+     * The number of songs in one pass through the queue.
+     */
+    public int size() {
+        return mTable == null ? mSongs.size() : mTable.size();
+    }
+
+    public boolean isShuffled() {
+        return mTable != null;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Whether the queue starts over, rather than ending, after its last song.
+     */
+    public boolean isRepeating() {
+        return mRepeat;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * The song at {@code position}, or null if there is none.
+     */
+    public Song get(int position) {
+        return isPosition(position) ? songAt(position) : null;
+    }
+
+    public Song getCurrent() {
+        return mIndex < 0 ? null : songAt(mIndex);
+    }
+
+    public Song peekNext() {
+        int next = mIndex < 0 ? -1 : nextPosition(mIndex);
+        return next < 0 ? null : songAt(next);
+    }
+
+    public boolean hasNext() {
+        return mIndex >= 0 && nextPosition(mIndex) >= 0;
+    }
+
+    /**
+     * Moves to the next song and returns it, or returns null at the end of the queue.
+     */
+    public Song next() {
+        int next = mIndex < 0 ? -1 : nextPosition(mIndex);
+        if (next < 0) {
+            return null;
+        }
+        mIndex = next;
+        return songAt(mIndex);
+    }
+
+    /**
+     * Moves to the previous song and returns it; at the start the first song is returned again.
+     */
+    public Song previous() {
+        if (mIndex < 0) {
+            return null;
+        }
+        int previous = previousPosition(mIndex);
+        if (previous >= 0) {
+            mIndex = previous;
+        }
+        return songAt(mIndex);
+    }
+
+    public Song skipTo(int index) {
+        Song song = get(index);
+        if (song != null) {
+            mIndex = index;
+        }
+        return song;
+    }
+
+    /**
+     * The first position after {@code position} with a song, or -1 at the end of the queue. Only
+     * the rebased pass has positions without one, so this looks no further than its end.
+     */
+    public int nextPosition(int position) {
+        for (int next = position + 1; isPosition(next); next++) {
+            if (songAt(next) != null) {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    private int previousPosition(int position) {
+        for (int previous = position - 1; isPosition(previous); previous--) {
+            if (songAt(previous) != null) {
+                return previous;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPosition(int position) {
+        if (position < 0) {
+            return false;
+        }
+        if (mTable == null) {
+            return position < mSongs.size() || mRepeat && !mSongs.isEmpty();
+        }
+        if (position >= mPassStart && position < mPassStart + passLength()) {
+            return true;
+        }
+        return mTable.size() > 0 && (position < mPassStart || mRepeat) && passOf(position) >= 0;
+    }
+
+    /**
+     * The song at a valid {@code position}, or null if its row of the rebased pass is gone.
+     */
+    private Song songAt(int position) {
+        if (mTable == null) {
+            return mSongs.get(position % mSongs.size());
+        }
+        int pass = passOf(position);
+        int offset = offsetOf(position);
+        if (pass != mPass) {
+            return mTable.getSong(orderOf(pass, mTable.size()).get(offset));
+        }
+        if (offset >= mBase.size()) {
+            return mTable.getSong(mAppended[offset - mBase.size()]);
+        }
+        int row = orderOf(pass, mBase.size()).get(offset);
+        if (mBase == mTable) {
+            return mTable.getSong(row);
+        }
+        row = mTable.indexOf(mBase.getId(row));
+        return row < 0 ? null : mTable.getSong(row);
+    }
+
+    /**
+     * The pass {@code position} falls in. The rebased pass has its own length; the passes
+     * before and after it are as long as the catalog.
+     */
+    private int passOf(int position) {
+        if (position < mPassStart) {
+            return mPass - 1 - (mPassStart - 1 - position) / mTable.size();
+        }
+        int after = position - mPassStart - passLength();
+        return after < 0 ? mPass : mPass + 1 + after / mTable.size();
+    }
+
+    private int offsetOf(int position) {
+        if (position < mPassStart) {
+            int size = mTable.size();
+            return size - 1 - (mPassStart - 1 - position) % size;
+        }
+        int after = position - mPassStart - passLength();
+        return after < 0 ? position - mPassStart : after % mTable.size();
+    }
+
+    /**
+     * Where the song in {@code row} of the catalog plays within {@code pass}.
+     */
+    private int offsetInPass(int pass, int row, String mediaId) {
+        if (pass != mPass) {
+            return orderOf(pass, mTable.size()).positionOf(row);
+        }
+        int baseRow = mBase.indexOf(mediaId);
+        if (baseRow >= 0) {
+            return orderOf(pass, mBase.size()).positionOf(baseRow);
+        }
+        return mBase.size() + Arrays.binarySearch(mAppended, row);
+    }
+
+    private int passLength() {
+        return mBase.size() + mAppended.length;
+    }
+
+    private ShufflePermutation orderOf(int pass, int size) {
+        return new ShufflePermutation(size, pass == 0 ? mSeed : ShufflePermutation.mix(mSeed + pass));
+    }
+
+    /**
+     * The rows of {@code table} whose songs are not in {@code base}.
+     */
+    private static int[] appended(SongTable base, SongTable table) {
+        if (base == table) {
+            return new int[0];
+        }
+        int[] rows = new int[table.size()];
+        int count = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (base.indexOf(table.getId(row)) < 0) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+}
@@ -0,0 +1,950 @@
+package com.lgcns.gdrivemusic;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the media players on a dedicated {@link HandlerThread}.
+ *
+ * <p>Every public method only posts a command to that thread, so session callbacks never block.
+ * Players are prepared asynchronously, file copies and stream fills run on a worker pool, and
+ * each open carries a generation number so an open that finishes after the user has already
+ * picked another track is dropped. Listener callbacks arrive on the engine thread.</p>
+ *
+ * <p>Starting in the middle of a track uses its {@link SeekTable}: the player is handed the
+ * file from the frame at that position on, so nothing before it is decoded. Cached files are
+ * scanned for an exact table once; a stream falls back on its Xing or VBRI header.</p>
+ */
+public class PlaybackEngine {
+    private static final String TAG = PlaybackEngine.class.getName();
+    private static final long INITIAL_BUFFER_BYTES = 256 * 1024;
+
+    public enum State {
+        IDLE, OPENING, BUFFERING, PREPARED, PLAYING, PAUSED, ERROR
+    }
+
+    /**
+     * Where track contents come from. The callback may be invoked on any thread.
+     */
+    public interface Source {
+        /**
+         * @param upNext true for the track after the current one, opened ahead of time for a
+         *               gapless transition; false for the one to play now
+         */
+        void open(String mediaId, boolean upNext, OpenCallback callback);
+    }
+
+    public interface OpenCallback {
+        /**
+         * The engine closes {@code in} once it has been read to the end, has failed or has been
+         * dropped as stale; closing it is how the source learns it can free what backs it.
+         */
+        void onOpened(InputStream in);
+
+        void onError(String message);
+    }
+
+    public interface Listener {
+        void onStateChanged(State state, Song song, long position);
+
+        void onTrackChanged(int queueIndex, Song song);
+
+        /** The queue was moved over to a new catalog; {@code queue} is a copy at the current song. */
+        void onQueueChanged(PlayQueue queue);
+    }
+
+    private final Context mContext;
+    private final Source mSource;
+    private final AudioCache mAudioCache;
+    private final SeekTableStore mSeekTables;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final ExecutorService mIoExecutor = Executors.newCachedThreadPool();
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics();
+
+    // everything below is confined to the engine thread
+    private final PlaybackStateMachine mStates = new PlaybackStateMachine();
+    private PlayQueue mQueue = new PlayQueue();
+    private int mStartPosition;
+    // the track time where the current player's data starts, when it skips the file's head
+    private long mBaseTimeMs;
+    private MediaPlayer mPlayer;
+    private MediaPlayer mNextPlayer;
+    private boolean mNextPlayerChained;
+    private StreamBuffer mStreamBuffer;
+    private long mCompletedAt;
+    private long mStartedAsNextAt;
+    // timestamps of the stages in flight, for the metrics; 0 when none is
+    private long mRequestedAt;
+    private long mOpenStartedAt;
+    private long mBufferStartedAt;
+    private long mPrepareStartedAt;
+    private long mRebufferStartedAt;
+
+    public PlaybackEngine(Context context, Source source, AudioCache audioCache, SeekTableStore seekTables,
+                          Listener listener) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mAudioCache = audioCache;
+        mSeekTables = seekTables;
+        mListener = listener;
+        mThread = new HandlerThread("PlaybackEngine");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public PlaybackMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Replaces the queue and plays its current song from {@code positionMs}.
+     */
+    public void play(PlayQueue queue, final int positionMs) {
+        final PlayQueue copy = queue.copy();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mQueue = copy;
+                mStates.setPlayWhenReady(true);
+                openCurrent(positionMs);
+            }
+        });
+    }
+
+    /**
+     * Moves a shuffled queue over to {@code catalog} without interrupting the current song, see
+     * {@link PlayQueue#rebase}. A next song prepared for the old order is dropped if the new
+     * order goes on differently.
+     */
+    public void updateCatalog(final Catalog catalog) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                PlayQueue queue = mQueue.rebase(catalog);
+                if (queue == null) {
+                    return;
+                }
+                Song next = mQueue.peekNext();
+                mQueue = queue;
+                if (mNextPlayer != null && !isSameSong(next, mQueue.peekNext())) {
+                    if (mNextPlayerChained) {
+                        mPlayer.setNextMediaPlayer(null);
+                        mNextPlayerChained = false;
+                    }
+                    mNextPlayer.release();
+                    mNextPlayer = null;
+                }
+                mListener.onQueueChanged(mQueue.copy());
+                updatePinnedTracks();
+                if (mStates.isPrepared()) {
+                    prefetchNext();
+                }
+            }
+        });
+    }
+
+    public void pause() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a pause while the track is still opening holds it once prepared
+                mRequestedAt = 0;
+                if (mStates.pause()) {
+                    mPlayer.pause();
+                    // a stall the user paused through is not timed
+                    mRebufferStartedAt = 0;
+                    setState(State.PAUSED);
+                }
+            }
+        });
+    }
+
+    public void resume() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                State state = mStates.getState();
+                mStates.setPlayWhenReady(true);
+                if (mStates.start()) {
+                    mPlayer.start();
+                    setState(State.PLAYING);
+                } else if ((state == State.IDLE || state == State.ERROR) && mQueue.getCurrent() != null) {
+                    openCurrent(mStartPosition);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves playback of the current song to {@code positionMs}, keeping it playing or paused. A
+     * song that is not prepared yet, or stopped, opens there instead.
+     */
+    public void seekTo(final int positionMs) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Song song = mQueue.getCurrent();
+                if (song == null) {
+                    return;
+                }
+                if (!mStates.isPrepared()) {
+                    State state = mStates.getState();
+                    if ((state == State.OPENING || state == State.BUFFERING) && positionMs < mStartPosition) {
+                        // the open in flight may already start past it
+                        openAt(positionMs);
+                        return;
+                    }
+                    // the open in flight skips ahead to it once prepared, or the next open starts there
+                    mStartPosition = positionMs;
+                    setState(state);
+                    return;
+                }
+                String key = keyOf(song);
+                // a cached file with a table is reopened right at the frame; without one the
+                // player has to find it, unless it lies before where the player's data starts
+                boolean jump = mAudioCache.contains(key) && mSeekTables.contains(seekKeyOf(key));
+                if (jump || positionMs < mBaseTimeMs) {
+                    // playing or paused, the reopened player is left the same way
+                    openAt(positionMs);
+                } else {
+                    mPlayer.seekTo((int) (positionMs - mBaseTimeMs));
+                    setState(mStates.getState());
+                }
+            }
+        });
+    }
+
+    public void skipToNext() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.next() != null) {
+                    mStates.setPlayWhenReady(true);
+                    openCurrent(0);
+                }
+            }
+        });
+    }
+
+    public void skipToPrevious() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.previous() != null) {
+                    mStates.setPlayWhenReady(true);
+                    openCurrent(0);
+                }
+            }
+        });
+    }
+
+    public void skipToQueueItem(final int index) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.skipTo(index) != null) {
+                    mStates.setPlayWhenReady(true);
+                    openCurrent(0);
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                keepPosition();
+                mStates.invalidate();
+                releasePlayers();
+                setState(State.IDLE);
+            }
+        });
+    }
+
+    /**
+     * Stops playback and shuts the engine thread down; the engine cannot be used afterwards.
+     */
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStates.invalidate();
+                releasePlayers();
+                mIoExecutor.shutdown();
+                mThread.quitSafely();
+            }
+        });
+    }
+
+    private void openCurrent(int position) {
+        Song song = mQueue.getCurrent();
+        if (song != null) {
+            mListener.onTrackChanged(mQueue.getIndex(), song);
+        }
+        openAt(position);
+    }
+
+    /**
+     * Opens the current song again from {@code position}, for a start or a seek.
+     */
+    private void openAt(int position) {
+        final int generation = mStates.open();
+        releasePlayers();
+
+        Song song = mQueue.getCurrent();
+        if (song == null) {
+            setState(State.IDLE);
+            return;
+        }
+
+        mStartPosition = position;
+        mBaseTimeMs = 0;
+        mRequestedAt = SystemClock.elapsedRealtime();
+        mPlayer = createPlayer();
+        setState(State.OPENING);
+
+        final String key = keyOf(song);
+        // from the listing; lets the player see the stream's length before it has all arrived
+        final long size = song.getSize() > 0 ? song.getSize() : -1;
+        updatePinnedTracks();
+        File cached = mAudioCache.get(key);
+        mMetrics.onCacheLookup(cached != null);
+        if (cached != null) {
+            Log.i(TAG, "audio cache hit, " + mAudioCache);
+            prepareFile(cached, key);
+            return;
+        }
+
+        mOpenStartedAt = SystemClock.elapsedRealtime();
+        mSource.open(song.getuId(), false, new OpenCallback() {
+            @Override
+            public void onOpened(final InputStream in) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mStates.isCurrent(generation)) {
+                            Log.i(TAG, "dropping stale open");
+                            closeQuietly(in);
+                            return;
+                        }
+                        mMetrics.record(PlaybackMetrics.Stage.OPEN, SystemClock.elapsedRealtime() - mOpenStartedAt);
+                        handleOpened(in, key, size, generation);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final String message) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStates.fail(generation)) {
+                            Log.i(TAG, "file open error: " + message);
+                            setState(State.ERROR);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void handleOpened(final InputStream in, final String key, long size, final int generation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            streamMedia(in, key, size, generation);
+            return;
+        }
+
+        setState(State.BUFFERING);
+        mBufferStartedAt = SystemClock.elapsedRealtime();
+        cacheMedia(in, key, new CacheCallback() {
+            @Override
+            public void onCached(File file) {
+                if (mStates.isCurrent(generation)) {
+                    mMetrics.record(PlaybackMetrics.Stage.INITIAL_BUFFER, SystemClock.elapsedRealtime() - mBufferStartedAt);
+                    prepareFile(file, key);
+                }
+            }
+
+            @Override
+            public void onFailed() {
+                if (mStates.fail(generation)) {
+                    setState(State.ERROR);
+                }
+            }
+        });
+    }
+
+    private interface CacheCallback {
+        void onCached(File file);
+
+        void onFailed();
+    }
+
+    /**
+     * Copies the stream into the audio cache on a worker thread, then calls back on the engine
+     * thread with the cached file, or with the failure.
+     */
+    private void cacheMedia(final InputStream in, final String key, final CacheCallback callback) {
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final File file = mAudioCache.put(key, in);
+                    mMetrics.addBytesFetched(file.length());
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCached(file);
+                        }
+                    });
+                    indexFile(key, file);
+                } catch (IOException e) {
+                    Log.e(TAG, "audio cache write failed", e);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailed();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills a {@link StreamBuffer} on a worker thread and starts the player as soon as
+     * {@link #INITIAL_BUFFER_BYTES} have arrived instead of waiting for the whole file. The
+     * buffer is written straight into the audio cache and committed once complete.
+     *
+     * <p>Drive contents can only be read from the start, so a resume still waits for the
+     * download to reach the seek table's offset, but the player never decodes what lies
+     * before it.</p>
+     *
+     * @param size the file's size, or -1 if unknown
+     */
+    private void streamMedia(final InputStream in, final String key, long size, final int generation) {
+        final int startPosition = mStartPosition;
+        final SeekTable stored = startPosition > 0 ? mSeekTables.get(seekKeyOf(key)) : null;
+        final File tempFile = mAudioCache.newTempFile(key);
+        final StreamBuffer buffer;
+        try {
+            buffer = new StreamBuffer(tempFile, size);
+        } catch (IOException e) {
+            Log.e(TAG, "stream buffer error", e);
+            closeQuietly(in);
+            setState(State.ERROR);
+            return;
+        }
+        buffer.setListener(new StreamBuffer.Listener() {
+            @Override
+            public void onUnderrun(long position) {
+                Log.i(TAG, "playback caught up with download at " + position);
+                postStreamEvent(buffer, true);
+            }
+
+            @Override
+            public void onRebuffered(long position) {
+                postStreamEvent(buffer, false);
+            }
+        });
+        mStreamBuffer = buffer;
+        setState(State.BUFFERING);
+        mBufferStartedAt = SystemClock.elapsedRealtime();
+
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = buffer.fill(in);
+                mMetrics.addBytesFetched(tempFile.length());
+                if (!complete) {
+                    tempFile.delete();
+                    return;
+                }
+                try {
+                    indexFile(key, mAudioCache.commit(key, tempFile));
+                } catch (IOException e) {
+                    Log.e(TAG, "audio cache commit failed", e);
+                }
+            }
+        });
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long offset = 0;
+                long baseTimeMs = 0;
+                try {
+                    if (!buffer.awaitInitial(INITIAL_BUFFER_BYTES)) {
+                        postStreamFailed(buffer, generation);
+                        return;
+                    }
+                    SeekTable table = stored;
+                    if (table == null && startPosition > 0) {
+                        table = new SeekTableBuilder(new ArrivedSource(buffer))
+                                .readHeader(0, buffer.getExpectedSize(), SeekTable.DEFAULT_INTERVAL_MS);
+                    }
+                    if (table != null && table.offsetFor(startPosition) > 0) {
+                        offset = table.offsetFor(startPosition);
+                        baseTimeMs = table.timeFor(startPosition);
+                        if (!buffer.awaitInitial(offset + INITIAL_BUFFER_BYTES)) {
+                            postStreamFailed(buffer, generation);
+                            return;
+                        }
+                        if (!table.isExact()) {
+                            offset = new SeekTableBuilder(new ArrivedSource(buffer)).align(offset);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    Log.w(TAG, "seek header unreadable, streaming from the start", e);
+                    offset = 0;
+                    baseTimeMs = 0;
+                }
+                final long startOffset = offset;
+                final long startTimeMs = baseTimeMs;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStates.isCurrent(generation) && mStreamBuffer == buffer) {
+                            mMetrics.record(PlaybackMetrics.Stage.INITIAL_BUFFER, SystemClock.elapsedRealtime() - mBufferStartedAt);
+                            mBaseTimeMs = startTimeMs;
+                            prepareStream(buffer, startOffset);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Fails the open if the download broke off before the player could start. A buffer that was
+     * closed was dropped on purpose, for a skip or a stop, and needs nothing. Once the player
+     * reads from the stream it hears about a failure itself, through its error listener.
+     */
+    private void postStreamFailed(final StreamBuffer buffer, final int generation) {
+        if (buffer.isClosed()) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mStreamBuffer == buffer && mStates.fail(generation)) {
+                    Log.i(TAG, "download failed before the initial buffer filled");
+                    setState(State.ERROR);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports an underrun, or the end of one, of the current stream; see
+     * {@link PlaybackStateMachine} for when that changes the state.
+     */
+    private void postStreamEvent(final StreamBuffer buffer, final boolean underrun) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mStreamBuffer == buffer && (underrun ? mStates.onUnderrun() : mStates.onRebuffered())) {
+                    recordRebuffer(underrun);
+                    setState(mStates.getState());
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts a stall when a playing stream runs dry, and its length once it plays again.
+     */
+    private void recordRebuffer(boolean stalled) {
+        if (stalled) {
+            mMetrics.onRebufferStarted();
+            mRebufferStartedAt = SystemClock.elapsedRealtime();
+        } else if (mRebufferStartedAt > 0) {
+            mMetrics.record(PlaybackMetrics.Stage.REBUFFER, SystemClock.elapsedRealtime() - mRebufferStartedAt);
+            mRebufferStartedAt = 0;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void prepareStream(StreamBuffer buffer, long offset) {
+        Log.i(TAG, "initial buffer ready (" + buffer.getAvailable() + " bytes), try to play from " + offset);
+        mPrepareStartedAt = SystemClock.elapsedRealtime();
+        mPlayer.setDataSource(new StreamingDataSource(buffer, offset));
+        mPlayer.prepareAsync();
+    }
+
+    private void prepareFile(final File file, final String key) {
+        mPrepareStartedAt = SystemClock.elapsedRealtime();
+        SeekTable table = mStartPosition > 0 ? mSeekTables.get(seekKeyOf(key)) : null;
+        try {
+            if (table != null) {
+                long offset = table.offsetFor(mStartPosition);
+                mBaseTimeMs = table.timeFor(mStartPosition);
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    mPlayer.setDataSource(in.getFD(), offset, file.length() - offset);
+                } finally {
+                    in.close();
+                }
+            } else {
+                mPlayer.setDataSource(file.getPath());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "play() exception e=" + e);
+            setState(State.ERROR);
+            return;
+        }
+        mPlayer.prepareAsync();
+        if (!mSeekTables.contains(seekKeyOf(key))) {
+            mIoExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexFile(key, file);
+                }
+            });
+        }
+    }
+
+    /**
+     * Scans a complete file for its exact seek table, unless it has one already. Runs on a
+     * worker thread; a file evicted meanwhile just fails the scan.
+     */
+    private void indexFile(String key, File file) {
+        if (mSeekTables.contains(seekKeyOf(key))) {
+            return;
+        }
+        try {
+            Id3Reader.FileSource source = new Id3Reader.FileSource(file);
+            try {
+                long audioStart = new Id3Reader(source).getAudioStart();
+                SeekTable table = new SeekTableBuilder(source).scan(audioStart, SeekTable.DEFAULT_INTERVAL_MS);
+                if (table != null) {
+                    mSeekTables.put(seekKeyOf(key), table);
+                    Log.i(TAG, "indexed " + table + ", " + mSeekTables);
+                }
+            } finally {
+                source.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "seek table scan failed", e);
+        }
+    }
+
+    private MediaPlayer createPlayer() {
+        MediaPlayer player = new MediaPlayer();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setWakeMode(mContext, PowerManager.PARTIAL_WAKE_LOCK);
+        player.setOnPreparedListener(mPreparedListener);
+        player.setOnCompletionListener(mCompletionListener);
+        player.setOnInfoListener(mInfoListener);
+        player.setOnErrorListener(mErrorListener);
+        return player;
+    }
+
+    private final MediaPlayer.OnPreparedListener mPreparedListener = new MediaPlayer.OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            if (mp != mPlayer) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            mMetrics.record(PlaybackMetrics.Stage.PREPARE, now - mPrepareStartedAt);
+            boolean start = mStates.onPrepared();
+            // the rest of the way from the seek table entry, or all of it without one
+            long skip = mStartPosition - mBaseTimeMs;
+            if (skip > 0) {
+                mp.seekTo((int) skip);
+            }
+            if (start) {
+                mp.start();
+                if (mRequestedAt > 0) {
+                    mMetrics.record(PlaybackMetrics.Stage.TIME_TO_FIRST_AUDIO, now - mRequestedAt);
+                    mRequestedAt = 0;
+                }
+            }
+            setState(mStates.getState());
+            prefetchNext();
+        }
+    };
+
+    /**
+     * Fetches and prepares the next queued song on a second player and chains it behind the
+     * current one, so the platform starts it the moment the current song ends.
+     */
+    private void prefetchNext() {
+        final Song next = mQueue.peekNext();
+        if (next == null || mNextPlayer != null) {
+            return;
+        }
+
+        final int generation = mStates.getGeneration();
+        final String key = keyOf(next);
+        File cached = mAudioCache.get(key);
+        if (cached != null) {
+            prepareNext(cached, next);
+            return;
+        }
+
+        mSource.open(next.getuId(), true, new OpenCallback() {
+            @Override
+            public void onOpened(final InputStream in) {
+                cacheMedia(in, key, new CacheCallback() {
+                    @Override
+                    public void onCached(File file) {
+                        if (mStates.isCurrent(generation)) {
+                            prepareNext(file, next);
+                        }
+                    }
+
+                    @Override
+                    public void onFailed() {
+                        // the next song is opened again when it comes up
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.i(TAG, "prefetch open error: " + message);
+            }
+        });
+    }
+
+    private void prepareNext(File file, final Song next) {
+        // the user skipped elsewhere while the file was being fetched
+        if (!isSameSong(mQueue.peekNext(), next) || mNextPlayer != null) {
+            return;
+        }
+
+        final MediaPlayer current = mPlayer;
+        final MediaPlayer player = createPlayer();
+        try {
+            player.setDataSource(file.getPath());
+        } catch (IOException e) {
+            Log.e(TAG, "prefetch exception e=" + e);
+            player.release();
+            return;
+        }
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (mNextPlayer == mp && mPlayer == current) {
+                    current.setNextMediaPlayer(mp);
+                    mNextPlayerChained = true;
+                    Log.i(TAG, "next track prepared and chained: " + next.getTitle());
+                }
+            }
+        });
+        mNextPlayer = player;
+        player.prepareAsync();
+    }
+
+    private final MediaPlayer.OnCompletionListener mCompletionListener = new MediaPlayer.OnCompletionListener() {
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            Log.d(TAG, "onCompletion() mediaPlayer=" + mp);
+            if (mp != mPlayer) {
+                return;
+            }
+
+            if (mNextPlayerChained) {
+                // the platform has already started the next player
+                mCompletedAt = SystemClock.elapsedRealtime();
+                logTransitionGap();
+
+                mPlayer = mNextPlayer;
+                mBaseTimeMs = 0;
+                mNextPlayer = null;
+                mNextPlayerChained = false;
+                mp.release();
+                closeStream();
+
+                Song song = mQueue.next();
+                mListener.onTrackChanged(mQueue.getIndex(), song);
+                mStates.onNextStarted();
+                setState(State.PLAYING);
+                updatePinnedTracks();
+                prefetchNext();
+            } else if (mQueue.next() != null) {
+                openCurrent(0);
+            } else {
+                mp.stop();
+                mStartPosition = 0;
+                setState(State.IDLE);
+            }
+        }
+    };
+
+    private final MediaPlayer.OnInfoListener mInfoListener = new MediaPlayer.OnInfoListener() {
+        @Override
+        public boolean onInfo(MediaPlayer mp, int what, int extra) {
+            if (what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+                mStartedAsNextAt = SystemClock.elapsedRealtime();
+                logTransitionGap();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final MediaPlayer.OnErrorListener mErrorListener = new MediaPlayer.OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Log.e(TAG, "player error what=" + what + " extra=" + extra);
+            if (mp == mNextPlayer) {
+                mNextPlayer = null;
+                mNextPlayerChained = false;
+                mp.release();
+            } else if (mp == mPlayer) {
+                keepPosition();
+                setState(State.ERROR);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Logs the time between the previous song ending and the next one starting once both
+     * callbacks of a transition have arrived; they come in no guaranteed order.
+     */
+    private void logTransitionGap() {
+        if (mCompletedAt > 0 && mStartedAsNextAt > 0) {
+            Log.i(TAG, "track transition gap: " + Math.abs(mStartedAsNextAt - mCompletedAt) + " ms");
+            mCompletedAt = 0;
+            mStartedAsNextAt = 0;
+        }
+    }
+
+    private void setState(State state) {
+        mStates.setState(state);
+        mListener.onStateChanged(state, mQueue.getCurrent(), getPosition());
+    }
+
+    private long getPosition() {
+        if (mPlayer != null && mStates.isPrepared()) {
+            return mBaseTimeMs + mPlayer.getCurrentPosition();
+        }
+        return mStartPosition;
+    }
+
+    /**
+     * Remembers where the current player is, so a resume once it is gone opens the song there.
+     */
+    private void keepPosition() {
+        if (mPlayer != null && mStates.isPrepared()) {
+            mStartPosition = (int) getPosition();
+        }
+    }
+
+    private static String keyOf(Song song) {
+        return AudioCache.key(song.getuId(), song.getModified());
+    }
+
+    /**
+     * Seek tables are kept per content, so copies of a file share theirs.
+     */
+    private String seekKeyOf(String key) {
+        return mAudioCache.storageKey(key);
+    }
+
+    /**
+     * Songs read from a catalog are fresh copies, so they are compared by id.
+     */
+    private static boolean isSameSong(Song a, Song b) {
+        return a == null ? b == null : b != null && a.getuId().equals(b.getuId());
+    }
+
+    /**
+     * Keeps the playing song and the one queued after it out of reach of cache eviction.
+     */
+    private void updatePinnedTracks() {
+        List<String> pinned = new ArrayList<>();
+        Song current = mQueue.getCurrent();
+        if (current != null) {
+            pinned.add(keyOf(current));
+        }
+        Song next = mQueue.peekNext();
+        if (next != null) {
+            pinned.add(keyOf(next));
+        }
+        mAudioCache.setPinned(pinned);
+    }
+
+    private void releasePlayers() {
+        closeStream();
+        if (mNextPlayer != null) {
+            mNextPlayer.release();
+            mNextPlayer = null;
+            mNextPlayerChained = false;
+        }
+        if (mPlayer != null) {
+            mPlayer.release();
+            mPlayer = null;
+        }
+    }
+
+    private void closeStream() {
+        mRebufferStartedAt = 0;
+        if (mStreamBuffer != null) {
+            try {
+                mStreamBuffer.close();
+            } catch (IOException e) {
+                Log.w(TAG, "stream close failed", e);
+            }
+            mStreamBuffer = null;
+        }
+    }
+
+    /**
+     * What a stream buffer holds so far, without waiting for more.
+     */
+    private static class ArrivedSource implements Id3Reader.Source {
+        private final StreamBuffer mBuffer;
+        private final long mLength;
+
+        ArrivedSource(StreamBuffer buffer) {
+            mBuffer = buffer;
+            mLength = buffer.getAvailable();
+        }
+
+        @Override
+        public long length() {
+            return mLength;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (position >= mLength) {
+                return -1;
+            }
+            return mBuffer.readAt(position, buffer, offset, (int) Math.min(size, mLength - position));
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
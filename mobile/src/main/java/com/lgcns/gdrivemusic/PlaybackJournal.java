@@ -0,0 +1,276 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers what was playing, the queue and the position, so playback resumes where it left
+ * off after the service or the whole process was killed. A shuffled queue is saved as its seed
+ * and position, with the current song to check them against.
+ *
+ * <p>Writes happen on a thread of their own. {@link #checkpoint} coalesces: however often it is
+ * called, the latest state reaches disk at most one delay later in a single write.
+ * {@link #commit} writes as soon as possible, for pauses and stops. Each write goes to a
+ * temporary file that is synced and renamed over the journal, so a crash leaves either the old
+ * state or the new one.</p>
+ */
+public class PlaybackJournal {
+    private static final int MAGIC = 0x47444d4a; // "GDMJ"
+    private static final int FORMAT_VERSION = 2;
+    /** The queue is cut to this many songs around the current one, to bound the resume time. */
+    static final int MAX_QUEUE = 500;
+    /** How long {@link #close} waits for the final write before leaving it to finish alone. */
+    static final long CLOSE_TIMEOUT_MS = 250;
+
+    /**
+     * Where a {@link PlayQueue#shuffled} queue was.
+     */
+    public static class Shuffle {
+        public final long seed;
+        public final int position;
+        public final boolean repeat;
+
+        public Shuffle(long seed, int position, boolean repeat) {
+            this.seed = seed;
+            this.position = position;
+            this.repeat = repeat;
+        }
+    }
+
+    /**
+     * A position in a queue. Songs carry only their id and revision; the caller resolves them
+     * against the catalog. For a shuffled queue, {@code queue} holds only the current song.
+     */
+    public static class State {
+        public final List<Song> queue;
+        public final int index;
+        public final Shuffle shuffle;
+        public final long positionMs;
+        public final long savedAt;
+
+        public State(List<Song> queue, int index, long positionMs, long savedAt) {
+            this(queue, index, null, positionMs, savedAt);
+        }
+
+        public State(List<Song> queue, int index, Shuffle shuffle, long positionMs, long savedAt) {
+            this.queue = queue;
+            this.index = index;
+            this.shuffle = shuffle;
+            this.positionMs = positionMs;
+            this.savedAt = savedAt;
+        }
+
+        /**
+         * The state of a shuffled queue at {@code current}.
+         */
+        public static State shuffled(Song current, Shuffle shuffle, long positionMs, long savedAt) {
+            return new State(Collections.singletonList(current), 0, shuffle, positionMs, savedAt);
+        }
+
+        public Song getCurrent() {
+            return index >= 0 && index < queue.size() ? queue.get(index) : null;
+        }
+    }
+
+    private final File mFile;
+    private final long mCheckpointDelayMs;
+    private final ScheduledThreadPoolExecutor mWriter = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "PlaybackJournal");
+        }
+    });
+
+    // guarded by this
+    private State mPending;
+    private boolean mCheckpointScheduled;
+    private int mWrites;
+    private int mFailures;
+    private boolean mClosed;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            State state;
+            synchronized (PlaybackJournal.this) {
+                state = mPending;
+                mPending = null;
+                mCheckpointScheduled = false;
+            }
+            if (state == null) {
+                return;
+            }
+            boolean written;
+            try {
+                write(state);
+                written = true;
+            } catch (IOException e) {
+                // the previous journal is still in place
+                written = false;
+            }
+            synchronized (PlaybackJournal.this) {
+                if (written) {
+                    mWrites++;
+                } else {
+                    mFailures++;
+                }
+            }
+        }
+    };
+
+    public PlaybackJournal(File file, long checkpointDelayMs) {
+        mFile = file;
+        mCheckpointDelayMs = checkpointDelayMs;
+        // the final write of close() saves whatever a waiting checkpoint holds
+        mWriter.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Reads the last saved state, or null if there is none or it cannot be read.
+     */
+    public State load() {
+        if (!mFile.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            long savedAt = in.readLong();
+            long positionMs = in.readLong();
+            Shuffle shuffle = in.readBoolean() ? new Shuffle(in.readLong(), in.readInt(), in.readBoolean()) : null;
+            int index = in.readInt();
+            int count = in.readInt();
+            List<Song> queue = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                queue.add(new Song(in.readUTF(), null, null, null, null, null, null, in.readLong()));
+            }
+            return new State(queue, index, shuffle, positionMs, savedAt);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves {@code state} within the checkpoint delay, merged with any other checkpoint made
+     * in the meantime. Ignored once closed.
+     */
+    public synchronized void checkpoint(State state) {
+        if (mClosed) {
+            return;
+        }
+        mPending = state;
+        if (!mCheckpointScheduled) {
+            mCheckpointScheduled = true;
+            mWriter.schedule(mWrite, mCheckpointDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves {@code state} as soon as the writer thread gets to it. Ignored once closed.
+     */
+    public synchronized void commit(State state) {
+        if (mClosed) {
+            return;
+        }
+        mPending = state;
+        mWriter.execute(mWrite);
+    }
+
+    /**
+     * Writes any pending state and stops the writer thread. Waits for the write at most
+     * {@link #CLOSE_TIMEOUT_MS}, so a slow sync cannot hold up the caller; it finishes on its own.
+     * Returns whether the writer is done. Later saves are ignored.
+     */
+    public boolean close() {
+        return close(CLOSE_TIMEOUT_MS);
+    }
+
+    boolean close(long timeoutMs) {
+        synchronized (this) {
+            if (mClosed) {
+                return mWriter.isTerminated();
+            }
+            mClosed = true;
+        }
+        mWriter.execute(mWrite);
+        mWriter.shutdown();
+        try {
+            return mWriter.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public synchronized int getWriteCount() {
+        return mWrites;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    private void write(State state) throws IOException {
+        List<Song> queue = state.queue;
+        int from = 0;
+        if (queue.size() > MAX_QUEUE) {
+            from = Math.max(0, Math.min(state.index - MAX_QUEUE / 2, queue.size() - MAX_QUEUE));
+            queue = queue.subList(from, from + MAX_QUEUE);
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(state.savedAt);
+            out.writeLong(state.positionMs);
+            out.writeBoolean(state.shuffle != null);
+            if (state.shuffle != null) {
+                out.writeLong(state.shuffle.seed);
+                out.writeInt(state.shuffle.position);
+                out.writeBoolean(state.shuffle.repeat);
+            }
+            out.writeInt(state.index - from);
+            out.writeInt(queue.size());
+            for (Song song : queue) {
+                out.writeUTF(song.getuId());
+                out.writeLong(song.getModified());
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+}
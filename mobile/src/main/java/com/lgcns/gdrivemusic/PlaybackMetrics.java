@@ -0,0 +1,114 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes between a play request and audible output, and how often playback stalls.
+ *
+ * <p>Every stage has a {@link LatencyHistogram} in milliseconds. Recording is lock-free, so the
+ * engine and its workers record as they go while a dump reads from another thread.</p>
+ */
+public class PlaybackMetrics {
+
+    public enum Stage {
+        /** From the play request to {@code MediaPlayer.start()}. */
+        TIME_TO_FIRST_AUDIO,
+        /** Opening the Drive file, for songs not in the audio cache. */
+        OPEN,
+        /** Waiting for the first bytes of a stream before handing it to the player. */
+        INITIAL_BUFFER,
+        /** From {@code setDataSource} to {@code onPrepared}. */
+        PREPARE,
+        /** How long playback stalled each time it caught up with the download. */
+        REBUFFER
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final Map<Stage, LatencyHistogram> mHistograms = new EnumMap<>(Stage.class);
+    private final AtomicLong mRebuffers = new AtomicLong();
+    private final AtomicLong mBytesFetched = new AtomicLong();
+    private final AtomicLong mCacheHits = new AtomicLong();
+    private final AtomicLong mCacheMisses = new AtomicLong();
+
+    public PlaybackMetrics() {
+        for (Stage stage : Stage.values()) {
+            mHistograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void record(Stage stage, long millis) {
+        mHistograms.get(stage).record(millis);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms.get(stage);
+    }
+
+    public void onCacheLookup(boolean hit) {
+        (hit ? mCacheHits : mCacheMisses).incrementAndGet();
+    }
+
+    public void onRebufferStarted() {
+        mRebuffers.incrementAndGet();
+    }
+
+    public void addBytesFetched(long bytes) {
+        mBytesFetched.addAndGet(bytes);
+    }
+
+    public long getRebuffers() {
+        return mRebuffers.get();
+    }
+
+    public long getBytesFetched() {
+        return mBytesFetched.get();
+    }
+
+    /**
+     * The share of track starts served from the audio cache, in percent.
+     */
+    public int getCacheHitRate() {
+        long hits = mCacheHits.get();
+        long total = hits + mCacheMisses.get();
+        return total == 0 ? 0 : (int) (hits * 100 / total);
+    }
+
+    /**
+     * Flat name to value pairs, for reporting over the media session.
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            String name = stage.name().toLowerCase(Locale.ROOT);
+            LatencyHistogram histogram = mHistograms.get(stage);
+            values.put(name + "_count", histogram.getCount());
+            for (double percentile : PERCENTILES) {
+                values.put(name + "_p" + (int) percentile + "_ms", histogram.getPercentile(percentile));
+            }
+            values.put(name + "_max_ms", histogram.getMax());
+        }
+        values.put("rebuffers", getRebuffers());
+        values.put("bytes_fetched", getBytesFetched());
+        values.put("cache_hits", mCacheHits.get());
+        values.put("cache_misses", mCacheMisses.get());
+        values.put("cache_hit_rate_percent", (long) getCacheHitRate());
+        return values;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Playback metrics (ms):");
+        for (Stage stage : Stage.values()) {
+            writer.println(String.format(Locale.ROOT, "  %-20s %s", stage.name().toLowerCase(Locale.ROOT),
+                    mHistograms.get(stage)));
+        }
+        writer.println("  rebuffers=" + getRebuffers() + " bytes fetched=" + getBytesFetched()
+                + " cache hits=" + mCacheHits.get() + "/" + (mCacheHits.get() + mCacheMisses.get())
+                + " (" + getCacheHitRate() + "%)");
+    }
+}
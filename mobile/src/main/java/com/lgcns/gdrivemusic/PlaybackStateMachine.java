@@ -0,0 +1,151 @@
+package com.lgcns.gdrivemusic;
+
+/**
+ * The {@link PlaybackEngine}'s state, apart from the players it drives: which open is current,
+ * whether the user wants sound, and whether the current player has started yet.
+ *
+ * <p>{@link PlaybackEngine.State#BUFFERING} means two things. Before the player first starts it is the initial
+ * buffer, and stream underruns are only the player's prepare reading ahead; afterwards it is a
+ * stall, and ends in {@link PlaybackEngine.State#PLAYING} when the data catches up, unless the user paused
+ * meanwhile. Confined to the engine thread.</p>
+ */
+class PlaybackStateMachine {
+    private PlaybackEngine.State mState = PlaybackEngine.State.IDLE;
+    private int mGeneration;
+    private boolean mPlayWhenReady;
+    private boolean mStarted;
+
+    public PlaybackEngine.State getState() {
+        return mState;
+    }
+
+    public void setState(PlaybackEngine.State state) {
+        mState = state;
+    }
+
+    /**
+     * Starts a new open of the current song, which makes every earlier one stale. Returns its
+     * generation.
+     */
+    public int open() {
+        mStarted = false;
+        mState = PlaybackEngine.State.OPENING;
+        return ++mGeneration;
+    }
+
+    /**
+     * Makes every open in flight stale, for a stop.
+     */
+    public void invalidate() {
+        mGeneration++;
+        mStarted = false;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public boolean isCurrent(int generation) {
+        return generation == mGeneration;
+    }
+
+    public boolean getPlayWhenReady() {
+        return mPlayWhenReady;
+    }
+
+    public void setPlayWhenReady(boolean playWhenReady) {
+        mPlayWhenReady = playWhenReady;
+    }
+
+    /**
+     * Whether the current player is prepared: playing, paused, stalled or waiting to start.
+     */
+    public boolean isPrepared() {
+        return mState == PlaybackEngine.State.PLAYING || mState == PlaybackEngine.State.PAUSED
+                || mState == PlaybackEngine.State.PREPARED || mState == PlaybackEngine.State.BUFFERING && mStarted;
+    }
+
+    /**
+     * Whether the current player has been started since it was opened.
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * A prepared or paused player is to start, if the user wants sound. Returns whether the
+     * caller should start it; the state is then {@link PlaybackEngine.State#PLAYING}.
+     */
+    public boolean start() {
+        if (!mPlayWhenReady || mState != PlaybackEngine.State.PREPARED && mState != PlaybackEngine.State.PAUSED) {
+            return false;
+        }
+        mStarted = true;
+        mState = PlaybackEngine.State.PLAYING;
+        return true;
+    }
+
+    /**
+     * The current player finished preparing. Returns whether the caller should start it; one the
+     * user paused while it opened is held {@link PlaybackEngine.State#PAUSED}.
+     */
+    public boolean onPrepared() {
+        mState = mPlayWhenReady ? PlaybackEngine.State.PREPARED : PlaybackEngine.State.PAUSED;
+        return start();
+    }
+
+    /**
+     * The player chained behind the current one took over and is already playing.
+     */
+    public void onNextStarted() {
+        mStarted = true;
+        mState = PlaybackEngine.State.PLAYING;
+    }
+
+    /**
+     * The user paused. Returns whether the caller should pause the player: when it is playing
+     * or stalled. Anything still opening is held once prepared.
+     */
+    public boolean pause() {
+        mPlayWhenReady = false;
+        if (mState == PlaybackEngine.State.PLAYING || mState == PlaybackEngine.State.BUFFERING && mStarted) {
+            mState = PlaybackEngine.State.PAUSED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A started player ran out of data. Returns whether that changed the state.
+     */
+    public boolean onUnderrun() {
+        if (mStarted && mState == PlaybackEngine.State.PLAYING) {
+            mState = PlaybackEngine.State.BUFFERING;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The data a stalled player waited for arrived. Returns whether that changed the state.
+     */
+    public boolean onRebuffered() {
+        if (mStarted && mState == PlaybackEngine.State.BUFFERING && mPlayWhenReady) {
+            mState = PlaybackEngine.State.PLAYING;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opening the song of {@code generation} failed. Returns whether that is the current open,
+     * which is then in {@link PlaybackEngine.State#ERROR}.
+     */
+    public boolean fail(int generation) {
+        if (!isCurrent(generation)) {
+            return false;
+        }
+        mState = PlaybackEngine.State.ERROR;
+        return true;
+    }
+}
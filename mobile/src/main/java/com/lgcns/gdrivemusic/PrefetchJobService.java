@@ -0,0 +1,124 @@
+package com.lgcns.gdrivemusic;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.drive.Drive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the songs of the offline albums in one batch.
+ *
+ * <p>Runs on its own thread with its own Drive connection; its opens wait in the background
+ * lane of the {@link DriveScheduler}, behind anything the app needs. Every finished file goes
+ * straight into the audio cache, so a run that is stopped, by the system or because the device
+ * left the charger or Wi-Fi, is rescheduled and picks up with the files still missing.</p>
+ */
+public class PrefetchJobService extends JobService {
+    public static final String TAG = PrefetchJobService.class.getName();
+
+    private static final long CONNECT_TIMEOUT_S = 30;
+    private static final long FREE_SPACE_MARGIN = 100L * 1024 * 1024;
+
+    private volatile boolean mStopped;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean reschedule = runBatch();
+                jobFinished(params, reschedule);
+            }
+        }, "PrefetchJob").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        return true;
+    }
+
+    /**
+     * Returns true if the batch was cut short and should be retried.
+     */
+    private boolean runBatch() {
+        long startedAt = PrefetchScheduler.WALL_CLOCK.now();
+        PrefetchPolicy policy = PrefetchScheduler.newPolicy(this);
+        CatalogStore.Snapshot snapshot = new CatalogStore(new File(getFilesDir(), GDriveMusicService.CATALOG_FILE)).load();
+        Catalog catalog = new Catalog(0, snapshot.songs);
+        AudioCache cache = GDriveMusicService.audioCache(this);
+
+        PrefetchPolicy.Plan plan = policy.plan(
+                PrefetchScheduler.wantedSongs(catalog, PrefetchScheduler.getOfflineAlbums(this)), cache);
+        cache.setPinned(PrefetchScheduler.PIN_OFFLINE, plan.keep);
+        if (!policy.shouldStart(plan.toFetch.size(), PrefetchScheduler.getPendingSince(this))) {
+            Log.i(TAG, "prefetch deferred: " + plan.toFetch.size() + " songs pending");
+            PrefetchScheduler.update(this, catalog, cache);
+            return false;
+        }
+
+        GoogleApiClient client = new GoogleApiClient.Builder(this)
+                .addApi(Drive.API)
+                .addScope(Drive.SCOPE_FILE)
+                .build();
+        ConnectionResult connection = client.blockingConnect(CONNECT_TIMEOUT_S, TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.i(TAG, "prefetch could not connect: " + connection);
+            return true;
+        }
+
+        DriveScheduler scheduler = GoogleDriveBackend.get(this).getScheduler();
+        int fetched = 0;
+        long bytes = 0;
+        try {
+            for (Song song : plan.toFetch) {
+                if (mStopped || !policy.shouldContinue(startedAt)) {
+                    Log.i(TAG, "prefetch interrupted after " + fetched + " of " + plan.toFetch.size() + " songs");
+                    return true;
+                }
+                if (getCacheDir().getUsableSpace() < song.getSize() + FREE_SPACE_MARGIN) {
+                    Log.i(TAG, "prefetch stopped, device storage low");
+                    return false;
+                }
+
+                DriveAccess.Contents contents;
+                try {
+                    contents = scheduler.await(DriveScheduler.Lane.BACKGROUND,
+                            GoogleDriveBackend.open(client, song.getuId(), null));
+                } catch (InterruptedIOException e) {
+                    return true;
+                } catch (IOException e) {
+                    Log.i(TAG, "prefetch of " + song.getTitle() + " failed: " + e.getMessage());
+                    continue;
+                }
+                try {
+                    File cached = cache.put(AudioCache.key(song.getuId(), song.getModified()),
+                            contents.getInputStream());
+                    bytes += cached.length();
+                    fetched++;
+                } catch (IOException e) {
+                    Log.e(TAG, "prefetch of " + song.getTitle() + " failed", e);
+                } finally {
+                    contents.discard();
+                }
+            }
+        } finally {
+            client.disconnect();
+        }
+
+        Log.i(TAG, "prefetched " + fetched + " songs, " + bytes + " bytes in "
+                + (PrefetchScheduler.WALL_CLOCK.now() - startedAt) + " ms, " + cache);
+        PrefetchScheduler.update(this, catalog, cache);
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides what the offline prefetcher downloads and when.
+ *
+ * <p>Downloads only run on an unmetered network while charging, and are batched: a run starts
+ * once enough songs are waiting or the oldest request has waited long enough, so the radio
+ * wakes up once for many files. Songs are kept within a storage budget in the order they were
+ * asked for. A run stops before the job scheduler's time limit; whatever it fetched stays in
+ * the cache, so the next run resumes where it left off.</p>
+ */
+public class PrefetchPolicy {
+    public static final int MIN_BATCH = 5;
+    public static final long MAX_DEFER_MS = 6 * 60 * 60 * 1000L;
+    public static final long MAX_RUN_MS = 9 * 60 * 1000L;
+
+    public interface Clock {
+        long now();
+    }
+
+    /**
+     * The device state the prefetcher depends on.
+     */
+    public interface Conditions {
+        boolean isUnmetered();
+
+        boolean isCharging();
+    }
+
+    /**
+     * What a run should do: the songs to download and the songs to keep, the latter including
+     * those already cached.
+     */
+    public static class Plan {
+        public final List<Song> toFetch;
+        public final List<String> keep;
+        public final long bytes;
+
+        Plan(List<Song> toFetch, List<String> keep, long bytes) {
+            this.toFetch = Collections.unmodifiableList(toFetch);
+            this.keep = Collections.unmodifiableList(keep);
+            this.bytes = bytes;
+        }
+    }
+
+    private final Clock mClock;
+    private final Conditions mConditions;
+    private final long mBudgetBytes;
+
+    public PrefetchPolicy(Clock clock, Conditions conditions, long budgetBytes) {
+        mClock = clock;
+        mConditions = conditions;
+        mBudgetBytes = budgetBytes;
+    }
+
+    public long getBudget() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Walks {@code wanted} in order and keeps every song that still fits the budget, cached or
+     * not. A song that does not fit is skipped so smaller ones after it can still make it.
+     */
+    public Plan plan(List<Song> wanted, AudioCache cache) {
+        List<Song> toFetch = new ArrayList<>();
+        List<String> keep = new ArrayList<>();
+        long bytes = 0;
+        for (Song song : wanted) {
+            String key = AudioCache.key(song.getuId(), song.getModified());
+            if (bytes + song.getSize() > mBudgetBytes) {
+                continue;
+            }
+            bytes += song.getSize();
+            keep.add(key);
+            if (!cache.contains(key)) {
+                toFetch.add(song);
+            }
+        }
+        return new Plan(toFetch, keep, bytes);
+    }
+
+    public boolean isAllowed() {
+        return mConditions.isUnmetered() && mConditions.isCharging();
+    }
+
+    /**
+     * Whether a run should start now, given the pending songs and when the oldest of them was
+     * asked for.
+     */
+    public boolean shouldStart(int pending, long pendingSince) {
+        if (pending == 0 || !isAllowed()) {
+            return false;
+        }
+        return pending >= MIN_BATCH || mClock.now() - pendingSince >= MAX_DEFER_MS;
+    }
+
+    /**
+     * Checked before each file of a run that started at {@code startedAt}.
+     */
+    public boolean shouldContinue(long startedAt) {
+        return isAllowed() && mClock.now() - startedAt < MAX_RUN_MS;
+    }
+
+    /**
+     * How long until a deferred batch becomes due, for the job's deadline.
+     */
+    public long delayUntilDue(long pendingSince) {
+        return Math.max(0, pendingSince + MAX_DEFER_MS - mClock.now());
+    }
+}
@@ -0,0 +1,151 @@
+package com.lgcns.gdrivemusic;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the albums marked for offline use and schedules {@link PrefetchJobService} to fetch
+ * them, requiring an unmetered network and charging.
+ */
+public final class PrefetchScheduler {
+    public static final String TAG = PrefetchScheduler.class.getName();
+
+    static final int JOB_ID = 1;
+    static final String PIN_OFFLINE = "offline";
+    private static final String OFFLINE_ALBUMS = "offline_albums";
+    private static final String PENDING_SINCE = "offline_pending_since";
+    private static final long BUDGET_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final long BACKOFF_MS = 60 * 1000L;
+
+    static final PrefetchPolicy.Clock WALL_CLOCK = new PrefetchPolicy.Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Reads network and battery state from the system.
+     */
+    static class DeviceConditions implements PrefetchPolicy.Conditions {
+        private final Context mContext;
+
+        DeviceConditions(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            ConnectivityManager connectivity = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo network = connectivity.getActiveNetworkInfo();
+            return network != null && network.isConnected() && !connectivity.isActiveNetworkMetered();
+        }
+
+        @Override
+        public boolean isCharging() {
+            Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+    }
+
+    private PrefetchScheduler() {
+    }
+
+    static PrefetchPolicy newPolicy(Context context) {
+        return new PrefetchPolicy(WALL_CLOCK, new DeviceConditions(context), BUDGET_BYTES);
+    }
+
+    public static Set<String> getOfflineAlbums(Context context) {
+        return new HashSet<>(prefs(context).getStringSet(OFFLINE_ALBUMS, Collections.<String>emptySet()));
+    }
+
+    public static boolean isAlbumOffline(Context context, String album) {
+        return getOfflineAlbums(context).contains(album);
+    }
+
+    public static void setAlbumOffline(Context context, String album, boolean offline) {
+        SharedPreferences prefs = prefs(context);
+        Set<String> albums = getOfflineAlbums(context);
+        boolean changed = offline ? albums.add(album) : albums.remove(album);
+        if (!changed) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit().putStringSet(OFFLINE_ALBUMS, albums);
+        if (offline && prefs.getLong(PENDING_SINCE, 0) == 0) {
+            editor.putLong(PENDING_SINCE, WALL_CLOCK.now());
+        }
+        editor.apply();
+    }
+
+    static long getPendingSince(Context context) {
+        return prefs(context).getLong(PENDING_SINCE, 0);
+    }
+
+    /**
+     * The songs of the offline albums, album by album in track order.
+     */
+    static List<Song> wantedSongs(Catalog catalog, Set<String> albums) {
+        List<String> names = new ArrayList<>(albums);
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+        List<Song> songs = new ArrayList<>();
+        for (String album : names) {
+            songs.addAll(catalog.getSongs(Catalog.Index.ALBUM, album));
+        }
+        return songs;
+    }
+
+    /**
+     * Pins the offline songs already downloaded and schedules a job for the rest, or cancels it
+     * if there is nothing left to fetch. Blocks on preferences; call off the main thread.
+     */
+    public static void update(Context context, Catalog catalog, AudioCache cache) {
+        PrefetchPolicy policy = newPolicy(context);
+        PrefetchPolicy.Plan plan = policy.plan(wantedSongs(catalog, getOfflineAlbums(context)), cache);
+        cache.setPinned(PIN_OFFLINE, plan.keep);
+
+        JobScheduler jobs = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (plan.toFetch.isEmpty()) {
+            prefs(context).edit().remove(PENDING_SINCE).apply();
+            jobs.cancel(JOB_ID);
+            return;
+        }
+
+        long pendingSince = getPendingSince(context);
+        if (pendingSince == 0) {
+            pendingSince = WALL_CLOCK.now();
+            prefs(context).edit().putLong(PENDING_SINCE, pendingSince).apply();
+        }
+        JobInfo.Builder job = new JobInfo.Builder(JOB_ID, new ComponentName(context, PrefetchJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .setBackoffCriteria(BACKOFF_MS, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+        if (plan.toFetch.size() < PrefetchPolicy.MIN_BATCH) {
+            // let more requests pile up so the radio wakes once for all of them
+            job.setMinimumLatency(policy.delayUntilDue(pendingSince));
+        }
+        jobs.schedule(job.build());
+        Log.i(TAG, "offline prefetch scheduled: " + plan.toFetch.size() + " songs, " + plan.keep.size() + " kept");
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
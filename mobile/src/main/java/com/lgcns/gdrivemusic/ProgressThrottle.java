@@ -0,0 +1,48 @@
+package com.lgcns.gdrivemusic;
+
+/**
+ * Coalesces progress updates into at most one event per interval. The first update and the
+ * one that completes the transfer are always delivered, so a consumer never misses the end.
+ * Thread-safe; events are delivered in order on the thread of the update that emits them.
+ */
+public class ProgressThrottle {
+
+    public interface Listener {
+        void onProgress(long done, long total);
+    }
+
+    private final long mIntervalMs;
+    private final Listener mListener;
+    private long mEmittedAt = Long.MIN_VALUE;
+    private long mEmittedDone = -1;
+    private int mUpdates;
+    private int mEvents;
+
+    public ProgressThrottle(long intervalMs, Listener listener) {
+        mIntervalMs = intervalMs;
+        mListener = listener;
+    }
+
+    /**
+     * Reports {@code done} of {@code total} bytes at {@code now} in milliseconds. Returns
+     * whether an event was delivered.
+     */
+    public synchronized boolean update(long done, long total, long now) {
+        mUpdates++;
+        boolean finished = total >= 0 && done >= total;
+        if (done == mEmittedDone
+                || (!finished && mEmittedAt != Long.MIN_VALUE && now - mEmittedAt < mIntervalMs)) {
+            return false;
+        }
+        mEmittedAt = now;
+        mEmittedDone = done;
+        mEvents++;
+        mListener.onProgress(done, total);
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProgressThrottle{" + mEvents + " events for " + mUpdates + " updates}";
+    }
+}
@@ -4,37 +4,133 @@
 
 package com.lgcns.gdrivemusic;
 
-import android.content.Context;
-import android.util.Log;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.google.android.gms.drive.Metadata;
-import com.google.android.gms.drive.widget.DataBufferAdapter;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * A DataBufferAdapter to display the results of file listing/querying requests.
+ * A RecyclerView adapter to display the results of file listing/querying requests.
+ *
+ * <p>Rows are replaced through {@link #update} with a diff computed in the background, so a
+ * refresh only rebinds the rows that changed. Binding a row close to the end asks the
+ * {@link OnLoadMoreListener} for the next page.</p>
  */
-public class ResultsAdapter extends DataBufferAdapter<Metadata> {
-    private static final String TAG = ResultsAdapter.class.getName();
+public class ResultsAdapter extends RecyclerView.Adapter<ResultsAdapter.ViewHolder> {
+    /** How many rows before the end the next page is requested. */
+    private static final int LOAD_MORE_THRESHOLD = 20;
 
-    public ResultsAdapter(Context context) {
-        super(context, android.R.layout.simple_list_item_1);
+    public interface OnLoadMoreListener {
+        void onLoadMore();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView mTitle;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            mTitle = (TextView) itemView.findViewById(android.R.id.text1);
+        }
+    }
+
+    /**
+     * Rows are the same file if their ids match, and unchanged if the file was not modified.
+     */
+    static class DiffCallback extends DiffUtil.Callback {
+        private final List<Song> mOld;
+        private final List<Song> mNew;
+
+        DiffCallback(List<Song> oldRows, List<Song> newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).getuId().equals(mNew.get(newPosition).getuId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Song before = mOld.get(oldPosition);
+            Song after = mNew.get(newPosition);
+            return before.getModified() == after.getModified()
+                    && TextUtils.equals(before.getTitle(), after.getTitle());
+        }
+    }
+
+    private List<Song> mRows = Collections.emptyList();
+    private OnLoadMoreListener mOnLoadMoreListener;
+    private boolean mHasMore;
+
+    public void setOnLoadMoreListener(OnLoadMoreListener listener) {
+        mOnLoadMoreListener = listener;
+    }
+
+    public List<Song> getRows() {
+        return mRows;
+    }
+
+    /**
+     * Shows {@code rows}, applying {@code diff} from the rows shown so far, or rebinding
+     * everything if there is no diff.
+     */
+    public void update(List<Song> rows, DiffUtil.DiffResult diff, boolean hasMore) {
+        mRows = rows;
+        mHasMore = hasMore;
+        if (diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Shows a longer list that starts with the rows shown so far.
+     */
+    public void append(List<Song> rows, boolean hasMore) {
+        int previous = mRows.size();
+        mRows = rows;
+        mHasMore = hasMore;
+        notifyItemRangeInserted(previous, rows.size() - previous);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_1, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.mTitle.setText(mRows.get(position).getTitle());
+
+        if (mHasMore && mOnLoadMoreListener != null && position >= mRows.size() - LOAD_MORE_THRESHOLD) {
+            // cleared until the next page arrives, so scrolling does not queue it twice
+            mHasMore = false;
+            mOnLoadMoreListener.onLoadMore();
+        }
     }
 
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        if (convertView == null) {
-            convertView = View.inflate(getContext(),
-                    android.R.layout.simple_list_item_1, null);
-        }
-        Metadata metadata = getItem(position);
-        TextView titleTextView =
-                (TextView) convertView.findViewById(android.R.id.text1);
-        titleTextView.setText(metadata.getTitle());
-        Log.i(TAG, metadata.getTitle() + " : " + metadata.getDriveId());
-
-        return convertView;
+    public int getItemCount() {
+        return mRows.size();
     }
 }
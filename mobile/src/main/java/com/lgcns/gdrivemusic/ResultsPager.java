@@ -0,0 +1,90 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns query results into list rows a page at a time, as the list scrolls towards its end.
+ *
+ * <p>Every call returns a new immutable snapshot of the rows loaded so far, so a diff against
+ * the previous snapshot can be computed off the main thread while the list still shows it. Not
+ * thread-safe; call from one background thread.</p>
+ */
+public class ResultsPager {
+
+    /**
+     * Query results that can be read row by row, such as a Drive listing.
+     */
+    public interface Source {
+        int size();
+
+        Song get(int position);
+
+        /** Frees the results once the pager has moved on to newer ones. */
+        void release();
+    }
+
+    private final int mPageSize;
+    private Source mSource;
+    private List<Song> mRows = Collections.emptyList();
+
+    public ResultsPager(int pageSize) {
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Switches to newer results, loading as many rows as were loaded before so the list keeps
+     * its scroll depth, and at least one page.
+     */
+    public List<Song> replace(Source source) {
+        int count = Math.max(mPageSize, mRows.size());
+        if (mSource != null) {
+            mSource.release();
+        }
+        mSource = source;
+        mRows = Collections.emptyList();
+        return load(count);
+    }
+
+    /**
+     * Loads the next page, or returns the current rows if everything is loaded already.
+     */
+    public List<Song> nextPage() {
+        return load(mRows.size() + mPageSize);
+    }
+
+    public boolean hasMore() {
+        return mSource != null && mRows.size() < mSource.size();
+    }
+
+    public List<Song> getRows() {
+        return mRows;
+    }
+
+    public void clear() {
+        if (mSource != null) {
+            mSource.release();
+            mSource = null;
+        }
+        mRows = Collections.emptyList();
+    }
+
+    private List<Song> load(int count) {
+        if (mSource == null) {
+            return mRows;
+        }
+        int end = Math.min(count, mSource.size());
+        if (end <= mRows.size()) {
+            return mRows;
+        }
+
+        List<Song> rows = new ArrayList<>(end);
+        rows.addAll(mRows);
+        for (int i = mRows.size(); i < end; i++) {
+            rows.add(mSource.get(i));
+        }
+        mRows = Collections.unmodifiableList(rows);
+        return mRows;
+    }
+}
@@ -0,0 +1,529 @@
+package com.lgcns.gdrivemusic;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An inverted index over song titles, artists and albums.
+ *
+ * <p>Text is split into tokens folded to lower case without accents, so "Beyonce" finds
+ * "Beyonc&eacute;". Every query token but the last must match a whole token; the last one is looked up
+ * as a prefix in a trie of all tokens, so results show up while the query is being typed.</p>
+ *
+ * <p>Matches are ranked as they are found and only the best {@code limit} are kept. A single
+ * token is looked up in the trie with the whole word first, so a short prefix that matches much
+ * of the library stops as soon as nothing left could rank higher.</p>
+ *
+ * <p>{@link #update} re-indexes only the songs that changed since the previous call. The index
+ * is not thread-safe; updates and queries must run on one thread.</p>
+ */
+public class SearchIndex {
+    static final int TITLE = 1;
+    static final int ARTIST = 2;
+    static final int ALBUM = 4;
+
+    /** The best score of a match on the whole token, in the title. */
+    private static final int MAX_EXACT_SCORE = 6;
+    /** The best score of a match on a longer token, in the title. */
+    private static final int MAX_PREFIX_SCORE = 3;
+
+    private final Map<String, Integer> mDocIds = new HashMap<>();
+    // per doc: the song id, or null for a free doc
+    private final List<String> mDocs = new ArrayList<>();
+    private long[] mDocFingerprints = new long[16];
+    private int[] mDocRows = new int[16];
+    private List<Song> mSongs = Collections.emptyList();
+    private final List<String[]> mDocTokens = new ArrayList<>();
+    private final List<byte[]> mDocFields = new ArrayList<>();
+    private final IntList mFreeDocs = new IntList();
+    private final Map<String, IntList> mPostings = new HashMap<>();
+    private final TrieNode mTrie = new TrieNode();
+    private int mVisited;
+
+    private static class IntList {
+        int[] mValues = new int[2];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        boolean remove(int value) {
+            for (int i = 0; i < mSize; i++) {
+                if (mValues[i] == value) {
+                    mValues[i] = mValues[--mSize];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int pop() {
+            return mValues[--mSize];
+        }
+    }
+
+    /**
+     * The best matches seen so far, at most a limit of them. Each is a long packing the negated
+     * score above the order it was found in, so the best sort first without boxing; they are kept
+     * in a heap with the worst at its root.
+     */
+    private static class Ranking {
+        final int mLimit;
+        long[] mHeap = new long[16];
+        int mSize;
+
+        Ranking(int limit) {
+            mLimit = limit;
+        }
+
+        boolean isFull() {
+            return mSize == mLimit;
+        }
+
+        int worstScore() {
+            return (int) -(mHeap[0] >> 32);
+        }
+
+        void offer(long key) {
+            if (mSize < mLimit) {
+                if (mSize == mHeap.length) {
+                    mHeap = Arrays.copyOf(mHeap, mSize * 2);
+                }
+                int i = mSize++;
+                while (i > 0 && mHeap[(i - 1) / 2] < key) {
+                    mHeap[i] = mHeap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                mHeap[i] = key;
+            } else if (mLimit > 0 && key < mHeap[0]) {
+                int i = 0;
+                while (2 * i + 1 < mSize) {
+                    int child = 2 * i + 1;
+                    if (child + 1 < mSize && mHeap[child + 1] > mHeap[child]) {
+                        child++;
+                    }
+                    if (mHeap[child] <= key) {
+                        break;
+                    }
+                    mHeap[i] = mHeap[child];
+                    i = child;
+                }
+                mHeap[i] = key;
+            }
+        }
+
+        /** The keys kept, best first. */
+        long[] sorted() {
+            long[] keys = Arrays.copyOf(mHeap, mSize);
+            Arrays.sort(keys);
+            return keys;
+        }
+    }
+
+    private static class TrieNode {
+        char[] mKeys = new char[0];
+        TrieNode[] mChildren = new TrieNode[0];
+        String mToken;
+
+        TrieNode child(char c) {
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] == c) {
+                    return mChildren[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode addChild(char c) {
+            TrieNode child = child(c);
+            if (child == null) {
+                child = new TrieNode();
+                mKeys = Arrays.copyOf(mKeys, mKeys.length + 1);
+                mChildren = Arrays.copyOf(mChildren, mChildren.length + 1);
+                mKeys[mKeys.length - 1] = c;
+                mChildren[mChildren.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    public int size() {
+        return mDocIds.size();
+    }
+
+    /**
+     * Brings the index in line with {@code songs}. Songs are compared by a fingerprint of the
+     * fields indexed, so only added, changed and removed songs are re-indexed. Results are read
+     * from the latest list; a {@link SongTable} list is walked by row, without building songs.
+     * Returns the number of songs re-indexed.
+     */
+    public int update(List<Song> songs) {
+        SongTable table = SongTable.backing(songs);
+        int changed = 0;
+        BitSet seen = new BitSet(mDocs.size());
+        for (int row = 0; row < songs.size(); row++) {
+            Song song = table == null ? songs.get(row) : null;
+            String id = song == null ? table.getId(row) : song.getuId();
+            long fingerprint = song == null ? table.fingerprint(row) : SongTable.fingerprint(song);
+            Integer doc = mDocIds.get(id);
+            if (doc != null && mDocFingerprints[doc] == fingerprint) {
+                mDocRows[doc] = row;
+                seen.set(doc);
+                continue;
+            }
+            if (doc != null) {
+                remove(doc);
+            }
+            int added = add(song == null ? table.getSong(row) : song, fingerprint);
+            mDocRows[added] = row;
+            seen.set(added);
+            changed++;
+        }
+
+        for (int doc = 0; doc < mDocs.size(); doc++) {
+            if (mDocs.get(doc) != null && !seen.get(doc)) {
+                remove(doc);
+                changed++;
+            }
+        }
+        mSongs = songs;
+        return changed;
+    }
+
+    /**
+     * The songs matching every token of {@code query}, best matches first; equal ones in the
+     * order they were found.
+     */
+    public List<Song> search(String query, int limit) {
+        mVisited = 0;
+        String[] tokens = tokenize(query);
+        if (tokens.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String prefix = tokens[tokens.length - 1];
+
+        Ranking ranking = new Ranking(limit);
+        // the docs in the order they were scored
+        IntList visits = new IntList();
+        if (tokens.length > 1) {
+            IntList candidates = rarest(Arrays.copyOf(tokens, tokens.length - 1));
+            if (candidates.mSize > 0 && countPrefixDocs(prefix, candidates.mSize) < candidates.mSize) {
+                candidates = prefixDocs(prefix);
+            }
+            for (int i = 0; i < candidates.mSize; i++) {
+                rank(ranking, visits, candidates.mValues[i], tokens);
+            }
+        } else {
+            rankPrefix(ranking, visits, prefix, tokens);
+        }
+        mVisited = visits.mSize;
+
+        long[] ranked = ranking.sorted();
+        List<Song> matches = new ArrayList<>(ranked.length);
+        for (long key : ranked) {
+            matches.add(mSongs.get(mDocRows[visits.mValues[(int) key]]));
+        }
+        return matches;
+    }
+
+    /**
+     * The number of candidates the last search scored, for tests.
+     */
+    int getVisitedCount() {
+        return mVisited;
+    }
+
+    /**
+     * Splits text into folded tokens: lower case, accents removed, letters and digits only.
+     */
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        String folded = fold(text);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                out.append(c);
+            }
+        }
+        return out.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private int add(Song song, long fingerprint) {
+        int doc;
+        if (mFreeDocs.mSize > 0) {
+            doc = mFreeDocs.pop();
+        } else {
+            doc = mDocs.size();
+            mDocs.add(null);
+            mDocTokens.add(null);
+            mDocFields.add(null);
+            if (doc == mDocRows.length) {
+                mDocRows = Arrays.copyOf(mDocRows, doc * 2);
+                mDocFingerprints = Arrays.copyOf(mDocFingerprints, doc * 2);
+            }
+        }
+
+        Map<String, Integer> fields = new HashMap<>();
+        collect(fields, song.getTitle(), TITLE);
+        collect(fields, song.getArtist(), ARTIST);
+        collect(fields, song.getAlbum(), ALBUM);
+
+        String[] tokens = new String[fields.size()];
+        byte[] masks = new byte[fields.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : fields.entrySet()) {
+            tokens[i] = entry.getKey();
+            masks[i] = entry.getValue().byteValue();
+            i++;
+
+            IntList docs = mPostings.get(entry.getKey());
+            if (docs == null) {
+                docs = new IntList();
+                mPostings.put(entry.getKey(), docs);
+                insertToken(entry.getKey());
+            }
+            docs.add(doc);
+        }
+
+        mDocs.set(doc, song.getuId());
+        mDocFingerprints[doc] = fingerprint;
+        mDocTokens.set(doc, tokens);
+        mDocFields.set(doc, masks);
+        mDocIds.put(song.getuId(), doc);
+        return doc;
+    }
+
+    private void remove(int doc) {
+        for (String token : mDocTokens.get(doc)) {
+            IntList docs = mPostings.get(token);
+            docs.remove(doc);
+            if (docs.mSize == 0) {
+                mPostings.remove(token);
+                removeToken(token);
+            }
+        }
+        mDocIds.remove(mDocs.get(doc));
+        mDocs.set(doc, null);
+        mDocTokens.set(doc, null);
+        mDocFields.set(doc, null);
+        mFreeDocs.add(doc);
+    }
+
+    private static void collect(Map<String, Integer> fields, String text, int field) {
+        for (String token : tokenize(text)) {
+            Integer mask = fields.get(token);
+            fields.put(token, mask == null ? field : mask | field);
+        }
+    }
+
+    private void insertToken(String token) {
+        TrieNode node = mTrie;
+        for (int i = 0; i < token.length(); i++) {
+            node = node.addChild(token.charAt(i));
+        }
+        node.mToken = token;
+    }
+
+    private void removeToken(String token) {
+        TrieNode node = find(token);
+        if (node != null) {
+            // empty branches are left in place; they cost a few bytes and are reused
+            node.mToken = null;
+        }
+    }
+
+    private TrieNode find(String prefix) {
+        TrieNode node = mTrie;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * The postings of the rarest of {@code tokens}, or an empty list if one of them is not indexed.
+     * Only a superset of the matches; scoring checks the other tokens. Must not be modified.
+     */
+    private IntList rarest(String[] tokens) {
+        IntList smallest = null;
+        for (String token : tokens) {
+            IntList docs = mPostings.get(token);
+            if (docs == null) {
+                return new IntList();
+            }
+            if (smallest == null || docs.mSize < smallest.mSize) {
+                smallest = docs;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * Sums the postings of the tokens starting with {@code prefix}, giving up once past {@code bound}.
+     */
+    private int countPrefixDocs(String prefix, int bound) {
+        TrieNode start = find(prefix);
+        int count = 0;
+        List<TrieNode> stack = new ArrayList<>();
+        if (start != null) {
+            stack.add(start);
+        }
+        while (!stack.isEmpty() && count <= bound) {
+            TrieNode node = stack.remove(stack.size() - 1);
+            if (node.mToken != null) {
+                count += mPostings.get(node.mToken).mSize;
+            }
+            Collections.addAll(stack, node.mChildren);
+        }
+        return count;
+    }
+
+    /**
+     * The documents with a token starting with {@code prefix}: those with the exact token first,
+     * then the rest of the trie below it.
+     */
+    private IntList prefixDocs(String prefix) {
+        IntList result = new IntList();
+        TrieNode start = find(prefix);
+        if (start == null) {
+            return result;
+        }
+
+        BitSet added = new BitSet(mDocs.size());
+        List<TrieNode> stack = new ArrayList<>();
+        stack.add(start);
+        while (!stack.isEmpty()) {
+            TrieNode node = stack.remove(stack.size() - 1);
+            if (node.mToken != null) {
+                IntList docs = mPostings.get(node.mToken);
+                for (int i = 0; i < docs.mSize; i++) {
+                    int doc = docs.mValues[i];
+                    if (!added.get(doc)) {
+                        added.set(doc);
+                        result.add(doc);
+                    }
+                }
+            }
+            for (int i = node.mChildren.length - 1; i >= 0; i--) {
+                stack.add(node.mChildren[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ranks the documents with a token starting with {@code prefix} in the order of
+     * {@link #prefixDocs}, and stops once the ranking is full of matches nothing left could beat:
+     * past the exact token, no document scores more than a prefix match in its title.
+     */
+    private void rankPrefix(Ranking ranking, IntList visits, String prefix, String[] tokens) {
+        TrieNode start = find(prefix);
+        if (start == null) {
+            return;
+        }
+
+        BitSet seen = new BitSet(mDocs.size());
+        int best = MAX_EXACT_SCORE;
+        List<TrieNode> stack = new ArrayList<>();
+        stack.add(start);
+        while (!stack.isEmpty()) {
+            TrieNode node = stack.remove(stack.size() - 1);
+            if (node.mToken != null) {
+                IntList docs = mPostings.get(node.mToken);
+                for (int i = 0; i < docs.mSize; i++) {
+                    int doc = docs.mValues[i];
+                    if (!seen.get(doc)) {
+                        seen.set(doc);
+                        rank(ranking, visits, doc, tokens);
+                    }
+                    if (ranking.isFull() && ranking.worstScore() >= best) {
+                        return;
+                    }
+                }
+            }
+            best = MAX_PREFIX_SCORE;
+            if (ranking.isFull() && ranking.worstScore() >= best) {
+                return;
+            }
+            for (int i = node.mChildren.length - 1; i >= 0; i--) {
+                stack.add(node.mChildren[i]);
+            }
+        }
+    }
+
+    /**
+     * Scores {@code doc} and keeps it in {@code ranking} if it matches and ranks high enough.
+     */
+    private void rank(Ranking ranking, IntList visits, int doc, String[] tokens) {
+        int score = score(doc, tokens);
+        if (score > 0) {
+            ranking.offer(((long) -score << 32) | visits.mSize);
+        }
+        visits.add(doc);
+    }
+
+    /**
+     * Scores a candidate, or returns 0 if it does not match every query token. A title match
+     * counts most, then artist, then album; the last token scores more as a whole word than as
+     * a prefix.
+     */
+    private int score(int doc, String[] query) {
+        String[] tokens = mDocTokens.get(doc);
+        byte[] fields = mDocFields.get(doc);
+        int score = 0;
+        for (int q = 0; q < query.length; q++) {
+            boolean last = q == query.length - 1;
+            int best = 0;
+            for (int t = 0; t < tokens.length; t++) {
+                boolean exact = tokens[t].equals(query[q]);
+                if (!exact && !(last && tokens[t].startsWith(query[q]))) {
+                    continue;
+                }
+                int weight = weight(fields[t]) * (exact ? 2 : 1);
+                best = Math.max(best, weight);
+            }
+            if (best == 0) {
+                return 0;
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    private static int weight(int fields) {
+        if ((fields & TITLE) != 0) {
+            return 3;
+        }
+        return (fields & ARTIST) != 0 ? 2 : 1;
+    }
+}
@@ -0,0 +1,189 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Where in an MP3 file each moment of the audio starts, so playback can begin at a position
+ * by handing the player the file from that byte on, without decoding what comes before.
+ *
+ * <p>There is one entry every {@link #DEFAULT_INTERVAL_MS}: the offset of the frame playing
+ * at that time. A table from a frame scan is exact; one derived from a Xing or VBRI header is
+ * interpolated, and its offsets have to be moved to the next frame header before use. Tables
+ * are stored as delta-encoded varints, a few kilobytes for a song of several minutes.</p>
+ */
+public class SeekTable {
+    private static final int MAGIC = 0x47444d53; // "GDMS"
+    private static final int FORMAT_VERSION = 1;
+    // magic, version, exact, interval, duration, count
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 4 + 8 + 4;
+    public static final int DEFAULT_INTERVAL_MS = 250;
+
+    private final int mIntervalMs;
+    private final long mDurationMs;
+    private final long[] mOffsets;
+    private final boolean mExact;
+
+    SeekTable(int intervalMs, long durationMs, long[] offsets, boolean exact) {
+        mIntervalMs = intervalMs;
+        mDurationMs = durationMs;
+        mOffsets = offsets;
+        mExact = exact;
+    }
+
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /**
+     * Whether the offsets are frame boundaries found by a scan, rather than estimates.
+     */
+    public boolean isExact() {
+        return mExact;
+    }
+
+    public int size() {
+        return mOffsets.length;
+    }
+
+    /**
+     * The byte offset to start reading at to play from {@code positionMs}.
+     */
+    public long offsetFor(long positionMs) {
+        return mOffsets[indexOf(positionMs)];
+    }
+
+    /**
+     * The time playback actually starts at when reading from {@link #offsetFor}: the last entry
+     * at or before {@code positionMs}.
+     */
+    public long timeFor(long positionMs) {
+        return (long) indexOf(positionMs) * mIntervalMs;
+    }
+
+    private int indexOf(long positionMs) {
+        long index = Math.max(0, positionMs) / mIntervalMs;
+        return (int) Math.min(index, mOffsets.length - 1);
+    }
+
+    /**
+     * Builds a table from sparse points of time and offset, such as a Xing table of contents,
+     * by linear interpolation between them. Both arrays must be ascending.
+     */
+    static SeekTable interpolate(long[] times, long[] offsets, long durationMs, int intervalMs) {
+        int count = (int) Math.max(1, (durationMs + intervalMs - 1) / intervalMs);
+        long[] table = new long[count];
+        int point = 0;
+        for (int i = 0; i < count; i++) {
+            long time = (long) i * intervalMs;
+            while (point + 1 < times.length && times[point + 1] <= time) {
+                point++;
+            }
+            long t0 = times[point];
+            long t1 = point + 1 < times.length ? times[point + 1] : durationMs;
+            long o0 = offsets[point];
+            long o1 = point + 1 < offsets.length ? offsets[point + 1] : o0;
+            table[i] = t1 > t0 ? o0 + (o1 - o0) * Math.min(time - t0, t1 - t0) / (t1 - t0) : o0;
+        }
+        return new SeekTable(intervalMs, durationMs, table, false);
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + mOffsets.length * 3);
+        try {
+            writeTo(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeBoolean(mExact);
+        out.writeInt(mIntervalMs);
+        out.writeLong(mDurationMs);
+        out.writeInt(mOffsets.length);
+        long previous = 0;
+        for (long offset : mOffsets) {
+            writeVarLong(out, offset - previous);
+            previous = offset;
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo}, or returns null if the data is not one.
+     */
+    public static SeekTable readFrom(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return fromByteArray(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes {@link #toByteArray}, or returns null if the data is not a table.
+     */
+    public static SeekTable fromByteArray(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE) {
+            throw new EOFException("seek table truncated");
+        }
+        ByteBuffer header = ByteBuffer.wrap(data, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        boolean exact = header.get() != 0;
+        int intervalMs = header.getInt();
+        long durationMs = header.getLong();
+        int count = header.getInt();
+        if (intervalMs <= 0 || count <= 0) {
+            return null;
+        }
+
+        // decoded by hand; a stream call per byte would cost more than the rest of a seek
+        long[] offsets = new long[count];
+        long offset = 0;
+        int position = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position == data.length || shift >= 64) {
+                    throw new EOFException("malformed seek table");
+                }
+                int b = data[position++];
+                delta |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            offset += delta;
+            offsets[i] = offset;
+        }
+        return new SeekTable(intervalMs, durationMs, offsets, exact);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public String toString() {
+        return "SeekTable{" + mOffsets.length + " entries, " + mDurationMs + " ms, "
+                + (mExact ? "exact" : "estimated") + "}";
+    }
+}
@@ -0,0 +1,373 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.IOException;
+
+/**
+ * Builds a {@link SeekTable} for an MP3 file, either from the Xing/Info or VBRI header that
+ * encoders put into the first frame, or by walking every frame header of the file.
+ *
+ * <p>The header is a few hundred bytes at the start, so it works on a file that is still
+ * downloading, but its table of contents has only 100 points. The scan reads 4 bytes per frame
+ * in 64 KB chunks and gives exact frame boundaries; it is meant to run once in the background
+ * when the whole file is there.</p>
+ */
+public class SeekTableBuilder {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_RESYNC = 64 * 1024;
+    private static final int FIRST_FRAME_SCAN = 4 * 1024;
+    private static final int V1_SIZE = 128;
+    private static final int XING_TOC_SIZE = 100;
+    private static final int VBRI_OFFSET = 36;
+    // sync, version, layer, sample rate; the bits that stay the same from frame to frame
+    private static final int HEADER_MASK = 0xfffe0c00;
+
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000}, // MPEG 2.5
+            null,
+            {22050, 24000, 16000}, // MPEG 2
+            {44100, 48000, 32000} // MPEG 1
+    };
+
+    /**
+     * The fields of one MPEG audio layer III frame header that matter for seeking.
+     */
+    static class Frame {
+        final int header;
+        final int sampleRate;
+        final int samples;
+        final int length;
+
+        private Frame(int header, int sampleRate, int samples, int length) {
+            this.header = header;
+            this.sampleRate = sampleRate;
+            this.samples = samples;
+            this.length = length;
+        }
+
+        boolean isMpeg1() {
+            return ((header >> 19) & 0x3) == 3;
+        }
+
+        boolean isMono() {
+            return ((header >> 6) & 0x3) == 3;
+        }
+
+        /** Where a Xing/Info header would start, after the side information. */
+        int xingOffset() {
+            if (isMpeg1()) {
+                return isMono() ? 4 + 17 : 4 + 32;
+            }
+            return isMono() ? 4 + 9 : 4 + 17;
+        }
+
+        boolean matches(int other) {
+            return (other & HEADER_MASK) == (header & HEADER_MASK);
+        }
+    }
+
+    /**
+     * Parses a layer III frame header, or returns null if {@code header} is not one.
+     */
+    static Frame parse(int header) {
+        if ((header & 0xffe00000) != 0xffe00000) {
+            return null;
+        }
+        int versionBits = (header >> 19) & 0x3;
+        int layerBits = (header >> 17) & 0x3;
+        int bitrateIndex = (header >> 12) & 0xf;
+        int rateIndex = (header >> 10) & 0x3;
+        if (versionBits == 1 || layerBits != 1 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return null; // reserved, not layer III, free format or bad bitrate
+        }
+        boolean mpeg1 = versionBits == 3;
+        int kbps = mpeg1 ? Id3Reader.MPEG1_L3_KBPS[bitrateIndex] : Id3Reader.MPEG2_L3_KBPS[bitrateIndex];
+        int sampleRate = SAMPLE_RATES[versionBits][rateIndex];
+        int padding = (header >> 9) & 0x1;
+        int length = (mpeg1 ? 144000 : 72000) * kbps / sampleRate + padding;
+        return new Frame(header, sampleRate, mpeg1 ? 1152 : 576, length);
+    }
+
+    private final Id3Reader.Source mSource;
+    private final long mLength;
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private long mChunkStart;
+    private int mChunkLength;
+    private long mBytesRead;
+
+    public SeekTableBuilder(Id3Reader.Source source) throws IOException {
+        mSource = source;
+        mLength = source.length();
+    }
+
+    /**
+     * Bytes read from the source so far.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Builds an estimated table from the Xing/Info or VBRI header of the first frame after
+     * {@code audioStart}, or returns null if there is neither or it lacks the frame count.
+     *
+     * @param length the size of the whole file, which may be more than has been read yet, or
+     *               -1 if unknown
+     */
+    public SeekTable readHeader(long audioStart, long length, int intervalMs) throws IOException {
+        long start = findFrame(audioStart, Math.min(audioStart + FIRST_FRAME_SCAN, mLength));
+        if (start < 0) {
+            return null;
+        }
+        Frame frame = parse(int32(start));
+        long xing = start + frame.xingOffset();
+        int tag = int32(xing);
+        if (tag == 0x58696e67 || tag == 0x496e666f) { // "Xing", "Info"
+            return readXing(start, xing, frame, length, intervalMs);
+        }
+        if (int32(start + VBRI_OFFSET) == 0x56425249) { // "VBRI"
+            return readVbri(start, frame, intervalMs);
+        }
+        return null;
+    }
+
+    private SeekTable readXing(long start, long xing, Frame frame, long length, int intervalMs)
+            throws IOException {
+        int flags = int32(xing + 4);
+        long field = xing + 8;
+        if ((flags & 0x1) == 0) {
+            return null;
+        }
+        long frames = int32(field) & 0xffffffffL;
+        field += 4;
+        long bytes = length > 0 ? length - start : 0;
+        if ((flags & 0x2) != 0) {
+            long stated = int32(field) & 0xffffffffL;
+            if (stated > 0) {
+                bytes = stated;
+            }
+            field += 4;
+        }
+        long durationMs = frames * frame.samples * 1000 / frame.sampleRate;
+        if (durationMs == 0 || bytes <= 0) {
+            return null;
+        }
+
+        if ((flags & 0x4) == 0) {
+            // no table of contents, as written for constant bitrate files
+            return SeekTable.interpolate(new long[]{0, durationMs},
+                    new long[]{start + frame.length, start + bytes}, durationMs, intervalMs);
+        }
+        // each entry is the offset of a percent of the duration, in 1/256 of the file
+        long[] times = new long[XING_TOC_SIZE + 1];
+        long[] offsets = new long[XING_TOC_SIZE + 1];
+        for (int i = 0; i < XING_TOC_SIZE; i++) {
+            int entry = byteAt(field + i);
+            if (entry < 0) {
+                return null;
+            }
+            times[i] = durationMs * i / XING_TOC_SIZE;
+            offsets[i] = start + bytes * entry / 256;
+        }
+        offsets[0] = start + frame.length;
+        times[XING_TOC_SIZE] = durationMs;
+        offsets[XING_TOC_SIZE] = start + bytes;
+        return SeekTable.interpolate(times, offsets, durationMs, intervalMs);
+    }
+
+    private SeekTable readVbri(long start, Frame frame, int intervalMs) throws IOException {
+        long vbri = start + VBRI_OFFSET;
+        long frames = int32(vbri + 14) & 0xffffffffL;
+        int entries = int16(vbri + 18);
+        int scale = int16(vbri + 20);
+        int entrySize = int16(vbri + 22);
+        int framesPerEntry = int16(vbri + 24);
+        long durationMs = frames * frame.samples * 1000 / frame.sampleRate;
+        if (durationMs == 0 || entries == 0 || entrySize < 1 || entrySize > 4 || framesPerEntry == 0) {
+            return null;
+        }
+
+        long[] times = new long[entries + 1];
+        long[] offsets = new long[entries + 1];
+        long entryMs = (long) framesPerEntry * frame.samples * 1000 / frame.sampleRate;
+        long offset = start + frame.length;
+        long field = vbri + 26;
+        offsets[0] = offset;
+        for (int i = 1; i <= entries; i++) {
+            long size = 0;
+            for (int b = 0; b < entrySize; b++) {
+                int value = byteAt(field++);
+                if (value < 0) {
+                    return null;
+                }
+                size = (size << 8) | value;
+            }
+            offset += size * scale;
+            times[i] = Math.min(durationMs, entryMs * i);
+            offsets[i] = offset;
+        }
+        return SeekTable.interpolate(times, offsets, durationMs, intervalMs);
+    }
+
+    /**
+     * Walks the frames from {@code audioStart} to the end of the audio and builds an exact
+     * table. Returns null if there are no frames.
+     */
+    public SeekTable scan(long audioStart, int intervalMs) throws IOException {
+        return scan(audioStart, Long.MAX_VALUE, intervalMs);
+    }
+
+    /**
+     * Like {@link #scan(long, int)}, but stops at the frame playing at {@code untilMs}; this
+     * is what finding a position costs without a table.
+     */
+    SeekTable scan(long audioStart, long untilMs, int intervalMs) throws IOException {
+        long end = mLength;
+        if (end - audioStart >= V1_SIZE && int32(end - V1_SIZE) >>> 8 == 0x544147) { // "TAG"
+            end -= V1_SIZE;
+        }
+
+        long position = findFrame(audioStart, Math.min(audioStart + MAX_RESYNC, end));
+        if (position < 0) {
+            return null;
+        }
+        Frame first = parse(int32(position));
+        if (hasInfoTag(position, first)) {
+            position += first.length;
+        }
+
+        LongList offsets = new LongList();
+        long sampleRate = first.sampleRate;
+        long samples = 0;
+        while (position + 4 <= end) {
+            Frame frame = parse(int32(position));
+            if (frame == null || !first.matches(frame.header)) {
+                position = findFrame(position + 1, Math.min(position + MAX_RESYNC, end), first);
+                if (position < 0) {
+                    break;
+                }
+                continue;
+            }
+            // every entry whose time falls in this frame starts here
+            long frameEnd = samples + frame.samples;
+            while ((long) offsets.size() * intervalMs * sampleRate < frameEnd * 1000) {
+                offsets.add(position);
+            }
+            samples = frameEnd;
+            position += frame.length;
+            if (samples * 1000 / sampleRate > untilMs) {
+                break;
+            }
+        }
+        if (offsets.size() == 0) {
+            return null;
+        }
+        return new SeekTable(intervalMs, samples * 1000 / sampleRate, offsets.toArray(), true);
+    }
+
+    /**
+     * The first frame header at or after {@code position}, for an offset from an estimated
+     * table; returns {@code position} itself if none is found nearby.
+     */
+    public long align(long position) throws IOException {
+        long found = findFrame(position, Math.min(position + MAX_RESYNC, mLength));
+        return found < 0 ? position : found;
+    }
+
+    private boolean hasInfoTag(long position, Frame frame) throws IOException {
+        int tag = int32(position + frame.xingOffset());
+        return tag == 0x58696e67 || tag == 0x496e666f || int32(position + VBRI_OFFSET) == 0x56425249;
+    }
+
+    private long findFrame(long from, long limit) throws IOException {
+        return findFrame(from, limit, null);
+    }
+
+    /**
+     * Finds a frame header between {@code from} and {@code limit} that is followed by a second
+     * one, so a stray sync word inside audio data or a tag is not taken for a frame. With
+     * {@code like}, only frames of the same stream count.
+     */
+    private long findFrame(long from, long limit, Frame like) throws IOException {
+        for (long position = from; position + 4 <= limit; position++) {
+            if (byteAt(position) != 0xff) {
+                continue;
+            }
+            int header = int32(position);
+            Frame frame = parse(header);
+            if (frame == null || like != null && !like.matches(header)) {
+                continue;
+            }
+            long next = position + frame.length;
+            if (next + 4 > mLength || frame.matches(int32(next))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private int byteAt(long position) throws IOException {
+        if (position < mChunkStart || position >= mChunkStart + mChunkLength) {
+            fill(position);
+            if (mChunkLength == 0) {
+                return -1;
+            }
+        }
+        return mChunk[(int) (position - mChunkStart)] & 0xff;
+    }
+
+    private int int32(long position) throws IOException {
+        if (position < mChunkStart || position + 4 > mChunkStart + mChunkLength) {
+            fill(position);
+        }
+        if (position + 4 > mChunkStart + mChunkLength) {
+            return 0;
+        }
+        int i = (int) (position - mChunkStart);
+        return ((mChunk[i] & 0xff) << 24) | ((mChunk[i + 1] & 0xff) << 16)
+                | ((mChunk[i + 2] & 0xff) << 8) | (mChunk[i + 3] & 0xff);
+    }
+
+    private int int16(long position) throws IOException {
+        return (byteAt(position) << 8) | byteAt(position + 1);
+    }
+
+    private void fill(long position) throws IOException {
+        mChunkStart = position;
+        mChunkLength = 0;
+        while (mChunkLength < CHUNK_SIZE) {
+            int read = mSource.readAt(position + mChunkLength, mChunk, mChunkLength, CHUNK_SIZE - mChunkLength);
+            if (read <= 0) {
+                break;
+            }
+            mChunkLength += read;
+        }
+        mBytesRead += mChunkLength;
+    }
+
+    /**
+     * A growable list of longs, to avoid boxing one per entry.
+     */
+    private static class LongList {
+        private long[] mValues = new long[256];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                long[] grown = new long[mSize * 2];
+                System.arraycopy(mValues, 0, grown, 0, mSize);
+                mValues = grown;
+            }
+            mValues[mSize++] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long[] toArray() {
+            long[] values = new long[mSize];
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            return values;
+        }
+    }
+}
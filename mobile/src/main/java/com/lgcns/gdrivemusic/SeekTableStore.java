@@ -0,0 +1,59 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The {@link SeekTable}s of scanned files, one small file per DriveId revision or, once the
+ * audio's content is known, per {@link AudioCache#storageKey content}. Tables are kept apart
+ * from the audio, so one still speeds up a resume after its file has been evicted and has to be
+ * streamed again.
+ */
+public class SeekTableStore {
+    private final DiskLruCache mFiles;
+    private int mReadFailures;
+
+    public SeekTableStore(File dir, long maxBytes) {
+        mFiles = new DiskLruCache(dir, maxBytes, ".seek");
+    }
+
+    public boolean contains(String key) {
+        return mFiles.contains(key);
+    }
+
+    /**
+     * The stored table for {@code key}, or null if there is none or it cannot be read.
+     */
+    public SeekTable get(String key) {
+        File file = mFiles.get(key);
+        if (file == null) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) in.length()];
+                in.readFully(data);
+                return SeekTable.fromByteArray(data);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                mReadFailures++;
+            }
+            return null;
+        }
+    }
+
+    public void put(String key, SeekTable table) throws IOException {
+        mFiles.put(key, new ByteArrayInputStream(table.toByteArray()));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SeekTableStore{" + mFiles + ", readFailures=" + mReadFailures + "}";
+    }
+}
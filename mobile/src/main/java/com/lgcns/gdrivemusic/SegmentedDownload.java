@@ -0,0 +1,352 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file as byte-range segments over a bounded number of parallel connections.
+ *
+ * <p>Bytes go to {@code <target>.part} at their offsets, and how far each segment got is
+ * checkpointed to {@code <target>.segments}, so an interrupted download resumes where it
+ * stopped rather than from byte zero. A checkpoint for another size or checksum is ignored.
+ * Once every segment is complete the file is checked against the expected MD5, the checksum
+ * Drive reports for its files, and only then renamed to the target.</p>
+ */
+public class SegmentedDownload {
+    private static final int MAGIC = 0x47444d44; // "GDMD"
+    private static final int FORMAT_VERSION = 1;
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final int DEFAULT_CONNECTIONS = 3;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    /** Segment progress is checkpointed at least this often. */
+    private static final long CHECKPOINT_BYTES = 256 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Where the bytes come from, for instance an HTTP server honouring Range requests.
+     */
+    public interface RangeSource {
+        /**
+         * Opens bytes {@code [start, end)} of the file.
+         */
+        InputStream open(long start, long end) throws IOException;
+    }
+
+    private final RangeSource mSource;
+    private final long mSize;
+    private final String mMd5;
+    private final File mTarget;
+    private final File mPart;
+    private final File mState;
+    private final long mSegmentBytes;
+    private final int mConnections;
+    private final long[] mDone;
+    private final Object mCheckpointLock = new Object();
+    private ProgressThrottle mProgress;
+    private long mDownloaded;
+    private long mFetched;
+    private int mNextSegment;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param md5 the expected MD5 as lower case hex, or null to skip the check
+     */
+    public SegmentedDownload(RangeSource source, long size, String md5, File target, long segmentBytes,
+                             int connections) {
+        mSource = source;
+        mSize = size;
+        mMd5 = md5;
+        mTarget = target;
+        mPart = new File(target.getPath() + ".part");
+        mState = new File(target.getPath() + ".segments");
+        mSegmentBytes = segmentBytes;
+        mConnections = connections;
+        mDone = new long[(int) ((size + segmentBytes - 1) / segmentBytes)];
+    }
+
+    /**
+     * Receives progress over the whole file, including what an earlier attempt downloaded.
+     */
+    public void setProgress(ProgressThrottle progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Bytes fetched from the source by this download, not counting what was resumed.
+     */
+    public synchronized long getBytesFetched() {
+        return mFetched;
+    }
+
+    /**
+     * Stops the download; {@link #run()} then throws and the checkpoint stays for a later resume.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Downloads whatever is missing and returns the verified target. On failure the checkpoint
+     * is kept, except when the checksum does not match: then everything starts over next time.
+     */
+    public File run() throws IOException {
+        if (mTarget.isFile() && mTarget.length() == mSize) {
+            return mTarget;
+        }
+        loadState();
+
+        RandomAccessFile file = new RandomAccessFile(mPart, "rw");
+        ExecutorService executor = Executors.newFixedThreadPool(mConnections);
+        try {
+            file.setLength(mSize);
+            final FileChannel channel = file.getChannel();
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < mConnections; i++) {
+                workers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int segment; (segment = nextSegment()) >= 0; ) {
+                            fetch(channel, segment);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            IOException error = null;
+            for (Future<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    mCancelled = true;
+                    if (error == null) {
+                        error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    mCancelled = true;
+                    Thread.currentThread().interrupt();
+                    error = new InterruptedIOException("download interrupted");
+                }
+            }
+            checkpoint(channel);
+            if (error != null) {
+                throw error;
+            }
+            if (mCancelled) {
+                throw new InterruptedIOException("download cancelled");
+            }
+        } finally {
+            executor.shutdownNow();
+            file.close();
+        }
+
+        if (mMd5 != null && !mMd5.equalsIgnoreCase(md5(mPart))) {
+            mPart.delete();
+            mState.delete();
+            throw new IOException("checksum mismatch for " + mTarget.getName());
+        }
+        if (!mPart.renameTo(mTarget)) {
+            throw new IOException("Unable to rename " + mPart);
+        }
+        mState.delete();
+        return mTarget;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentedDownload{" + mTarget.getName() + ", " + mDownloaded + "/" + mSize + " bytes, fetched="
+                + mFetched + ", segments=" + mDone.length + ", connections=" + mConnections + "}";
+    }
+
+    private synchronized int nextSegment() {
+        while (!mCancelled && mNextSegment < mDone.length) {
+            int segment = mNextSegment++;
+            if (mDone[segment] < segmentLength(segment)) {
+                return segment;
+            }
+        }
+        return -1;
+    }
+
+    private long segmentLength(int segment) {
+        return Math.min(mSegmentBytes, mSize - segment * mSegmentBytes);
+    }
+
+    /**
+     * Fetches the rest of one segment, opening the range again after a dropped connection.
+     */
+    private void fetch(FileChannel channel, int segment) throws IOException {
+        long start = segment * mSegmentBytes;
+        long end = start + segmentLength(segment);
+        byte[] chunk = new byte[CHUNK_BYTES];
+        for (int attempt = 1; ; attempt++) {
+            long position = start + done(segment);
+            try {
+                InputStream in = mSource.open(position, end);
+                try {
+                    long checkpointAt = position + CHECKPOINT_BYTES;
+                    while (position < end) {
+                        if (mCancelled) {
+                            return;
+                        }
+                        int read = in.read(chunk, 0, (int) Math.min(chunk.length, end - position));
+                        if (read < 0) {
+                            throw new EOFException("range ended at " + position + " of " + end);
+                        }
+                        ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer, position + buffer.position());
+                        }
+                        position += read;
+                        advance(segment, read);
+                        if (position >= checkpointAt) {
+                            checkpointAt = position + CHECKPOINT_BYTES;
+                            checkpoint(channel);
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || mCancelled) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private synchronized long done(int segment) {
+        return mDone[segment];
+    }
+
+    private void advance(int segment, int bytes) {
+        long downloaded;
+        synchronized (this) {
+            mDone[segment] += bytes;
+            mDownloaded += bytes;
+            mFetched += bytes;
+            downloaded = mDownloaded;
+        }
+        ProgressThrottle progress = mProgress;
+        if (progress != null) {
+            progress.update(downloaded, mSize, System.nanoTime() / 1000000);
+        }
+    }
+
+    /**
+     * Picks up the checkpoint of an earlier attempt, if it is for the same file and its data
+     * is still there.
+     */
+    private synchronized void loadState() {
+        if (!mState.isFile() || !mPart.isFile()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(mState));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != mSize
+                        || in.readLong() != mSegmentBytes || !in.readUTF().equals(mMd5 == null ? "" : mMd5)
+                        || in.readInt() != mDone.length) {
+                    return;
+                }
+                long[] done = new long[mDone.length];
+                for (int i = 0; i < done.length; i++) {
+                    done[i] = Math.min(in.readLong(), segmentLength(i));
+                }
+                long downloaded = 0;
+                for (int i = 0; i < done.length; i++) {
+                    mDone[i] = done[i];
+                    downloaded += done[i];
+                }
+                mDownloaded = downloaded;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // an unreadable checkpoint means starting over
+        }
+    }
+
+    /**
+     * Records how far every segment got. The counts are taken before the data is synced, so
+     * the checkpoint never claims bytes that are not on disk.
+     */
+    private void checkpoint(FileChannel channel) throws IOException {
+        synchronized (mCheckpointLock) {
+            long[] done;
+            synchronized (this) {
+                done = mDone.clone();
+            }
+            channel.force(false);
+            saveState(done);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and renames it over the previous one.
+     */
+    private void saveState(long[] segments) throws IOException {
+        File tmp = new File(mState.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(mSize);
+            out.writeLong(mSegmentBytes);
+            out.writeUTF(mMd5 == null ? "" : mMd5);
+            out.writeInt(segments.length);
+            for (long done : segments) {
+                out.writeLong(done);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mState)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mState);
+        }
+    }
+
+    static String md5(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[CHUNK_BYTES];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
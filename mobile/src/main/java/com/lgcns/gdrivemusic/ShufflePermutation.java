@@ -0,0 +1,106 @@
+package com.lgcns.gdrivemusic;
+
+/**
+ * A pseudo-random order of {@code 0 .. size - 1} that is computed instead of stored, so
+ * shuffling a library of any size takes no memory beyond the seed.
+ *
+ * <p>Positions are run through a four-round Feistel network over the smallest power of four
+ * that holds {@code size}; results that land outside the range are fed through again until they
+ * land inside it. The network is a bijection, and so is the walk, which on average takes fewer
+ * than four rounds. The same size and seed always give the same order.</p>
+ */
+final class ShufflePermutation {
+    private static final int ROUNDS = 4;
+
+    private final int mSize;
+    private final long mSeed;
+    private final int mHalfBits;
+    private final long mHalfMask;
+
+    ShufflePermutation(int size, long seed) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size " + size);
+        }
+        mSize = size;
+        mSeed = seed;
+        int bits = 2;
+        while (bits < 32 && (1L << bits) < size) {
+            bits += 2;
+        }
+        mHalfBits = bits / 2;
+        mHalfMask = (1L << mHalfBits) - 1;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * The value at {@code position} of the order.
+     */
+    public int get(int position) {
+        checkRange(position);
+        long value = position;
+        do {
+            value = encrypt(value);
+        } while (value >= mSize);
+        return (int) value;
+    }
+
+    /**
+     * Where {@code value} is in the order; the inverse of {@link #get}.
+     */
+    public int positionOf(int value) {
+        checkRange(value);
+        long position = value;
+        do {
+            position = decrypt(position);
+        } while (position >= mSize);
+        return (int) position;
+    }
+
+    private void checkRange(int value) {
+        if (value < 0 || value >= mSize) {
+            throw new IndexOutOfBoundsException(value + " of " + mSize);
+        }
+    }
+
+    private long encrypt(long value) {
+        long left = value >>> mHalfBits;
+        long right = value & mHalfMask;
+        for (int round = 0; round < ROUNDS; round++) {
+            long next = left ^ round(round, right);
+            left = right;
+            right = next;
+        }
+        return left << mHalfBits | right;
+    }
+
+    private long decrypt(long value) {
+        long left = value >>> mHalfBits;
+        long right = value & mHalfMask;
+        for (int round = ROUNDS - 1; round >= 0; round--) {
+            long previous = right ^ round(round, left);
+            right = left;
+            left = previous;
+        }
+        return left << mHalfBits | right;
+    }
+
+    private long round(int round, long half) {
+        return mix(mSeed + (round + 1) * 0x9e3779b97f4a7c15L + half) & mHalfMask;
+    }
+
+    /**
+     * The SplitMix64 finaliser: scatters every bit of {@code z} over the whole result.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -8,8 +8,16 @@ public class Song {
     private String genre;
     private String albumUrl;
     private String thumbnailUrl;
+    private long modified;
+    private int trackNumber;
+    private long duration;
+    private long size;
 
     public Song( String uId, String title, String artist, String album, String genre, String albumUrl, String thumbnailUrl ) {
+        this( uId, title, artist, album, genre, albumUrl, thumbnailUrl, 0 );
+    }
+
+    public Song( String uId, String title, String artist, String album, String genre, String albumUrl, String thumbnailUrl, long modified ) {
         this.uId = uId;
         this.title = title;
         this.artist = artist;
@@ -17,6 +25,7 @@ public class Song {
         this.genre = genre;
         this.albumUrl = albumUrl;
         this.thumbnailUrl = thumbnailUrl;
+        this.modified = modified;
     }
 
     public String getTitle() {
@@ -67,6 +76,38 @@ public class Song {
         this.thumbnailUrl = thumbnailUrl;
     }
 
+    public long getModified() {
+        return modified;
+    }
+
+    public void setModified(long modified) {
+        this.modified = modified;
+    }
+
+    public int getTrackNumber() {
+        return trackNumber;
+    }
+
+    public void setTrackNumber(int trackNumber) {
+        this.trackNumber = trackNumber;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
     public String getuId() {
         return uId;
     }
@@ -0,0 +1,418 @@
+package com.lgcns.gdrivemusic;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable table of songs stored column by column, for libraries too large to keep as one
+ * object per song.
+ *
+ * <p>Ids and titles are packed into a single char array. Artist, album, genre and the artwork
+ * URIs repeat from song to song, so each distinct value is kept once in a dictionary and rows
+ * hold its code. Numbers live in primitive arrays. A {@link Song} is only built when a row is
+ * read, and is a fresh copy every time.</p>
+ */
+public final class SongTable {
+    static final int ARTIST = 0;
+    static final int ALBUM = 1;
+    static final int GENRE = 2;
+    static final int ALBUM_URL = 3;
+    static final int THUMBNAIL_URL = 4;
+    private static final int COLUMNS = 5;
+
+    private final int mSize;
+    private final char[] mText;
+    // row r: id at [2r, 2r + 1), title at [2r + 1, 2r + 2)
+    private final int[] mTextStart;
+    private final BitSet mNullTitles;
+    private final String[] mStrings;
+    // COLUMNS codes per row; -1 is null
+    private final int[] mCodes;
+    private final long[] mModified;
+    private final long[] mDuration;
+    private final long[] mBytes;
+    private final int[] mTrack;
+    // open addressing on the id hash, row + 1 per slot
+    private final int[] mIdSlots;
+    private final Rows mAll;
+
+    private SongTable(Builder builder) {
+        mSize = builder.mSize;
+        mText = Arrays.copyOf(builder.mText, builder.mTextLength);
+        mTextStart = Arrays.copyOf(builder.mTextStart, 2 * mSize + 1);
+        mTextStart[2 * mSize] = builder.mTextLength;
+        mNullTitles = builder.mNullTitles;
+        mStrings = builder.mStrings.toArray(new String[builder.mStrings.size()]);
+        mCodes = Arrays.copyOf(builder.mCodes, COLUMNS * mSize);
+        mModified = Arrays.copyOf(builder.mModified, mSize);
+        mDuration = Arrays.copyOf(builder.mDuration, mSize);
+        mBytes = Arrays.copyOf(builder.mBytes, mSize);
+        mTrack = Arrays.copyOf(builder.mTrack, mSize);
+
+        int slots = Integer.highestOneBit(Math.max(mSize, 1) * 2 - 1) << 1;
+        mIdSlots = new int[slots];
+        for (int row = 0; row < mSize; row++) {
+            int slot = idHash(row) & (slots - 1);
+            while (mIdSlots[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            mIdSlots[slot] = row + 1;
+        }
+        mAll = new Rows(this, null);
+    }
+
+    /**
+     * The table behind {@code songs} if it is a whole table's {@link #asList()}, otherwise a new
+     * table holding them in order.
+     */
+    public static SongTable of(List<Song> songs) {
+        SongTable table = backing(songs);
+        if (table != null) {
+            return table;
+        }
+        Builder builder = new Builder(songs.size());
+        for (Song song : songs) {
+            builder.add(song);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * The row of the song with the given id, or -1.
+     */
+    public int indexOf(String id) {
+        int slot = id.hashCode() & (mIdSlots.length - 1);
+        for (int row; (row = mIdSlots[slot] - 1) >= 0; slot = (slot + 1) & (mIdSlots.length - 1)) {
+            if (textEquals(2 * row, id)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public String getId(int row) {
+        return text(2 * row);
+    }
+
+    public long getModified(int row) {
+        return mModified[row];
+    }
+
+    /**
+     * Builds the song in {@code row}.
+     */
+    public Song getSong(int row) {
+        Song song = new Song(getId(row), mNullTitles.get(row) ? null : text(2 * row + 1),
+                string(row, ARTIST), string(row, ALBUM), string(row, GENRE),
+                string(row, ALBUM_URL), string(row, THUMBNAIL_URL), mModified[row]);
+        song.setTrackNumber(mTrack[row]);
+        song.setDuration(mDuration[row]);
+        song.setSize(mBytes[row]);
+        return song;
+    }
+
+    /**
+     * All rows as a read-only list that builds each song as it is read.
+     */
+    public List<Song> asList() {
+        return mAll;
+    }
+
+    /**
+     * The given rows as a read-only list that builds each song as it is read.
+     */
+    public List<Song> asList(int[] rows) {
+        return new Rows(this, rows);
+    }
+
+    public int getTrackNumber(int row) {
+        return mTrack[row];
+    }
+
+    /**
+     * The dictionary code of a string column in {@code row}, or -1 for null. Rows with equal
+     * values share a code.
+     */
+    int code(int row, int column) {
+        return mCodes[COLUMNS * row + column];
+    }
+
+    String string(int code) {
+        return code < 0 ? null : mStrings[code];
+    }
+
+    int dictionarySize() {
+        return mStrings.length;
+    }
+
+    /**
+     * Orders two rows by title ignoring case, as {@link String#CASE_INSENSITIVE_ORDER} would,
+     * without building the strings. Rows without a title come last.
+     */
+    int compareTitles(int a, int b) {
+        boolean aNull = mNullTitles.get(a);
+        if (aNull || mNullTitles.get(b)) {
+            return aNull == mNullTitles.get(b) ? 0 : (aNull ? 1 : -1);
+        }
+        int i = mTextStart[2 * a + 1];
+        int j = mTextStart[2 * b + 1];
+        int aEnd = mTextStart[2 * a + 2];
+        int bEnd = mTextStart[2 * b + 2];
+        for (; i < aEnd && j < bEnd; i++, j++) {
+            char x = mText[i];
+            char y = mText[j];
+            if (x != y) {
+                x = Character.toLowerCase(Character.toUpperCase(x));
+                y = Character.toLowerCase(Character.toUpperCase(y));
+                if (x != y) {
+                    return x - y;
+                }
+            }
+        }
+        return (aEnd - i) - (bEnd - j);
+    }
+
+    /**
+     * A hash of the id, modified date, title, artist and album of {@code row}: the fields the
+     * search index reads. Equal to {@link #fingerprint(Song)} of the row's song.
+     */
+    long fingerprint(int row) {
+        return fingerprint(idHash(row), mNullTitles.get(row) ? 0 : textHash(2 * row + 1),
+                string(row, ARTIST), string(row, ALBUM), mModified[row]);
+    }
+
+    static long fingerprint(Song song) {
+        return fingerprint(song.getuId().hashCode(), song.getTitle() == null ? 0 : song.getTitle().hashCode(),
+                song.getArtist(), song.getAlbum(), song.getModified());
+    }
+
+    private static long fingerprint(int idHash, int titleHash, String artist, String album, long modified) {
+        long hash = idHash;
+        hash = hash * 0x100000001b3L + titleHash;
+        hash = hash * 0x100000001b3L + (artist == null ? 0 : artist.hashCode());
+        hash = hash * 0x100000001b3L + (album == null ? 0 : album.hashCode());
+        return hash * 0x100000001b3L + modified;
+    }
+
+    /**
+     * The table behind {@code songs} if it is a whole table's {@link #asList()}, otherwise null.
+     */
+    static SongTable backing(List<Song> songs) {
+        if (songs instanceof Rows && ((Rows) songs).mRows == null) {
+            return ((Rows) songs).mTable;
+        }
+        return null;
+    }
+
+    private String string(int row, int column) {
+        return string(code(row, column));
+    }
+
+    private String text(int field) {
+        return new String(mText, mTextStart[field], mTextStart[field + 1] - mTextStart[field]);
+    }
+
+    private boolean textEquals(int field, String value) {
+        int start = mTextStart[field];
+        if (mTextStart[field + 1] - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (mText[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Same as {@link String#hashCode()} of the field. */
+    private int textHash(int field) {
+        int hash = 0;
+        for (int i = mTextStart[field]; i < mTextStart[field + 1]; i++) {
+            hash = 31 * hash + mText[i];
+        }
+        return hash;
+    }
+
+    private int idHash(int row) {
+        return textHash(2 * row);
+    }
+
+    private static class Rows extends AbstractList<Song> implements RandomAccess {
+        final SongTable mTable;
+        final int[] mRows;
+
+        Rows(SongTable table, int[] rows) {
+            mTable = table;
+            mRows = rows;
+        }
+
+        @Override
+        public Song get(int index) {
+            if (mRows == null) {
+                if (index < 0 || index >= mTable.mSize) {
+                    throw new IndexOutOfBoundsException("index " + index + ", size " + mTable.mSize);
+                }
+                return mTable.getSong(index);
+            }
+            return mTable.getSong(mRows[index]);
+        }
+
+        @Override
+        public int size() {
+            return mRows == null ? mTable.mSize : mRows.length;
+        }
+    }
+
+    /**
+     * Appends songs one row at a time, so a large listing can be streamed in without building
+     * a {@link Song} per row. Not thread-safe.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> mCodesByString = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+        private final BitSet mNullTitles = new BitSet();
+        private char[] mText;
+        private int mTextLength;
+        private int[] mTextStart;
+        private int[] mCodes;
+        private long[] mModified;
+        private long[] mDuration;
+        private long[] mBytes;
+        private int[] mTrack;
+        private int mSize;
+        private boolean mBuilt;
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            mText = new char[capacity * 32];
+            mTextStart = new int[2 * capacity + 1];
+            mCodes = new int[COLUMNS * capacity];
+            mModified = new long[capacity];
+            mDuration = new long[capacity];
+            mBytes = new long[capacity];
+            mTrack = new int[capacity];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public Builder add(Song song) {
+            return add(song.getuId(), song.getTitle(), song.getArtist(), song.getAlbum(), song.getGenre(),
+                    song.getAlbumUrl(), song.getThumbnailUrl(), song.getModified(), song.getTrackNumber(),
+                    song.getDuration(), song.getSize());
+        }
+
+        public Builder add(String id, String title, String artist, String album, String genre, String albumUrl,
+                           String thumbnailUrl, long modified, int trackNumber, long duration, long size) {
+            int row = startRow();
+            appendText(id);
+            mTextStart[2 * row + 1] = mTextLength;
+            if (title == null) {
+                mNullTitles.set(row);
+            } else {
+                appendText(title);
+            }
+            mCodes[COLUMNS * row + ARTIST] = intern(artist);
+            mCodes[COLUMNS * row + ALBUM] = intern(album);
+            mCodes[COLUMNS * row + GENRE] = intern(genre);
+            mCodes[COLUMNS * row + ALBUM_URL] = intern(albumUrl);
+            mCodes[COLUMNS * row + THUMBNAIL_URL] = intern(thumbnailUrl);
+            return endRow(modified, trackNumber, duration, size);
+        }
+
+        /**
+         * Copies a row of another table without building its song.
+         */
+        public Builder add(SongTable table, int row) {
+            int to = startRow();
+            for (int field = 2 * row; field < 2 * row + 2; field++) {
+                int start = table.mTextStart[field];
+                int length = table.mTextStart[field + 1] - start;
+                ensureText(length);
+                System.arraycopy(table.mText, start, mText, mTextLength, length);
+                mTextLength += length;
+                if (field == 2 * row) {
+                    mTextStart[2 * to + 1] = mTextLength;
+                }
+            }
+            if (table.mNullTitles.get(row)) {
+                mNullTitles.set(to);
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                mCodes[COLUMNS * to + column] = intern(table.string(row, column));
+            }
+            return endRow(table.mModified[row], table.mTrack[row], table.mDuration[row], table.mBytes[row]);
+        }
+
+        public SongTable build() {
+            if (mBuilt) {
+                throw new IllegalStateException("already built");
+            }
+            mBuilt = true;
+            return new SongTable(this);
+        }
+
+        private int startRow() {
+            if (mBuilt) {
+                throw new IllegalStateException("already built");
+            }
+            if (mSize == mModified.length) {
+                int capacity = mSize * 2;
+                mTextStart = Arrays.copyOf(mTextStart, 2 * capacity + 1);
+                mCodes = Arrays.copyOf(mCodes, COLUMNS * capacity);
+                mModified = Arrays.copyOf(mModified, capacity);
+                mDuration = Arrays.copyOf(mDuration, capacity);
+                mBytes = Arrays.copyOf(mBytes, capacity);
+                mTrack = Arrays.copyOf(mTrack, capacity);
+            }
+            mTextStart[2 * mSize] = mTextLength;
+            return mSize;
+        }
+
+        private Builder endRow(long modified, int trackNumber, long duration, long size) {
+            mModified[mSize] = modified;
+            mTrack[mSize] = trackNumber;
+            mDuration[mSize] = duration;
+            mBytes[mSize] = size;
+            mSize++;
+            return this;
+        }
+
+        private void appendText(String value) {
+            ensureText(value.length());
+            value.getChars(0, value.length(), mText, mTextLength);
+            mTextLength += value.length();
+        }
+
+        private void ensureText(int length) {
+            if (mTextLength + length > mText.length) {
+                mText = Arrays.copyOf(mText, Math.max(mText.length * 2, mTextLength + length));
+            }
+        }
+
+        private int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = mCodesByString.get(value);
+            if (code == null) {
+                code = mStrings.size();
+                mStrings.add(value);
+                mCodesByString.put(value, code);
+            }
+            return code;
+        }
+    }
+}
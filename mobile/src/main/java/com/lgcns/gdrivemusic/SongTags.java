@@ -0,0 +1,40 @@
+package com.lgcns.gdrivemusic;
+
+/**
+ * The tag fields read from an MP3 file. Fields the file does not carry are null or zero.
+ */
+public class SongTags {
+    public String title;
+    public String artist;
+    public String album;
+    public String genre;
+    public int trackNumber;
+    public long durationMs;
+
+    public boolean isEmpty() {
+        return title == null && artist == null && album == null && genre == null
+                && trackNumber == 0 && durationMs == 0;
+    }
+
+    /**
+     * Returns a copy of {@code song} with these tags filled in over its Drive metadata.
+     */
+    public Song applyTo(Song song) {
+        Song tagged = new Song(song.getuId(),
+                title != null ? title : song.getTitle(),
+                artist != null ? artist : song.getArtist(),
+                album != null ? album : song.getAlbum(),
+                genre != null ? genre : song.getGenre(),
+                song.getAlbumUrl(), song.getThumbnailUrl(), song.getModified());
+        tagged.setTrackNumber(trackNumber != 0 ? trackNumber : song.getTrackNumber());
+        tagged.setDuration(durationMs != 0 ? durationMs : song.getDuration());
+        tagged.setSize(song.getSize());
+        return tagged;
+    }
+
+    @Override
+    public String toString() {
+        return "SongTags{title=" + title + ", artist=" + artist + ", album=" + album + ", genre=" + genre
+                + ", track=" + trackNumber + ", duration=" + durationMs + "}";
+    }
+}
@@ -0,0 +1,172 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A file-backed buffer that one thread fills while the player reads from it.
+ *
+ * <p>Reads past what has arrived so far block until the data is there, the download finishes
+ * or fails, or the buffer is closed. The {@link Listener} hears about such underruns so the
+ * session can report buffering.</p>
+ */
+public class StreamBuffer implements Closeable {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    public interface Listener {
+        void onUnderrun(long position);
+
+        void onRebuffered(long position);
+    }
+
+    private final RandomAccessFile mFile;
+    private final long mExpectedSize;
+    private Listener mListener;
+
+    private long mAvailable;
+    private boolean mComplete;
+    private boolean mClosed;
+    private IOException mError;
+    private int mUnderruns;
+
+    /**
+     * @param expectedSize total size of the stream, or -1 if unknown
+     */
+    public StreamBuffer(File file, long expectedSize) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mExpectedSize = expectedSize;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public long getExpectedSize() {
+        return mExpectedSize;
+    }
+
+    public synchronized long getAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * Whether the buffer was closed, as opposed to the download having failed or ended.
+     */
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    public synchronized int getUnderrunCount() {
+        return mUnderruns;
+    }
+
+    /**
+     * Copies {@code in} into the buffer until it ends, then marks the stream complete. Meant to
+     * run on its own thread; the stream is closed either way. Returns true if the whole stream
+     * arrived, false if it failed or the buffer was closed first.
+     */
+    public boolean fill(InputStream in) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                if (!append(chunk, 0, read)) {
+                    return false;
+                }
+            }
+            finish(null);
+            return true;
+        } catch (IOException e) {
+            finish(e);
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Appends downloaded bytes; returns false once the buffer has been closed.
+     */
+    public synchronized boolean append(byte[] data, int offset, int length) throws IOException {
+        if (mClosed) {
+            return false;
+        }
+        mFile.seek(mAvailable);
+        mFile.write(data, offset, length);
+        mAvailable += length;
+        notifyAll();
+        return true;
+    }
+
+    public synchronized void finish(IOException error) {
+        mComplete = true;
+        mError = error;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until {@code bytes} have arrived or the stream has ended; returns false if it failed
+     * or was closed first.
+     */
+    public synchronized boolean awaitInitial(long bytes) throws InterruptedException {
+        while (mAvailable < bytes && !mComplete && !mClosed) {
+            wait();
+        }
+        return !mClosed && mError == null;
+    }
+
+    /**
+     * Reads up to {@code size} bytes at {@code position}, waiting for them if the download has
+     * not got that far yet. Returns -1 at the end of the stream.
+     */
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (position >= mAvailable && !mComplete && !mClosed) {
+            mUnderruns++;
+            if (mListener != null) {
+                mListener.onUnderrun(position);
+            }
+            while (position >= mAvailable && !mComplete && !mClosed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while buffering");
+                }
+            }
+            if (mListener != null && !mClosed) {
+                mListener.onRebuffered(position);
+            }
+        }
+
+        if (mClosed) {
+            throw new IOException("stream closed");
+        }
+        if (position >= mAvailable) {
+            if (mError != null) {
+                throw mError;
+            }
+            return -1;
+        }
+
+        int count = (int) Math.min(size, mAvailable - position);
+        mFile.seek(position);
+        mFile.readFully(buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!mClosed) {
+            mClosed = true;
+            notifyAll();
+            mFile.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.lgcns.gdrivemusic;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import java.io.IOException;
+
+/**
+ * Feeds {@link android.media.MediaPlayer} from a {@link StreamBuffer} that is still downloading,
+ * so playback can start before the whole file has arrived. The player may be given the stream
+ * from an offset on, such as a frame found in a {@link SeekTable}, and then sees nothing before.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class StreamingDataSource extends MediaDataSource {
+    private final StreamBuffer mBuffer;
+    private final long mStart;
+
+    public StreamingDataSource(StreamBuffer buffer) {
+        this(buffer, 0);
+    }
+
+    public StreamingDataSource(StreamBuffer buffer, long start) {
+        mBuffer = buffer;
+        mStart = start;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return mBuffer.readAt(mStart + position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        long size = mBuffer.getExpectedSize();
+        return size < 0 ? size : size - mStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mBuffer.close();
+    }
+}
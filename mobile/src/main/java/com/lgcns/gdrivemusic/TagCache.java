@@ -0,0 +1,148 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the tags extracted for each Drive file so a file is parsed once per revision.
+ *
+ * <p>Files without any tags are remembered too, as empty {@link SongTags}, so they are not
+ * parsed again on every sync. Only the latest revision of each file is kept.</p>
+ */
+public class TagCache {
+    private static final int MAGIC = 0x47444d54; // "GDMT"
+    // version 2 files were also scanned for album art
+    private static final int FORMAT_VERSION = 2;
+
+    private static class Entry {
+        final long mRevision;
+        final SongTags mTags;
+
+        Entry(long revision, SongTags tags) {
+            mRevision = revision;
+            mTags = tags;
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private boolean mDirty;
+
+    public TagCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * The tags for {@code revision} of {@code driveId}, or null if it has not been parsed yet.
+     */
+    public synchronized SongTags get(String driveId, long revision) {
+        Entry entry = mEntries.get(driveId);
+        return entry != null && entry.mRevision == revision ? entry.mTags : null;
+    }
+
+    public synchronized void put(String driveId, long revision, SongTags tags) {
+        mEntries.put(driveId, new Entry(revision, tags));
+        mDirty = true;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Reads the saved entries; a missing or unreadable file leaves the cache empty.
+     */
+    public synchronized void load() {
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String driveId = in.readUTF();
+                long revision = in.readLong();
+                SongTags tags = new SongTags();
+                tags.title = readString(in);
+                tags.artist = readString(in);
+                tags.album = readString(in);
+                tags.genre = readString(in);
+                tags.trackNumber = in.readInt();
+                tags.durationMs = in.readLong();
+                entries.put(driveId, new Entry(revision, tags));
+            }
+            mEntries.putAll(entries);
+        } catch (IOException e) {
+            // parsed again on demand
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries if anything changed since the last save, through a temporary file.
+     */
+    public synchronized void save() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                SongTags tags = entry.getValue().mTags;
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().mRevision);
+                writeString(out, tags.title);
+                writeString(out, tags.artist);
+                writeString(out, tags.album);
+                writeString(out, tags.genre);
+                out.writeInt(tags.trackNumber);
+                out.writeLong(tags.durationMs);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mDirty = false;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,244 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts tags from many files in parallel on a small pool of low priority threads.
+ *
+ * <p>At most {@code maxPending} files are queued or being parsed at once; {@link #submit} blocks
+ * the producer beyond that, so a large library is fed through without queueing every song up
+ * front. Results land in the {@link TagCache}, and files already in it are skipped.</p>
+ */
+public class TagExtractor {
+    /**
+     * Opens the bytes of a song's file. A {@link Closeable} source is closed after parsing.
+     */
+    public interface SourceOpener {
+        /**
+         * Returns null if the file cannot be read now; the song is skipped, and tried again the
+         * next time it is submitted.
+         */
+        Id3Reader.Source open(Song song) throws IOException;
+    }
+
+    /**
+     * Called on a worker thread for every file parsed.
+     */
+    public interface Listener {
+        void onExtracted(Song song, SongTags tags);
+    }
+
+    /**
+     * Receives embedded pictures, for the files it asks for. Called on worker threads.
+     */
+    public interface PictureSink {
+        /**
+         * Returns true to have the picture of the file with these tags read.
+         */
+        boolean wants(SongTags tags);
+
+        /**
+         * @param picture the picture, or null if the file has none
+         */
+        void onPicture(SongTags tags, Id3Reader.Picture picture);
+    }
+
+    /**
+     * Tells which songs hold the same audio. Called on worker threads.
+     */
+    public interface ContentKeys {
+        /**
+         * The key of the content {@code song}'s file holds, or null if it is not known.
+         */
+        String contentKey(Song song);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Semaphore mPermits;
+    private final int mMaxPending;
+    private final TagCache mCache;
+    private final SourceOpener mOpener;
+    private final Listener mListener;
+    private final Set<String> mInFlight = new HashSet<>();
+    private volatile PictureSink mPictureSink;
+    private volatile ContentKeys mContentKeys;
+    private final Map<String, SongTags> mTagsByContent = new HashMap<>();
+
+    private final AtomicInteger mParsed = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicInteger mShared = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicLong mBytesRead = new AtomicLong();
+
+    public TagExtractor(int threads, int maxPending, TagCache cache, SourceOpener opener, Listener listener) {
+        mMaxPending = maxPending;
+        mPermits = new Semaphore(maxPending);
+        mCache = cache;
+        mOpener = opener;
+        mListener = listener;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TagExtractor-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void setPictureSink(PictureSink sink) {
+        mPictureSink = sink;
+    }
+
+    /**
+     * Lets copies of a file take the tags of the first one parsed instead of being parsed again.
+     */
+    public void setContentKeys(ContentKeys contentKeys) {
+        mContentKeys = contentKeys;
+    }
+
+    /**
+     * Queues {@code song} for parsing, waiting while the pipeline is full. Returns false if its
+     * tags are already cached or it is already queued.
+     */
+    public boolean submit(final Song song) throws InterruptedException {
+        if (mCache.get(song.getuId(), song.getModified()) != null) {
+            return false;
+        }
+        synchronized (mInFlight) {
+            if (!mInFlight.add(song.getuId())) {
+                return false;
+            }
+        }
+
+        mPermits.acquire();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    extract(song);
+                } finally {
+                    synchronized (mInFlight) {
+                        mInFlight.remove(song.getuId());
+                    }
+                    mPermits.release();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Blocks until every submitted file has been parsed.
+     */
+    public void awaitIdle() throws InterruptedException {
+        mPermits.acquire(mMaxPending);
+        mPermits.release(mMaxPending);
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public int getParsedCount() {
+        return mParsed.get();
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Files that took the tags of a copy parsed before.
+     */
+    public int getSharedCount() {
+        return mShared.get();
+    }
+
+    /**
+     * Files skipped because their opener could not read them at the time.
+     */
+    public int getSkippedCount() {
+        return mSkipped.get();
+    }
+
+    /**
+     * Total bytes read from sources, to check that parsing stays within the tags.
+     */
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    private void extract(Song song) {
+        ContentKeys contentKeys = mContentKeys;
+        String contentKey = contentKeys == null ? null : contentKeys.contentKey(song);
+        if (contentKey != null) {
+            SongTags shared;
+            synchronized (mTagsByContent) {
+                shared = mTagsByContent.get(contentKey);
+            }
+            if (shared != null) {
+                mShared.incrementAndGet();
+                mCache.put(song.getuId(), song.getModified(), shared);
+                mListener.onExtracted(song, shared);
+                return;
+            }
+        }
+
+        Id3Reader.Source source = null;
+        try {
+            source = mOpener.open(song);
+            if (source == null) {
+                mSkipped.incrementAndGet();
+                return;
+            }
+            Id3Reader reader = new Id3Reader(source);
+            SongTags tags = reader.read();
+            PictureSink sink = mPictureSink;
+            if (sink != null && sink.wants(tags)) {
+                sink.onPicture(tags, reader.readPicture());
+            }
+            mBytesRead.addAndGet(reader.getBytesRead());
+            mParsed.incrementAndGet();
+
+            mCache.put(song.getuId(), song.getModified(), tags);
+            if (contentKey != null) {
+                synchronized (mTagsByContent) {
+                    mTagsByContent.put(contentKey, tags);
+                }
+            }
+            mListener.onExtracted(song, tags);
+        } catch (IOException e) {
+            mFailed.incrementAndGet();
+        } finally {
+            if (source instanceof Closeable) {
+                try {
+                    ((Closeable) source).close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TagExtractor{parsed=" + mParsed + ", failed=" + mFailed + ", shared=" + mShared
+                + ", skipped=" + mSkipped + ", bytesRead=" + mBytesRead + "}";
+    }
+}
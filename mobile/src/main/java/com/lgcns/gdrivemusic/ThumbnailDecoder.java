@@ -0,0 +1,60 @@
+package com.lgcns.gdrivemusic;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes embedded artwork straight into thumbnail size.
+ *
+ * <p>The image bounds are read first so the decoder can subsample by a power of two, which never
+ * allocates the full-size bitmap; a final scale brings the result to the exact size.</p>
+ */
+public final class ThumbnailDecoder {
+
+    private ThumbnailDecoder() {
+    }
+
+    /**
+     * The largest power of two that keeps both sides of a {@code width} x {@code height} image at
+     * or above {@code size} after subsampling.
+     */
+    static int sampleSizeFor(int width, int height, int size) {
+        int sample = 1;
+        while (width / (sample * 2) >= size && height / (sample * 2) >= size) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Decodes {@code data} so its longer side is at most {@code size} pixels, or returns null if
+     * it is not an image.
+     */
+    public static Bitmap decode(byte[] data, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight, size);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest <= size) {
+            return bitmap;
+        }
+        float scale = (float) size / longest;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,49 @@
+package com.lgcns.gdrivemusic;
+
+/**
+ * Allows {@code perSecond} operations per second on average, and bursts of up to
+ * {@code capacity}. Not thread-safe; times are in milliseconds on any monotonic clock.
+ */
+public class TokenBucket {
+    private final double mPerMs;
+    private final double mCapacity;
+    private double mTokens;
+    private long mUpdatedAt;
+
+    public TokenBucket(double perSecond, int capacity, long now) {
+        mPerMs = perSecond / 1000;
+        mCapacity = capacity;
+        mTokens = capacity;
+        mUpdatedAt = now;
+    }
+
+    /**
+     * Takes a token if there is one.
+     */
+    public boolean tryTake(long now) {
+        refill(now);
+        if (mTokens < 1) {
+            return false;
+        }
+        mTokens -= 1;
+        return true;
+    }
+
+    /**
+     * How long until {@link #tryTake} will succeed, 0 if it would now.
+     */
+    public long delayUntilAvailable(long now) {
+        refill(now);
+        if (mTokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - mTokens) / mPerMs);
+    }
+
+    private void refill(long now) {
+        if (now > mUpdatedAt) {
+            mTokens = Math.min(mCapacity, mTokens + (now - mUpdatedAt) * mPerMs);
+            mUpdatedAt = now;
+        }
+    }
+}
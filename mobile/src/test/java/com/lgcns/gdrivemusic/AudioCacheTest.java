@@ -0,0 +1,226 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class AudioCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static InputStream bytes(int size) {
+        return new ByteArrayInputStream(new byte[size]);
+    }
+
+    private static InputStream bytes(int size, int fill) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) fill);
+        return new ByteArrayInputStream(data);
+    }
+
+    @Test
+    public void key_dependsOnRevision() {
+        assertEquals(AudioCache.key("DriveId:abc", 1), AudioCache.key("DriveId:abc", 1));
+        assertNotEquals(AudioCache.key("DriveId:abc", 1), AudioCache.key("DriveId:abc", 2));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() throws Exception {
+        AudioCache cache = new AudioCache(mFolder.getRoot(), 300);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        cache.put("c", bytes(100));
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", bytes(100));
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+        assertEquals(300, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void pinnedEntriesAreNotEvicted() throws Exception {
+        AudioCache cache = new AudioCache(mFolder.getRoot(), 200);
+        cache.put("playing", bytes(100));
+        cache.put("queued", bytes(100));
+        cache.setPinned(Arrays.asList("playing", "queued"));
+
+        cache.put("other", bytes(100));
+
+        assertTrue(cache.contains("playing"));
+        assertTrue(cache.contains("queued"));
+        assertFalse(cache.contains("other"));
+
+        cache.setPinned(Collections.<String>emptyList());
+        cache.put("next", bytes(100));
+        assertFalse(cache.contains("playing"));
+    }
+
+    @Test
+    public void countsHitsAndMisses() throws Exception {
+        AudioCache cache = new AudioCache(mFolder.getRoot(), 1000);
+        cache.put("a", bytes(10));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void recoversFromPartiallyWrittenEntries() throws Exception {
+        File dir = mFolder.getRoot();
+        AudioCache cache = new AudioCache(dir, 1000);
+        cache.put("complete", bytes(100));
+
+        File partial = cache.newTempFile("partial");
+        FileOutputStream out = new FileOutputStream(partial);
+        out.write(new byte[50]);
+        out.close();
+
+        AudioCache reopened = new AudioCache(dir, 1000);
+
+        assertFalse(partial.exists());
+        assertNull(reopened.get("partial"));
+        assertNotNull(reopened.get("complete"));
+        assertEquals(100, reopened.getSize());
+    }
+
+    @Test
+    public void failedWriteLeavesNoEntry() throws Exception {
+        AudioCache cache = new AudioCache(mFolder.getRoot(), 1000);
+        InputStream failing = new InputStream() {
+            private int mRead;
+
+            @Override
+            public int read() throws IOException {
+                if (mRead++ > 10) {
+                    throw new IOException("connection reset");
+                }
+                return 0;
+            }
+        };
+
+        try {
+            cache.put("a", failing);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertFalse(cache.contains("a"));
+        assertEquals(0, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void recencySurvivesRestart() throws Exception {
+        File dir = mFolder.getRoot();
+        AudioCache cache = new AudioCache(dir, 300);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        cache.put("c", bytes(100));
+        new File(dir, "a.mp3").setLastModified(3000000000000L);
+        new File(dir, "b.mp3").setLastModified(1000000000000L);
+        new File(dir, "c.mp3").setLastModified(2000000000000L);
+
+        AudioCache reopened = new AudioCache(dir, 300);
+        reopened.put("d", bytes(100));
+
+        assertFalse(reopened.contains("b"));
+        assertTrue(reopened.contains("a"));
+        assertTrue(reopened.contains("c"));
+    }
+
+    @Test
+    public void copiesAreStoredOnce() throws Exception {
+        AudioCache cache = AudioCache.deduplicating(mFolder.getRoot(), 1000);
+        File first = cache.put("a", bytes(100, 1));
+        File copy = cache.put("b", bytes(100, 1));
+        cache.put("c", bytes(100, 2));
+
+        assertEquals(first, copy);
+        assertEquals(cache.storageKey("a"), cache.storageKey("b"));
+        assertNotEquals(cache.storageKey("a"), cache.storageKey("c"));
+        assertEquals(cache.storageKey("a"), cache.contentKey("b"));
+        assertNull(cache.contentKey("unknown"));
+        assertEquals(200, cache.getSize());
+        assertEquals(1, cache.getDuplicateCount());
+        assertEquals(100, cache.getBytesSaved());
+        assertEquals(1.5, cache.getDedupRatio(), 1e-9);
+        assertEquals(3, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void sharedContentIsDeletedWithItsLastReference() throws Exception {
+        File dir = mFolder.getRoot();
+        AudioCache cache = AudioCache.deduplicating(dir, 1000);
+        File file = cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 1));
+        cache.put("c", bytes(100, 1));
+
+        assertFalse(cache.remove("a"));
+        assertTrue(file.exists());
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+
+        // the references survive a restart
+        AudioCache reopened = AudioCache.deduplicating(dir, 1000);
+        assertFalse(reopened.remove("b"));
+        assertFalse(reopened.remove("b"));
+        assertTrue(file.exists());
+        assertTrue(reopened.remove("c"));
+        assertFalse(file.exists());
+        assertEquals(0, reopened.getSize());
+        assertFalse(reopened.remove("c"));
+    }
+
+    @Test
+    public void linksKnownContentWithoutDownloading() throws Exception {
+        AudioCache cache = AudioCache.deduplicating(mFolder.getRoot(), 1000);
+        File file = cache.put("a", bytes(100, 1));
+        String md5 = SegmentedDownload.md5(file);
+
+        assertFalse(cache.link("b", md5, 101));
+        assertFalse(cache.link("b", "00000000000000000000000000000000", 100));
+        assertTrue(cache.link("b", md5, 100));
+        assertEquals(file, cache.get("b"));
+        assertEquals(100, cache.getBytesSaved());
+        assertFalse(new AudioCache(mFolder.newFolder(), 1000).link("a", md5, 100));
+    }
+
+    @Test
+    public void contentIsKnownPastEviction() throws Exception {
+        AudioCache cache = AudioCache.deduplicating(mFolder.getRoot(), 200);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 1));
+        cache.setPinned(Collections.singletonList("b"));
+        cache.put("c", bytes(100, 2));
+        cache.put("d", bytes(100, 3));
+
+        // pinned through its copy
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("c"));
+        assertNotNull(cache.contentKey("c"));
+
+        cache.setPinned(Collections.<String>emptyList());
+        cache.put("e", bytes(100, 4));
+        cache.put("f", bytes(100, 5));
+        assertFalse(cache.contains("b"));
+        assertEquals(cache.contentKey("a"), cache.storageKey("b"));
+    }
+}
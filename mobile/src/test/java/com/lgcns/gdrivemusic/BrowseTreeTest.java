@@ -0,0 +1,155 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BrowseTreeTest {
+
+    private static BrowseTree tree(int size) {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            songs.add(new Song("id-" + i, "Song " + i, "Artist " + (i % 3), "Album/" + (i % 5),
+                    i % 2 == 0 ? "Jazz" : null, "http://", "http://"));
+        }
+        return new BrowseTree(new Catalog(1, songs));
+    }
+
+    @Test
+    public void root_listsBrowsableCategories() {
+        List<BrowseTree.Node> children = tree(10).getChildren(BrowseTree.ROOT, -1, -1);
+
+        assertEquals(4, children.size());
+        assertEquals(BrowseTree.ARTISTS, children.get(0).mediaId);
+        assertTrue(children.get(0).isBrowsable());
+        assertEquals(BrowseTree.SONGS, children.get(3).mediaId);
+    }
+
+    @Test
+    public void allSongs_browseByTitleBeforeTagsAreRead() {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 9; i >= 0; i--) {
+            songs.add(new Song("id-" + i, "track" + i + ".mp3", null, null, null, null, null));
+        }
+        BrowseTree tree = new BrowseTree(new Catalog(1, songs));
+
+        List<BrowseTree.Node> artists = tree.getChildren(BrowseTree.ARTISTS, -1, -1);
+        assertEquals(1, artists.size());
+        assertEquals(Catalog.UNKNOWN, artists.get(0).title);
+
+        List<BrowseTree.Node> page = tree.getChildren(BrowseTree.SONGS, 1, 4);
+        assertEquals(4, page.size());
+        assertEquals("track4.mp3", page.get(0).title);
+        assertEquals("id-4", page.get(0).mediaId);
+        assertFalse(page.get(0).isBrowsable());
+        assertEquals(10, tree.getChildren(BrowseTree.SONGS, -1, -1).size());
+    }
+
+    @Test
+    public void category_listsNamesThenSongs() {
+        BrowseTree tree = tree(10);
+
+        List<BrowseTree.Node> genres = tree.getChildren(BrowseTree.GENRES, -1, -1);
+        assertEquals(2, genres.size());
+        assertEquals("Jazz", genres.get(0).title);
+        assertEquals("Unknown", genres.get(1).title);
+
+        List<BrowseTree.Node> albums = tree.getChildren(BrowseTree.ALBUMS, -1, -1);
+        assertEquals("Album/0", albums.get(0).title);
+        List<BrowseTree.Node> songs = tree.getChildren(albums.get(0).mediaId, -1, -1);
+        assertEquals(2, songs.size());
+        assertFalse(songs.get(0).isBrowsable());
+        assertEquals("id-0", songs.get(0).mediaId);
+        assertEquals("id-5", songs.get(1).mediaId);
+    }
+
+    @Test
+    public void paging_returnsBoundedSlices() {
+        BrowseTree tree = tree(1000);
+        String artist = tree.getChildren(BrowseTree.ARTISTS, 0, 1).get(0).mediaId;
+
+        assertEquals(100, tree.getChildren(artist, 0, 100).size());
+        assertEquals(34, tree.getChildren(artist, 3, 100).size());
+        assertTrue(tree.getChildren(artist, 4, 100).isEmpty());
+        assertEquals(334, tree.getChildren(artist, -1, -1).size());
+    }
+
+    @Test
+    public void unknownParent_isNull() {
+        BrowseTree tree = tree(10);
+
+        assertNull(tree.getChildren("nope", -1, -1));
+        assertNull(tree.getChildren(BrowseTree.ARTISTS + "/Nobody", -1, -1));
+    }
+
+    @Test
+    public void changedParents_coverCategoriesBeforeAndAfter() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song("a", "One", "Miles", "Blue", "Jazz", null, null, 1));
+        songs.add(new Song("b", "Two", "Miles", "Kind", "Jazz", null, null, 1));
+        Catalog previous = new Catalog(1, songs);
+
+        // "b" is retagged into another album in lower case, "c" arrives in a new genre
+        List<Song> next = new ArrayList<>(songs);
+        Song retagged = new Song("b", "Two", "Miles", "blue", "Jazz", null, null, 2);
+        next.set(1, retagged);
+        Song added = new Song("c", "Three", "miles", "Blue", "Rock", null, null, 2);
+        next.add(added);
+        ChangeSet changes = new ChangeSet();
+        changes.updated(retagged);
+        changes.added(added);
+
+        Set<String> parents = BrowseTree.changedParents(previous, new Catalog(2, next), changes);
+        assertEquals(new HashSet<>(Arrays.asList(BrowseTree.SONGS, BrowseTree.ALBUMS, BrowseTree.GENRES,
+                BrowseTree.ARTISTS + "/Miles", BrowseTree.ALBUMS + "/Blue", BrowseTree.ALBUMS + "/Kind",
+                BrowseTree.GENRES + "/Jazz", BrowseTree.GENRES + "/Rock")), parents);
+        assertEquals(BrowseTree.normalize(BrowseTree.ALBUMS + "/Blue"), BrowseTree.normalize(BrowseTree.ALBUMS + "/bLUE"));
+    }
+
+    @Test
+    public void cache_rebuildsOnlyChangedParents() {
+        BrowseCache<String> cache = new BrowseCache<String>(1024 * 1024) {
+            @Override
+            protected List<String> build(BrowseTree tree, String parentId, int page, int pageSize) {
+                List<BrowseTree.Node> children = tree.getChildren(parentId, page, pageSize);
+                if (children == null) {
+                    return null;
+                }
+                List<String> titles = new ArrayList<>();
+                for (BrowseTree.Node node : children) {
+                    titles.add(node.title);
+                }
+                return titles;
+            }
+        };
+        BrowseTree tree = tree(10);
+        String album = BrowseTree.ALBUMS + "/Album/0";
+        String artist = BrowseTree.ARTISTS + "/Artist 0";
+
+        List<String> songs = cache.get(tree, 1, album, -1, -1);
+        assertEquals(Arrays.asList("Song 0", "Song 5"), songs);
+        assertSame(songs, cache.get(tree, 1, album, -1, -1));
+        assertSame(songs, cache.get(tree, 1, BrowseTree.ALBUMS + "/ALBUM/0", -1, -1));
+        assertNotSame(songs, cache.get(tree, 1, album, 0, 1));
+        assertNull(cache.get(tree, 1, "nope", -1, -1));
+        List<String> artistSongs = cache.get(tree, 1, artist, -1, -1);
+        assertEquals(4, cache.getBuildCount());
+
+        // version 2 changes the album only; the artist list built from version 1 still holds
+        cache.invalidate(2, Collections.singleton(album));
+        assertSame(artistSongs, cache.get(tree, 2, artist, -1, -1));
+        assertNotSame(songs, cache.get(tree, 2, album, -1, -1));
+        assertEquals(5, cache.getBuildCount());
+
+        cache.invalidate(3, null);
+        cache.get(tree, 3, artist, -1, -1);
+        assertEquals(6, cache.getBuildCount());
+    }
+}
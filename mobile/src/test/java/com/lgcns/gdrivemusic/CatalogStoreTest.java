@@ -0,0 +1,81 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CatalogStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void saveThenLoad_roundTripsSongs() throws Exception {
+        CatalogStore store = new CatalogStore(new File(mFolder.getRoot(), "catalog.bin"));
+        List<Song> songs = new ArrayList<>();
+        Song saved = new Song("id-1", "Title", "Artist", "Album", "Jazz", null, "http://", 1234L);
+        saved.setTrackNumber(3);
+        saved.setDuration(245000L);
+        songs.add(saved);
+
+        store.save(new CatalogStore.Snapshot(songs, 1234L, 1000L));
+        CatalogStore.Snapshot snapshot = store.load();
+        List<Song> loaded = snapshot.songs;
+
+        assertEquals(1234L, snapshot.syncedAt);
+        assertEquals(1000L, snapshot.fullSyncedAt);
+        assertEquals(1, loaded.size());
+        Song song = loaded.get(0);
+        assertEquals("id-1", song.getuId());
+        assertEquals("Title", song.getTitle());
+        assertEquals("Artist", song.getArtist());
+        assertEquals("Album", song.getAlbum());
+        assertEquals("Jazz", song.getGenre());
+        assertNull(song.getAlbumUrl());
+        assertEquals("http://", song.getThumbnailUrl());
+        assertEquals(1234L, song.getModified());
+        assertEquals(3, song.getTrackNumber());
+        assertEquals(245000L, song.getDuration());
+    }
+
+    @Test
+    public void load_missingOrCorruptFileIsEmpty() throws Exception {
+        File file = new File(mFolder.getRoot(), "catalog.bin");
+        CatalogStore store = new CatalogStore(file);
+        assertTrue(store.load().songs.isEmpty());
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        assertTrue(store.load().songs.isEmpty());
+    }
+
+    /**
+     * Time to first browse result on a cold start: without the store the service waits for the
+     * Drive connect and query, with it the only cost is this load.
+     */
+    @Test
+    public void load_tenThousandSongsIsFast() throws Exception {
+        CatalogStore store = new CatalogStore(new File(mFolder.getRoot(), "catalog.bin"));
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            songs.add(new Song("DriveId:" + i, "Song " + i, "Artist " + (i % 500), "Album " + (i % 1000),
+                    "Jazz", "http://", "http://"));
+        }
+        store.save(new CatalogStore.Snapshot(songs, 0, 0));
+
+        long start = System.nanoTime();
+        List<Song> loaded = store.load().songs;
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        System.out.println("catalog store: loaded " + loaded.size() + " songs in " + elapsedMs + " ms");
+
+        assertEquals(songs.size(), loaded.size());
+        assertTrue("load took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+}
@@ -0,0 +1,124 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CatalogTest {
+    private static final int LIBRARY_SIZE = 100000;
+
+    private static List<Song> songs(int size, String prefix) {
+        List<Song> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            songs.add(new Song(prefix + i, "Song " + i, "Artist " + (i % 1000), "Album " + (i % 5000),
+                    "Genre " + (i % 20), "http://", "http://"));
+        }
+        return songs;
+    }
+
+    @Test
+    public void indexes_groupSongsIgnoringCase() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song("a", "One", "Miles", "Blue", "Jazz", null, null));
+        songs.add(new Song("b", "Two", "miles", "Blue", "jazz", null, null));
+        songs.add(new Song("c", "Three", null, "Kind", "Rock", null, null));
+        Catalog catalog = new Catalog(7, songs);
+
+        assertEquals(7, catalog.getVersion());
+        assertEquals("Two", catalog.getSong("b").getTitle());
+        assertNull(catalog.getSong("B"));
+        assertEquals(2, catalog.getSongs(Catalog.Index.GENRE, "JAZZ").size());
+        assertEquals(2, catalog.getNames(Catalog.Index.ARTIST).size());
+        assertEquals(Catalog.UNKNOWN, catalog.getNames(Catalog.Index.ARTIST).get(1));
+        assertTrue(catalog.getSongs(Catalog.Index.ALBUM, "Nope").isEmpty());
+    }
+
+    @Test
+    public void songsByTitle_ignoreCaseAndPutUntitledLast() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song("a", "beta.mp3", null, null, null, null, null));
+        songs.add(new Song("b", null, null, null, null, null, null));
+        songs.add(new Song("c", "Alpha.mp3", null, null, null, null, null));
+        songs.add(new Song("d", "ALPHA", null, null, null, null, null));
+        Catalog catalog = new Catalog(1, songs);
+
+        List<Song> byTitle = catalog.getSongsByTitle();
+        assertEquals(4, byTitle.size());
+        assertEquals("d", byTitle.get(0).getuId());
+        assertEquals("c", byTitle.get(1).getuId());
+        assertEquals("a", byTitle.get(2).getuId());
+        assertEquals("b", byTitle.get(3).getuId());
+    }
+
+    @Test
+    public void lookup_isConstantTimeOnLargeLibrary() {
+        Catalog catalog = new Catalog(1, songs(LIBRARY_SIZE, "id-"));
+
+        int lookups = 1000000;
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            if (catalog.getSong("id-" + (i % LIBRARY_SIZE)) != null) {
+                found++;
+            }
+        }
+        long nsPerLookup = (System.nanoTime() - start) / lookups;
+        System.out.println("catalog: " + nsPerLookup + " ns per id lookup on " + LIBRARY_SIZE + " songs");
+
+        assertEquals(lookups, found);
+        assertEquals(100, catalog.getSongs(Catalog.Index.ARTIST, "Artist 7").size());
+        assertTrue("lookup took " + nsPerLookup + " ns", nsPerLookup < 20000);
+    }
+
+    /**
+     * Readers grab whatever snapshot is current while a writer keeps publishing new ones; every
+     * snapshot a reader sees must be internally consistent.
+     */
+    @Test
+    public void concurrentReadAndRefresh_isSafe() throws Exception {
+        final AtomicReference<Catalog> current = new AtomicReference<>(new Catalog(0, songs(10000, "v0-")));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (done.getCount() > 0) {
+                            Catalog catalog = current.get();
+                            String prefix = "v" + catalog.getVersion() + "-";
+                            int total = 0;
+                            for (String genre : catalog.getNames(Catalog.Index.GENRE)) {
+                                total += catalog.getSongs(Catalog.Index.GENRE, genre).size();
+                            }
+                            assertEquals(catalog.size(), total);
+                            assertNotNull(catalog.getSong(prefix + (catalog.size() - 1)));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int version = 1; version <= 30; version++) {
+            current.set(new Catalog(version, songs(10000 + version, "v" + version + "-")));
+        }
+        done.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(30, current.get().getVersion());
+    }
+}
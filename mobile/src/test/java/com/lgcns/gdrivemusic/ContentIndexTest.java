@@ -0,0 +1,98 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ContentIndexTest {
+    private static final String SONG = ContentIndex.contentKey("9E107D9D372BB6826BD81D3542A419D6", 100);
+    private static final String OTHER = ContentIndex.contentKey("e4d909c290d0fb1ca068ffaddf22cbd0", 300);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ContentIndex newIndex() {
+        return new ContentIndex(new File(mFolder.getRoot(), "contents.idx"));
+    }
+
+    @Test
+    public void contentKeyIgnoresHexCase() {
+        assertEquals(ContentIndex.contentKey("9e107d9d372bb6826bd81d3542a419d6", 100), SONG);
+        assertNotEquals(ContentIndex.contentKey("9e107d9d372bb6826bd81d3542a419d6", 101), SONG);
+    }
+
+    @Test
+    public void copiesShareOneContent() {
+        ContentIndex index = newIndex();
+        assertNull(index.link("a", SONG, 100));
+        assertNull(index.link("b", SONG, 100));
+        assertNull(index.link("c", OTHER, 300));
+        // linking again changes nothing
+        assertNull(index.link("a", SONG, 100));
+
+        assertEquals(SONG, index.resolve("b"));
+        assertNull(index.resolve("d"));
+        assertEquals(2, index.refCount(SONG));
+        assertEquals(1, index.refCount(OTHER));
+        assertEquals(3, index.size());
+        assertEquals(2, index.getContentCount());
+        assertEquals(500, index.getReferencedBytes());
+        assertEquals(400, index.getUniqueBytes());
+    }
+
+    @Test
+    public void contentIsReleasedWithItsLastReference() {
+        ContentIndex index = newIndex();
+        index.link("a", SONG, 100);
+        index.link("b", SONG, 100);
+        index.link("c", SONG, 100);
+
+        assertNull(index.unlink("b"));
+        assertEquals(2, index.refCount(SONG));
+        assertNull(index.unlink("b"));
+        assertEquals(2, index.refCount(SONG));
+        assertNull(index.unlink("a"));
+        assertEquals(SONG, index.unlink("c"));
+
+        assertEquals(0, index.refCount(SONG));
+        assertEquals(0, index.getContentCount());
+        assertEquals(0, index.getUniqueBytes());
+        assertNull(index.unlink("unknown"));
+    }
+
+    @Test
+    public void relinkingReleasesThePreviousContent() {
+        ContentIndex index = newIndex();
+        index.link("a", SONG, 100);
+        index.link("b", SONG, 100);
+
+        assertNull(index.link("a", OTHER, 300));
+        assertEquals(1, index.refCount(SONG));
+        assertEquals(SONG, index.link("b", OTHER, 300));
+        assertEquals(2, index.refCount(OTHER));
+        assertEquals(1, index.getContentCount());
+    }
+
+    @Test
+    public void savesAndLoadsReferences() throws Exception {
+        ContentIndex index = newIndex();
+        index.link("a", SONG, 100);
+        index.link("b", SONG, 100);
+        index.link("c", OTHER, 300);
+        index.unlink("c");
+        index.save();
+
+        ContentIndex loaded = newIndex();
+        loaded.load();
+        assertEquals(SONG, loaded.resolve("a"));
+        assertEquals(2, loaded.refCount(SONG));
+        assertEquals(0, loaded.refCount(OTHER));
+        assertEquals(200, loaded.getReferencedBytes());
+        assertNull(loaded.unlink("a"));
+        assertEquals(SONG, loaded.unlink("b"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DiskLruCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static File write(DiskLruCache cache, String key, int size) throws IOException {
+        return cache.put(key, new ByteArrayInputStream(new byte[size]));
+    }
+
+    @Test
+    public void suffixKeepsStoresApart() throws Exception {
+        DiskLruCache audio = new DiskLruCache(mFolder.getRoot(), 1000, ".mp3");
+        DiskLruCache art = new DiskLruCache(mFolder.getRoot(), 1000, ".jpg");
+        write(audio, "a", 100);
+        File b = write(art, "b", 50);
+        assertEquals("b.jpg", b.getName());
+
+        DiskLruCache reopened = new DiskLruCache(mFolder.getRoot(), 1000, ".jpg");
+        assertTrue(reopened.contains("b"));
+        assertFalse(reopened.contains("a"));
+        assertEquals(50, reopened.getSize());
+    }
+
+    @Test
+    public void touchKeepsAnEntryWithoutCountingAHit() throws Exception {
+        DiskLruCache cache = new DiskLruCache(mFolder.getRoot(), 200, ".bin");
+        write(cache, "a", 100);
+        write(cache, "b", 100);
+
+        assertTrue(cache.touch("a"));
+        assertFalse(cache.touch("missing"));
+        write(cache, "c", 100);
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<>(cache.getEntries().keySet()));
+    }
+
+    @Test
+    public void replacingAKeyKeepsOneEntry() throws Exception {
+        DiskLruCache cache = new DiskLruCache(mFolder.getRoot(), 1000, ".bin");
+        write(cache, "a", 100);
+        write(cache, "a", 40);
+
+        assertEquals(40, cache.getSize());
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.remove("a"));
+        assertFalse(cache.remove("a"));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void unpinningEvictsWhatNoLongerFits() throws Exception {
+        DiskLruCache cache = new DiskLruCache(mFolder.getRoot(), 100, ".bin");
+        cache.setPinned(Collections.singletonList("large"));
+        write(cache, "large", 150);
+        write(cache, "other", 50);
+
+        assertTrue(cache.contains("large"));
+        assertFalse(cache.contains("other"));
+        assertEquals(150, cache.getSize());
+
+        cache.setPinned(Collections.<String>emptyList());
+        assertFalse(cache.contains("large"));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getEvictionCount());
+    }
+}
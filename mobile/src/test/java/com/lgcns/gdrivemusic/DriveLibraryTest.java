@@ -0,0 +1,237 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DriveLibraryTest {
+
+    /** Holds every listing until the test answers it, and counts what was asked for. */
+    private static class FakeDrive implements DriveLibrary.Backend {
+        final List<Long> mQueries = new ArrayList<>();
+        final List<DriveLibrary.Receiver> mPending = new ArrayList<>();
+        int mConnects;
+        int mDisconnects;
+
+        @Override
+        public void connect() {
+            mConnects++;
+        }
+
+        @Override
+        public void disconnect() {
+            mDisconnects++;
+        }
+
+        @Override
+        public void list(long modifiedSince, DriveLibrary.Receiver receiver) {
+            mQueries.add(modifiedSince);
+            mPending.add(receiver);
+        }
+
+        void answer(int index, List<DriveLibrary.Item> items) {
+            mPending.get(index).onListed(items);
+        }
+    }
+
+    private static class RecordingReceiver implements DriveLibrary.Receiver {
+        List<DriveLibrary.Item> mItems;
+        String mFailure;
+
+        @Override
+        public void onListed(List<DriveLibrary.Item> items) {
+            mItems = items;
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            mFailure = reason;
+        }
+    }
+
+    private static class RecordingObserver implements DriveLibrary.Observer {
+        int mConnected;
+        final List<List<DriveLibrary.Item>> mListings = new ArrayList<>();
+
+        @Override
+        public void onConnected() {
+            mConnected++;
+        }
+
+        @Override
+        public void onListing(List<DriveLibrary.Item> items) {
+            mListings.add(items);
+        }
+    }
+
+    private static List<DriveLibrary.Item> items(int count) {
+        List<DriveLibrary.Item> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new DriveLibrary.Item("id" + i, "Song " + i, 1000 + i, 4096, false));
+        }
+        return items;
+    }
+
+    private FakeDrive mDrive;
+    private DriveLibrary mLibrary;
+
+    @Before
+    public void setUp() {
+        mDrive = new FakeDrive();
+        mLibrary = new DriveLibrary(mDrive);
+    }
+
+    @Test
+    public void connectionIsReferenceCounted() {
+        mLibrary.acquire();
+        mLibrary.acquire();
+        assertEquals(1, mDrive.mConnects);
+
+        mLibrary.release();
+        assertEquals(0, mDrive.mDisconnects);
+        mLibrary.release();
+        assertEquals(1, mDrive.mDisconnects);
+
+        mLibrary.acquire();
+        assertEquals(2, mDrive.mConnects);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unbalancedReleaseThrows() {
+        mLibrary.release();
+    }
+
+    @Test
+    public void identicalListingsInFlightShareOneQuery() {
+        mLibrary.acquire();
+        mLibrary.onConnected();
+
+        RecordingReceiver service = new RecordingReceiver();
+        RecordingReceiver activity = new RecordingReceiver();
+        mLibrary.list(0, service);
+        mLibrary.list(0, activity);
+        mLibrary.list(0, null);
+
+        assertEquals(Arrays.asList(0L), mDrive.mQueries);
+        assertEquals(1, mLibrary.getQueryCount());
+        assertEquals(2, mLibrary.getJoinedCount());
+
+        mDrive.answer(0, items(3));
+        assertEquals(3, service.mItems.size());
+        assertSame(service.mItems, activity.mItems);
+
+        // answered, so the next one is a new query
+        mLibrary.list(0, null);
+        assertEquals(2, mDrive.mQueries.size());
+    }
+
+    @Test
+    public void differentListingsAreNotMerged() {
+        mLibrary.acquire();
+        mLibrary.onConnected();
+
+        RecordingReceiver full = new RecordingReceiver();
+        RecordingReceiver delta = new RecordingReceiver();
+        mLibrary.list(0, full);
+        mLibrary.list(5000, delta);
+        assertEquals(Arrays.asList(0L, 5000L), mDrive.mQueries);
+
+        mDrive.answer(1, items(1));
+        assertEquals(1, delta.mItems.size());
+        assertNull(full.mItems);
+        // only complete listings are kept
+        assertNull(mLibrary.getLatest());
+    }
+
+    @Test
+    public void listingsWaitForTheConnection() {
+        mLibrary.acquire();
+        mLibrary.list(0, null);
+        mLibrary.list(0, null);
+        assertTrue(mDrive.mQueries.isEmpty());
+
+        mLibrary.onConnected();
+        assertEquals(Arrays.asList(0L), mDrive.mQueries);
+    }
+
+    @Test
+    public void completeListingsArePublishedToObservers() {
+        RecordingObserver service = new RecordingObserver();
+        RecordingObserver activity = new RecordingObserver();
+        mLibrary.addObserver(service);
+        mLibrary.addObserver(activity);
+        mLibrary.acquire();
+        mLibrary.onConnected();
+        assertEquals(1, service.mConnected);
+        assertEquals(1, activity.mConnected);
+
+        mLibrary.list(0, null);
+        mDrive.answer(0, items(2));
+        assertEquals(1, service.mListings.size());
+        assertSame(service.mListings.get(0), activity.mListings.get(0));
+
+        mLibrary.removeObserver(activity);
+        mLibrary.list(0, null);
+        mDrive.answer(1, items(4));
+        assertEquals(2, service.mListings.size());
+        assertEquals(1, activity.mListings.size());
+    }
+
+    @Test
+    public void lateObserverGetsTheLatestListingWithoutAQuery() {
+        mLibrary.acquire();
+        mLibrary.onConnected();
+        mLibrary.list(0, null);
+        mDrive.answer(0, items(2));
+
+        RecordingObserver activity = new RecordingObserver();
+        mLibrary.addObserver(activity);
+        assertEquals(1, activity.mConnected);
+        assertEquals(2, activity.mListings.get(0).size());
+        assertEquals(1, mDrive.mQueries.size());
+    }
+
+    @Test
+    public void lastReleaseFailsListingsInFlight() {
+        mLibrary.acquire();
+        mLibrary.onConnected();
+        RecordingReceiver receiver = new RecordingReceiver();
+        mLibrary.list(0, receiver);
+
+        mLibrary.release();
+        assertNotNull(receiver.mFailure);
+        assertFalse(mLibrary.isConnected());
+
+        // a late answer to the abandoned query does not end the next one
+        mLibrary.acquire();
+        mLibrary.onConnected();
+        RecordingReceiver next = new RecordingReceiver();
+        mLibrary.list(0, next);
+        mDrive.answer(0, items(1));
+        assertNull(next.mItems);
+        assertNull(receiver.mItems);
+
+        mDrive.answer(1, items(2));
+        assertEquals(2, next.mItems.size());
+    }
+
+    @Test
+    public void failureReachesEveryReceiver() {
+        mLibrary.acquire();
+        mLibrary.onConnected();
+        RecordingReceiver first = new RecordingReceiver();
+        RecordingReceiver second = new RecordingReceiver();
+        mLibrary.list(0, first);
+        mLibrary.list(0, second);
+
+        mDrive.mPending.get(0).onFailed("offline");
+        assertEquals("offline", first.mFailure);
+        assertEquals("offline", second.mFailure);
+        assertNull(mLibrary.getLatest());
+    }
+}
@@ -0,0 +1,301 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DriveSchedulerTest {
+    private static final long TIMEOUT_S = 5;
+
+    private static final PrefetchPolicy.Clock ELAPSED = new PrefetchPolicy.Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /**
+     * Answers opens after a latency, failing the first few attempts of a file if told to, and
+     * records the order calls started in and how many ran at once.
+     */
+    private static class FakeDrive {
+        final ScheduledExecutorService mNetwork = Executors.newScheduledThreadPool(4);
+        final List<String> mStarted = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> mDiscarded = Collections.synchronizedList(new ArrayList<String>());
+        final Map<String, Integer> mFailuresLeft = Collections.synchronizedMap(new HashMap<String, Integer>());
+        final AtomicInteger mRunning = new AtomicInteger();
+        final AtomicInteger mMaxRunning = new AtomicInteger();
+        volatile boolean mRetryable = true;
+
+        DriveScheduler.Call<String> open(final String id, final long latencyMs) {
+            return new DriveScheduler.Call<String>() {
+                @Override
+                public void start(final DriveScheduler.Attempt<String> attempt) {
+                    mStarted.add(id);
+                    int running = mRunning.incrementAndGet();
+                    int max = mMaxRunning.get();
+                    while (running > max && !mMaxRunning.compareAndSet(max, running)) {
+                        max = mMaxRunning.get();
+                    }
+                    mNetwork.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            mRunning.decrementAndGet();
+                            Integer failures = mFailuresLeft.get(id);
+                            if (failures != null && failures > 0) {
+                                mFailuresLeft.put(id, failures - 1);
+                                attempt.fail("503 from " + id, mRetryable);
+                            } else {
+                                attempt.succeed("contents of " + id);
+                            }
+                        }
+                    }, latencyMs, TimeUnit.MILLISECONDS);
+                }
+
+                @Override
+                public void discard(String result) {
+                    mDiscarded.add(result);
+                }
+            };
+        }
+    }
+
+    private static class Recorder implements DriveScheduler.Callback<String> {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile String mResult;
+        volatile String mError;
+        volatile long mDoneAt;
+
+        @Override
+        public void onResult(String result) {
+            mResult = result;
+            mDoneAt = ELAPSED.now();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(String message) {
+            mError = message;
+            mDoneAt = ELAPSED.now();
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("timed out", mDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+    }
+
+    private ScheduledExecutorService mExecutor;
+    private FakeDrive mDrive;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mDrive = new FakeDrive();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mDrive.mNetwork.shutdownNow();
+    }
+
+    private DriveScheduler scheduler(double perSecond, int burst, long backoffMs) {
+        return new DriveScheduler(mExecutor, ELAPSED, new Random(1), perSecond, burst, backoffMs, 10 * backoffMs);
+    }
+
+    @Test
+    public void higherLanesGetTokensFirst() throws Exception {
+        DriveScheduler scheduler = scheduler(20, 1, 10);
+        // takes the only token, so everything below queues behind the rate limit
+        Recorder first = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.BACKGROUND, null, mDrive.open("warmup", 1), first);
+
+        List<Recorder> recorders = new ArrayList<>();
+        String[] ids = {"tag1", "tag2", "list", "play"};
+        DriveScheduler.Lane[] lanes = {DriveScheduler.Lane.BACKGROUND, DriveScheduler.Lane.BACKGROUND,
+                DriveScheduler.Lane.BROWSE, DriveScheduler.Lane.PLAYBACK};
+        for (int i = 0; i < ids.length; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            scheduler.submit(lanes[i], null, mDrive.open(ids[i], 1), recorder);
+        }
+        for (Recorder recorder : recorders) {
+            recorder.await();
+        }
+
+        assertEquals("warmup", mDrive.mStarted.get(0));
+        assertEquals("play", mDrive.mStarted.get(1));
+        assertEquals("list", mDrive.mStarted.get(2));
+        assertEquals("tag1", mDrive.mStarted.get(3));
+        assertEquals("tag2", mDrive.mStarted.get(4));
+    }
+
+    @Test
+    public void rateLimitSpacesAttempts() throws Exception {
+        DriveScheduler scheduler = scheduler(50, 2, 10);
+        List<Recorder> recorders = new ArrayList<>();
+        long start = ELAPSED.now();
+        for (int i = 0; i < 7; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            scheduler.submit(DriveScheduler.Lane.PLAYBACK, null, mDrive.open("song" + i, 1), recorder);
+        }
+        for (Recorder recorder : recorders) {
+            recorder.await();
+        }
+
+        // a burst of 2, then 5 more at 20ms apart
+        long elapsed = Collections.max(doneTimes(recorders)) - start;
+        assertTrue("took " + elapsed + "ms", elapsed >= 90);
+    }
+
+    @Test
+    public void laneConcurrencyIsLimited() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 10);
+        List<Recorder> recorders = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            scheduler.submit(DriveScheduler.Lane.BACKGROUND, null, mDrive.open("tag" + i, 30), recorder);
+        }
+        for (Recorder recorder : recorders) {
+            recorder.await();
+            assertNotNull(recorder.mResult);
+        }
+        assertEquals(DriveScheduler.Lane.BACKGROUND.mMaxRunning, mDrive.mMaxRunning.get());
+    }
+
+    @Test
+    public void retriesWithBackoffUntilSuccess() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 20);
+        mDrive.mFailuresLeft.put("flaky", 2);
+
+        Recorder recorder = new Recorder();
+        long start = ELAPSED.now();
+        scheduler.submit(DriveScheduler.Lane.PLAYBACK, null, mDrive.open("flaky", 1), recorder);
+        recorder.await();
+
+        assertEquals("contents of flaky", recorder.mResult);
+        assertEquals(3, mDrive.mStarted.size());
+        // at least half of 20ms, then half of 40ms
+        assertTrue(recorder.mDoneAt - start >= 30);
+        assertTrue(scheduler.toString().contains("retried=2"));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 1);
+        mDrive.mFailuresLeft.put("down", 100);
+
+        Recorder recorder = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.PLAYBACK, null, mDrive.open("down", 1), recorder);
+        recorder.await();
+
+        assertEquals("503 from down", recorder.mError);
+        assertEquals(DriveScheduler.Lane.PLAYBACK.mMaxAttempts, mDrive.mStarted.size());
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 1);
+        mDrive.mFailuresLeft.put("missing", 1);
+        mDrive.mRetryable = false;
+
+        Recorder recorder = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.BROWSE, null, mDrive.open("missing", 1), recorder);
+        recorder.await();
+
+        assertNotNull(recorder.mError);
+        assertEquals(1, mDrive.mStarted.size());
+    }
+
+    @Test
+    public void newerRequestSupersedesRunningOne() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 10);
+        Recorder first = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.PLAYBACK, "play", mDrive.open("first", 100), first);
+        Recorder second = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.PLAYBACK, "play", mDrive.open("second", 10), second);
+
+        first.await();
+        second.await();
+        assertEquals("superseded", first.mError);
+        assertEquals("contents of second", second.mResult);
+
+        // the late result of the superseded open is handed back to be freed
+        Thread.sleep(200);
+        assertEquals(Collections.singletonList("contents of first"), mDrive.mDiscarded);
+    }
+
+    @Test
+    public void cancelledRequestNeverStarts() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 10);
+        Recorder busy = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.BACKGROUND, null, mDrive.open("busy", 50), busy);
+        Recorder queued = new Recorder();
+        scheduler.submit(DriveScheduler.Lane.BACKGROUND, null, mDrive.open("queued", 1), queued).cancel();
+
+        queued.await();
+        busy.await();
+        assertEquals("cancelled", queued.mError);
+        assertEquals(Collections.singletonList("busy"), mDrive.mStarted);
+    }
+
+    @Test
+    public void awaitBlocksForTheResult() throws Exception {
+        DriveScheduler scheduler = scheduler(1000, 100, 1);
+        mDrive.mFailuresLeft.put("tagged", 1);
+        assertEquals("contents of tagged",
+                scheduler.await(DriveScheduler.Lane.BACKGROUND, mDrive.open("tagged", 5)));
+
+        mDrive.mFailuresLeft.put("broken", 100);
+        try {
+            scheduler.await(DriveScheduler.Lane.BACKGROUND, mDrive.open("broken", 1));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void backoffDoublesAndStaysInItsUpperHalf() {
+        Random random = new Random(7);
+        for (int failures = 1; failures <= 10; failures++) {
+            long full = Math.min(1000, 100L << (failures - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = DriveScheduler.backoffDelay(failures, 100, 1000, random);
+                assertTrue(delay >= full / 2);
+                assertTrue(delay <= full);
+            }
+        }
+        assertEquals(1000, DriveScheduler.backoffDelay(1000, 100, 1000, new Random() {
+            @Override
+            public double nextDouble() {
+                return 1;
+            }
+        }));
+    }
+
+    private static List<Long> doneTimes(List<Recorder> recorders) {
+        List<Long> times = new ArrayList<>();
+        for (Recorder recorder : recorders) {
+            times.add(recorder.mDoneAt);
+        }
+        return times;
+    }
+}
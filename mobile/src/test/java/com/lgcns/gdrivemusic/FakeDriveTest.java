@@ -0,0 +1,122 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FakeDriveTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeDrive mDrive;
+
+    @After
+    public void tearDown() {
+        if (mDrive != null) {
+            mDrive.shutdown();
+        }
+    }
+
+    private FakeDrive newDrive(FakeDrive.Config config) {
+        mDrive = new FakeDrive(config, DIRECT);
+        return mDrive;
+    }
+
+    @Test
+    public void listsTheGeneratedLibraryOnceConnected() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songs = 2500;
+        config.latencyMs = 20;
+        config.jitterMs = 0;
+        FakeDrive drive = newDrive(config);
+
+        final CountDownLatch listed = new CountDownLatch(1);
+        final AtomicReference<List<DriveLibrary.Item>> result = new AtomicReference<>();
+        DriveLibrary library = drive.getLibrary();
+        long start = System.nanoTime();
+        library.acquire();
+        library.list(0, new DriveLibrary.Receiver() {
+            @Override
+            public void onListed(List<DriveLibrary.Item> items) {
+                result.set(items);
+                listed.countDown();
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                listed.countDown();
+            }
+        });
+        assertTrue(listed.await(5, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(2500, result.get().size());
+        assertEquals("fake:7", result.get().get(7).id);
+        // connecting, then one round trip for each of three pages
+        assertTrue(elapsedMs >= 4 * 20);
+        assertTrue(library.isConnected());
+    }
+
+    @Test
+    public void opensTaggedFilesAtTheConfiguredBandwidth() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.songsPerAlbum = 10;
+        config.durationMs = 10000;
+        config.latencyMs = 30;
+        config.jitterMs = 0;
+        config.bytesPerSecond = 1024 * 1024;
+        FakeDrive drive = newDrive(config);
+        DriveLibrary.Item item = drive.getItems().get(25);
+
+        long start = System.nanoTime();
+        DriveAccess.Contents contents = drive.getScheduler().await(DriveScheduler.Lane.PLAYBACK, drive.open(item.id));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(elapsedMs >= 30 + item.size * 1000 / config.bytesPerSecond);
+        assertEquals(item.size, contents.getSource().length());
+        SongTags tags = new Id3Reader(contents.getSource()).read();
+        assertEquals("Song 25", tags.title);
+        assertEquals("Album 2", tags.album);
+        assertEquals("Artist 0", tags.artist);
+        assertEquals("Genre 2", tags.genre);
+        assertEquals(6, tags.trackNumber);
+        assertEquals(drive.getTags(25).album, tags.album);
+        assertEquals(item.size, drive.getBytesServed());
+    }
+
+    @Test
+    public void injectedFailuresAreRetried() throws Exception {
+        FakeDrive.Config config = new FakeDrive.Config();
+        config.durationMs = 1000;
+        config.latencyMs = 1;
+        config.jitterMs = 0;
+        config.bytesPerSecond = 0;
+        config.errorRate = 0.25;
+        FakeDrive drive = newDrive(config);
+
+        for (int i = 0; i < 20; i++) {
+            drive.getScheduler().await(DriveScheduler.Lane.BACKGROUND, drive.open(FakeDrive.ID_PREFIX + i));
+        }
+
+        assertTrue(drive.getFailureCount() > 0);
+        assertEquals(20 + drive.getFailureCount(), drive.getOpenCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFilesFail() throws Exception {
+        FakeDrive drive = newDrive(new FakeDrive.Config());
+        drive.getScheduler().await(DriveScheduler.Lane.PLAYBACK, drive.open(FakeDrive.ID_PREFIX + 1000));
+    }
+}
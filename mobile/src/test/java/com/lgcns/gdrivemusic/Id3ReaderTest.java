@@ -0,0 +1,166 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class Id3ReaderTest {
+
+    static class ByteSource implements Id3Reader.Source {
+        private final byte[] mData;
+
+        ByteSource(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public long length() {
+            return mData.length;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) {
+            if (position >= mData.length) {
+                return -1;
+            }
+            int count = (int) Math.min(size, mData.length - position);
+            System.arraycopy(mData, (int) position, buffer, offset, count);
+            return count;
+        }
+    }
+
+    private static SongTags read(byte[] file) throws IOException {
+        return new Id3Reader(new ByteSource(file)).read();
+    }
+
+    @Test
+    public void readsId3v23TextFrames() throws Exception {
+        SongTags tags = read(new Mp3Fixture(3)
+                .text("TIT2", "So What")
+                .text("TPE1", "Miles Davis")
+                .text("TALB", "Kind of Blue")
+                .text("TCON", "Jazz")
+                .text("TRCK", "1/5")
+                .text("TLEN", "562000")
+                .build());
+
+        assertEquals("So What", tags.title);
+        assertEquals("Miles Davis", tags.artist);
+        assertEquals("Kind of Blue", tags.album);
+        assertEquals("Jazz", tags.genre);
+        assertEquals(1, tags.trackNumber);
+        assertEquals(562000, tags.durationMs);
+    }
+
+    @Test
+    public void readsId3v24WithUtf16Text() throws Exception {
+        SongTags tags = read(new Mp3Fixture(4)
+                .text("TIT2", 1, "F\u00fcr Elise".getBytes(Charset.forName("UTF-16")))
+                .text("TPE1", 2, "Beethoven".getBytes(Charset.forName("UTF-16BE")))
+                .picture(300)
+                .text("TALB", "Bagatelles")
+                .build());
+
+        assertEquals("F\u00fcr Elise", tags.title);
+        assertEquals("Beethoven", tags.artist);
+        assertEquals("Bagatelles", tags.album);
+    }
+
+    @Test
+    public void readsId3v22Frames() throws Exception {
+        SongTags tags = read(new Mp3Fixture(2)
+                .text("TT2", 0, "Title".getBytes(Charset.forName("ISO-8859-1")))
+                .text("TP1", 0, "Artist".getBytes(Charset.forName("ISO-8859-1")))
+                .text("TRK", 0, "7".getBytes(Charset.forName("ISO-8859-1")))
+                .build());
+
+        assertEquals("Title", tags.title);
+        assertEquals("Artist", tags.artist);
+        assertEquals(7, tags.trackNumber);
+    }
+
+    @Test
+    public void fallsBackToId3v1() throws Exception {
+        SongTags tags = read(new Mp3Fixture(3)
+                .text("TIT2", "From v2")
+                .v1("From v1", "Old Artist", "Old Album", 4, 17)
+                .build());
+
+        assertEquals("From v2", tags.title);
+        assertEquals("Old Artist", tags.artist);
+        assertEquals("Old Album", tags.album);
+        assertEquals("Rock", tags.genre);
+        assertEquals(4, tags.trackNumber);
+    }
+
+    @Test
+    public void resolvesNumericGenres() {
+        assertEquals("Rock", Id3Reader.resolveGenre("(17)"));
+        assertEquals("Rock", Id3Reader.resolveGenre("17"));
+        assertEquals("Acid Rock", Id3Reader.resolveGenre("(17)Acid Rock"));
+        assertEquals("Jazz", Id3Reader.resolveGenre("Jazz"));
+        assertEquals(3, Id3Reader.parseTrack("3/12"));
+        assertEquals(0, Id3Reader.parseTrack("A1"));
+    }
+
+    @Test
+    public void estimatesDurationFromFirstFrame() throws Exception {
+        // 200 frames of 1152 samples at 44.1 kHz
+        SongTags tags = read(new Mp3Fixture(3).text("TIT2", "x").padding(512).audioFrames(200).build());
+
+        assertEquals(200 * 1152 * 1000L / 44100, tags.durationMs, 50);
+    }
+
+    @Test
+    public void readsOnlyTheHeaders() throws Exception {
+        byte[] file = new Mp3Fixture(3)
+                .text("TIT2", "Title")
+                .picture(256 * 1024)
+                .text("TPE1", "Artist")
+                .text("TALB", "Album")
+                .text("TCON", "(8)")
+                .text("TRCK", "2")
+                .text("TLEN", "1000")
+                .padding(2048)
+                .audioFrames(2000)
+                .build();
+        Id3Reader reader = new Id3Reader(new ByteSource(file));
+
+        SongTags tags = reader.read();
+
+        assertEquals("Artist", tags.artist);
+        assertEquals("Jazz", tags.genre);
+        assertTrue("read " + reader.getBytesRead() + " of " + file.length, reader.getBytesRead() < 512);
+    }
+
+    @Test
+    public void toleratesFilesWithoutTags() throws Exception {
+        assertTrue(read(new byte[0]).isEmpty());
+        assertTrue(read(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, 0x7f, 0x7f}).isEmpty());
+
+        SongTags tags = read(new Mp3Fixture(0).audioFrames(10).build());
+        assertNull(tags.title);
+        assertTrue(tags.durationMs > 0);
+    }
+
+    @Test
+    public void readsFrontCoverPicture() throws Exception {
+        byte[] back = {0, 'i', 'm', 'a', 'g', 'e', '/', 'p', 'n', 'g', 0, 4, 'b', 0, 1, 2};
+        byte[] front = {0, 'i', 'm', 'a', 'g', 'e', '/', 'j', 'p', 'e', 'g', 0, 3, 0, 9, 8, 7};
+        byte[] file = new Mp3Fixture(3)
+                .text("TALB", "Album")
+                .frame("APIC", back)
+                .frame("APIC", front)
+                .build();
+
+        Id3Reader.Picture picture = new Id3Reader(new ByteSource(file)).readPicture();
+
+        assertEquals("image/jpeg", picture.mimeType);
+        assertEquals(Id3Reader.Picture.TYPE_FRONT_COVER, picture.type);
+        assertArrayEquals(new byte[]{9, 8, 7}, picture.data);
+        assertNull(new Id3Reader(new ByteSource(new Mp3Fixture(3).text("TALB", "x").build())).readPicture());
+    }
+}
@@ -0,0 +1,91 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 7; i++) {
+            histogram.record(i);
+        }
+        assertEquals(4, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+        assertEquals(7, histogram.getMax());
+        assertEquals(4, histogram.getMean());
+    }
+
+    @Test
+    public void bucketsCoverEveryValueOnce() {
+        long previous = -1;
+        for (int bucket = 0; bucket < 64 * 8; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            if (upper < previous) {
+                break;
+            }
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void percentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            long value = (long) Math.exp(random.nextDouble() * 10);
+            values.add(value);
+            histogram.record(value);
+        }
+        Collections.sort(values);
+
+        for (double percentile : new double[]{50, 90, 99}) {
+            long exact = values.get((int) Math.ceil(values.size() * percentile / 100) - 1);
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported <= exact + exact / 8 + 1);
+        }
+    }
+
+    @Test
+    public void recordsFromManyThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i % 100 + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(102, histogram.getMax());
+    }
+}
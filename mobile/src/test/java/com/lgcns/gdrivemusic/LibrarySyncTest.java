@@ -0,0 +1,158 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LibrarySyncTest {
+
+    /**
+     * Stands in for Drive: a library of songs with modified dates that answers "modified since"
+     * queries, including that instant, and counts how many rows it had to hand back.
+     */
+    private static class FakeMetadataSource {
+        private final Map<String, LibrarySync.Entry> mEntries = new LinkedHashMap<>();
+        private long mClock = 1;
+        int mRowsReturned;
+
+        FakeMetadataSource(int size) {
+            for (int i = 0; i < size; i++) {
+                put("id-" + i, false);
+            }
+        }
+
+        void put(String id, boolean trashed) {
+            mEntries.put(id, entry(id, mClock++, trashed));
+        }
+
+        void delete(String id) {
+            mEntries.remove(id);
+        }
+
+        List<LibrarySync.Entry> all() {
+            mRowsReturned += mEntries.size();
+            return new ArrayList<>(mEntries.values());
+        }
+
+        List<LibrarySync.Entry> modifiedSince(long since) {
+            List<LibrarySync.Entry> result = new ArrayList<>();
+            for (LibrarySync.Entry entry : mEntries.values()) {
+                if (entry.mSong.getModified() >= since) {
+                    result.add(entry);
+                }
+            }
+            mRowsReturned += result.size();
+            return result;
+        }
+
+        private static LibrarySync.Entry entry(String id, long modified, boolean trashed) {
+            return new LibrarySync.Entry(new Song(id, "Title " + modified, "Artist", "Album", "Jazz",
+                    "http://", "http://", modified), trashed);
+        }
+    }
+
+    @Test
+    public void applyDelta_reportsAddsUpdatesAndRemoves() {
+        FakeMetadataSource source = new FakeMetadataSource(5);
+        LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+        assertEquals(5, sync.applyFull(source.all(), 100).getAdded().size());
+
+        source.put("id-1", false);
+        source.put("id-9", false);
+        source.put("id-3", true);
+        ChangeSet changes = sync.applyDelta(source.modifiedSince(sync.getSyncedAt()));
+
+        assertEquals(1, changes.getAdded().size());
+        assertEquals("id-9", changes.getAdded().get(0).getuId());
+        assertEquals(1, changes.getUpdated().size());
+        assertEquals("id-1", changes.getUpdated().get(0).getuId());
+        assertEquals(1, changes.getRemoved().size());
+        assertEquals("id-3", changes.getRemoved().get(0).getuId());
+        assertEquals(5, sync.getSongs().size());
+
+        assertTrue(sync.applyDelta(source.modifiedSince(sync.getSyncedAt())).isEmpty());
+    }
+
+    @Test
+    public void applyFull_dropsDeletedFiles() {
+        FakeMetadataSource source = new FakeMetadataSource(3);
+        LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+        sync.applyFull(source.all(), 100);
+
+        source.delete("id-0");
+        assertTrue(sync.applyDelta(source.modifiedSince(sync.getSyncedAt())).isEmpty());
+
+        ChangeSet changes = sync.applyFull(source.all(), 200);
+        assertEquals(1, changes.getRemoved().size());
+        assertEquals("id-0", changes.getRemoved().get(0).getuId());
+        assertEquals(200, sync.getFullSyncedAt());
+        assertFalse(sync.isFullSyncDue(300));
+        assertTrue(sync.isFullSyncDue(200 + LibrarySync.FULL_SYNC_INTERVAL));
+    }
+
+    @Test
+    public void replace_onlyTouchesCurrentRevisions() {
+        LibrarySync sync = new LibrarySync(Arrays.asList(
+                new Song("a", "a", null, null, null, null, null, 1),
+                new Song("b", "b", null, null, null, null, null, 2)), 2, 0);
+
+        ChangeSet changes = sync.replace(Arrays.asList(
+                new Song("a", "Tagged", "Artist", null, null, null, null, 1),
+                new Song("b", "Stale", "Artist", null, null, null, null, 1),
+                new Song("c", "Gone", "Artist", null, null, null, null, 1)));
+
+        assertEquals(1, changes.size());
+        assertEquals("Tagged", sync.getSongs().get(0).getTitle());
+        assertEquals("b", sync.getSongs().get(1).getTitle());
+    }
+
+    @Test
+    public void applyDelta_costScalesWithChangesNotLibrarySize() {
+        for (int size : new int[]{1000, 10000, 50000}) {
+            FakeMetadataSource source = new FakeMetadataSource(size);
+            LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+            sync.applyFull(source.all(), 1);
+            // settled into the table, as after a restart
+            sync.getSongs();
+
+            for (int i = 0; i < 10; i++) {
+                source.put("new-" + i, false);
+            }
+            source.mRowsReturned = 0;
+            List<LibrarySync.Entry> delta = source.modifiedSince(sync.getSyncedAt());
+            int rowsRead = sync.getRowsRead();
+            ChangeSet changes = sync.applyDelta(delta);
+
+            // the ten new files, and the last one seen again at the watermark
+            assertEquals(11, source.mRowsReturned);
+            // only that one is looked up in the table; the new ones are not in it
+            assertEquals(1, sync.getRowsRead() - rowsRead);
+            assertEquals(10, changes.size());
+            assertEquals(size + 10, sync.getSongs().size());
+        }
+    }
+
+    @Test
+    public void applyDelta_keepsFilesSavedInTheSameMillisecond() {
+        LibrarySync sync = new LibrarySync(Collections.<Song>emptyList(), 0, 0);
+        sync.applyFull(Collections.singletonList(new LibrarySync.Entry(
+                new Song("a", "a", null, null, null, null, null, 100), false)), 1);
+
+        // saved in the same millisecond as "a", but listed only after the previous query ran
+        ChangeSet changes = sync.applyDelta(Arrays.asList(
+                new LibrarySync.Entry(new Song("a", "a", null, null, null, null, null, 100), false),
+                new LibrarySync.Entry(new Song("b", "b", null, null, null, null, null, 100), false)));
+
+        assertEquals(1, changes.size());
+        assertEquals("b", changes.getAdded().get(0).getuId());
+        assertEquals(100, sync.getSyncedAt());
+        assertEquals(2, sync.getSongs().size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryLruCacheTest {
+
+    private static MemoryLruCache<String, byte[]> cache(long maxBytes) {
+        return new MemoryLruCache<String, byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    @Test
+    public void staysWithinByteBudget() {
+        MemoryLruCache<String, byte[]> cache = cache(1000);
+        for (int i = 0; i < 50; i++) {
+            cache.put("k" + i, new byte[64 + i]);
+            assertTrue(cache.getSize() <= 1000);
+        }
+        assertNotNull(cache.get("k49"));
+        assertNull(cache.get("k0"));
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        MemoryLruCache<String, byte[]> cache = cache(300);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", new byte[100]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(300, cache.getSize());
+    }
+
+    @Test
+    public void replacingAndOversizedValues() {
+        MemoryLruCache<String, byte[]> cache = cache(300);
+        cache.put("a", new byte[100]);
+        cache.put("a", new byte[200]);
+        assertEquals(200, cache.getSize());
+
+        cache.put("a", new byte[301]);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+}
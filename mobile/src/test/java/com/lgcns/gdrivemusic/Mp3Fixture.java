@@ -0,0 +1,280 @@
+package com.lgcns.gdrivemusic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Builds synthetic MP3 files: an optional ID3v2 tag, an optional Xing or VBRI header frame,
+ * MPEG-1 Layer III frames of silence at a constant or cycling bitrate and an optional ID3v1
+ * trailer.
+ */
+class Mp3Fixture {
+    /** 128 kbps, 44.1 kHz, no padding: 417 byte frames of 1152 samples. */
+    static final byte[] FRAME_HEADER = {(byte) 0xff, (byte) 0xfb, (byte) 0x90, 0x00};
+    static final int FRAME_SIZE = 417;
+    static final int SAMPLE_RATE = 44100;
+    static final int SAMPLES_PER_FRAME = 1152;
+    private static final int[] KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int HEADER_OFFSET = 36;
+    private static final int VBRI_FRAMES_PER_ENTRY = 10;
+
+    private final int mVersion;
+    private final ByteArrayOutputStream mFrames = new ByteArrayOutputStream();
+    private int mPadding;
+    private int mAudioFrames = 100;
+    private byte[] mV1;
+    private int[] mBitrates = {9};
+    private String mInfoHeader;
+    private int mGarbageAfter = -1;
+    private int mGarbageSize;
+    private long[] mFrameOffsets;
+
+    /**
+     * @param version ID3v2 major version, 2 to 4, or 0 for no ID3v2 tag
+     */
+    Mp3Fixture(int version) {
+        mVersion = version;
+    }
+
+    Mp3Fixture text(String id, String value) {
+        return text(id, 3, value.getBytes(Charset.forName("UTF-8")));
+    }
+
+    Mp3Fixture text(String id, int encoding, byte[] value) {
+        byte[] body = new byte[value.length + 1];
+        body[0] = (byte) encoding;
+        System.arraycopy(value, 0, body, 1, value.length);
+        return frame(id, body);
+    }
+
+    /**
+     * Adds an attached picture frame of {@code size} bytes, the bulk a header-only read skips.
+     */
+    Mp3Fixture picture(int size) {
+        byte[] body = new byte[size];
+        body[0] = 0;
+        byte[] mime = "image/jpeg".getBytes(Charset.forName("ISO-8859-1"));
+        System.arraycopy(mime, 0, body, 1, mime.length);
+        return frame(mVersion == 2 ? "PIC" : "APIC", body);
+    }
+
+    Mp3Fixture frame(String id, byte[] body) {
+        byte[] name = id.getBytes(Charset.forName("ISO-8859-1"));
+        mFrames.write(name, 0, name.length);
+        if (mVersion == 2) {
+            mFrames.write(body.length >> 16);
+            mFrames.write(body.length >> 8);
+            mFrames.write(body.length);
+        } else {
+            writeSize(mFrames, body.length, mVersion == 4);
+            mFrames.write(0);
+            mFrames.write(0);
+        }
+        mFrames.write(body, 0, body.length);
+        return this;
+    }
+
+    Mp3Fixture padding(int bytes) {
+        mPadding = bytes;
+        return this;
+    }
+
+    Mp3Fixture audioFrames(int count) {
+        mAudioFrames = count;
+        return this;
+    }
+
+    /**
+     * Cycles the audio frames through these bitrate indexes, e.g. 5, 9, 14 for 64, 128 and
+     * 320 kbps.
+     */
+    Mp3Fixture vbr(int... bitrateIndexes) {
+        mBitrates = bitrateIndexes;
+        return this;
+    }
+
+    /**
+     * Puts a Xing header frame, with a table of contents, before the audio.
+     */
+    Mp3Fixture xing() {
+        mInfoHeader = "Xing";
+        return this;
+    }
+
+    Mp3Fixture vbri() {
+        mInfoHeader = "VBRI";
+        return this;
+    }
+
+    /**
+     * Inserts {@code size} bytes that are not audio after audio frame {@code frame}, with a
+     * stray sync word among them.
+     */
+    Mp3Fixture garbage(int frame, int size) {
+        mGarbageAfter = frame;
+        mGarbageSize = size;
+        return this;
+    }
+
+    /**
+     * Where each audio frame of the last {@link #build()} starts, not counting a header frame.
+     */
+    long[] frameOffsets() {
+        return mFrameOffsets;
+    }
+
+    static long durationMs(int frames) {
+        return (long) frames * SAMPLES_PER_FRAME * 1000 / SAMPLE_RATE;
+    }
+
+    Mp3Fixture v1(String title, String artist, String album, int track, int genre) {
+        mV1 = new byte[128];
+        mV1[0] = 'T';
+        mV1[1] = 'A';
+        mV1[2] = 'G';
+        put(mV1, 3, title);
+        put(mV1, 33, artist);
+        put(mV1, 63, album);
+        mV1[125] = 0;
+        mV1[126] = (byte) track;
+        mV1[127] = (byte) genre;
+        return this;
+    }
+
+    byte[] build() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (mVersion != 0) {
+            int size = mFrames.size() + mPadding;
+            out.write('I');
+            out.write('D');
+            out.write('3');
+            out.write(mVersion);
+            out.write(0);
+            out.write(0);
+            writeSize(out, size, true);
+            byte[] frames = mFrames.toByteArray();
+            out.write(frames, 0, frames.length);
+            out.write(new byte[mPadding], 0, mPadding);
+        }
+        long infoStart = out.size();
+        byte[] info = mInfoHeader != null ? audioFrame(9) : null;
+        long position = infoStart + (info != null ? info.length : 0);
+        mFrameOffsets = new long[mAudioFrames];
+        for (int i = 0; i < mAudioFrames; i++) {
+            mFrameOffsets[i] = position;
+            position += frameLength(mBitrates[i % mBitrates.length]);
+            if (i == mGarbageAfter) {
+                position += mGarbageSize;
+            }
+        }
+        if (info != null) {
+            writeInfoHeader(info, infoStart, position);
+            out.write(info, 0, info.length);
+        }
+        for (int i = 0; i < mAudioFrames; i++) {
+            byte[] frame = audioFrame(mBitrates[i % mBitrates.length]);
+            out.write(frame, 0, frame.length);
+            if (i == mGarbageAfter) {
+                byte[] garbage = new byte[mGarbageSize];
+                System.arraycopy(FRAME_HEADER, 0, garbage, mGarbageSize / 2, FRAME_HEADER.length);
+                out.write(garbage, 0, garbage.length);
+            }
+        }
+        if (mV1 != null) {
+            out.write(mV1, 0, mV1.length);
+        }
+        return out.toByteArray();
+    }
+
+    File writeTo(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(build());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static int frameLength(int bitrateIndex) {
+        return 144000 * KBPS[bitrateIndex] / SAMPLE_RATE;
+    }
+
+    private static byte[] audioFrame(int bitrateIndex) {
+        byte[] frame = new byte[frameLength(bitrateIndex)];
+        System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+        frame[2] = (byte) (bitrateIndex << 4);
+        return frame;
+    }
+
+    private void writeInfoHeader(byte[] frame, long start, long end) {
+        long bytes = end - start;
+        int at = HEADER_OFFSET;
+        put(frame, at, mInfoHeader);
+        if (mInfoHeader.equals("Xing")) {
+            at = int32(frame, at + 4, 0x7);
+            at = int32(frame, at, mAudioFrames);
+            at = int32(frame, at, (int) bytes);
+            // the offset of every percent of the duration, in 1/256 of the file
+            for (int i = 0; i < 100; i++) {
+                long offset = mFrameOffsets[mAudioFrames * i / 100] - start;
+                frame[at++] = (byte) (offset * 256 / bytes);
+            }
+        } else {
+            int entries = (mAudioFrames + VBRI_FRAMES_PER_ENTRY - 1) / VBRI_FRAMES_PER_ENTRY;
+            at = int16(frame, at + 4, 1);
+            at = int16(frame, at, 0);
+            at = int16(frame, at, 100);
+            at = int32(frame, at, (int) bytes);
+            at = int32(frame, at, mAudioFrames);
+            at = int16(frame, at, entries);
+            at = int16(frame, at, 1);
+            at = int16(frame, at, 2);
+            at = int16(frame, at, VBRI_FRAMES_PER_ENTRY);
+            for (int i = 0; i < entries; i++) {
+                int first = i * VBRI_FRAMES_PER_ENTRY;
+                int next = first + VBRI_FRAMES_PER_ENTRY;
+                long from = mFrameOffsets[first];
+                long to = next < mAudioFrames ? mFrameOffsets[next] : end;
+                at = int16(frame, at, (int) (to - from));
+            }
+        }
+    }
+
+    private static int int32(byte[] b, int at, int value) {
+        b[at] = (byte) (value >> 24);
+        b[at + 1] = (byte) (value >> 16);
+        b[at + 2] = (byte) (value >> 8);
+        b[at + 3] = (byte) value;
+        return at + 4;
+    }
+
+    private static int int16(byte[] b, int at, int value) {
+        b[at] = (byte) (value >> 8);
+        b[at + 1] = (byte) value;
+        return at + 2;
+    }
+
+    private static void put(byte[] tag, int offset, String value) {
+        byte[] bytes = value.getBytes(Charset.forName("ISO-8859-1"));
+        System.arraycopy(bytes, 0, tag, offset, Math.min(30, bytes.length));
+    }
+
+    private static void writeSize(ByteArrayOutputStream out, int size, boolean syncsafe) {
+        if (syncsafe) {
+            out.write((size >> 21) & 0x7f);
+            out.write((size >> 14) & 0x7f);
+            out.write((size >> 7) & 0x7f);
+            out.write(size & 0x7f);
+        } else {
+            out.write(size >> 24);
+            out.write(size >> 16);
+            out.write(size >> 8);
+            out.write(size);
+        }
+    }
+}
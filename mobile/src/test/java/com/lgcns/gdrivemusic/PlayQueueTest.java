@@ -0,0 +1,212 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PlayQueueTest {
+
+    private static List<Song> album(int size) {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            songs.add(new Song("id-" + i, "Track " + i, "Artist", "Album", "Jazz", null, null));
+        }
+        return songs;
+    }
+
+    @Test
+    public void startingAt_positionsOnRequestedSong() {
+        PlayQueue queue = PlayQueue.startingAt(album(5), "id-3");
+
+        assertEquals(3, queue.getIndex());
+        assertEquals("id-3", queue.getCurrent().getuId());
+        assertEquals("id-4", queue.peekNext().getuId());
+    }
+
+    @Test
+    public void nextAndPrevious_stayWithinQueue() {
+        PlayQueue queue = PlayQueue.startingAt(album(3), "id-1");
+
+        assertEquals("id-2", queue.next().getuId());
+        assertFalse(queue.hasNext());
+        assertNull(queue.next());
+        assertEquals(2, queue.getIndex());
+
+        assertEquals("id-1", queue.previous().getuId());
+        assertEquals("id-0", queue.previous().getuId());
+        assertEquals("id-0", queue.previous().getuId());
+    }
+
+    @Test
+    public void skipTo_ignoresUnknownItems() {
+        PlayQueue queue = PlayQueue.startingAt(album(3), "id-0");
+
+        assertEquals("id-2", queue.skipTo(2).getuId());
+        assertNull(queue.skipTo(3));
+        assertEquals(2, queue.getIndex());
+    }
+
+    @Test
+    public void emptyQueue_hasNothingToPlay() {
+        PlayQueue queue = new PlayQueue();
+
+        assertNull(queue.getCurrent());
+        assertNull(queue.next());
+        assertNull(queue.previous());
+        assertEquals(-1, queue.getIndex());
+    }
+
+    @Test
+    public void shuffled_playsEverySongOnceAndThenEnds() {
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, album(300)), 17, false);
+
+        Set<String> played = new HashSet<>();
+        played.add(queue.getCurrent().getuId());
+        while (queue.hasNext()) {
+            assertTrue(played.add(queue.next().getuId()));
+        }
+        assertEquals(300, played.size());
+        assertEquals(299, queue.getIndex());
+        assertNull(queue.next());
+        assertNull(queue.get(300));
+    }
+
+    @Test
+    public void shuffled_repeatStartsANewOrder() {
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, album(50)), 3, true);
+
+        Set<String> second = new HashSet<>();
+        List<String> first = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            first.add(queue.get(i).getuId());
+            second.add(queue.get(50 + i).getuId());
+        }
+        assertEquals(50, second.size());
+        assertNotEquals(first, orderOf(queue, 50, 50));
+        assertEquals(first.get(49), queue.skipTo(49).getuId());
+        assertTrue(queue.hasNext());
+        assertEquals(queue.get(50).getuId(), queue.next().getuId());
+        assertEquals(first.get(49), queue.previous().getuId());
+    }
+
+    @Test
+    public void shuffled_copySharesTheOrder() {
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, album(20)), 8, false);
+        queue.skipTo(5);
+
+        PlayQueue copy = queue.copy();
+        assertEquals(5, copy.getIndex());
+        assertEquals(queue.peekNext().getuId(), copy.next().getuId());
+        assertEquals(5, queue.getIndex());
+    }
+
+    @Test
+    public void restore_findsTheSongAgainFromSeedAndPosition() {
+        Catalog catalog = new Catalog(1, album(100));
+        PlayQueue queue = PlayQueue.shuffled(catalog, 11, false);
+        String id = queue.skipTo(40).getuId();
+
+        PlayQueue restored = PlayQueue.shuffled(catalog, 11, false);
+        assertEquals(id, restored.restore(40, id).getuId());
+        assertEquals(40, restored.getIndex());
+        assertEquals(queue.peekNext().getuId(), restored.peekNext().getuId());
+    }
+
+    @Test
+    public void rebase_keepsTheCurrentSongInARefreshedCatalog() {
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, album(100)), 5, false);
+        String id = queue.skipTo(30).getuId();
+
+        PlayQueue same = queue.rebase(new Catalog(2, album(100)));
+        assertEquals(30, same.getIndex());
+        assertEquals(queue.peekNext().getuId(), same.peekNext().getuId());
+
+        PlayQueue grown = queue.rebase(new Catalog(3, album(120)));
+        assertEquals(id, grown.getCurrent().getuId());
+        assertEquals(120, grown.size());
+
+        List<Song> shrunk = album(100);
+        shrunk.remove(Integer.parseInt(id.substring(3)));
+        assertNull(queue.rebase(new Catalog(4, shrunk)));
+        assertNull(new PlayQueue(album(3), 0).rebase(new Catalog(5, album(3))));
+    }
+
+    @Test
+    public void rebase_keepsThePassWhenASyncMovesRows() {
+        LibrarySync sync = new LibrarySync(album(100), 1, 1);
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, sync.getSongs()), 21, false);
+        String current = queue.skipTo(30).getuId();
+        List<String> rest = remaining(queue.copy());
+        String removed = rest.get(10);
+
+        // one removal and one addition: the same size, with every later row moved up
+        Song added = new Song("id-new", "New", "Artist", "Album", "Jazz", null, null, 2);
+        sync.applyDelta(Arrays.asList(new LibrarySync.Entry(queue.get(queue.nextPosition(40)), true),
+                new LibrarySync.Entry(added, false)));
+        assertEquals(100, sync.getSongs().size());
+        PlayQueue rebased = queue.rebase(new Catalog(2, sync.getSongs()));
+
+        assertEquals(current, rebased.getCurrent().getuId());
+        assertEquals(30, rebased.getIndex());
+        List<String> expected = new ArrayList<>(rest);
+        expected.remove(removed);
+        expected.add(added.getuId());
+        assertEquals(expected, remaining(rebased));
+        assertFalse(rebased.hasNext());
+    }
+
+    @Test
+    public void rebase_laterPassesShuffleTheNewCatalog() {
+        LibrarySync sync = new LibrarySync(album(50), 1, 1);
+        PlayQueue queue = PlayQueue.shuffled(new Catalog(1, sync.getSongs()), 4, true);
+        queue.skipTo(60);
+        List<String> rest = orderOf(queue, 61, 39);
+
+        Song added = new Song("id-new", "New", "Artist", "Album", "Jazz", null, null, 2);
+        sync.applyDelta(Arrays.asList(new LibrarySync.Entry(queue.get(70), true),
+                new LibrarySync.Entry(added, false)));
+        PlayQueue rebased = queue.rebase(new Catalog(2, sync.getSongs()));
+
+        // the rest of the second pass less the removed song, then the new one
+        List<String> played = new ArrayList<>();
+        for (int i = 0; i < 39; i++) {
+            played.add(rebased.next().getuId());
+        }
+        assertEquals(100, rebased.getIndex());
+        List<String> expected = new ArrayList<>(rest);
+        expected.remove(10 - 1);
+        expected.add(added.getuId());
+        assertEquals(expected, played);
+
+        Set<String> third = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(third.add(rebased.next().getuId()));
+        }
+        assertTrue(third.contains(added.getuId()));
+        assertEquals(orderOf(queue, 50, 10), orderOf(rebased, 50, 10));
+        assertNull(rebased.get(70));
+        assertEquals(71, rebased.nextPosition(69));
+    }
+
+    private static List<String> remaining(PlayQueue queue) {
+        List<String> ids = new ArrayList<>();
+        while (queue.hasNext()) {
+            ids.add(queue.next().getuId());
+        }
+        return ids;
+    }
+
+    private static List<String> orderOf(PlayQueue queue, int from, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            ids.add(queue.get(i).getuId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,154 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlaybackJournalTest {
+    private static final long WAIT_MS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "playback.bin");
+    }
+
+    private static List<Song> queue(int count) {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            songs.add(new Song("id" + i, "Song " + i, "Artist", "Album", null, null, null, 1000 + i));
+        }
+        return songs;
+    }
+
+    @Test
+    public void restoresQueueAndPosition() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.commit(new PlaybackJournal.State(queue(3), 1, 42000, 123456789L));
+        assertTrue(journal.close(WAIT_MS));
+
+        PlaybackJournal.State state = new PlaybackJournal(mFile, 60000).load();
+        assertEquals(3, state.queue.size());
+        assertEquals("id1", state.getCurrent().getuId());
+        assertEquals(1001, state.getCurrent().getModified());
+        assertEquals(42000, state.positionMs);
+        assertEquals(123456789L, state.savedAt);
+        assertNull(state.shuffle);
+    }
+
+    @Test
+    public void coalescesCheckpoints() throws Exception {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 200);
+        List<Song> songs = queue(3);
+        for (int i = 0; i < 100; i++) {
+            journal.checkpoint(new PlaybackJournal.State(songs, 0, i * 100, i));
+        }
+        Thread.sleep(500);
+
+        assertEquals(1, journal.getWriteCount());
+        assertEquals(9900, journal.load().positionMs);
+        assertTrue(journal.close(WAIT_MS));
+        assertEquals(1, journal.getWriteCount());
+    }
+
+    @Test
+    public void closeWritesPendingCheckpoint() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.checkpoint(new PlaybackJournal.State(queue(2), 1, 5000, 1));
+        assertNull(journal.load());
+
+        assertTrue(journal.close(WAIT_MS));
+        assertEquals(5000, journal.load().positionMs);
+    }
+
+    @Test
+    public void keepsSongsAroundTheCurrentOneOfALongQueue() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.commit(new PlaybackJournal.State(queue(2000), 1500, 0, 1));
+        assertTrue(journal.close(WAIT_MS));
+
+        PlaybackJournal.State state = journal.load();
+        assertEquals(PlaybackJournal.MAX_QUEUE, state.queue.size());
+        assertEquals("id1500", state.getCurrent().getuId());
+    }
+
+    @Test
+    public void restoresAShuffleFromItsSeedAndPosition() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        Song current = queue(1).get(0);
+        journal.commit(PlaybackJournal.State.shuffled(current, new PlaybackJournal.Shuffle(-99L, 123456, true), 3000, 1));
+        assertTrue(journal.close(WAIT_MS));
+
+        PlaybackJournal.State state = journal.load();
+        assertEquals(1, state.queue.size());
+        assertEquals("id0", state.getCurrent().getuId());
+        assertEquals(-99L, state.shuffle.seed);
+        assertEquals(123456, state.shuffle.position);
+        assertTrue(state.shuffle.repeat);
+        assertEquals(3000, state.positionMs);
+    }
+
+    @Test
+    public void ignoresMissingOrDamagedJournal() throws Exception {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        assertNull(journal.load());
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{0x47, 0x44, 0x4d, 0x4a, 0, 0});
+        out.close();
+        assertNull(journal.load());
+        assertTrue(journal.close(WAIT_MS));
+    }
+
+    @Test
+    public void interruptedWriteLeavesPreviousState() throws Exception {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.commit(new PlaybackJournal.State(queue(2), 0, 7000, 1));
+        assertTrue(journal.close(WAIT_MS));
+
+        // a crash after the temporary file was started
+        FileOutputStream out = new FileOutputStream(new File(mFile.getPath() + ".tmp"));
+        out.write(1);
+        out.close();
+
+        assertEquals(7000, new PlaybackJournal(mFile, 60000).load().positionMs);
+    }
+
+    @Test
+    public void savesAfterCloseAreIgnored() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.commit(new PlaybackJournal.State(queue(2), 0, 7000, 1));
+        assertTrue(journal.close(WAIT_MS));
+
+        // callbacks still queued when the service goes away
+        journal.commit(new PlaybackJournal.State(queue(2), 1, 8000, 2));
+        journal.checkpoint(new PlaybackJournal.State(queue(2), 1, 9000, 3));
+        assertTrue(journal.close(WAIT_MS));
+
+        assertEquals(1, journal.getWriteCount());
+        assertEquals(7000, journal.load().positionMs);
+    }
+
+    @Test
+    public void closeDoesNotWaitForAWaitingCheckpoint() {
+        PlaybackJournal journal = new PlaybackJournal(mFile, 60000);
+        journal.checkpoint(new PlaybackJournal.State(queue(2), 1, 5000, 1));
+
+        // the checkpoint is a minute away; the final write saves it instead
+        assertTrue(journal.close(WAIT_MS));
+        assertEquals(1, journal.getWriteCount());
+        assertEquals(5000, journal.load().positionMs);
+    }
+}
@@ -0,0 +1,52 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PlaybackMetricsTest {
+
+    @Test
+    public void reportsPercentilesAndCounters() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(PlaybackMetrics.Stage.TIME_TO_FIRST_AUDIO, i * 10);
+        }
+        metrics.record(PlaybackMetrics.Stage.REBUFFER, 1500);
+        metrics.onRebufferStarted();
+        metrics.onCacheLookup(true);
+        metrics.onCacheLookup(true);
+        metrics.onCacheLookup(true);
+        metrics.onCacheLookup(false);
+        metrics.addBytesFetched(4096);
+
+        Map<String, Long> values = metrics.toMap();
+        assertEquals(100, (long) values.get("time_to_first_audio_count"));
+        long p50 = values.get("time_to_first_audio_p50_ms");
+        assertTrue("p50 " + p50, p50 >= 500 && p50 <= 500 + 500 / 8);
+        assertEquals(1000, (long) values.get("time_to_first_audio_max_ms"));
+        assertEquals(0, (long) values.get("open_count"));
+        assertEquals(1, (long) values.get("rebuffers"));
+        assertEquals(1500, (long) values.get("rebuffer_max_ms"));
+        assertEquals(4096, (long) values.get("bytes_fetched"));
+        assertEquals(75, (long) values.get("cache_hit_rate_percent"));
+    }
+
+    @Test
+    public void dumpsEveryStage() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        metrics.record(PlaybackMetrics.Stage.PREPARE, 42);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+        String dump = out.toString();
+        for (PlaybackMetrics.Stage stage : PlaybackMetrics.Stage.values()) {
+            assertTrue(dump, dump.contains(stage.name().toLowerCase()));
+        }
+        assertTrue(dump, dump.contains("n=1 p50=42"));
+    }
+}
@@ -0,0 +1,143 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStateMachineTest {
+
+    /** Opens a stream and plays it until it stalls, as the engine does. */
+    private static PlaybackStateMachine stalled() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        states.setPlayWhenReady(true);
+        states.open();
+        states.setState(PlaybackEngine.State.BUFFERING);
+        assertTrue(states.onPrepared());
+        assertTrue(states.onUnderrun());
+        assertEquals(PlaybackEngine.State.BUFFERING, states.getState());
+        return states;
+    }
+
+    @Test
+    public void rebufferingResumesPlayback() {
+        PlaybackStateMachine states = stalled();
+
+        assertTrue(states.onRebuffered());
+        assertEquals(PlaybackEngine.State.PLAYING, states.getState());
+    }
+
+    @Test
+    public void pauseDuringAStallPausesThePlayer() {
+        PlaybackStateMachine states = stalled();
+
+        assertTrue(states.pause());
+        assertEquals(PlaybackEngine.State.PAUSED, states.getState());
+        assertTrue(states.isPrepared());
+
+        // the data arriving must not start the sound again
+        assertFalse(states.onRebuffered());
+        assertEquals(PlaybackEngine.State.PAUSED, states.getState());
+        assertFalse(states.onUnderrun());
+
+        states.setPlayWhenReady(true);
+        assertTrue(states.start());
+        assertEquals(PlaybackEngine.State.PLAYING, states.getState());
+    }
+
+    @Test
+    public void underrunsWhilePreparingAreNotStalls() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        states.setPlayWhenReady(true);
+        states.open();
+        states.setState(PlaybackEngine.State.BUFFERING);
+
+        assertFalse(states.onUnderrun());
+        assertFalse(states.onRebuffered());
+        assertEquals(PlaybackEngine.State.BUFFERING, states.getState());
+        assertFalse(states.isPrepared());
+
+        // nothing to pause yet; the player is held once prepared
+        assertFalse(states.pause());
+        assertEquals(PlaybackEngine.State.BUFFERING, states.getState());
+        assertFalse(states.onPrepared());
+        assertEquals(PlaybackEngine.State.PAUSED, states.getState());
+    }
+
+    @Test
+    public void pauseDuringOpeningHoldsThePreparedPlayerPaused() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        states.setPlayWhenReady(true);
+        states.open();
+        assertEquals(PlaybackEngine.State.OPENING, states.getState());
+
+        assertFalse(states.pause());
+        assertEquals(PlaybackEngine.State.OPENING, states.getState());
+
+        // prepared, it is paused rather than waiting to start, so nothing shows it buffering
+        assertFalse(states.onPrepared());
+        assertEquals(PlaybackEngine.State.PAUSED, states.getState());
+        assertTrue(states.isPrepared());
+        assertFalse(states.isStarted());
+
+        states.setPlayWhenReady(true);
+        assertTrue(states.start());
+        assertEquals(PlaybackEngine.State.PLAYING, states.getState());
+        assertTrue(states.isStarted());
+    }
+
+    @Test
+    public void preparedPlayerStartsWhenTheUserWantsSound() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        states.setPlayWhenReady(true);
+        states.open();
+
+        assertTrue(states.onPrepared());
+        assertEquals(PlaybackEngine.State.PLAYING, states.getState());
+    }
+
+    @Test
+    public void reopeningForgetsThatThePlayerStarted() {
+        PlaybackStateMachine states = stalled();
+
+        states.open();
+        states.setState(PlaybackEngine.State.BUFFERING);
+        assertFalse(states.isStarted());
+        assertFalse(states.onRebuffered());
+        assertEquals(PlaybackEngine.State.BUFFERING, states.getState());
+    }
+
+    @Test
+    public void staleOpensAreDropped() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        int first = states.open();
+        int second = states.open();
+
+        assertFalse(states.isCurrent(first));
+        assertFalse(states.fail(first));
+        assertEquals(PlaybackEngine.State.OPENING, states.getState());
+
+        assertTrue(states.fail(second));
+        assertEquals(PlaybackEngine.State.ERROR, states.getState());
+    }
+
+    @Test
+    public void stopMakesTheOpenInFlightStale() {
+        PlaybackStateMachine states = new PlaybackStateMachine();
+        int generation = states.open();
+        states.invalidate();
+        states.setState(PlaybackEngine.State.IDLE);
+
+        assertFalse(states.fail(generation));
+        assertEquals(PlaybackEngine.State.IDLE, states.getState());
+    }
+
+    @Test
+    public void chainedNextPlayerCountsAsStarted() {
+        PlaybackStateMachine states = stalled();
+        assertTrue(states.onRebuffered());
+
+        states.onNextStarted();
+        assertTrue(states.isStarted());
+        assertTrue(states.onUnderrun());
+    }
+}
@@ -0,0 +1,149 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PrefetchPolicyTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class FakeClock implements PrefetchPolicy.Clock {
+        long mNow = 1000000L;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+    }
+
+    private static class FakeConditions implements PrefetchPolicy.Conditions {
+        boolean mUnmetered = true;
+        boolean mCharging = true;
+
+        @Override
+        public boolean isUnmetered() {
+            return mUnmetered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return mCharging;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+    private final FakeConditions mConditions = new FakeConditions();
+    private AudioCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new AudioCache(mFolder.getRoot(), 1024 * 1024);
+    }
+
+    private static List<Song> songs(int count, long size) {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Song song = new Song("id" + i, "Song " + i, null, "Album", null, null, null, 1);
+            song.setSize(size);
+            songs.add(song);
+        }
+        return songs;
+    }
+
+    @Test
+    public void runsOnlyOnUnmeteredNetworkWhileCharging() {
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 1000);
+        assertTrue(policy.shouldStart(10, mClock.now()));
+
+        mConditions.mUnmetered = false;
+        assertFalse(policy.shouldStart(10, mClock.now()));
+
+        mConditions.mUnmetered = true;
+        mConditions.mCharging = false;
+        assertFalse(policy.shouldStart(10, mClock.now()));
+    }
+
+    @Test
+    public void defersSmallBatchesUntilDue() {
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 1000);
+        long since = mClock.now();
+
+        assertFalse(policy.shouldStart(PrefetchPolicy.MIN_BATCH - 1, since));
+        assertTrue(policy.shouldStart(PrefetchPolicy.MIN_BATCH, since));
+        assertFalse(policy.shouldStart(0, since));
+        assertEquals(PrefetchPolicy.MAX_DEFER_MS, policy.delayUntilDue(since));
+
+        mClock.mNow += PrefetchPolicy.MAX_DEFER_MS;
+        assertTrue(policy.shouldStart(1, since));
+        assertEquals(0, policy.delayUntilDue(since));
+    }
+
+    @Test
+    public void stopsBeforeTheRunLimitOrWhenConditionsChange() {
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 1000);
+        long startedAt = mClock.now();
+        assertTrue(policy.shouldContinue(startedAt));
+
+        mClock.mNow += PrefetchPolicy.MAX_RUN_MS;
+        assertFalse(policy.shouldContinue(startedAt));
+
+        mConditions.mCharging = false;
+        assertFalse(policy.shouldContinue(mClock.now()));
+    }
+
+    @Test
+    public void planKeepsWithinBudget() {
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 350);
+        List<Song> wanted = songs(5, 100);
+        wanted.get(4).setSize(50);
+
+        PrefetchPolicy.Plan plan = policy.plan(wanted, mCache);
+
+        // three songs of 100 bytes, the fourth would overflow, the 50 byte one still fits
+        assertEquals(4, plan.toFetch.size());
+        assertEquals("id4", plan.toFetch.get(3).getuId());
+        assertEquals(350, plan.bytes);
+        assertEquals(4, plan.keep.size());
+    }
+
+    @Test
+    public void resumesWithSongsStillMissing() throws Exception {
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 10000);
+        List<Song> wanted = songs(6, 100);
+        PrefetchPolicy.Plan first = policy.plan(wanted, mCache);
+        assertEquals(6, first.toFetch.size());
+
+        // an interrupted run that got through two files
+        for (Song song : first.toFetch.subList(0, 2)) {
+            mCache.put(AudioCache.key(song.getuId(), song.getModified()), new ByteArrayInputStream(new byte[100]));
+        }
+        PrefetchPolicy.Plan resumed = policy.plan(wanted, mCache);
+
+        assertEquals(4, resumed.toFetch.size());
+        assertEquals("id2", resumed.toFetch.get(0).getuId());
+        assertEquals(6, resumed.keep.size());
+    }
+
+    @Test
+    public void keptSongsSurviveCacheEviction() throws Exception {
+        AudioCache cache = new AudioCache(mFolder.newFolder("small"), 250);
+        PrefetchPolicy policy = new PrefetchPolicy(mClock, mConditions, 10000);
+        List<Song> wanted = songs(3, 100);
+        for (Song song : wanted) {
+            cache.put(AudioCache.key(song.getuId(), song.getModified()), new ByteArrayInputStream(new byte[100]));
+            cache.setPinned(PrefetchScheduler.PIN_OFFLINE, policy.plan(wanted, cache).keep);
+        }
+        cache.put("streamed", new ByteArrayInputStream(new byte[100]));
+
+        assertTrue(policy.plan(wanted, cache).toFetch.isEmpty());
+        assertFalse(cache.contains("streamed"));
+    }
+}
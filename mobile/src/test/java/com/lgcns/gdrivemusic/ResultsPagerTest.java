@@ -0,0 +1,94 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultsPagerTest {
+
+    private static class FakeSource implements ResultsPager.Source {
+        final int mSize;
+        int mReads;
+        boolean mReleased;
+
+        FakeSource(int size) {
+            mSize = size;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public Song get(int position) {
+            mReads++;
+            return new Song("id" + position, "Song " + position, null, null, null, null, null, position);
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+    }
+
+    @Test
+    public void loadsOnePageAtATime() {
+        ResultsPager pager = new ResultsPager(10);
+        FakeSource source = new FakeSource(25);
+
+        assertEquals(10, pager.replace(source).size());
+        assertEquals(10, source.mReads);
+        assertTrue(pager.hasMore());
+
+        assertEquals(20, pager.nextPage().size());
+        List<Song> rows = pager.nextPage();
+        assertEquals(25, rows.size());
+        assertEquals("id24", rows.get(24).getuId());
+        assertEquals(25, source.mReads);
+        assertFalse(pager.hasMore());
+        assertSame(rows, pager.nextPage());
+    }
+
+    @Test
+    public void snapshotsAreNotChangedByLaterPages() {
+        ResultsPager pager = new ResultsPager(10);
+        List<Song> first = pager.replace(new FakeSource(25));
+        pager.nextPage();
+
+        assertEquals(10, first.size());
+    }
+
+    @Test
+    public void replaceKeepsDepthAndReleasesOldResults() {
+        ResultsPager pager = new ResultsPager(10);
+        FakeSource old = new FakeSource(100);
+        pager.replace(old);
+        pager.nextPage();
+        pager.nextPage();
+
+        FakeSource fresh = new FakeSource(100);
+        assertEquals(30, pager.replace(fresh).size());
+        assertTrue(old.mReleased);
+        assertFalse(fresh.mReleased);
+
+        assertEquals(5, pager.replace(new FakeSource(5)).size());
+        assertTrue(fresh.mReleased);
+        assertFalse(pager.hasMore());
+    }
+
+    @Test
+    public void clearReleases() {
+        ResultsPager pager = new ResultsPager(10);
+        FakeSource source = new FakeSource(5);
+        pager.replace(source);
+        pager.clear();
+
+        assertTrue(source.mReleased);
+        assertTrue(pager.getRows().isEmpty());
+        assertFalse(pager.hasMore());
+        assertTrue(pager.nextPage().isEmpty());
+    }
+}
@@ -0,0 +1,162 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+    private static Song song(String id, String title, String artist, String album) {
+        return new Song(id, title, artist, album, null, null, null, 1);
+    }
+
+    private static List<String> ids(List<Song> songs) {
+        List<String> ids = new ArrayList<>();
+        for (Song song : songs) {
+            ids.add(song.getuId());
+        }
+        return ids;
+    }
+
+    private static SearchIndex index(Song... songs) {
+        SearchIndex index = new SearchIndex();
+        index.update(Arrays.asList(songs));
+        return index;
+    }
+
+    @Test
+    public void foldsCaseAndAccents() {
+        assertArrayEquals(new String[]{"beyonce", "deja", "vu"}, SearchIndex.tokenize("Beyonc\u00e9 - D\u00c9J\u00c0 Vu"));
+        assertArrayEquals(new String[]{"motley", "crue", "1981"}, SearchIndex.tokenize("  M\u00f6tley Cr\u00fce (1981)"));
+        assertEquals(0, SearchIndex.tokenize(" -- ").length);
+        assertEquals(0, SearchIndex.tokenize(null).length);
+    }
+
+    @Test
+    public void matchesLastTokenAsPrefix() {
+        SearchIndex index = index(
+                song("1", "Yellow Submarine", "The Beatles", "Yellow Submarine"),
+                song("2", "Yesterday", "The Beatles", "Help!"),
+                song("3", "Dej\u00e0 Vu", "Beyonc\u00e9", "B'Day"));
+
+        assertEquals(Arrays.asList("1", "2"), ids(index.search("ye", 10)));
+        assertEquals(Collections.singletonList("3"), ids(index.search("BEYON", 10)));
+        assertEquals(Collections.singletonList("2"), ids(index.search("beatles yes", 10)));
+        assertTrue(index.search("beat yes", 10).isEmpty());
+        assertTrue(index.search("zeppelin", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    public void ranksTitleAboveArtistAboveAlbum() {
+        SearchIndex index = index(
+                song("album", "Intro", "Someone", "Blue"),
+                song("artist", "Outro", "Blue", "Other"),
+                song("title", "Blue", "Someone", "Other"),
+                song("prefix", "Bluebird", "Someone", "Other"));
+
+        assertEquals(Arrays.asList("title", "artist", "prefix", "album"), ids(index.search("blue", 10)));
+        assertEquals(Arrays.asList("title", "artist"), ids(index.search("blue", 2)));
+    }
+
+    @Test
+    public void updatesOnlyChangedSongs() {
+        Song first = song("1", "Untitled", null, null);
+        Song second = song("2", "Hello", "Adele", "25");
+        SearchIndex index = new SearchIndex();
+        assertEquals(2, index.update(Arrays.asList(first, second)));
+        assertEquals(0, index.update(Arrays.asList(first, second)));
+
+        // tags arrive for the first song, the second one is deleted from Drive
+        Song tagged = song("1", "Rolling in the Deep", "Adele", "21");
+        assertEquals(2, index.update(Collections.singletonList(tagged)));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("untitled", 10).isEmpty());
+        assertTrue(index.search("hello", 10).isEmpty());
+        assertEquals(Collections.singletonList("1"), ids(index.search("adele roll", 10)));
+    }
+
+    @Test
+    public void broadPrefixRanksPastTheFirstMatches() {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            songs.add(song("album" + i, "Track " + i, "Band", "Anthem " + i));
+        }
+        songs.add(song("title", "Aurora", "Band", "Live"));
+        SearchIndex index = new SearchIndex();
+        index.update(songs);
+
+        // two thousand album matches come first in the trie; the title match still wins
+        List<Song> matches = index.search("a", 10);
+        assertEquals(10, matches.size());
+        assertEquals("title", matches.get(0).getuId());
+    }
+
+    @Test
+    public void queriesOn100kSongsScoreFewCandidates() {
+        Random random = new Random(7);
+        String[] words = new String[5000];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(7);
+            for (int c = 0; c < length; c++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            String artist = "Artist " + words[random.nextInt(500)];
+            String album = words[random.nextInt(words.length)] + " " + (i % 20);
+            songs.add(song("id" + i, title, artist, album));
+        }
+
+        SearchIndex index = new SearchIndex();
+        index.update(songs);
+        List<Song> changed = new ArrayList<>(songs);
+        for (int i = 0; i < 100; i++) {
+            changed.set(i, song("id" + i, "Retagged " + i, "Artist", "Album"));
+        }
+        assertEquals(100, index.update(changed));
+
+        int visited = 0;
+        int found = 0;
+        for (int i = 0; i < 400; i++) {
+            String word = words[random.nextInt(words.length)];
+            String query;
+            switch (i % 4) {
+                case 0:
+                    // every song has a token starting with "a"
+                    query = word.substring(0, 1);
+                    break;
+                case 1:
+                    query = word.substring(0, 3);
+                    break;
+                case 2:
+                    query = word;
+                    break;
+                default:
+                    query = "artist " + words[random.nextInt(500)].substring(0, 2);
+                    break;
+            }
+
+            List<Song> matches = index.search(query, 50);
+            visited = Math.max(visited, index.getVisitedCount());
+            found += matches.size();
+            // stopping early must not change what ranks first
+            List<Song> all = index.search(query, Integer.MAX_VALUE);
+            assertEquals(query, ids(all.subList(0, Math.min(50, all.size()))), ids(matches));
+        }
+
+        assertTrue(found > 0);
+        assertTrue("a query scored " + visited + " candidates", visited < songs.size() / 20);
+    }
+}
@@ -0,0 +1,171 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SeekTableTest {
+    private static final int INTERVAL = SeekTable.DEFAULT_INTERVAL_MS;
+    private static final int FRAMES = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** The index of the frame playing at {@code timeMs}. */
+    private static int frameAt(long timeMs) {
+        return (int) (timeMs * Mp3Fixture.SAMPLE_RATE / (Mp3Fixture.SAMPLES_PER_FRAME * 1000L));
+    }
+
+    private static SeekTable scan(byte[] file) throws Exception {
+        Id3ReaderTest.ByteSource source = new Id3ReaderTest.ByteSource(file);
+        long audioStart = new Id3Reader(source).getAudioStart();
+        return new SeekTableBuilder(source).scan(audioStart, INTERVAL);
+    }
+
+    private static SeekTable readHeader(byte[] file) throws Exception {
+        return new SeekTableBuilder(new Id3ReaderTest.ByteSource(file)).readHeader(0, file.length, INTERVAL);
+    }
+
+    @Test
+    public void scanFindsTheFrameOfEveryEntry() throws Exception {
+        Mp3Fixture fixture = new Mp3Fixture(3).text("TIT2", "Song").vbr(5, 9, 14, 11).audioFrames(FRAMES);
+        SeekTable table = scan(fixture.build());
+
+        assertTrue(table.isExact());
+        assertEquals(Mp3Fixture.durationMs(FRAMES), table.getDurationMs());
+        long[] offsets = fixture.frameOffsets();
+        for (long time = 0; time < table.getDurationMs(); time += 37) {
+            long entry = table.timeFor(time);
+            assertTrue(entry <= time && time - entry < INTERVAL);
+            assertEquals("at " + time, offsets[frameAt(entry)], table.offsetFor(time));
+        }
+        // past the end, the last entry
+        assertEquals(table.offsetFor(table.getDurationMs() - 1), table.offsetFor(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void scanSkipsHeaderFrameAndTrailer() throws Exception {
+        Mp3Fixture fixture = new Mp3Fixture(4).padding(300).vbr(5, 14).xing().audioFrames(FRAMES)
+                .v1("Title", "Artist", "Album", 1, 2);
+        SeekTable table = scan(fixture.build());
+
+        assertEquals(fixture.frameOffsets()[0], table.offsetFor(0));
+        assertEquals(Mp3Fixture.durationMs(FRAMES), table.getDurationMs());
+    }
+
+    @Test
+    public void scanResyncsAfterGarbage() throws Exception {
+        Mp3Fixture fixture = new Mp3Fixture(0).vbr(9, 12).garbage(400, 700).audioFrames(FRAMES);
+        SeekTable table = scan(fixture.build());
+
+        long[] offsets = fixture.frameOffsets();
+        assertEquals(Mp3Fixture.durationMs(FRAMES), table.getDurationMs());
+        for (long time = 0; time < table.getDurationMs(); time += INTERVAL) {
+            assertEquals("at " + time, offsets[frameAt(time)], table.offsetFor(time));
+        }
+    }
+
+    @Test
+    public void scanCanStopAtAPosition() throws Exception {
+        byte[] file = new Mp3Fixture(0).vbr(5, 14).audioFrames(FRAMES).build();
+        Id3ReaderTest.ByteSource source = new Id3ReaderTest.ByteSource(file);
+        SeekTable partial = new SeekTableBuilder(source).scan(0, 5000, INTERVAL);
+
+        assertEquals(scan(file).offsetFor(5000), partial.offsetFor(5000));
+        assertTrue(partial.getDurationMs() < Mp3Fixture.durationMs(FRAMES));
+    }
+
+    @Test
+    public void xingTableOfContentsGivesCloseOffsets() throws Exception {
+        Mp3Fixture fixture = new Mp3Fixture(3).text("TIT2", "Song").vbr(5, 9, 14, 11).xing().audioFrames(FRAMES);
+        byte[] file = fixture.build();
+        long audioStart = new Id3Reader(new Id3ReaderTest.ByteSource(file)).getAudioStart();
+        SeekTableBuilder builder = new SeekTableBuilder(new Id3ReaderTest.ByteSource(file));
+        SeekTable table = builder.readHeader(audioStart, file.length, INTERVAL);
+
+        assertFalse(table.isExact());
+        assertEquals(Mp3Fixture.durationMs(FRAMES), table.getDurationMs());
+        // the header is in the first frame; one chunk of the file is read
+        assertTrue(builder.getBytesRead() <= 64 * 1024);
+        assertTrue(file.length > 4 * 64 * 1024);
+        long[] offsets = fixture.frameOffsets();
+        long audioBytes = file.length - audioStart;
+        for (long time = 0; time < table.getDurationMs(); time += 1000) {
+            long expected = offsets[frameAt(time)];
+            long offset = table.offsetFor(time);
+            // a 256th of the file per percent of the duration, and at most one frame more
+            assertTrue("at " + time, Math.abs(offset - expected) <= audioBytes / 256 + 1045);
+            long aligned = builder.align(offset);
+            assertTrue(Arrays.binarySearch(offsets, aligned) >= 0);
+        }
+    }
+
+    @Test
+    public void vbriTableOfContentsGivesCloseOffsets() throws Exception {
+        Mp3Fixture fixture = new Mp3Fixture(0).vbr(5, 9, 14, 11).vbri().audioFrames(FRAMES);
+        SeekTable table = readHeader(fixture.build());
+
+        assertNotNull(table);
+        assertEquals(Mp3Fixture.durationMs(FRAMES), table.getDurationMs());
+        long[] offsets = fixture.frameOffsets();
+        assertEquals(offsets[0], table.offsetFor(0));
+        // exact every 10 frames, interpolated in between
+        for (long time = 0; time < table.getDurationMs(); time += 1000) {
+            long expected = offsets[frameAt(time)];
+            assertTrue("at " + time, Math.abs(table.offsetFor(time) - expected) <= 1045 * 10);
+        }
+    }
+
+    @Test
+    public void noHeaderGivesNoEstimate() throws Exception {
+        assertNull(readHeader(new Mp3Fixture(3).text("TIT2", "Song").audioFrames(50).build()));
+        assertNull(readHeader(new byte[1000]));
+        assertNull(scan(new byte[1000]));
+    }
+
+    @Test
+    public void roundTripsCompactly() throws Exception {
+        SeekTable table = scan(new Mp3Fixture(0).vbr(5, 9, 14, 11).audioFrames(FRAMES).build());
+        byte[] bytes = table.toByteArray();
+        SeekTable read = SeekTable.readFrom(new ByteArrayInputStream(bytes));
+
+        assertEquals(table.size(), read.size());
+        assertEquals(table.getDurationMs(), read.getDurationMs());
+        assertTrue(read.isExact());
+        for (long time = 0; time < table.getDurationMs(); time += INTERVAL) {
+            assertEquals(table.offsetFor(time), read.offsetFor(time));
+        }
+        // two bytes per entry, where a long would take eight
+        assertTrue(bytes.length < 32 + 2 * table.size());
+
+        bytes[0] = 'X';
+        assertNull(SeekTable.readFrom(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void storeKeepsTablesPerRevision() throws Exception {
+        File dir = mFolder.newFolder();
+        SeekTable table = scan(new Mp3Fixture(0).vbr(5, 14).audioFrames(100).build());
+        SeekTableStore store = new SeekTableStore(dir, 1024 * 1024);
+        String key = AudioCache.key("DriveId:abc", 1);
+        store.put(key, table);
+
+        SeekTableStore reopened = new SeekTableStore(dir, 1024 * 1024);
+        assertTrue(reopened.contains(key));
+        assertEquals(table.offsetFor(1000), reopened.get(key).offsetFor(1000));
+        assertNull(reopened.get(AudioCache.key("DriveId:abc", 2)));
+
+        // a damaged file reads as missing
+        FileOutputStream out = new FileOutputStream(new File(dir, key + ".seek"));
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        assertNull(reopened.get(key));
+    }
+}
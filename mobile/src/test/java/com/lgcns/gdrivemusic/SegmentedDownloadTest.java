@@ -0,0 +1,233 @@
+package com.lgcns.gdrivemusic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SegmentedDownloadTest {
+    private static final int SIZE = 8 * 1024 * 1024 + 12345;
+    private static final long SEGMENT = 1024 * 1024;
+    private static final int CONNECTIONS = 3;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final byte[] mData = new byte[SIZE];
+    private String mMd5;
+    private HttpServer mServer;
+    private RangeServer mFiles;
+
+    /**
+     * Serves {@link #mData} with Range support, like Drive's media downloads, and can drop
+     * every connection once it has sent a given number of bytes.
+     */
+    private class RangeServer implements HttpHandler {
+        long mServed;
+        long mCutAfter = -1;
+        /** Latency per 16 KiB chunk, standing in for a network link. */
+        long mChunkDelayMs;
+        int mActive;
+        int mMaxActive;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            synchronized (this) {
+                mActive++;
+                mMaxActive = Math.max(mMaxActive, mActive);
+            }
+            try {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]) + 1;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + SIZE);
+                exchange.sendResponseHeaders(206, end - start);
+                OutputStream out = exchange.getResponseBody();
+                for (int position = start; position < end; ) {
+                    int length = Math.min(16 * 1024, end - position);
+                    synchronized (this) {
+                        if (mCutAfter >= 0 && mServed + length > mCutAfter) {
+                            // drop the connection mid-body
+                            exchange.close();
+                            return;
+                        }
+                        mServed += length;
+                    }
+                    if (mChunkDelayMs > 0) {
+                        try {
+                            Thread.sleep(mChunkDelayMs);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    out.write(mData, position, length);
+                    position += length;
+                }
+                out.close();
+            } finally {
+                synchronized (this) {
+                    mActive--;
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(3).nextBytes(mData);
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(mData)) {
+            hex.append(String.format("%02x", b));
+        }
+        mMd5 = hex.toString();
+
+        mFiles = new RangeServer();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/file", mFiles);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private SegmentedDownload download(File target, String md5) throws Exception {
+        return download(target, md5, CONNECTIONS);
+    }
+
+    private SegmentedDownload download(File target, String md5, int connections) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/file");
+        return new SegmentedDownload(new HttpRangeSource(url, null), SIZE, md5, target, SEGMENT, connections);
+    }
+
+    private long timedRun(SegmentedDownload download) throws IOException {
+        long start = System.nanoTime();
+        download.run();
+        return Math.max(1, (System.nanoTime() - start) / 1000000);
+    }
+
+    @Test
+    public void downloadsSegmentsInParallelAndVerifies() throws Exception {
+        File target = new File(mFolder.getRoot(), "song.mp3");
+        final List<Long> events = new ArrayList<>();
+        SegmentedDownload download = download(target, mMd5);
+        download.setProgress(new ProgressThrottle(100, new ProgressThrottle.Listener() {
+            @Override
+            public void onProgress(long done, long total) {
+                events.add(done);
+            }
+        }));
+
+        mFiles.mChunkDelayMs = 1;
+        long ms = timedRun(download);
+        assertArrayEquals(mData, readAll(target));
+        int maxActive = mFiles.mMaxActive;
+        long served = mFiles.mServed;
+
+        mFiles.mMaxActive = 0;
+        long singleMs = timedRun(download(new File(mFolder.getRoot(), "single.mp3"), mMd5, 1));
+        System.out.println("segmented download: " + SIZE / 1024 + " KiB in " + ms + " ms, "
+                + SIZE / 1024 * 1000 / ms + " KiB/s over " + maxActive + " connections, " + singleMs
+                + " ms over one, " + events.size() + " progress events");
+
+        assertEquals(1, mFiles.mMaxActive);
+        assertTrue(maxActive > 1 && maxActive <= CONNECTIONS);
+        assertEquals(SIZE, served);
+        assertEquals(Long.valueOf(SIZE), events.get(events.size() - 1));
+        // 16 KiB writes would be over 500 updates
+        assertTrue(events.size() < 50);
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".segments").exists());
+    }
+
+    @Test
+    public void resumesWhereAnInterruptedDownloadStopped() throws Exception {
+        File target = new File(mFolder.getRoot(), "song.mp3");
+        mFiles.mCutAfter = SIZE / 2;
+        try {
+            download(target, mMd5).run();
+            fail("the server dropped every connection");
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+        long servedBefore = mFiles.mServed;
+
+        mFiles.mCutAfter = -1;
+        SegmentedDownload resumed = download(target, mMd5);
+        resumed.run();
+
+        assertArrayEquals(mData, readAll(target));
+        // only what the checkpoint did not cover is fetched again; it lags by a checkpoint per connection
+        assertTrue(resumed.getBytesFetched() < SIZE - servedBefore + CONNECTIONS * 256 * 1024);
+        assertTrue(resumed.getBytesFetched() >= SIZE - servedBefore);
+    }
+
+    @Test
+    public void checksumMismatchDiscardsTheDownload() throws Exception {
+        File target = new File(mFolder.getRoot(), "song.mp3");
+        try {
+            download(target, "00000000000000000000000000000000").run();
+            fail("checksum should not match");
+        } catch (IOException expected) {
+        }
+        assertFalse(target.exists());
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".segments").exists());
+    }
+
+    @Test
+    public void throttleCoalescesUpdates() {
+        final List<Long> events = new ArrayList<>();
+        ProgressThrottle throttle = new ProgressThrottle(100, new ProgressThrottle.Listener() {
+            @Override
+            public void onProgress(long done, long total) {
+                events.add(done);
+            }
+        });
+
+        assertTrue(throttle.update(10, 1000, 0));
+        assertFalse(throttle.update(20, 1000, 50));
+        assertFalse(throttle.update(30, 1000, 99));
+        assertTrue(throttle.update(40, 1000, 100));
+        assertFalse(throttle.update(50, 1000, 150));
+        // the end always goes through
+        assertTrue(throttle.update(1000, 1000, 160));
+        assertFalse(throttle.update(1000, 1000, 400));
+        assertEquals(Arrays.asList(10L, 40L, 1000L), events);
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShufflePermutationTest {
+
+    @Test
+    public void visitsEveryValueOnce() {
+        for (int size : new int[]{1, 2, 3, 5, 16, 17, 1000, 4097}) {
+            ShufflePermutation order = new ShufflePermutation(size, 42);
+            boolean[] seen = new boolean[size];
+            for (int position = 0; position < size; position++) {
+                int value = order.get(position);
+                assertFalse(size + ": " + value + " twice", seen[value]);
+                seen[value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void positionOfInvertsGet() {
+        ShufflePermutation order = new ShufflePermutation(100000, -7);
+        for (int position = 0; position < order.size(); position += 37) {
+            assertEquals(position, order.positionOf(order.get(position)));
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameOrder() {
+        ShufflePermutation a = new ShufflePermutation(500, 1234);
+        ShufflePermutation b = new ShufflePermutation(500, 1234);
+        ShufflePermutation c = new ShufflePermutation(500, 1235);
+        int differences = 0;
+        for (int position = 0; position < 500; position++) {
+            assertEquals(a.get(position), b.get(position));
+            if (a.get(position) != c.get(position)) {
+                differences++;
+            }
+        }
+        assertTrue(differences > 450);
+    }
+
+    @Test
+    public void looksShuffled() {
+        ShufflePermutation order = new ShufflePermutation(10000, 99);
+        int inPlace = 0;
+        int ascending = 0;
+        for (int position = 0; position < order.size(); position++) {
+            if (order.get(position) == position) {
+                inPlace++;
+            }
+            if (position > 0 && order.get(position) > order.get(position - 1)) {
+                ascending++;
+            }
+        }
+        assertTrue(inPlace < 10);
+        assertTrue(ascending > 4500 && ascending < 5500);
+    }
+
+    @Test
+    public void handlesTheLargestLibraries() {
+        ShufflePermutation order = new ShufflePermutation(Integer.MAX_VALUE, 5);
+        int value = order.get(Integer.MAX_VALUE - 1);
+        assertTrue(value >= 0);
+        assertEquals(Integer.MAX_VALUE - 1, order.positionOf(value));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsPositionsOutsideTheOrder() {
+        new ShufflePermutation(10, 0).get(10);
+    }
+}
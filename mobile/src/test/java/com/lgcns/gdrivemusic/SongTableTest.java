@@ -0,0 +1,129 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SongTableTest {
+    private static final int LIBRARY_SIZE = 50000;
+
+    @Test
+    public void rowsReadBackAsSongs() {
+        Song full = new Song("id-1", "Title", "Artist", "Album", "Jazz", "content://large", "content://small", 1234L);
+        full.setTrackNumber(3);
+        full.setDuration(180000L);
+        full.setSize(4000000L);
+        Song empty = new Song("id-2", null, null, null, null, null, null, 5L);
+        SongTable table = SongTable.of(Arrays.asList(full, empty));
+
+        assertEquals(2, table.size());
+        Song song = table.getSong(table.indexOf("id-1"));
+        assertEquals("id-1", song.getuId());
+        assertEquals("Title", song.getTitle());
+        assertEquals("Artist", song.getArtist());
+        assertEquals("Album", song.getAlbum());
+        assertEquals("Jazz", song.getGenre());
+        assertEquals("content://large", song.getAlbumUrl());
+        assertEquals("content://small", song.getThumbnailUrl());
+        assertEquals(1234L, song.getModified());
+        assertEquals(3, song.getTrackNumber());
+        assertEquals(180000L, song.getDuration());
+        assertEquals(4000000L, song.getSize());
+
+        song = table.asList().get(1);
+        assertEquals("id-2", song.getuId());
+        assertNull(song.getTitle());
+        assertNull(song.getArtist());
+        assertNull(song.getThumbnailUrl());
+        assertEquals(-1, table.indexOf("id-3"));
+        assertEquals(-1, table.indexOf("id-"));
+    }
+
+    @Test
+    public void sharesRepeatedStringsAndItsOwnList() {
+        List<Song> songs = library(1000, new Random(1));
+        SongTable table = SongTable.of(songs);
+
+        // one dictionary entry per distinct artist, album, genre and artwork uri
+        assertTrue(table.dictionarySize() < 50 + 200 + 20 + 2 * 200);
+        assertSame(table.asList().get(10).getArtist(), table.asList().get(10).getArtist());
+        assertSame(table, SongTable.of(table.asList()));
+        assertEquals(table.fingerprint(10), SongTable.fingerprint(songs.get(10)));
+        for (int row = 0; row < songs.size(); row++) {
+            assertEquals(row, table.indexOf(songs.get(row).getuId()));
+        }
+
+        SongTable.Builder builder = new SongTable.Builder(0);
+        builder.add(table, 7);
+        Song copy = builder.build().getSong(0);
+        assertEquals(songs.get(7).getuId(), copy.getuId());
+        assertEquals(songs.get(7).getTitle(), copy.getTitle());
+        assertEquals(songs.get(7).getThumbnailUrl(), copy.getThumbnailUrl());
+    }
+
+    /**
+     * Compares the heap held by a catalog of song objects, as it was kept before, with the
+     * same songs in a table. Strings are separate instances per song, as they are when parsed
+     * from a query result, tags and artwork uris.
+     */
+    @Test
+    public void tableTakesAFractionOfTheHeap() {
+        long base = usedHeap();
+        List<Song> songs = library(LIBRARY_SIZE, new Random(2));
+        Map<String, Song> byId = new HashMap<>(songs.size() * 2);
+        for (Song song : songs) {
+            byId.put(song.getuId(), song);
+        }
+        long objectsBytes = usedHeap() - base;
+
+        SongTable table = SongTable.of(songs);
+        songs = null;
+        byId = null;
+        long tableBytes = usedHeap() - base;
+
+        System.out.println("song table: " + objectsBytes / LIBRARY_SIZE + " bytes per song as objects, "
+                + tableBytes / LIBRARY_SIZE + " as a table, " + table.dictionarySize() + " shared strings");
+        assertEquals(LIBRARY_SIZE, table.size());
+        assertTrue("table took " + tableBytes + " bytes", tableBytes * 2 < objectsBytes);
+    }
+
+    /**
+     * Songs as a sync would produce them: Drive ids, titles and per-album tags and artwork.
+     */
+    private static List<Song> library(int size, Random random) {
+        List<Song> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int album = random.nextInt(size / 5);
+            String albumName = "Album number " + album;
+            Song song = new Song(String.format("DriveId:CAESHDBCMnNLZ%08d", i), "Track title " + i,
+                    "Artist name " + album % (size / 20), albumName, "Genre " + album % 20,
+                    "content://com.lgcns.gdrivemusic.artwork/large/" + albumName,
+                    "content://com.lgcns.gdrivemusic.artwork/small/" + albumName, 1400000000000L + i);
+            song.setTrackNumber(i % 12 + 1);
+            song.setDuration(200000L);
+            song.setSize(5000000L);
+            songs.add(song);
+        }
+        return songs;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
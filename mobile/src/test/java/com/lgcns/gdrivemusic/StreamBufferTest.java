@@ -0,0 +1,166 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StreamBufferTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Hands out {@code chunk} bytes at a time, sleeping between chunks like a slow mobile link.
+     */
+    private static class ThrottledInputStream extends InputStream {
+        private final byte[] mData;
+        private final int mChunk;
+        private final long mDelayMs;
+        private int mPosition;
+
+        ThrottledInputStream(byte[] data, int chunk, long delayMs) {
+            mData = data;
+            mChunk = chunk;
+            mDelayMs = delayMs;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mPosition >= mData.length) {
+                return -1;
+            }
+            try {
+                Thread.sleep(mDelayMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            int count = Math.min(Math.min(length, mChunk), mData.length - mPosition);
+            System.arraycopy(mData, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private StreamBuffer fillInBackground(final byte[] data, int chunk, long delayMs) throws IOException {
+        final StreamBuffer buffer = new StreamBuffer(mFolder.newFile(), data.length);
+        final InputStream in = new ThrottledInputStream(data, chunk, delayMs);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.fill(in);
+            }
+        }).start();
+        return buffer;
+    }
+
+    @Test
+    public void playbackStartsBeforeDownloadCompletes() throws Exception {
+        byte[] data = data(512 * 1024);
+        StreamBuffer buffer = fillInBackground(data, 8 * 1024, 5);
+
+        long start = System.nanoTime();
+        assertTrue(buffer.awaitInitial(64 * 1024));
+        long initialMs = (System.nanoTime() - start) / 1000000;
+        System.out.println("stream buffer: initial 64 KiB ready after " + initialMs + " ms, "
+                + buffer.getAvailable() + " of " + data.length + " bytes downloaded");
+
+        assertTrue(buffer.getAvailable() < data.length);
+        buffer.close();
+    }
+
+    @Test
+    public void readerOvertakingDownloadBlocksAndGetsEveryByte() throws Exception {
+        byte[] data = data(200 * 1024);
+        StreamBuffer buffer = fillInBackground(data, 4 * 1024, 2);
+        final AtomicInteger underruns = new AtomicInteger();
+        final AtomicInteger rebuffers = new AtomicInteger();
+        buffer.setListener(new StreamBuffer.Listener() {
+            @Override
+            public void onUnderrun(long position) {
+                underruns.incrementAndGet();
+            }
+
+            @Override
+            public void onRebuffered(long position) {
+                rebuffers.incrementAndGet();
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[10000];
+        long position = 0;
+        int read;
+        while ((read = buffer.readAt(position, chunk, 0, chunk.length)) != -1) {
+            out.write(chunk, 0, read);
+            position += read;
+        }
+
+        assertArrayEquals(data, out.toByteArray());
+        assertTrue(underruns.get() > 0);
+        assertEquals(underruns.get(), rebuffers.get());
+        assertEquals(underruns.get(), buffer.getUnderrunCount());
+        buffer.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void failedDownloadSurfacesToReader() throws Exception {
+        StreamBuffer buffer = new StreamBuffer(mFolder.newFile(), -1);
+        buffer.append(new byte[10], 0, 10);
+        buffer.finish(new IOException("connection reset"));
+
+        byte[] chunk = new byte[10];
+        assertEquals(10, buffer.readAt(0, chunk, 0, 10));
+        buffer.readAt(10, chunk, 0, 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void closeWakesBlockedReader() throws Exception {
+        final StreamBuffer buffer = new StreamBuffer(mFolder.newFile(), -1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    buffer.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }).start();
+
+        buffer.readAt(0, new byte[10], 0, 10);
+    }
+
+    @Test
+    public void failureAndCloseEndTheInitialWaitDifferently() throws Exception {
+        StreamBuffer failed = new StreamBuffer(mFolder.newFile(), -1);
+        failed.append(new byte[10], 0, 10);
+        failed.finish(new IOException("connection reset"));
+        assertFalse(failed.awaitInitial(1000));
+        assertFalse(failed.isClosed());
+
+        StreamBuffer closed = new StreamBuffer(mFolder.newFile(), -1);
+        closed.close();
+        assertFalse(closed.awaitInitial(1000));
+        assertTrue(closed.isClosed());
+    }
+}
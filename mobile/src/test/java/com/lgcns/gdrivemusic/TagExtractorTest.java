@@ -0,0 +1,255 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TagExtractorTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final ConcurrentHashMap<String, SongTags> mExtracted = new ConcurrentHashMap<>();
+
+    private final TagExtractor.Listener mListener = new TagExtractor.Listener() {
+        @Override
+        public void onExtracted(Song song, SongTags tags) {
+            mExtracted.put(song.getuId(), tags);
+        }
+    };
+
+    private static Song song(String id, long revision) {
+        return new Song(id, id, null, null, null, null, null, revision);
+    }
+
+    /**
+     * Opens the fixture file named after the song id.
+     */
+    private TagExtractor.SourceOpener fileOpener() {
+        return new TagExtractor.SourceOpener() {
+            @Override
+            public Id3Reader.Source open(Song song) throws IOException {
+                return new Id3Reader.FileSource(new File(mFolder.getRoot(), song.getuId() + ".mp3"));
+            }
+        };
+    }
+
+    @Test
+    public void extractsCorpusReadingOnlyHeaders() throws Exception {
+        int count = 300;
+        long corpusBytes = 0;
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File file = new Mp3Fixture(i % 2 == 0 ? 3 : 4)
+                    .text("TIT2", "Title " + i)
+                    .picture(64 * 1024)
+                    .text("TPE1", "Artist " + (i % 20))
+                    .text("TALB", "Album " + (i % 40))
+                    .text("TCON", "(" + (i % 80) + ")")
+                    .text("TRCK", Integer.toString(i % 12 + 1))
+                    .padding(1024)
+                    .audioFrames(500)
+                    .writeTo(new File(mFolder.getRoot(), "id" + i + ".mp3"));
+            corpusBytes += file.length();
+            songs.add(song("id" + i, 1));
+        }
+
+        TagExtractor extractor = new TagExtractor(4, 16, new TagCache(mFolder.newFile("tags.bin")),
+                fileOpener(), mListener);
+        long start = System.nanoTime();
+        for (Song song : songs) {
+            assertTrue(extractor.submit(song));
+        }
+        extractor.awaitIdle();
+        long elapsedNanos = System.nanoTime() - start;
+        extractor.shutdown();
+
+        long bytesPerFile = extractor.getBytesRead() / count;
+        System.out.println("tag extraction: " + count + " files in " + elapsedNanos / 1000000 + " ms, "
+                + count * 1000000000L / Math.max(1, elapsedNanos) + " files/s, " + bytesPerFile
+                + " bytes read per file of " + corpusBytes / count);
+
+        assertEquals(count, extractor.getParsedCount());
+        assertEquals(0, extractor.getFailedCount());
+        assertEquals(count, mExtracted.size());
+        assertEquals("Artist 7", mExtracted.get("id27").artist);
+        assertEquals(4, mExtracted.get("id27").trackNumber);
+        assertTrue(mExtracted.get("id27").durationMs > 0);
+        assertTrue("read " + bytesPerFile + " bytes per file", bytesPerFile < 8 * 1024);
+    }
+
+    @Test
+    public void submitBlocksWhilePipelineIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger opened = new AtomicInteger();
+        TagExtractor.SourceOpener blocking = new TagExtractor.SourceOpener() {
+            @Override
+            public Id3Reader.Source open(Song song) throws IOException {
+                opened.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new Id3ReaderTest.ByteSource(new byte[0]);
+            }
+        };
+        final TagExtractor extractor = new TagExtractor(1, 2, new TagCache(mFolder.newFile("tags.bin")),
+                blocking, mListener);
+
+        final AtomicInteger submitted = new AtomicInteger();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 5; i++) {
+                        extractor.submit(song("id" + i, 1));
+                        submitted.incrementAndGet();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        producer.start();
+
+        Thread.sleep(200);
+        assertEquals(2, submitted.get());
+        assertEquals(1, opened.get());
+
+        release.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        extractor.awaitIdle();
+        extractor.shutdown();
+        assertEquals(5, submitted.get());
+        assertEquals(5, extractor.getParsedCount());
+    }
+
+    @Test
+    public void skipsRevisionsAlreadyCached() throws Exception {
+        new Mp3Fixture(3).text("TPE1", "Artist").writeTo(new File(mFolder.getRoot(), "a.mp3"));
+        File cacheFile = new File(mFolder.getRoot(), "tags.bin");
+        TagCache cache = new TagCache(cacheFile);
+        TagExtractor extractor = new TagExtractor(1, 4, cache, fileOpener(), mListener);
+
+        assertTrue(extractor.submit(song("a", 1)));
+        extractor.awaitIdle();
+        assertFalse(extractor.submit(song("a", 1)));
+        cache.save();
+        extractor.shutdown();
+
+        TagCache reloaded = new TagCache(cacheFile);
+        reloaded.load();
+        assertEquals("Artist", reloaded.get("a", 1).artist);
+        assertNull(reloaded.get("a", 2));
+
+        TagExtractor next = new TagExtractor(1, 4, reloaded, fileOpener(), mListener);
+        assertFalse(next.submit(song("a", 1)));
+        assertTrue(next.submit(song("a", 2)));
+        next.awaitIdle();
+        next.shutdown();
+        assertEquals(1, next.getParsedCount());
+    }
+
+    @Test
+    public void skipsSongsItCannotReadYet() throws Exception {
+        new Mp3Fixture(3).text("TPE1", "Artist").writeTo(new File(mFolder.getRoot(), "a.mp3"));
+        final AtomicInteger readable = new AtomicInteger();
+        final TagExtractor.SourceOpener files = fileOpener();
+        TagCache cache = new TagCache(mFolder.newFile("tags.bin"));
+        TagExtractor extractor = new TagExtractor(1, 4, cache, new TagExtractor.SourceOpener() {
+            @Override
+            public Id3Reader.Source open(Song song) throws IOException {
+                return readable.get() == 0 ? null : files.open(song);
+            }
+        }, mListener);
+
+        assertTrue(extractor.submit(song("a", 1)));
+        extractor.awaitIdle();
+        assertNull(cache.get("a", 1));
+        assertEquals(1, extractor.getSkippedCount());
+        assertEquals(0, extractor.getFailedCount());
+
+        readable.set(1);
+        assertTrue(extractor.submit(song("a", 1)));
+        extractor.awaitIdle();
+        extractor.shutdown();
+        assertEquals("Artist", cache.get("a", 1).artist);
+        assertEquals(1, extractor.getParsedCount());
+    }
+
+    @Test
+    public void readsPicturesOnlyWhenAsked() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            new Mp3Fixture(3).text("TALB", "Album " + (i % 2)).picture(1024)
+                    .writeTo(new File(mFolder.getRoot(), "id" + i + ".mp3"));
+        }
+        final Set<String> albums = new HashSet<>();
+        final AtomicInteger pictures = new AtomicInteger();
+        TagExtractor extractor = new TagExtractor(2, 4, new TagCache(mFolder.newFile("tags.bin")),
+                fileOpener(), mListener);
+        extractor.setPictureSink(new TagExtractor.PictureSink() {
+            @Override
+            public boolean wants(SongTags tags) {
+                synchronized (albums) {
+                    return albums.add(tags.album);
+                }
+            }
+
+            @Override
+            public void onPicture(SongTags tags, Id3Reader.Picture picture) {
+                if (picture != null) {
+                    pictures.incrementAndGet();
+                }
+            }
+        });
+
+        for (int i = 0; i < 6; i++) {
+            extractor.submit(song("id" + i, 1));
+        }
+        extractor.awaitIdle();
+        extractor.shutdown();
+
+        assertEquals(2, pictures.get());
+        assertEquals(6, extractor.getParsedCount());
+    }
+
+    @Test
+    public void copiesTakeTheTagsOfTheFirstParsed() throws Exception {
+        new Mp3Fixture(3).text("TIT2", "Same").audioFrames(10).writeTo(new File(mFolder.getRoot(), "a.mp3"));
+        TagCache cache = new TagCache(mFolder.newFile("tags.bin"));
+        TagExtractor extractor = new TagExtractor(1, 4, cache, fileOpener(), mListener);
+        extractor.setContentKeys(new TagExtractor.ContentKeys() {
+            @Override
+            public String contentKey(Song song) {
+                return song.getuId().equals("other") ? null : "content";
+            }
+        });
+
+        assertTrue(extractor.submit(song("a", 1)));
+        extractor.awaitIdle();
+        // no file behind these ids; only "b" has a copy parsed before
+        assertTrue(extractor.submit(song("b", 1)));
+        assertTrue(extractor.submit(song("other", 1)));
+        extractor.awaitIdle();
+        extractor.shutdown();
+
+        assertEquals("Same", mExtracted.get("b").title);
+        assertEquals("Same", cache.get("b", 1).title);
+        assertFalse(mExtracted.containsKey("other"));
+        assertEquals(1, extractor.getParsedCount());
+        assertEquals(1, extractor.getSharedCount());
+        assertEquals(1, extractor.getFailedCount());
+    }
+}
@@ -0,0 +1,40 @@
+package com.lgcns.gdrivemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void allowsABurstThenTheRate() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertTrue(bucket.tryTake(0));
+        assertFalse(bucket.tryTake(0));
+        assertEquals(100, bucket.delayUntilAvailable(0));
+
+        assertFalse(bucket.tryTake(99));
+        assertTrue(bucket.tryTake(100));
+        assertFalse(bucket.tryTake(150));
+        assertEquals(50, bucket.delayUntilAvailable(150));
+    }
+
+    @Test
+    public void doesNotSaveMoreThanItsCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertEquals(0, bucket.delayUntilAvailable(60000));
+        assertTrue(bucket.tryTake(60000));
+        assertTrue(bucket.tryTake(60000));
+        assertFalse(bucket.tryTake(60000));
+    }
+
+    @Test
+    public void ignoresTimeGoingBackwards() {
+        TokenBucket bucket = new TokenBucket(10, 1, 1000);
+        assertTrue(bucket.tryTake(1000));
+        assertFalse(bucket.tryTake(500));
+        assertTrue(bucket.tryTake(1100));
+    }
+}